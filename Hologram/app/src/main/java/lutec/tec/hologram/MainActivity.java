@@ -4,12 +4,43 @@ import android.app.Activity;
 import android.app.ActivityManager;
 import android.content.Context;
 import android.content.pm.ConfigurationInfo;
+import android.os.Build;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.Gravity;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
 import lutec.tec.hologram.OPENGL.MyGLRenderer;
 import lutec.tec.hologram.OPENGL.MyGLSurfaceView;
+import lutec.tec.hologram.OPENGL.ProfilerOverlay;
+
+import java.util.Locale;
 
 public class MainActivity extends Activity {
+    private static final String TAG = "MainActivity";
+
+    /**
+     * Names a {@link MyGLRenderer.VertexFormat} to load models in, to compare
+     * vertex layouts on a device without rebuilding:
+     * adb shell am start -n lutec.tec.hologram/.MainActivity --es vertexFormat separate
+     */
+    public static final String EXTRA_VERTEX_FORMAT = "vertexFormat";
+
+    /**
+     * Set to draw the scene once and composite it into every face, see
+     * {@link MyGLRenderer#setCompositeViews}:
+     * adb shell am start -n lutec.tec.hologram/.MainActivity --ez compositeViews true
+     */
+    public static final String EXTRA_COMPOSITE_VIEWS = "compositeViews";
+
+    /**
+     * Set to false to always draw at full resolution, see
+     * {@link MyGLRenderer#setAdaptiveResolution}:
+     * adb shell am start -n lutec.tec.hologram/.MainActivity --ez adaptiveResolution false
+     */
+    public static final String EXTRA_ADAPTIVE_RESOLUTION = "adaptiveResolution";
+
     private MyGLSurfaceView glSurfaceView;
     private MyGLRenderer renderer;
 
@@ -19,23 +50,48 @@ public class MainActivity extends Activity {
 
         glSurfaceView = new MyGLSurfaceView(this);
 
-        setContentView(glSurfaceView);
+        final FrameLayout content = new FrameLayout(this);
+        content.addView(glSurfaceView);
+        setContentView(content);
 
         // Check if the system supports OpenGL ES 2.0.
         final ActivityManager activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
         final ConfigurationInfo configurationInfo = activityManager.getDeviceConfigurationInfo();
         final boolean supportsEs2 = configurationInfo.reqGlEsVersion >= 0x20000;
 
+        // ES 3.0 lets the renderer draw all views at once; its Java bindings
+        // need API 18.
+        final boolean supportsEs3 = configurationInfo.reqGlEsVersion >= 0x30000
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
         if (supportsEs2) {
-            // Request an OpenGL ES 2.0 compatible context.
-            glSurfaceView.setEGLContextClientVersion(2);
+            // Request an OpenGL ES 3.0 context where there is one; it runs
+            // the ES 2.0 shaders as well.
+            glSurfaceView.setEGLContextClientVersion(supportsEs3 ? 3 : 2);
 
             final DisplayMetrics displayMetrics = new DisplayMetrics();
             getWindowManager().getDefaultDisplay().getMetrics(displayMetrics);
 
             // Set the renderer to our demo renderer, defined below.
-            renderer = new MyGLRenderer(this, glSurfaceView);
+            renderer = new MyGLRenderer(this, glSurfaceView, supportsEs3);
+            final String vertexFormat = getIntent().getStringExtra(EXTRA_VERTEX_FORMAT);
+            if (vertexFormat != null) {
+                try {
+                    renderer.setVertexFormat(MyGLRenderer.VertexFormat.valueOf(vertexFormat.toUpperCase(Locale.US)));
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Unknown vertex format " + vertexFormat);
+                }
+            }
+            renderer.setCompositeViews(getIntent().getBooleanExtra(EXTRA_COMPOSITE_VIEWS, false));
+            renderer.setAdaptiveResolution(getIntent().getBooleanExtra(EXTRA_ADAPTIVE_RESOLUTION, true));
             glSurfaceView.setRenderer(renderer, displayMetrics.density);
+
+            // Debug builds show where frame time goes; long press it to save the frames.
+            if (BuildConfig.DEBUG) {
+                content.addView(new ProfilerOverlay(this, renderer.getProfiler(), glSurfaceView.getScheduler()),
+                        new FrameLayout.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT,
+                                ViewGroup.LayoutParams.WRAP_CONTENT, Gravity.TOP | Gravity.START));
+            }
         } else {
             // This is where you could create an OpenGL ES 1.x compatible
             // renderer if you wanted to support both ES 1 and ES 2.
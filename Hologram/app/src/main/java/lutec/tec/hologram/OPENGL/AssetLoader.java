@@ -0,0 +1,328 @@
+package lutec.tec.hologram.OPENGL;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLSurfaceView;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import lutec.tec.hologram.obj.MeshBvh;
+import lutec.tec.hologram.obj.MeshCache;
+import lutec.tec.hologram.obj.MeshQuantizer;
+import lutec.tec.hologram.obj.Model;
+import lutec.tec.hologram.obj.Quantization;
+import lutec.tec.hologram.obj.VertexLayout;
+
+import lutec.tec.hologram.OPENGL.ErrorHandler.ErrorType;
+
+/**
+ * Loads meshes and bitmaps away from the GL thread.
+ *
+ * Parsing, cache lookups and bitmap decoding run on a background thread. The
+ * finished asset, with its direct buffers already filled, is then handed to
+ * the GL thread through {@link GLSurfaceView#queueEvent}, where only the
+ * actual upload is left to do. Failures are reported to the ErrorHandler.
+ */
+class AssetLoader
+{
+    private static final String TAG = "AssetLoader";
+
+    /**
+     * Suffixes of the compressed variants of a texture, best first, and the
+     * family each must be in. See tools/encode_textures.sh.
+     */
+    private static final String[] TEXTURE_VARIANTS = { ".astc.ktx", ".etc2.ktx", ".etc1.ktx", ".pkm" };
+    private static final int[] TEXTURE_VARIANT_FAMILIES = { CompressedTexture.ASTC, CompressedTexture.ETC2,
+            CompressedTexture.ETC1, CompressedTexture.ETC1 };
+
+    /** Receives a loaded asset on the GL thread. */
+    interface Callback<T>
+    {
+        void onLoaded(T asset);
+    }
+
+    private final Context context;
+    private final GLSurfaceView surfaceView;
+    private final ErrorHandler errorHandler;
+    private final MeshCache meshCache;
+    private final MeshQuantizer quantizer = new MeshQuantizer();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    });
+
+    AssetLoader(Context context, GLSurfaceView surfaceView, ErrorHandler errorHandler)
+    {
+        this.context = context.getApplicationContext();
+        this.surfaceView = surfaceView;
+        this.errorHandler = errorHandler;
+        this.meshCache = new MeshCache(new File(context.getCacheDir(), "meshes"));
+    }
+
+    /**
+     * Loads an OBJ asset (through the mesh cache), lays out its vertices in
+     * {@code format} and fills its buffers. Quantized models whose normals
+     * cannot be packed are interleaved instead.
+     *
+     * @param intIndices whether the context draws GL_UNSIGNED_INT indices;
+     *        without them, meshes too large for short indices are expanded.
+     */
+    void loadModel(final String assetName, final MyGLRenderer.VertexFormat format, final boolean intIndices,
+                   final Callback<Model> callback)
+    {
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    final InputStream file = context.getAssets().open(assetName);
+                    final long key = MeshCache.key(assetLength(assetName, file),
+                            new File(context.getApplicationInfo().sourceDir).lastModified());
+                    final Model model = meshCache.load(assetName, key, file, true);
+                    if (model.getOptimizationStats() != null)
+                    {
+                        Log.d(TAG, assetName + ": " + model.getOptimizationStats());
+                    }
+                    if (!intIndices && model.needsIntIndices())
+                    {
+                        Log.w(TAG, assetName + " needs 32-bit indices, which the context cannot draw; expanding it");
+                        model.expandIndices();
+                    }
+                    if (format != MyGLRenderer.VertexFormat.SEPARATE)
+                    {
+                        final Quantization quantization = format == MyGLRenderer.VertexFormat.QUANTIZED
+                                ? quantizer.quantize(model) : null;
+                        if (quantization == null)
+                        {
+                            model.setVertexLayout(VertexLayout.INTERLEAVED);
+                        }
+                    }
+                    model.load();
+                    MeshBvh.build(model);
+                    Log.d(TAG, assetName + ": " + model.getNumObjectVertex() + " vertices, "
+                            + model.getNumObjectIndex() + (model.isIndexed() ? " indices, " : " corners, ")
+                            + model.getLodCount() + " levels of detail, "
+                            + model.getVertexLayout().getVertexSize() + " bytes per vertex");
+                    deliver(callback, model);
+                }
+                catch (Exception e)
+                {
+                    fail(assetName, e);
+                }
+            }
+        });
+    }
+
+    /** Decodes a drawable resource at its original size. */
+    void loadBitmap(final int resourceId, final Callback<Bitmap> callback)
+    {
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    final BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inScaled = false;	// No pre-scaling
+
+                    final Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+                    if (bitmap == null)
+                    {
+                        throw new IllegalArgumentException("cannot decode resource " + resourceId);
+                    }
+                    deliver(callback, bitmap);
+                }
+                catch (Exception e)
+                {
+                    fail(context.getResources().getResourceEntryName(resourceId), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Maps the best compressed variant of the texture at {@code assetPath}
+     * (an asset path without suffix) that the context can sample. Delivers
+     * null if there is none or it cannot be read, so the caller can fall back
+     * to decoding a bitmap.
+     *
+     * @param support from {@link CompressedTexture#querySupport(boolean)}.
+     */
+    void loadCompressedTexture(final String assetPath, final int support, final Callback<CompressedTexture> callback)
+    {
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                CompressedTexture texture = null;
+                final String path = findTextureVariant(assetPath, support);
+                if (path != null)
+                {
+                    try
+                    {
+                        texture = CompressedTexture.parse(map(path), path);
+                        if (!texture.isSupported(support))
+                        {
+                            throw new IOException("the context cannot sample its format");
+                        }
+                        Log.d(TAG, texture.toString());
+                    }
+                    catch (Exception e)
+                    {
+                        Log.w(TAG, "Could not load " + path + ", falling back to the bitmap", e);
+                        texture = null;
+                    }
+                }
+                deliver(callback, texture);
+            }
+        });
+    }
+
+    private String findTextureVariant(String assetPath, int support)
+    {
+        final int slash = assetPath.lastIndexOf('/');
+        final String directory = slash >= 0 ? assetPath.substring(0, slash) : "";
+        final String name = assetPath.substring(slash + 1);
+        final List<String> files;
+        try
+        {
+            files = Arrays.asList(context.getAssets().list(directory));
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+
+        for (int i = 0; i < TEXTURE_VARIANTS.length; i++)
+        {
+            if (CompressedTexture.isSupported(TEXTURE_VARIANT_FAMILIES[i], support)
+                    && files.contains(name + TEXTURE_VARIANTS[i]))
+            {
+                return assetPath + TEXTURE_VARIANTS[i];
+            }
+        }
+        return null;
+    }
+
+    /** Length of an asset in bytes, without reading it. */
+    private long assetLength(String path, InputStream in) throws IOException
+    {
+        final AssetFileDescriptor descriptor;
+        try
+        {
+            descriptor = context.getAssets().openFd(path);
+        }
+        catch (FileNotFoundException e)
+        {
+            // Compressed in the APK; its stream still knows the uncompressed length.
+            return in.available();
+        }
+        try
+        {
+            return descriptor.getLength();
+        }
+        finally
+        {
+            descriptor.close();
+        }
+    }
+
+    /**
+     * Maps an asset into memory. Only assets stored uncompressed in the APK
+     * can be mapped (see aaptOptions in the app's build.gradle); others are
+     * read into a direct buffer.
+     */
+    private ByteBuffer map(String path) throws IOException
+    {
+        final AssetFileDescriptor descriptor;
+        try
+        {
+            descriptor = context.getAssets().openFd(path);
+        }
+        catch (FileNotFoundException e)
+        {
+            return read(path);
+        }
+
+        // The mapping stays valid after the stream, and the descriptor with it, is closed.
+        final FileInputStream in = descriptor.createInputStream();
+        try
+        {
+            return in.getChannel().map(FileChannel.MapMode.READ_ONLY, descriptor.getStartOffset(),
+                    descriptor.getLength());
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private ByteBuffer read(String path) throws IOException
+    {
+        final InputStream in = context.getAssets().open(path);
+        try
+        {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(in.available());
+            final byte[] chunk = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(chunk)) != -1)
+            {
+                if (buffer.remaining() < read)
+                {
+                    throw new IOException(path + " is longer than reported.");
+                }
+                buffer.put(chunk, 0, read);
+            }
+            buffer.flip();
+            return buffer;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private <T> void deliver(final Callback<T> callback, final T asset)
+    {
+        surfaceView.queueEvent(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                callback.onLoaded(asset);
+            }
+        });
+    }
+
+    private void fail(String assetName, Exception e)
+    {
+        Log.e(TAG, "Could not load " + assetName, e);
+        errorHandler.handleError(ErrorType.ASSET_LOAD_ERROR, assetName + " (" + e.getMessage() + ")");
+    }
+}
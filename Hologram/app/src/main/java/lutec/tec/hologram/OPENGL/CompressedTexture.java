@@ -0,0 +1,319 @@
+package lutec.tec.hologram.OPENGL;
+
+import android.opengl.GLES20;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A texture encoded offline into a format the GPU samples directly, with its
+ * mip levels, read from a KTX (version 1) or PKM container.
+ *
+ * The levels are views into the container's buffer, which is best a mapping
+ * of the asset, so neither parsing nor uploading copies or decodes pixels.
+ * The buffer is kept for as long as this object, so the texture can be
+ * uploaded again after the context is lost.
+ */
+public class CompressedTexture
+{
+    /** Format families, as flags for {@link #querySupport(boolean)}. */
+    public static final int ETC1 = 1;
+    public static final int ETC2 = 2;
+    public static final int ASTC = 4;
+
+    /** From OES_compressed_ETC1_RGB8_texture. */
+    private static final int GL_ETC1_RGB8_OES = 0x8D64;
+
+    /** ES 3.0 has the ETC2 and EAC formats from GL_COMPRESSED_R11_EAC to GL_COMPRESSED_SRGB8_ALPHA8_ETC2_EAC. */
+    private static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274;
+    private static final int FIRST_ETC2_FORMAT = 0x9270;
+    private static final int LAST_ETC2_FORMAT = 0x9279;
+
+    /** KHR_texture_compression_astc_ldr, the RGBA and then the sRGB block sizes from 4x4 to 12x12. */
+    private static final int FIRST_ASTC_FORMAT = 0x93B0;
+    private static final int LAST_ASTC_FORMAT = 0x93BD;
+    private static final int FIRST_ASTC_SRGB_FORMAT = 0x93D0;
+    private static final int LAST_ASTC_SRGB_FORMAT = 0x93DD;
+
+    private static final byte[] KTX_IDENTIFIER = { (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n',
+            0x1A, '\n' };
+    private static final int KTX_HEADER_SIZE = 64;
+    private static final int KTX_ENDIANNESS = 0x04030201;
+
+    private static final int PKM_HEADER_SIZE = 16;
+    private static final int PKM_ETC1_RGB_NO_MIPMAPS = 0;
+
+    private final String name;
+    private final int internalFormat;
+    private final int width;
+    private final int height;
+    private final ByteBuffer data;
+    private final int[] levelOffsets;
+    private final int[] levelSizes;
+
+    private CompressedTexture(String name, int internalFormat, int width, int height, ByteBuffer data,
+            int[] levelOffsets, int[] levelSizes)
+    {
+        this.name = name;
+        this.internalFormat = internalFormat;
+        this.width = width;
+        this.height = height;
+        this.data = data;
+        this.levelOffsets = levelOffsets;
+        this.levelSizes = levelSizes;
+    }
+
+    /**
+     * The format families the current context can sample, as flags. Must be
+     * called on the GL thread.
+     */
+    public static int querySupport(boolean es3Context)
+    {
+        final String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        int support = es3Context ? ETC2 : 0;
+        if (extensions != null)
+        {
+            if (extensions.contains("GL_OES_compressed_ETC1_RGB8_texture"))
+            {
+                support |= ETC1;
+            }
+            if (extensions.contains("GL_KHR_texture_compression_astc_ldr"))
+            {
+                support |= ASTC;
+            }
+        }
+        return support;
+    }
+
+    /** The family of a compressed GL format, or 0 for formats this class does not know. */
+    public static int getFamily(int internalFormat)
+    {
+        if (internalFormat == GL_ETC1_RGB8_OES)
+        {
+            return ETC1;
+        }
+        if (internalFormat >= FIRST_ETC2_FORMAT && internalFormat <= LAST_ETC2_FORMAT)
+        {
+            return ETC2;
+        }
+        if ((internalFormat >= FIRST_ASTC_FORMAT && internalFormat <= LAST_ASTC_FORMAT)
+                || (internalFormat >= FIRST_ASTC_SRGB_FORMAT && internalFormat <= LAST_ASTC_SRGB_FORMAT))
+        {
+            return ASTC;
+        }
+        return 0;
+    }
+
+    /**
+     * Reads a KTX or PKM container, told apart by their magic, from the
+     * buffer's position to its limit. {@code name} is for messages.
+     */
+    public static CompressedTexture parse(ByteBuffer buffer, String name) throws IOException
+    {
+        final ByteBuffer data = buffer.slice();
+        if (data.remaining() >= KTX_HEADER_SIZE && startsWith(data, KTX_IDENTIFIER))
+        {
+            return parseKtx(data, name);
+        }
+        if (data.remaining() >= PKM_HEADER_SIZE && data.get(0) == 'P' && data.get(1) == 'K' && data.get(2) == 'M'
+                && data.get(3) == ' ')
+        {
+            return parsePkm(data, name);
+        }
+        throw new IOException(name + " is neither a KTX nor a PKM file.");
+    }
+
+    private static boolean startsWith(ByteBuffer data, byte[] magic)
+    {
+        for (int i = 0; i < magic.length; i++)
+        {
+            if (data.get(i) != magic[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** A KTX file holding one compressed 2D image with any number of mip levels. */
+    private static CompressedTexture parseKtx(ByteBuffer data, String name) throws IOException
+    {
+        // The writer's byte order, told by how it wrote the endianness marker.
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        if (data.getInt(12) != KTX_ENDIANNESS)
+        {
+            data.order(ByteOrder.BIG_ENDIAN);
+        }
+        final int glType = data.getInt(16);
+        final int internalFormat = data.getInt(28);
+        final int width = data.getInt(36);
+        final int height = data.getInt(40);
+        final int depth = data.getInt(44);
+        final int arrayElements = data.getInt(48);
+        final int faces = data.getInt(52);
+        final int levels = Math.max(1, data.getInt(56));
+        final int keyValueBytes = data.getInt(60);
+
+        if (glType != 0 || getFamily(internalFormat) == 0)
+        {
+            throw new IOException(name + ": format 0x" + Integer.toHexString(internalFormat)
+                    + " is not a known compressed format.");
+        }
+        if (depth > 1 || arrayElements > 0 || faces != 1 || width <= 0 || height <= 0)
+        {
+            throw new IOException(name + ": only single 2D textures are supported.");
+        }
+
+        final int[] offsets = new int[levels];
+        final int[] sizes = new int[levels];
+        int position = KTX_HEADER_SIZE + keyValueBytes;
+        for (int level = 0; level < levels; level++)
+        {
+            if (position < 0 || position + 4 > data.limit())
+            {
+                throw new IOException(name + " ends before mip level " + level + ".");
+            }
+            final int size = data.getInt(position);
+            position += 4;
+            if (size < 0 || position + size > data.limit())
+            {
+                throw new IOException(name + " ends inside mip level " + level + ".");
+            }
+            offsets[level] = position;
+            sizes[level] = size;
+            position += (size + 3) & ~3;
+        }
+        return new CompressedTexture(name, internalFormat, width, height, data, offsets, sizes);
+    }
+
+    /** A PKM file, as written by etc1tool: a single ETC1 level. */
+    private static CompressedTexture parsePkm(ByteBuffer data, String name) throws IOException
+    {
+        data.order(ByteOrder.BIG_ENDIAN);
+        final int type = data.getShort(6) & 0xFFFF;
+        final int paddedWidth = data.getShort(8) & 0xFFFF;
+        final int paddedHeight = data.getShort(10) & 0xFFFF;
+        final int width = data.getShort(12) & 0xFFFF;
+        final int height = data.getShort(14) & 0xFFFF;
+        if (type != PKM_ETC1_RGB_NO_MIPMAPS)
+        {
+            throw new IOException(name + ": PKM type " + type + " is not ETC1.");
+        }
+
+        // Eight bytes per block of 4x4 pixels.
+        final int size = (paddedWidth / 4) * (paddedHeight / 4) * 8;
+        if (width <= 0 || height <= 0 || PKM_HEADER_SIZE + size > data.limit())
+        {
+            throw new IOException(name + " is shorter than its header says.");
+        }
+        return new CompressedTexture(name, GL_ETC1_RGB8_OES, width, height, data, new int[] { PKM_HEADER_SIZE },
+                new int[] { size });
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /** The format the data was encoded in. */
+    public int getInternalFormat()
+    {
+        return internalFormat;
+    }
+
+    public int getFamily()
+    {
+        return getFamily(internalFormat);
+    }
+
+    /** Whether a context with this {@link #querySupport(boolean) support} can sample the texture. */
+    public boolean isSupported(int support)
+    {
+        return isSupported(getFamily(), support);
+    }
+
+    /** Whether a context with this support can sample textures of this family. ETC2 contexts read ETC1. */
+    public static boolean isSupported(int family, int support)
+    {
+        return (family & support) != 0 || (family == ETC1 && (support & ETC2) != 0);
+    }
+
+    /**
+     * The format to pass to glCompressedTexImage2D in a context with this
+     * support. ETC2 decodes ETC1 data unchanged, so ES 3.0 contexts without
+     * the ETC1 extension take it as ETC2.
+     */
+    public int getUploadFormat(int support)
+    {
+        if (getFamily() == ETC1 && (support & ETC1) == 0)
+        {
+            return GL_COMPRESSED_RGB8_ETC2;
+        }
+        return internalFormat;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public int getLevelCount()
+    {
+        return levelSizes.length;
+    }
+
+    /** Size of {@code level}, which halves with each level and stops at one. */
+    public int getLevelWidth(int level)
+    {
+        return Math.max(1, width >> level);
+    }
+
+    public int getLevelHeight(int level)
+    {
+        return Math.max(1, height >> level);
+    }
+
+    /** Whether there is a level for every size down to 1x1, as sampling with mipmaps needs. */
+    public boolean hasCompleteMipChain()
+    {
+        return getLevelWidth(getLevelCount() - 1) == 1 && getLevelHeight(getLevelCount() - 1) == 1;
+    }
+
+    /** The encoded data of {@code level}, as a view from position 0 to its size. */
+    public ByteBuffer getLevel(int level)
+    {
+        final ByteBuffer view = data.duplicate();
+        view.limit(levelOffsets[level] + levelSizes[level]);
+        view.position(levelOffsets[level]);
+        return view.slice();
+    }
+
+    public int getLevelSize(int level)
+    {
+        return levelSizes[level];
+    }
+
+    /** Bytes of all levels, the GPU memory the texture takes. */
+    public int getByteCount()
+    {
+        int bytes = 0;
+        for (int size : levelSizes)
+        {
+            bytes += size;
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + ": " + width + "x" + height + ", format 0x" + Integer.toHexString(internalFormat) + ", "
+                + getLevelCount() + " levels, " + getByteCount() + " bytes";
+    }
+}
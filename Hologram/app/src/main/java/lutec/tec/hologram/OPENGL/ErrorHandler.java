@@ -6,7 +6,8 @@ package lutec.tec.hologram.OPENGL;
 
 interface ErrorHandler {
     enum ErrorType {
-        BUFFER_CREATION_ERROR
+        BUFFER_CREATION_ERROR,
+        ASSET_LOAD_ERROR
     }
 
     void handleError(ErrorType errorType, String cause);
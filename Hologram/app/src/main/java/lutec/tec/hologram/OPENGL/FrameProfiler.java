@@ -0,0 +1,442 @@
+package lutec.tec.hologram.OPENGL;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Records where the time of each frame goes, into a ring of the last
+ * {@link #FRAMES} frames allocated up front.
+ *
+ * CPU time is split into phases: the renderer switches phase as its work
+ * changes, and the time since the last switch goes to the phase that ends.
+ * GPU time per view is measured with EXT_disjoint_timer_query when the
+ * context is ES 3.0 and has it; results arrive a few frames late and are
+ * filled into the frame they belong to. Nothing is recorded while disabled,
+ * unless the GPU time of whole frames is wanted.
+ * Recording happens on the GL thread; summaries and dumps may be taken from
+ * any thread.
+ */
+public class FrameProfiler
+{
+    /** Frames kept, a few seconds at display rate. */
+    public static final int FRAMES = 240;
+
+    /** CPU phases, in the order a frame goes through them. */
+    public static final int INPUT = 0;
+    public static final int UPDATE = 1;
+    public static final int VIEW_SETUP = 2;
+    public static final int SUBMIT = 3;
+    private static final int PHASES = 4;
+
+    /** Columns of a frame record: the phases, then these. Times are in nanoseconds. */
+    public static final int CPU_FRAME = PHASES;
+    public static final int GPU_VIEW = CPU_FRAME + 1;
+    public static final int DRAW_CALLS = GPU_VIEW + HologramLayout.MAX_FACES;
+    public static final int TRIANGLES = DRAW_CALLS + 1;
+    public static final int STATE_CALLS = TRIANGLES + 1;
+    public static final int SAVED_STATE_CALLS = STATE_CALLS + 1;
+    private static final int COLUMNS = SAVED_STATE_CALLS + 1;
+
+    private static final String[] COLUMN_NAMES = { "input_ms", "update_ms", "view_setup_ms", "submit_ms",
+            "cpu_frame_ms", "gpu_view0_ms", "gpu_view1_ms", "gpu_view2_ms", "gpu_view3_ms", "gpu_view4_ms",
+            "gpu_view5_ms", "draw_calls", "triangles", "state_calls", "saved_state_calls" };
+
+    /** From EXT_disjoint_timer_query, which the ES 3.0 query calls accept. */
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    /** Frames of queries in flight before a set is reused. */
+    private static final int QUERY_LATENCY = 4;
+
+    /** One row of COLUMNS per frame; GPU columns stay -1 until measured. */
+    private final long[] records = new long[FRAMES * COLUMNS];
+    private long frameCount;
+
+    /** Sorting space for percentiles. */
+    private final long[] sorted = new long[FRAMES];
+
+    private volatile boolean enabled;
+    private volatile boolean gpuFramesWanted;
+    private boolean recording;
+
+    /** The frame being recorded. */
+    private final long[] current = new long[COLUMNS];
+    private long frameStart;
+    private long phaseStart;
+    private int phase;
+
+    /** Timer queries, QUERY_LATENCY sets of one per view, and the frame each was last issued in. */
+    private boolean gpuTiming;
+    private final int[] queries = new int[QUERY_LATENCY * HologramLayout.MAX_FACES];
+    private final long[] queryFrames = new long[QUERY_LATENCY * HologramLayout.MAX_FACES];
+    private final boolean[] queryPending = new boolean[QUERY_LATENCY * HologramLayout.MAX_FACES];
+    private int activeQuery = -1;
+    private final int[] queryValue = new int[1];
+
+    /** GPU time of each query set's views so far, and of the last frame all of whose views arrived. */
+    private final long[] setNanos = new long[QUERY_LATENCY];
+    private long gpuFrameNanos = -1L;
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /** Keeps timing frames while disabled, for {@link #takeGpuFrameNanos()}. */
+    public void setGpuFramesWanted(boolean gpuFramesWanted)
+    {
+        this.gpuFramesWanted = gpuFramesWanted;
+    }
+
+    /**
+     * Creates the timer queries if the new context can run them. Call from
+     * onSurfaceCreated; queries of a previous context are gone with it.
+     */
+    public void onSurfaceCreated(boolean es3Context)
+    {
+        final String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        gpuTiming = es3Context && extensions != null && extensions.contains("GL_EXT_disjoint_timer_query");
+        Arrays.fill(queryPending, false);
+        Arrays.fill(setNanos, 0L);
+        gpuFrameNanos = -1L;
+        activeQuery = -1;
+        if (gpuTiming)
+        {
+            generateQueries(queries);
+        }
+    }
+
+    /** Whether GPU times are being measured. */
+    public boolean hasGpuTiming()
+    {
+        return gpuTiming;
+    }
+
+    /**
+     * GPU time of every view of the last frame whose results arrived since
+     * the previous call, in nanoseconds, or -1 if none did. The frame is a
+     * few frames old. Call on the GL thread after {@link #beginFrame()}.
+     */
+    public long takeGpuFrameNanos()
+    {
+        final long nanos = gpuFrameNanos;
+        gpuFrameNanos = -1L;
+        return nanos;
+    }
+
+    /** Starts a frame in the {@link #INPUT} phase, and collects timer results that have arrived. */
+    public void beginFrame()
+    {
+        recording = enabled || gpuFramesWanted;
+        if (!recording)
+        {
+            return;
+        }
+        Arrays.fill(current, 0L);
+        Arrays.fill(current, GPU_VIEW, GPU_VIEW + HologramLayout.MAX_FACES, -1L);
+        if (gpuTiming)
+        {
+            collectQueries();
+        }
+        frameStart = System.nanoTime();
+        phaseStart = frameStart;
+        phase = INPUT;
+    }
+
+    /** Ends the running phase and starts {@code next}. */
+    public void phase(int next)
+    {
+        if (!recording || next == phase)
+        {
+            return;
+        }
+        final long now = System.nanoTime();
+        current[phase] += now - phaseStart;
+        phaseStart = now;
+        phase = next;
+    }
+
+    /** Counts one draw call of this many triangles, instances included. */
+    public void countDraw(int triangles)
+    {
+        if (recording)
+        {
+            current[DRAW_CALLS]++;
+            current[TRIANGLES] += triangles;
+        }
+    }
+
+    /** Starts measuring the GPU time of the commands for {@code view}, up to {@link #endGpuView()}. */
+    public void beginGpuView(int view)
+    {
+        if (!recording || !gpuTiming || view >= HologramLayout.MAX_FACES)
+        {
+            return;
+        }
+        activeQuery = (int) (frameCount % QUERY_LATENCY) * HologramLayout.MAX_FACES + view;
+        beginQuery(queries[activeQuery]);
+    }
+
+    public void endGpuView()
+    {
+        if (activeQuery < 0)
+        {
+            return;
+        }
+        endQuery();
+        queryFrames[activeQuery] = frameCount;
+        queryPending[activeQuery] = true;
+        activeQuery = -1;
+    }
+
+    /** Ends the frame and stores it, with the state calls GLState passed on and dropped during it. */
+    public void endFrame(int stateCalls, int savedStateCalls)
+    {
+        if (!recording)
+        {
+            return;
+        }
+        final long now = System.nanoTime();
+        current[phase] += now - phaseStart;
+        current[CPU_FRAME] = now - frameStart;
+        current[STATE_CALLS] = stateCalls;
+        current[SAVED_STATE_CALLS] = savedStateCalls;
+        recording = false;
+
+        synchronized (this)
+        {
+            System.arraycopy(current, 0, records, (int) (frameCount % FRAMES) * COLUMNS, COLUMNS);
+            frameCount++;
+        }
+    }
+
+    /**
+     * Stores the results of queries that are done into their frames. Queries
+     * still pending in the set about to be reused are given up on, as are all
+     * of them if something disturbed the GPU clock meanwhile.
+     */
+    private void collectQueries()
+    {
+        GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, queryValue, 0);
+        final boolean disjoint = queryValue[0] != 0;
+
+        for (int i = 0; i < queries.length; i++)
+        {
+            if (!queryPending[i])
+            {
+                continue;
+            }
+            if (disjoint)
+            {
+                queryPending[i] = false;
+                continue;
+            }
+            getQuery(queries[i], GLES30.GL_QUERY_RESULT_AVAILABLE, queryValue);
+            if (queryValue[0] == 0)
+            {
+                continue;
+            }
+            queryPending[i] = false;
+            getQuery(queries[i], GLES30.GL_QUERY_RESULT, queryValue);
+            final long nanos = queryValue[0] & 0xFFFFFFFFL;
+            final long frame = queryFrames[i];
+            synchronized (this)
+            {
+                if (frameCount - frame <= FRAMES)
+                {
+                    records[(int) (frame % FRAMES) * COLUMNS + GPU_VIEW + i % HologramLayout.MAX_FACES] = nanos;
+                }
+            }
+
+            final int set = i / HologramLayout.MAX_FACES;
+            setNanos[set] += nanos;
+            if (!isPending(set))
+            {
+                gpuFrameNanos = setNanos[set];
+            }
+        }
+
+        final int set = (int) (frameCount % QUERY_LATENCY);
+        final int reused = set * HologramLayout.MAX_FACES;
+        Arrays.fill(queryPending, reused, reused + HologramLayout.MAX_FACES, false);
+        setNanos[set] = 0L;
+    }
+
+    private boolean isPending(int set)
+    {
+        for (int i = set * HologramLayout.MAX_FACES; i < (set + 1) * HologramLayout.MAX_FACES; i++)
+        {
+            if (queryPending[i])
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void generateQueries(int[] queries)
+    {
+        GLES30.glGenQueries(queries.length, queries, 0);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginQuery(int query)
+    {
+        GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, query);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endQuery()
+    {
+        GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+    }
+
+    /** Times up to four seconds fit the 32-bit result, far more than a frame. */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void getQuery(int query, int name, int[] value)
+    {
+        GLES30.glGetQueryObjectuiv(query, name, value, 0);
+    }
+
+    /**
+     * The value of {@code column} at {@code fraction} (0.5 for the median) of
+     * the recorded frames that have one, or -1 if none has.
+     */
+    public synchronized long getPercentile(int column, float fraction)
+    {
+        final int frames = (int) Math.min(frameCount, FRAMES);
+        int count = 0;
+        for (int i = 0; i < frames; i++)
+        {
+            final long value = records[i * COLUMNS + column];
+            if (value >= 0)
+            {
+                sorted[count++] = value;
+            }
+        }
+        if (count == 0)
+        {
+            return -1L;
+        }
+        Arrays.sort(sorted, 0, count);
+        return sorted[Math.min(count - 1, (int) (fraction * count))];
+    }
+
+    public synchronized long getFrameCount()
+    {
+        return frameCount;
+    }
+
+    /** Percentiles of every column, a line per measurement, for an overlay or the log. */
+    public synchronized String getSummary()
+    {
+        if (frameCount == 0)
+        {
+            return "No frames recorded";
+        }
+        final StringBuilder summary = new StringBuilder("p50 / p95 / p99 of ")
+                .append(Math.min(frameCount, FRAMES)).append(" frames");
+        for (int column = 0; column < COLUMNS; column++)
+        {
+            if (column >= GPU_VIEW && column < DRAW_CALLS && getPercentile(column, 0.5f) < 0)
+            {
+                continue;
+            }
+            final boolean time = column < DRAW_CALLS;
+            final String name = COLUMN_NAMES[column];
+            summary.append('\n').append(time ? name.substring(0, name.length() - 3) : name);
+            appendPercentile(summary.append(' '), column, 0.5f, time);
+            appendPercentile(summary.append(" / "), column, 0.95f, time);
+            appendPercentile(summary.append(" / "), column, 0.99f, time);
+            if (time)
+            {
+                summary.append(" ms");
+            }
+        }
+        return summary.toString();
+    }
+
+    private void appendPercentile(StringBuilder summary, int column, float fraction, boolean time)
+    {
+        final long value = getPercentile(column, fraction);
+        summary.append(time ? String.format(Locale.US, "%.2f", value / 1.0e6) : String.valueOf(value));
+    }
+
+    @Override
+    public String toString()
+    {
+        return getSummary();
+    }
+
+    /**
+     * Writes the recorded frames, oldest first, to {@code file} as CSV with
+     * times in milliseconds. GPU times not measured are left empty.
+     */
+    public void dump(File file) throws IOException
+    {
+        final long[] snapshot;
+        final long firstFrame;
+        final int frames;
+        synchronized (this)
+        {
+            snapshot = records.clone();
+            frames = (int) Math.min(frameCount, FRAMES);
+            firstFrame = frameCount - frames;
+        }
+
+        final PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try
+        {
+            writer.print("frame");
+            for (String name : COLUMN_NAMES)
+            {
+                writer.print(',');
+                writer.print(name);
+            }
+            writer.println();
+
+            for (long frame = firstFrame; frame < firstFrame + frames; frame++)
+            {
+                final int row = (int) (frame % FRAMES) * COLUMNS;
+                writer.print(frame);
+                for (int column = 0; column < COLUMNS; column++)
+                {
+                    writer.print(',');
+                    final long value = snapshot[row + column];
+                    if (column >= DRAW_CALLS)
+                    {
+                        writer.print(value);
+                    }
+                    else if (value >= 0)
+                    {
+                        writer.print(String.format(Locale.US, "%.3f", value / 1.0e6));
+                    }
+                }
+                writer.println();
+            }
+            if (writer.checkError())
+            {
+                throw new IOException("Could not write " + file + ".");
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package lutec.tec.hologram.OPENGL;
+
+/**
+ * The six clipping planes of a view, for culling bounding volumes.
+ *
+ * The planes are extracted from a combined matrix (Gribb and Hartmann), so
+ * they live in whatever space that matrix starts from: projection * view for
+ * world-space bounds, or projection * view * model for a model's own.
+ */
+public class Frustum
+{
+    /** Results of {@link #classifyBox(float[], int)}. */
+    public static final int OUTSIDE = 0;
+    public static final int INTERSECTING = 1;
+    public static final int INSIDE = 2;
+
+    private static final int PLANE_COUNT = 6;
+
+    /** (a, b, c, d) per plane, normalized so that ax + by + cz + d is a distance. */
+    private final float[] planes = new float[PLANE_COUNT * 4];
+
+    /** Extracts the planes of a column-major clip matrix. */
+    public void set(float[] matrix)
+    {
+        set(matrix, 0);
+    }
+
+    /** Extracts the planes of the column-major clip matrix starting at {@code offset}. */
+    public void set(float[] m, int offset)
+    {
+        for (int i = 0; i < PLANE_COUNT; i++)
+        {
+            // Left/right use row 0, bottom/top row 1, near/far row 2, each
+            // added to or subtracted from row 3.
+            final int row = i / 2;
+            final float sign = (i & 1) == 0 ? 1.0f : -1.0f;
+
+            final float a = m[offset + 3] + sign * m[offset + row];
+            final float b = m[offset + 7] + sign * m[offset + 4 + row];
+            final float c = m[offset + 11] + sign * m[offset + 8 + row];
+            final float d = m[offset + 15] + sign * m[offset + 12 + row];
+            final float length = (float) Math.sqrt(a * a + b * b + c * c);
+            final float scale = length > 0.0f ? 1.0f / length : 0.0f;
+
+            planes[i * 4] = a * scale;
+            planes[i * 4 + 1] = b * scale;
+            planes[i * 4 + 2] = c * scale;
+            planes[i * 4 + 3] = d * scale;
+        }
+    }
+
+    /**
+     * Whether a box is outside, partly inside or entirely inside the frustum.
+     * The box is min x, y, z then max x, y, z, starting at {@code offset}.
+     * Everything within an INSIDE box is inside too, so a hierarchy can stop
+     * testing below it.
+     */
+    public int classifyBox(float[] box, int offset)
+    {
+        int result = INSIDE;
+        for (int i = 0; i < PLANE_COUNT * 4; i += 4)
+        {
+            final float a = planes[i];
+            final float b = planes[i + 1];
+            final float c = planes[i + 2];
+            final float d = planes[i + 3];
+
+            // The corners furthest along and against the plane normal.
+            final float far = a * box[offset + (a >= 0.0f ? 3 : 0)]
+                    + b * box[offset + (b >= 0.0f ? 4 : 1)]
+                    + c * box[offset + (c >= 0.0f ? 5 : 2)] + d;
+            if (far < 0.0f)
+            {
+                return OUTSIDE;
+            }
+            final float near = a * box[offset + (a >= 0.0f ? 0 : 3)]
+                    + b * box[offset + (b >= 0.0f ? 1 : 4)]
+                    + c * box[offset + (c >= 0.0f ? 2 : 5)] + d;
+            if (near < 0.0f)
+            {
+                result = INTERSECTING;
+            }
+        }
+        return result;
+    }
+}
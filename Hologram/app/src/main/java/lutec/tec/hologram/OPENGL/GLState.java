@@ -0,0 +1,373 @@
+package lutec.tec.hologram.OPENGL;
+
+import android.opengl.GLES20;
+
+/**
+ * Remembers the GL state the renderer has set and drops calls that would
+ * set it to what it already is: the program, framebuffer, buffer and texture bindings,
+ * vertex attribute arrays, viewport, scissor box, clear color and the common
+ * capabilities.
+ *
+ * The cache is only right if every change goes through it. Code that binds
+ * objects behind its back, such as Model.loadVBO or TextureHelper, must be
+ * followed by the matching invalidate call, and a new GL context needs
+ * {@link #reset()}. Unknown state is never skipped.
+ */
+public class GLState
+{
+    private static final int UNKNOWN = -1;
+
+    /** Texture units and vertex attributes tracked; higher ones are passed straight through. */
+    private static final int MAX_TEXTURE_UNITS = 8;
+    private static final int MAX_ATTRIBUTES = 8;
+
+    /** Capabilities tracked by enable/disable, in the order of {@link #capabilityIndex(int)}. */
+    private static final int CAPABILITY_COUNT = 7;
+
+    private int program;
+    private int framebuffer;
+    private int arrayBuffer;
+    private int elementArrayBuffer;
+    private int activeTexture;
+    private final int[] textures = new int[MAX_TEXTURE_UNITS];
+
+    /** Per attribute: 1 if enabled, 0 if disabled, UNKNOWN. */
+    private final int[] attributeEnabled = new int[MAX_ATTRIBUTES];
+
+    /** Per attribute: buffer, size, type, normalized, stride and offset of the last pointer. */
+    private final int[] attributePointers = new int[MAX_ATTRIBUTES * 6];
+
+    private final int[] viewport = new int[4];
+    private final int[] scissor = new int[4];
+    private final float[] clearColor = new float[4];
+    private boolean clearColorKnown;
+
+    /** Per capability: 1 if enabled, 0 if disabled, UNKNOWN. */
+    private final int[] capabilities = new int[CAPABILITY_COUNT];
+
+    private int savedCalls;
+    private int issuedCalls;
+    private int lastFrameSavedCalls;
+    private int lastFrameIssuedCalls;
+
+    public GLState()
+    {
+        reset();
+    }
+
+    /** Forgets everything, for a new context or after GL calls made elsewhere. */
+    public void reset()
+    {
+        program = UNKNOWN;
+        invalidateFramebuffer();
+        invalidateBuffers();
+        invalidateTextures();
+        for (int i = 0; i < MAX_ATTRIBUTES; i++)
+        {
+            attributeEnabled[i] = UNKNOWN;
+        }
+        for (int i = 0; i < 4; i++)
+        {
+            viewport[i] = UNKNOWN;
+            scissor[i] = UNKNOWN;
+        }
+        clearColorKnown = false;
+        for (int i = 0; i < CAPABILITY_COUNT; i++)
+        {
+            capabilities[i] = UNKNOWN;
+        }
+    }
+
+    /** Call after a framebuffer was bound or deleted without going through this class. */
+    public void invalidateFramebuffer()
+    {
+        framebuffer = UNKNOWN;
+    }
+
+    /** Call after buffers were bound or deleted without going through this class. */
+    public void invalidateBuffers()
+    {
+        arrayBuffer = UNKNOWN;
+        elementArrayBuffer = UNKNOWN;
+        for (int i = 0; i < MAX_ATTRIBUTES; i++)
+        {
+            attributePointers[i * 6] = UNKNOWN;
+        }
+    }
+
+    /** Call after textures were bound or deleted without going through this class. */
+    public void invalidateTextures()
+    {
+        activeTexture = UNKNOWN;
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++)
+        {
+            textures[i] = UNKNOWN;
+        }
+    }
+
+    public void useProgram(int program)
+    {
+        if (this.program == program)
+        {
+            savedCalls++;
+            return;
+        }
+        this.program = program;
+        issuedCalls++;
+        GLES20.glUseProgram(program);
+    }
+
+    /** Binds to GL_FRAMEBUFFER; 0 is the window. */
+    public void bindFramebuffer(int framebuffer)
+    {
+        if (this.framebuffer == framebuffer)
+        {
+            savedCalls++;
+            return;
+        }
+        this.framebuffer = framebuffer;
+        issuedCalls++;
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+    }
+
+    public void bindBuffer(int target, int buffer)
+    {
+        if (target == GLES20.GL_ARRAY_BUFFER)
+        {
+            if (arrayBuffer == buffer)
+            {
+                savedCalls++;
+                return;
+            }
+            arrayBuffer = buffer;
+        }
+        else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER)
+        {
+            if (elementArrayBuffer == buffer)
+            {
+                savedCalls++;
+                return;
+            }
+            elementArrayBuffer = buffer;
+        }
+        issuedCalls++;
+        GLES20.glBindBuffer(target, buffer);
+    }
+
+    /** {@code unit} is GL_TEXTURE0 + n, as for glActiveTexture. */
+    public void activeTexture(int unit)
+    {
+        if (activeTexture == unit)
+        {
+            savedCalls++;
+            return;
+        }
+        activeTexture = unit;
+        issuedCalls++;
+        GLES20.glActiveTexture(unit);
+    }
+
+    /** Binds to the active unit. Only GL_TEXTURE_2D bindings are tracked. */
+    public void bindTexture(int target, int texture)
+    {
+        final int unit = activeTexture - GLES20.GL_TEXTURE0;
+        final boolean tracked = target == GLES20.GL_TEXTURE_2D && activeTexture != UNKNOWN
+                && unit >= 0 && unit < MAX_TEXTURE_UNITS;
+        if (tracked)
+        {
+            if (textures[unit] == texture)
+            {
+                savedCalls++;
+                return;
+            }
+            textures[unit] = texture;
+        }
+        issuedCalls++;
+        GLES20.glBindTexture(target, texture);
+    }
+
+    public void enableVertexAttribArray(int index)
+    {
+        setAttributeEnabled(index, true);
+    }
+
+    public void disableVertexAttribArray(int index)
+    {
+        setAttributeEnabled(index, false);
+    }
+
+    private void setAttributeEnabled(int index, boolean enabled)
+    {
+        final int value = enabled ? 1 : 0;
+        if (index >= 0 && index < MAX_ATTRIBUTES)
+        {
+            if (attributeEnabled[index] == value)
+            {
+                savedCalls++;
+                return;
+            }
+            attributeEnabled[index] = value;
+        }
+        issuedCalls++;
+        if (enabled)
+        {
+            GLES20.glEnableVertexAttribArray(index);
+        }
+        else
+        {
+            GLES20.glDisableVertexAttribArray(index);
+        }
+    }
+
+    /** Points an attribute into the bound array buffer; skipped if it already points there the same way. */
+    public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset)
+    {
+        if (index >= 0 && index < MAX_ATTRIBUTES && arrayBuffer != UNKNOWN)
+        {
+            final int o = index * 6;
+            final int normalizedValue = normalized ? 1 : 0;
+            if (attributePointers[o] == arrayBuffer && attributePointers[o + 1] == size
+                    && attributePointers[o + 2] == type && attributePointers[o + 3] == normalizedValue
+                    && attributePointers[o + 4] == stride && attributePointers[o + 5] == offset)
+            {
+                savedCalls++;
+                return;
+            }
+            attributePointers[o] = arrayBuffer;
+            attributePointers[o + 1] = size;
+            attributePointers[o + 2] = type;
+            attributePointers[o + 3] = normalizedValue;
+            attributePointers[o + 4] = stride;
+            attributePointers[o + 5] = offset;
+        }
+        issuedCalls++;
+        GLES20.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+
+    public void viewport(int x, int y, int width, int height)
+    {
+        if (setRectangle(viewport, x, y, width, height))
+        {
+            GLES20.glViewport(x, y, width, height);
+        }
+    }
+
+    public void scissor(int x, int y, int width, int height)
+    {
+        if (setRectangle(scissor, x, y, width, height))
+        {
+            GLES20.glScissor(x, y, width, height);
+        }
+    }
+
+    /** Stores the rectangle and returns true if it differs from the one stored. */
+    private boolean setRectangle(int[] rectangle, int x, int y, int width, int height)
+    {
+        if (rectangle[0] == x && rectangle[1] == y && rectangle[2] == width && rectangle[3] == height)
+        {
+            savedCalls++;
+            return false;
+        }
+        rectangle[0] = x;
+        rectangle[1] = y;
+        rectangle[2] = width;
+        rectangle[3] = height;
+        issuedCalls++;
+        return true;
+    }
+
+    public void clearColor(float red, float green, float blue, float alpha)
+    {
+        if (clearColorKnown && clearColor[0] == red && clearColor[1] == green && clearColor[2] == blue
+                && clearColor[3] == alpha)
+        {
+            savedCalls++;
+            return;
+        }
+        clearColor[0] = red;
+        clearColor[1] = green;
+        clearColor[2] = blue;
+        clearColor[3] = alpha;
+        clearColorKnown = true;
+        issuedCalls++;
+        GLES20.glClearColor(red, green, blue, alpha);
+    }
+
+    public void enable(int capability)
+    {
+        setCapability(capability, true);
+    }
+
+    public void disable(int capability)
+    {
+        setCapability(capability, false);
+    }
+
+    private void setCapability(int capability, boolean enabled)
+    {
+        final int index = capabilityIndex(capability);
+        final int value = enabled ? 1 : 0;
+        if (index >= 0)
+        {
+            if (capabilities[index] == value)
+            {
+                savedCalls++;
+                return;
+            }
+            capabilities[index] = value;
+        }
+        issuedCalls++;
+        if (enabled)
+        {
+            GLES20.glEnable(capability);
+        }
+        else
+        {
+            GLES20.glDisable(capability);
+        }
+    }
+
+    private static int capabilityIndex(int capability)
+    {
+        switch (capability)
+        {
+            case GLES20.GL_DEPTH_TEST:
+                return 0;
+            case GLES20.GL_SCISSOR_TEST:
+                return 1;
+            case GLES20.GL_CULL_FACE:
+                return 2;
+            case GLES20.GL_BLEND:
+                return 3;
+            case GLES20.GL_STENCIL_TEST:
+                return 4;
+            case GLES20.GL_DITHER:
+                return 5;
+            case GLES20.GL_POLYGON_OFFSET_FILL:
+                return 6;
+            default:
+                return -1;
+        }
+    }
+
+    /** Closes the frame's counters; read them back through the getters below. */
+    public void endFrame()
+    {
+        lastFrameSavedCalls = savedCalls;
+        lastFrameIssuedCalls = issuedCalls;
+        savedCalls = 0;
+        issuedCalls = 0;
+    }
+
+    /** State calls dropped during the last complete frame. */
+    public int getSavedCalls()
+    {
+        return lastFrameSavedCalls;
+    }
+
+    /** State calls passed on to GL during the last complete frame. */
+    public int getIssuedCalls()
+    {
+        return lastFrameIssuedCalls;
+    }
+}
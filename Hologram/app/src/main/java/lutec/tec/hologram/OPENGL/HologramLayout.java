@@ -0,0 +1,267 @@
+package lutec.tec.hologram.OPENGL;
+
+import android.opengl.Matrix;
+
+/**
+ * Where the faces of a hologram pyramid sit on the screen and how each is
+ * turned, and everything the renderer derives from that per face.
+ *
+ * Faces are described once, as rectangles on a stage: either the whole
+ * window, or the largest square centered in it, each with the angle its
+ * camera looks at the model from. {@link #layout(int, int)}
+ * turns them into viewports, projections and the transforms used to
+ * composite or instance the views, so that drawing a frame only walks flat
+ * arrays. Faces must not overlap, since they share one depth buffer.
+ */
+public class HologramLayout
+{
+    /** Most faces a layout may have; the multi-view shaders size their arrays by it. */
+    public static final int MAX_FACES = 6;
+
+    /** Near and far planes of every face's projection. */
+    private static final float NEAR = 1.0f;
+    private static final float FAR = 1000.0f;
+
+    /** Per face: left, bottom, width and height as fractions of the stage, and rotation in degrees. */
+    private final float[] faces = new float[MAX_FACES * 5];
+    private final boolean[] mirrored = new boolean[MAX_FACES];
+    private final float[] cameraYaws = new float[MAX_FACES];
+    private final boolean squareStage;
+    private int faceCount;
+
+    /** Derived by layout(), per face. */
+    private final int[] viewports = new int[MAX_FACES * 4];
+    private final float[] projections = new float[MAX_FACES * 16];
+    private final float[] focalScales = new float[MAX_FACES];
+    private final float[] orientations = new float[MAX_FACES * 4];
+    private final float[] clipRects = new float[MAX_FACES * 4];
+    private final float[] uprightProjection = new float[16];
+    private boolean sameSize;
+    private boolean sameCamera;
+    private final float[] turn = new float[16];
+    private final float[] frustum = new float[16];
+
+    /**
+     * @param squareStage whether face rectangles are fractions of the largest
+     *        square centered in the window rather than of the whole window.
+     */
+    public HologramLayout(boolean squareStage)
+    {
+        this.squareStage = squareStage;
+    }
+
+    /** Three views of half the window each, upright: the layout the app started out with. */
+    public static HologramLayout quadrants()
+    {
+        final HologramLayout layout = new HologramLayout(false);
+        layout.addFace(0.0f, 0.0f, 0.5f, 0.5f, 0.0f, false);
+        layout.addFace(0.0f, 0.5f, 0.5f, 0.5f, 0.0f, false);
+        layout.addFace(0.5f, 0.25f, 0.5f, 0.5f, 0.0f, false);
+        return layout;
+    }
+
+    /**
+     * Three square faces 120 degrees apart around the stage center, for a
+     * three-sided pyramid standing on the screen. The top of each face points
+     * away from the center, and each shows the model from its own side.
+     */
+    public static HologramLayout threeSidedPyramid()
+    {
+        final HologramLayout layout = new HologramLayout(true);
+        layout.addRadialFaces(3, 0.4f, 0.28f);
+        return layout;
+    }
+
+    /** Four square faces in a cross around the stage center, for the usual four-sided pyramid. */
+    public static HologramLayout fourSidedPyramid()
+    {
+        final HologramLayout layout = new HologramLayout(true);
+        layout.addRadialFaces(4, 1.0f / 3.0f, 1.0f / 3.0f);
+        return layout;
+    }
+
+    /**
+     * Adds {@code count} square faces of side {@code size}, centered
+     * {@code distance} from the stage center, their cameras spread evenly
+     * around the model.
+     */
+    private void addRadialFaces(int count, float size, float distance)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            // The first face sits below the center, upside down.
+            final float outward = 270.0f + 360.0f * i / count;
+            final double radians = Math.toRadians(outward);
+            final float x = 0.5f + distance * (float) Math.cos(radians);
+            final float y = 0.5f + distance * (float) Math.sin(radians);
+            addFace(x - size * 0.5f, y - size * 0.5f, size, size, (outward - 90.0f) % 360.0f, false,
+                    360.0f * i / count);
+        }
+    }
+
+    /**
+     * Adds a face covering the given fractions of the stage, measured from its
+     * bottom left. The image is mirrored left to right if asked, then turned
+     * {@code rotation} degrees counterclockwise.
+     */
+    public void addFace(float left, float bottom, float width, float height, float rotation, boolean mirrored)
+    {
+        addFace(left, bottom, width, height, rotation, mirrored, 0.0f);
+    }
+
+    /**
+     * Adds a face as above, whose camera orbits the model {@code cameraYaw}
+     * degrees clockwise, seen from above, from where a face of yaw 0 looks.
+     */
+    public void addFace(float left, float bottom, float width, float height, float rotation, boolean mirrored,
+                        float cameraYaw)
+    {
+        if (faceCount == MAX_FACES)
+        {
+            throw new IllegalStateException("A layout has at most " + MAX_FACES + " faces.");
+        }
+        final int o = faceCount * 5;
+        faces[o] = left;
+        faces[o + 1] = bottom;
+        faces[o + 2] = width;
+        faces[o + 3] = height;
+        faces[o + 4] = rotation;
+        this.mirrored[faceCount] = mirrored;
+        cameraYaws[faceCount] = cameraYaw;
+        faceCount++;
+    }
+
+    /** Recomputes every face for a window of this size, in pixels. */
+    public void layout(int width, int height)
+    {
+        final int stageSize = Math.min(width, height);
+        final int stageWidth = squareStage ? stageSize : width;
+        final int stageHeight = squareStage ? stageSize : height;
+        final int stageLeft = (width - stageWidth) / 2;
+        final int stageBottom = (height - stageHeight) / 2;
+
+        sameSize = true;
+        sameCamera = true;
+        for (int face = 0; face < faceCount; face++)
+        {
+            final int o = face * 5;
+            final int x = stageLeft + Math.round(faces[o] * stageWidth);
+            final int y = stageBottom + Math.round(faces[o + 1] * stageHeight);
+            final int w = Math.round(faces[o + 2] * stageWidth);
+            final int h = Math.round(faces[o + 3] * stageHeight);
+            viewports[face * 4] = x;
+            viewports[face * 4 + 1] = y;
+            viewports[face * 4 + 2] = w;
+            viewports[face * 4 + 3] = h;
+            sameSize &= w == viewports[2] && h == viewports[3];
+            sameCamera &= cameraYaws[face] == cameraYaws[0];
+
+            // Turning the image is rolling the camera the other way, which
+            // keeps the proportions of any viewport.
+            final float ratio = (float) w / h;
+            final float top = 1.0f;
+            final float bottom = -1.0f;
+            Matrix.frustumM(frustum, 0, -ratio, ratio, bottom, top, NEAR, FAR);
+            // Element [5] of the frustum. The turn below mixes it into [4],
+            // so it is kept apart.
+            focalScales[face] = 2.0f * NEAR / (top - bottom);
+            Matrix.setRotateM(turn, 0, faces[o + 4], 0.0f, 0.0f, 1.0f);
+            if (mirrored[face])
+            {
+                Matrix.scaleM(turn, 0, -1.0f, 1.0f, 1.0f);
+            }
+            Matrix.multiplyMM(projections, face * 16, frustum, 0, turn, 0);
+            if (face == 0)
+            {
+                System.arraycopy(frustum, 0, uprightProjection, 0, 16);
+            }
+
+            // Composite shaders map screen positions back to the upright
+            // image: the inverse turn, then the mirror.
+            final double radians = Math.toRadians(faces[o + 4]);
+            final float cos = (float) Math.cos(radians);
+            final float sin = (float) Math.sin(radians);
+            final float flip = mirrored[face] ? -1.0f : 1.0f;
+            orientations[face * 4] = cos * flip;
+            orientations[face * 4 + 1] = -sin;
+            orientations[face * 4 + 2] = sin * flip;
+            orientations[face * 4 + 3] = cos;
+
+            // A face covering [x, x + w) of W pixels maps its own clip space
+            // [-1, 1] onto the window's [2x / W - 1, 2(x + w) / W - 1].
+            clipRects[face * 4] = (float) w / width;
+            clipRects[face * 4 + 1] = (float) h / height;
+            clipRects[face * 4 + 2] = (2.0f * x + w) / width - 1.0f;
+            clipRects[face * 4 + 3] = (2.0f * y + h) / height - 1.0f;
+        }
+    }
+
+    public int getFaceCount()
+    {
+        return faceCount;
+    }
+
+    /** x, y, width and height of each face in GL window coordinates, four ints per face. */
+    public int[] getViewports()
+    {
+        return viewports;
+    }
+
+    /** Projection of each face, turn and mirror included, sixteen floats per face. */
+    public float[] getProjections()
+    {
+        return projections;
+    }
+
+    /**
+     * Per face, how many half viewport heights one unit covers at distance
+     * one: the vertical scale of its projection, whichever way it is turned.
+     * Use this rather than element [5] of a projection, which a turn mixes
+     * into [4].
+     */
+    public float[] getFocalScales()
+    {
+        return focalScales;
+    }
+
+    /** Projection of the first face without its turn or mirror, for drawing an image to composite. */
+    public float[] getUprightProjection()
+    {
+        return uprightProjection;
+    }
+
+    /**
+     * Column-major 2x2 matrix per face taking a position in the face's
+     * viewport, from -1 to 1, to where the upright image is sampled.
+     * Turns other than whole or half turns stretch the image unless the face
+     * is square.
+     */
+    public float[] getOrientations()
+    {
+        return orientations;
+    }
+
+    /** Per face, the x and y scale then offset that move its clip space into its part of the window. */
+    public float[] getClipRects()
+    {
+        return clipRects;
+    }
+
+    /** Per face, the yaw of its camera around the model in degrees, see {@link #addFace}. */
+    public float[] getCameraYaws()
+    {
+        return cameraYaws;
+    }
+
+    /** Whether all faces have the same size in pixels, as compositing one image into them needs. */
+    public boolean isSameSize()
+    {
+        return sameSize;
+    }
+
+    /** Whether all faces look at the model from the same side, as compositing one image into them needs. */
+    public boolean isSameCamera()
+    {
+        return sameCamera;
+    }
+}
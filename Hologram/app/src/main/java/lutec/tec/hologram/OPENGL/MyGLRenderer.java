@@ -1,33 +1,29 @@
 package lutec.tec.hologram.OPENGL;
 
 
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Color;
 import android.opengl.GLES20;
-import android.opengl.GLES31;
-import android.opengl.GLES32;
+import android.opengl.GLES30;
 import android.opengl.GLSurfaceView;
-import android.opengl.GLUtils;
 import android.opengl.Matrix;
-import android.renderscript.Matrix4f;
+import android.os.Build;
 import android.util.Log;
 
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 import lutec.tec.hologram.MainActivity;
 import lutec.tec.hologram.R;
+import lutec.tec.hologram.obj.MeshBvh;
 import lutec.tec.hologram.obj.Model;
-import lutec.tec.hologram.obj.OBJ_Loader;
-import lutec.tec.hologram.obj.ObjLoader;
-
-import lutec.tec.hologram.OPENGL.ErrorHandler.ErrorType;
+import lutec.tec.hologram.obj.Quantization;
+import lutec.tec.hologram.obj.VertexLayout;
 
 /**
  * Created by josea on 9/26/2017.
@@ -56,11 +52,18 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
      */
     private final float[] viewMatrix = new float[16];
 
+    /** How far in front of the eye the model sits. Each face's camera orbits this point. */
+    private static final float MODEL_DISTANCE = 3.5f;
+    private final float[] orbitMatrix = new float[16];
+
     /**
-     * Store the projection matrix. This is used to project the scene onto a 2D
-     * viewport.
+     * Store the projection matrix of each view, from the layout. This is used
+     * to project the scene onto a 2D viewport.
      */
-    private final float[] projectionMatrix = new float[16];
+    private final float[] projectionMatrices = new float[VIEW_SLOTS * 16];
+
+    /** Vertical scale of each view's projection before its turn, for choosing levels of detail. */
+    private final float[] focalScales = new float[VIEW_SLOTS];
 
     /**
      * Allocate storage for the final combined matrix. This will be passed into
@@ -68,16 +71,40 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
      */
     private final float[] mvpMatrix = new float[16];
 
+    /** Modelview matrix of the node being drawn. */
+    private final float[] mvMatrix = new float[16];
+
     /** Additional matrices. */
     private final float[] accumulatedRotation = new float[16];
     private final float[] currentRotation = new float[16];
     private final float[] lightModelMatrix = new float[16];
     private final float[] temporaryMatrix = new float[16];
+    private final float[] inverseViewProjectionMatrix = new float[16];
+    private final float[] temporaryVector = new float[4];
+
+    /** View and projection * view of each view, refreshed once per frame. */
+    private final float[] viewMatrices = new float[VIEW_SLOTS * 16];
+    private final float[] viewProjectionMatrices = new float[VIEW_SLOTS * 16];
+
+    /**
+     * Per drawable, filled once per frame and shared by every view: the matrix
+     * its stored vertices are drawn with, its bounding center in world space
+     * and how much its world matrix scales it. Indexed by the scene's drawable
+     * index, and only regrown when there are more drawables.
+     */
+    private float[] drawMatrices = new float[0];
+    private float[] drawCenters = new float[0];
+    private float[] drawScales = new float[0];
+
+    /** A touch unprojected onto the near and far planes, and the world-space ray between them. */
+    private final float[] touchPoint = new float[4];
+    private final float[] nearPoint = new float[4];
+    private final float[] farPoint = new float[4];
+    private final float[] rayOrigin = new float[3];
+    private final float[] rayDirection = new float[3];
 
-    /** OpenGL handles to our program uniforms. */
-    private int mvpMatrixUniform;
-    private int mvMatrixUniform;
-    private int lightPosUniform;
+    /** Planes of the current viewport, in world space. */
+    private final Frustum frustum = new Frustum();
 
     /** OpenGL handles to our program attributes. */
     private int positionAttribute;
@@ -88,6 +115,12 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
     private static final String MVP_MATRIX_UNIFORM = "u_MVPMatrix";
     private static final String MV_MATRIX_UNIFORM = "u_MVMatrix";
     private static final String LIGHT_POSITION_UNIFORM = "u_LightPos";
+    private static final String NORMAL_DEQUANT_UNIFORM = "u_NormalDequant";
+    private static final String TEX_COORD_TRANSFORM_UNIFORM = "u_TexCoordTransform";
+    private static final String TEXTURE_UNIFORM = "u_Texture";
+    private static final String ORIENTATION_UNIFORM = "u_Orientation";
+    private static final String TEX_SCALE_UNIFORM = "u_TexScale";
+    private static final String VIEW_RECT_UNIFORM = "u_ViewRect";
 
     private static final String POSITION_ATTRIBUTE = "a_Position";
     private static final String NORMAL_ATTRIBUTE = "a_Normal";
@@ -98,6 +131,20 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
     private static final int NORMAL_DATA_SIZE_IN_ELEMENTS = 3;
     private static final int COLOR_DATA_SIZE_IN_ELEMENTS = 4;
 
+    /**
+     * Views are numbered as the faces of the layout. One more slot after the
+     * last possible face holds the upright view drawn for compositing.
+     */
+    private static final int UPRIGHT_VIEW = HologramLayout.MAX_FACES;
+    private static final int VIEW_SLOTS = HologramLayout.MAX_FACES + 1;
+
+    /**
+     * Largest estimated simplification error, in pixels, that a level of
+     * detail may show. The estimate is a mean over the surface, so single
+     * points can stray further.
+     */
+    private static final float LOD_PIXEL_ERROR = 1.0f;
+
     private static final int BYTES_PER_FLOAT = 4;
     private static final int BYTES_PER_SHORT = 2;
 
@@ -119,12 +166,23 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 
     /**
      * Used to hold the transformed position of the light in eye space (after
-     * transformation via modelview matrix)
+     * transformation via the view matrix), four floats per view.
      */
-    private final float[] lightPosInEyeSpace = new float[4];
+    private final float[] lightPosInEyeSpace = new float[VIEW_SLOTS * 4];
+
+    /** This is our cube shading program. */
+    private ShaderProgram program;
+
+    /** Same lighting, for models whose vertices were packed by MeshQuantizer. */
+    private ShaderProgram quantizedProgram;
+
+    /** Copies the offscreen view into each viewport when views are composited. */
+    private ShaderProgram compositeProgram;
 
-    /** This is a handle to our cube shading program. */
-    private int program;
+    /** Corners of a quad covering the viewport, as a triangle strip in clip space. */
+    private static final float[] COMPOSITE_QUAD = new float[] { -1.0f, -1.0f, 1.0f, -1.0f, -1.0f, 1.0f, 1.0f, 1.0f };
+    private static final float[] IDENTITY_ORIENTATION = new float[] { 1.0f, 0.0f, 0.0f, 1.0f };
+    private int compositeQuadBuffer;
 
     /** Retain the most recent delta for touch events. */
     // These still work without volatile, but refreshes are not guaranteed to
@@ -132,11 +190,13 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
     public volatile float deltaX;
     public volatile float deltaY;
 
-    /** The current heightmap object. */
-    private Model model;
+    /** Everything drawn, and the node carrying the model the touch events rotate. */
+    private final Scene scene = new Scene();
+    private final SceneNode modelNode;
 
+    /** What the last tap landed on. */
+    private final PickResult selection = new PickResult();
 
-    private int mTextureUniformHandle;
 
     /** This will be used to pass in model texture coordinate information. */
     private int mTextureCoordinateHandle;
@@ -145,52 +205,244 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
     /** These are handles to our texture data. */
     private int mAndroidDataHandle;
 
+    /** Every state change of the renderer goes through here, so repeated ones are dropped. */
+    private final GLState glState = new GLState();
+
+    /** Where the views go on the screen, and a replacement waiting for the next frame. */
+    private HologramLayout layout = HologramLayout.quadrants();
+    private volatile HologramLayout pendingLayout;
+
+    /**
+     * When set, and every face has the same size and camera, the scene is
+     * drawn once into {@link #viewTarget} and that image is copied into the
+     * faces, turned as each needs, instead of drawing the scene once per view.
+     */
+    private volatile boolean compositeViews;
+    private final RenderTarget viewTarget = new RenderTarget();
+
+    /** Told about every change that needs a new frame, and about each frame drawn. */
+    private volatile RenderScheduler scheduler;
+
+    /**
+     * When set, frames are drawn below full resolution into
+     * {@link #frameTarget}, by as much as {@link #resolution} finds the
+     * device needs, and then scaled up to the window.
+     */
+    private volatile boolean adaptiveResolution;
+    private final ResolutionController resolution = new ResolutionController(0.5f, 1.0f, 1000.0f / 60.0f);
+    private final RenderTarget frameTarget = new RenderTarget();
+    private long lastFrameNanos;
+
+    /** Whether the scheduler is keeping frames coming for a change of scale. */
+    private boolean rescaling;
+
+    /** Fraction of full resolution, per axis, the current frame is drawn at. */
+    private float frameScale = 1.0f;
+    private final float[] texScale = new float[2];
+
+    /** Where the time of each frame goes, when enabled. */
+    private final FrameProfiler profiler = new FrameProfiler();
+
+    /** Whether the context is ES 3.0, set up by MainActivity. */
+    private final boolean supportsEs3;
+
+    /**
+     * On ES 3.0, programs drawing a node into every view with one instanced
+     * call; null on ES 2.0, where each view is drawn in turn.
+     */
+    private ShaderProgram multiViewProgram;
+    private ShaderProgram multiViewQuantizedProgram;
+
+    /** Per view, the light in its eye space and the matrices of the node being drawn. */
+    private final float[] multiViewLights = new float[HologramLayout.MAX_FACES * 3];
+    private final float[] multiViewMvMatrices = new float[HologramLayout.MAX_FACES * 16];
+    private final float[] multiViewMvpMatrices = new float[HologramLayout.MAX_FACES * 16];
+
+    /** Nodes visible in any view this frame, collected once through a per-drawable frame stamp. */
+    private SceneNode[] multiViewNodes = new SceneNode[0];
+    private int[] multiViewStamps = new int[0];
+    private int multiViewFrame;
+
+    /** Parses and decodes assets in the background. */
+    private final AssetLoader assetLoader;
+
+    /** How loaded models store their vertices, see {@link #setVertexFormat}. */
+    public enum VertexFormat {
+        /** Packed 16-bit positions and texture coordinates and octahedral normals, see MeshQuantizer. */
+        QUANTIZED,
+        /** All float attributes of a vertex next to each other in one buffer. */
+        INTERLEAVED,
+        /** One float buffer per attribute. */
+        SEPARATE
+    }
+
+    private volatile VertexFormat vertexFormat = VertexFormat.QUANTIZED;
+
+    /** Cheap cube drawn until the real model has been loaded. */
+    private final Model placeholderModel;
+
+    /** The real model once loaded, and whether its buffers still have to be uploaded. */
+    private Model loadedModel;
+    private boolean modelUploadPending;
+    private boolean modelRequested;
+
+    /** A decoded texture waiting for upload, and whether one has been requested. */
+    private Bitmap pendingBitmap;
+    private boolean textureRequested;
+
+    /**
+     * The texture's pre-compressed variant once mapped, and whether it still
+     * has to be uploaded. It is kept, unlike a bitmap, so a new context only
+     * uploads it again.
+     */
+    private CompressedTexture loadedTexture;
+    private boolean textureUploadPending;
+
+    /** Compressed texture formats the current context samples. */
+    private int textureSupport;
+
+    /** Whether the context draws GL_UNSIGNED_INT indices: ES 3.0, or ES 2.0 with OES_element_index_uint. */
+    private boolean intIndices;
+
     /**
      * Initialize the model data.
+     *
+     * @param supportsEs3 whether the surface view was asked for an ES 3.0
+     *        context, which enables drawing all views with instancing.
      */
-    public MyGLRenderer(final MainActivity lessonEightActivity, ErrorHandler errorHandler) {
+    public MyGLRenderer(final MainActivity lessonEightActivity, MyGLSurfaceView surfaceView, boolean supportsEs3) {
         this.lessonEightActivity = lessonEightActivity;
-        this.errorHandler = errorHandler;
+        this.supportsEs3 = supportsEs3;
+        this.errorHandler = surfaceView;
+        this.assetLoader = new AssetLoader(lessonEightActivity, surfaceView, surfaceView);
+        this.placeholderModel = createPlaceholderModel();
+        this.modelNode = new SceneNode(placeholderModel);
+        scene.getRoot().addChild(modelNode);
     }
 
-    @Override
-    public void onSurfaceCreated(GL10 glUnused, EGLConfig config) {
+    /** Switches to another arrangement of views, from the next frame on. */
+    public void setLayout(HologramLayout layout) {
+        pendingLayout = layout;
+        requestRender();
+    }
+
+    /** Set by the surface view, which draws only when asked to. */
+    public void setScheduler(RenderScheduler scheduler) {
+        this.scheduler = scheduler;
+        resolution.setBudgetMillis(1000.0f / scheduler.getRefreshRate());
+    }
+
+    /**
+     * Chooses how models lay out their vertices, to compare the layouts on a
+     * device. Models already loaded keep theirs, so set this before the
+     * surface is created.
+     */
+    public void setVertexFormat(VertexFormat vertexFormat) {
+        this.vertexFormat = vertexFormat;
+    }
+
+    /**
+     * Lets the renderer lower the resolution when frames take too long. The
+     * profiler then keeps timing the GPU, where it can, for the controller.
+     */
+    public void setAdaptiveResolution(boolean adaptiveResolution) {
+        this.adaptiveResolution = adaptiveResolution;
+        profiler.setGpuFramesWanted(adaptiveResolution);
+        requestRender();
+    }
 
+    /** The current scale and recent frame times, for monitoring. */
+    public ResolutionController getResolution() {
+        return resolution;
+    }
+
+    /** Per-phase CPU and per-view GPU times of recent frames, recorded while enabled. */
+    public FrameProfiler getProfiler() {
+        return profiler;
+    }
 
-        model = new Model();
-        try{
-            InputStream file = lessonEightActivity.getAssets().open("cube3.obj");
-            //final File dir = new File(mActivity.getFilesDir() +"src/main/assets");
-            //dir.mkdir();
-            model = OBJ_Loader.loadModel(file);
-            model.loadVBO();
-            Log.d("gg", "Vertex num: "+model.getVertices().capacity()+"  "+model.getNumObjectVertex());
-        } catch (FileNotFoundException e){
-            e.printStackTrace();
-            System.exit(1);
-        }catch (IOException e){
-            e.printStackTrace();
-            System.exit(1);
+    private void requestRender() {
+        final RenderScheduler scheduler = this.scheduler;
+        if (scheduler != null) {
+            scheduler.requestRender();
         }
+    }
+
+    /**
+     * Switches between drawing the scene once per view and drawing it once
+     * and compositing it into every view. Compositing only takes effect while
+     * all faces of the layout have the same size and look at the model from
+     * the same side.
+     */
+    public void setCompositeViews(boolean compositeViews) {
+        this.compositeViews = compositeViews;
+        requestRender();
+    }
 
-        // Load the texture
-        mAndroidDataHandle = TextureHelper.loadTexture(lessonEightActivity, R.drawable.lutec);
-        GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+    @Override
+    public void onSurfaceCreated(GL10 glUnused, EGLConfig config) {
 
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mAndroidDataHandle);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        // Everything from a previous context is gone. Show the placeholder and
+        // re-upload (or start loading) the real assets; their CPU-side data is
+        // prepared off this thread.
+        glState.reset();
+        viewTarget.forget();
+        frameTarget.forget();
+        placeholderModel.loadVBO();
+        glState.invalidateBuffers();
+        profiler.onSurfaceCreated(supportsEs3);
+        modelNode.setModel(placeholderModel);
+
+        final String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        intIndices = supportsEs3 || (extensions != null && extensions.contains("GL_OES_element_index_uint"));
+        if (loadedModel != null) {
+            modelUploadPending = true;
+        } else if (!modelRequested) {
+            modelRequested = true;
+            assetLoader.loadModel("cube3.obj", vertexFormat, intIndices, new AssetLoader.Callback<Model>() {
+                @Override
+                public void onLoaded(Model asset) {
+                    loadedModel = asset;
+                    modelUploadPending = true;
+                    requestRender();
+                }
+            });
+        }
 
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mAndroidDataHandle);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR_MIPMAP_LINEAR);
+        mAndroidDataHandle = TextureHelper.createSolidTexture(Color.WHITE);
+        glState.invalidateTextures();
+        textureSupport = CompressedTexture.querySupport(supportsEs3);
+        if (loadedTexture != null) {
+            textureUploadPending = true;
+        } else if (!textureRequested) {
+            textureRequested = true;
+
+            // A variant the GPU samples as stored needs no decoding and a
+            // fraction of the memory; the PNG is decoded only without one.
+            assetLoader.loadCompressedTexture("textures/lutec", textureSupport,
+                    new AssetLoader.Callback<CompressedTexture>() {
+                @Override
+                public void onLoaded(CompressedTexture asset) {
+                    if (asset != null) {
+                        loadedTexture = asset;
+                        textureUploadPending = true;
+                        textureRequested = false;
+                        requestRender();
+                    } else {
+                        loadBitmapTexture();
+                    }
+                }
+            });
+        }
 
         // Set the background clear color to black.
-        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+        glState.clearColor(0.0f, 0.0f, 0.0f, 0.0f);
 
         // Use culling to remove back faces.z
         //GLES20.glEnable(GLES20.GL_CULL_FACE);
 
         // Enable depth testing
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        glState.enable(GLES20.GL_DEPTH_TEST);
 
         // Position the eye in front of the origin.
         final float eyeX = 0.0f;
@@ -228,11 +480,45 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 
                 */
 
-        program = ShaderHelper.createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle, new String[] {
+        program = new ShaderProgram(vertexShaderHandle, fragmentShaderHandle, new String[] {
                 POSITION_ATTRIBUTE, NORMAL_ATTRIBUTE, "a_TexCoordinate" });
 
+        final String quantizedVertexShader = RawResourceReader.readTextFileFromRawResource(lessonEightActivity,
+                R.raw.quantized_vertex_shader);
+        final int quantizedVertexShaderHandle = ShaderHelper.compileShader(GLES20.GL_VERTEX_SHADER,
+                quantizedVertexShader);
+
+        quantizedProgram = new ShaderProgram(quantizedVertexShaderHandle, fragmentShaderHandle,
+                new String[] { POSITION_ATTRIBUTE, NORMAL_ATTRIBUTE, "a_TexCoordinate" });
+
+        final String compositeVertexShader = RawResourceReader.readTextFileFromRawResource(lessonEightActivity,
+                R.raw.composite_vertex_shader);
+        final String compositeFragmentShader = RawResourceReader.readTextFileFromRawResource(lessonEightActivity,
+                R.raw.composite_fragment_shader);
+        compositeProgram = new ShaderProgram(
+                ShaderHelper.compileShader(GLES20.GL_VERTEX_SHADER, compositeVertexShader),
+                ShaderHelper.compileShader(GLES20.GL_FRAGMENT_SHADER, compositeFragmentShader),
+                new String[] { POSITION_ATTRIBUTE });
+        compositeQuadBuffer = createCompositeQuad();
+
+        if (supportsEs3) {
+            final int multiViewFragmentShaderHandle = ShaderHelper.compileShader(GLES20.GL_FRAGMENT_SHADER,
+                    RawResourceReader.readTextFileFromRawResource(lessonEightActivity, R.raw.multiview_fragment_shader));
+            multiViewProgram = new ShaderProgram(
+                    ShaderHelper.compileShader(GLES20.GL_VERTEX_SHADER, RawResourceReader
+                            .readTextFileFromRawResource(lessonEightActivity, R.raw.multiview_vertex_shader)),
+                    multiViewFragmentShaderHandle,
+                    new String[] { POSITION_ATTRIBUTE, NORMAL_ATTRIBUTE, "a_TexCoordinate" });
+            multiViewQuantizedProgram = new ShaderProgram(
+                    ShaderHelper.compileShader(GLES20.GL_VERTEX_SHADER, RawResourceReader
+                            .readTextFileFromRawResource(lessonEightActivity, R.raw.multiview_quantized_vertex_shader)),
+                    multiViewFragmentShaderHandle,
+                    new String[] { POSITION_ATTRIBUTE, NORMAL_ATTRIBUTE, "a_TexCoordinate" });
+        }
+
         // Initialize the accumulated rotation matrix
         Matrix.setIdentityM(accumulatedRotation, 0);
+        updateModelMatrix();
     }
 
     int width1, height1;
@@ -241,141 +527,619 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
     public void onSurfaceChanged(GL10 glUnused, int width, int height) {
         width1 = width;
         height1 = height;
+        applyLayout();
+    }
 
-        final float ratio = (float) width / height;
-        final float left = -ratio;
-        final float right = ratio;
-        final float bottom = -1.0f;
-        final float top = 1.0f;
-        final float near = 1.0f;
-        final float far = 1000.0f;
-
-        Matrix.frustumM(projectionMatrix, 0, left, right, bottom, top, near, far);
+    /** Lays out the faces for the current window and takes over their projections. */
+    private void applyLayout(){
+        if (width1 <= 0 || height1 <= 0) {
+            return;
+        }
+        layout.layout(width1, height1);
+        System.arraycopy(layout.getProjections(), 0, projectionMatrices, 0, layout.getFaceCount() * 16);
+        System.arraycopy(layout.getUprightProjection(), 0, projectionMatrices, UPRIGHT_VIEW * 16, 16);
+        System.arraycopy(layout.getFocalScales(), 0, focalScales, 0, layout.getFaceCount());
+        focalScales[UPRIGHT_VIEW] = layout.getUprightProjection()[5];
     }
 
     @Override
     public void onDrawFrame(GL10 glUnused) {
+        profiler.beginFrame();
+        final long frameNanos = System.nanoTime();
+        if (lastFrameNanos != 0) {
+            resolution.addFrame((frameNanos - lastFrameNanos) / 1.0e6f);
+        }
+        final long gpuNanos = profiler.takeGpuFrameNanos();
+        if (gpuNanos >= 0) {
+            resolution.addGpuFrame(gpuNanos / 1.0e6f);
+        }
+        lastFrameNanos = frameNanos;
+        frameScale = adaptiveResolution ? resolution.getScale() : 1.0f;
+
+        final HologramLayout newLayout = pendingLayout;
+        if (newLayout != null) {
+            pendingLayout = null;
+            layout = newLayout;
+            applyLayout();
+        }
+        applyInput();
 
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-        GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+        profiler.phase(FrameProfiler.UPDATE);
+        uploadPendingAssets();
+        scene.update();
+        prepareFrame();
 
-        GLES20.glViewport(0, 0, width1/2, height1/2);
-        GLES20.glScissor(0, 0, width1/2, height1/2);
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-        renderScene();
+        profiler.phase(FrameProfiler.SUBMIT);
 
-        GLES20.glViewport(0, height1/2, width1/2, height1/2);
-        GLES20.glScissor(0, height1/2, width1/2, height1/2);
+        // Faces do not overlap and every view is clipped to its viewport, so
+        // one clear covers them all.
+        glState.disable(GLES20.GL_SCISSOR_TEST);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-        renderScene();
 
-        GLES20.glViewport(width1/2, height1/4, width1/2, height1/2);
-        GLES20.glScissor(width1/2, height1/4, width1/2, height1/2);
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-        renderScene();
+        // Devices that cannot draw offscreen draw every view directly, at
+        // full resolution.
+        final int[] faceViewports = layout.getViewports();
+        if (compositeViews && layout.isSameSize() && layout.isSameCamera()
+                && prepareTarget(viewTarget, faceViewports[2], faceViewports[3])) {
+            renderComposited();
+        } else {
+            // Below full resolution the faces are drawn at the same place,
+            // scaled towards the bottom left, into a target the size of the
+            // window, which is then stretched over it.
+            if (frameScale < 1.0f && !prepareTarget(frameTarget, width1, height1)) {
+                frameScale = 1.0f;
+            }
+            final boolean scaled = frameScale < 1.0f;
+            if (scaled) {
+                glState.bindFramebuffer(frameTarget.getFramebuffer());
+                GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+            }
+
+            // Instanced, every view is drawn at once and timed as the first.
+            if (multiViewProgram != null) {
+                profiler.beginGpuView(0);
+                renderMultiView();
+                profiler.endGpuView();
+            } else {
+                final int[] viewports = layout.getViewports();
+                for (int view = 0; view < layout.getFaceCount(); view++) {
+                    profiler.beginGpuView(view);
+                    glState.viewport(scaled(viewports[view * 4]), scaled(viewports[view * 4 + 1]),
+                            scaled(viewports[view * 4 + 2]), scaled(viewports[view * 4 + 3]));
+                    renderScene(view, scaled(viewports[view * 4 + 3]));
+                    profiler.endGpuView();
+                }
+            }
+
+            if (scaled) {
+                profiler.phase(FrameProfiler.SUBMIT);
+                glState.bindFramebuffer(0);
+                beginComposite(frameTarget.getColorTexture(), frameScale, frameScale);
+                glState.viewport(0, 0, width1, height1);
+                compositeProgram.getUniform(ORIENTATION_UNIFORM).set(IDENTITY_ORIENTATION, 0);
+                GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+                profiler.countDraw(2);
+                endComposite();
+            }
+        }
+
+        glState.endFrame();
+        profiler.endFrame(glState.getIssuedCalls(), glState.getSavedCalls());
+
+        final RenderScheduler scheduler = this.scheduler;
+        if (scheduler != null) {
+            // Keep drawing while the scale in use moves towards a new target.
+            final boolean rescale = adaptiveResolution && resolution.getScale() != resolution.getTargetScale();
+            if (rescale != rescaling) {
+                rescaling = rescale;
+                if (rescale) {
+                    scheduler.beginAnimation();
+                } else {
+                    scheduler.endAnimation();
+                }
+            }
+
+            // Unless this frame asked for the next one, the time until it is
+            // idle, not drawing, and must not count as a slow frame.
+            if (!scheduler.onFrameDrawn()) {
+                lastFrameNanos = 0;
+            }
+        }
     }
 
-    private void renderScene(){
-        // Set our per-vertex lighting program.
-        GLES20.glUseProgram(program);
+    /**
+     * Selects whatever lies under a tap at ({@code x}, {@code y}), in view
+     * pixels from the top left, and returns its node, or null if the tap
+     * missed. Must run on the GL thread, e.g. through queueEvent, since it
+     * reads the scene.
+     */
+    public SceneNode pick(float x, float y){
+        if (pick(x, y, selection)) {
+            Log.d(TAG, "Picked " + selection);
+        } else {
+            Log.d(TAG, "Picked nothing at " + x + ", " + y);
+        }
+        return selection.node;
+    }
 
-        // Set program handles for cube drawing.
-        mvpMatrixUniform = GLES20.glGetUniformLocation(program, MVP_MATRIX_UNIFORM);
-        mvMatrixUniform = GLES20.glGetUniformLocation(program, MV_MATRIX_UNIFORM);
-        lightPosUniform = GLES20.glGetUniformLocation(program, LIGHT_POSITION_UNIFORM);
-        positionAttribute = GLES20.glGetAttribLocation(program, POSITION_ATTRIBUTE);
-        normalAttribute = GLES20.glGetAttribLocation(program, NORMAL_ATTRIBUTE);
-        mTextureUniformHandle = GLES20.glGetUniformLocation(program, "u_Texture");
-        mTextureCoordinateHandle = GLES20.glGetAttribLocation(program, "a_TexCoordinate");
+    /** What the last tap picked, see {@link #pick(float, float)}. Read on the GL thread. */
+    public PickResult getSelection(){
+        return selection;
+    }
 
+    /**
+     * Casts a ray from the eye through the touched pixel of the view it
+     * landed in. Returns whether it hit a model, filling {@code result}.
+     */
+    private boolean pick(float x, float y, PickResult result){
+        result.reset();
+
+        // Touch coordinates start at the top, GL window coordinates at the bottom.
+        final float windowY = height1 - y;
+        final int[] viewports = layout.getViewports();
+        for (int view = layout.getFaceCount() - 1; view >= 0; view--) {
+            final int left = viewports[view * 4];
+            final int bottom = viewports[view * 4 + 1];
+            final int width = viewports[view * 4 + 2];
+            final int height = viewports[view * 4 + 3];
+            if (x < left || x >= left + width || windowY < bottom || windowY >= bottom + height) {
+                continue;
+            }
+
+            if (!Matrix.invertM(inverseViewProjectionMatrix, 0, viewProjectionMatrices, view * 16)) {
+                return false;
+            }
+
+            // The same pixel on the near and far planes, in world space.
+            touchPoint[0] = 2.0f * (x - left) / width - 1.0f;
+            touchPoint[1] = 2.0f * (windowY - bottom) / height - 1.0f;
+            touchPoint[2] = -1.0f;
+            touchPoint[3] = 1.0f;
+            Matrix.multiplyMV(nearPoint, 0, inverseViewProjectionMatrix, 0, touchPoint, 0);
+            touchPoint[2] = 1.0f;
+            Matrix.multiplyMV(farPoint, 0, inverseViewProjectionMatrix, 0, touchPoint, 0);
+
+            for (int axis = 0; axis < 3; axis++) {
+                rayOrigin[axis] = nearPoint[axis] / nearPoint[3];
+                rayDirection[axis] = farPoint[axis] / farPoint[3] - rayOrigin[axis];
+            }
+            return scene.raycast(rayOrigin, rayDirection, result);
+        }
+        return false;
+    }
 
-        // Calculate position of the light. Push into the distance.
-        Matrix.setIdentityM(lightModelMatrix, 0);
-        Matrix.translateM(lightModelMatrix, 0, 0.0f,  0.0f, -1.0f);
+    /** Decodes the texture's PNG, for contexts without a compressed variant of it. */
+    private void loadBitmapTexture() {
+        assetLoader.loadBitmap(R.drawable.lutec, new AssetLoader.Callback<Bitmap>() {
+            @Override
+            public void onLoaded(Bitmap asset) {
+                if (pendingBitmap != null) {
+                    pendingBitmap.recycle();
+                }
+                pendingBitmap = asset;
+                textureRequested = false;
+                requestRender();
+            }
+        });
+    }
 
-        Matrix.multiplyMV(lightPosInWorldSpace, 0, lightModelMatrix, 0, lightPosInModelSpace, 0);
-        Matrix.multiplyMV(lightPosInEyeSpace, 0, viewMatrix, 0, lightPosInWorldSpace, 0);
+    /**
+     * Swaps in assets that finished loading. The upload happens here rather
+     * than in the queued event, because events may run while the surface has
+     * no current context.
+     */
+    private void uploadPendingAssets(){
+        if (modelUploadPending) {
+            modelUploadPending = false;
+            loadedModel.loadVBO();
+            modelNode.setModel(loadedModel);
+            placeholderModel.deleteVBO();
+            glState.invalidateBuffers();
+        }
 
-        // Draw the heightmap.
-        // Translate the heightmap into the screen.
-        Matrix.setIdentityM(modelMatrix, 0);
-        Matrix.translateM(modelMatrix, 0, 0.0f, 0.0f, -3.5f);
-        //Matrix.scaleM(modelMatrix,0,0.2f,0.2f,0.2f);
+        if (pendingBitmap != null) {
+            final int placeholderTexture = mAndroidDataHandle;
+            mAndroidDataHandle = TextureHelper.loadTexture(pendingBitmap);
+            pendingBitmap = null;
+            GLES20.glDeleteTextures(1, new int[] { placeholderTexture }, 0);
+            glState.invalidateTextures();
+        }
+
+        if (textureUploadPending) {
+            textureUploadPending = false;
+            final int placeholderTexture = mAndroidDataHandle;
+            mAndroidDataHandle = TextureHelper.loadTexture(loadedTexture, textureSupport);
+            GLES20.glDeleteTextures(1, new int[] { placeholderTexture }, 0);
+            glState.invalidateTextures();
+        }
+    }
 
-        //Matrix.scaleM(modelMatrix, 0, 10.0f, 10.0f, 10.0f);
+    /** A unit cube built with ShapeBuilder, with normals pointing out of its corners. */
+    private static Model createPlaceholderModel(){
+        final float[] p1 = { -0.5f,  0.5f,  0.5f };
+        final float[] p2 = {  0.5f,  0.5f,  0.5f };
+        final float[] p3 = { -0.5f, -0.5f,  0.5f };
+        final float[] p4 = {  0.5f, -0.5f,  0.5f };
+        final float[] p5 = { -0.5f,  0.5f, -0.5f };
+        final float[] p6 = {  0.5f,  0.5f, -0.5f };
+        final float[] p7 = { -0.5f, -0.5f, -0.5f };
+        final float[] p8 = {  0.5f, -0.5f, -0.5f };
+
+        final Model cube = new Model();
+        cube.vertices = ShapeBuilder.generateCubeData(p1, p2, p3, p4, p5, p6, p7, p8, POSITION_DATA_SIZE_IN_ELEMENTS);
+
+        final int vertexCount = cube.vertices.length / POSITION_DATA_SIZE_IN_ELEMENTS;
+        final float length = (float) Math.sqrt(3 * 0.5f * 0.5f);
+        cube.normals = new float[cube.vertices.length];
+        for (int i = 0; i < cube.vertices.length; i++) {
+            cube.normals[i] = cube.vertices[i] / length;
+        }
+        cube.texCoords = new float[vertexCount * 2];
+        cube.indices = new int[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            cube.indices[i] = i;
+        }
+        cube.load();
+        MeshBvh.build(cube);
+        return cube;
+    }
 
-        // Set a matrix that contains the current rotation.
-        Matrix.setIdentityM(currentRotation, 0);
-        Matrix.rotateM(currentRotation, 0, deltaX, 0.0f, 1.0f, 0.0f);
-        Matrix.rotateM(currentRotation, 0, deltaY, 1.0f, 0.0f, 0.0f);
-        deltaX = 0.0f;
-        deltaY = 0.0f;
+    /**
+     * The eye's view matrix with the camera moved {@code yaw} degrees around
+     * the model, clockwise seen from above: the world turns the other way
+     * about the model's vertical axis before the eye looks at it.
+     */
+    private void orbitView(float yaw, float[] result, int offset){
+        if (yaw == 0.0f) {
+            System.arraycopy(viewMatrix, 0, result, offset, 16);
+            return;
+        }
+        Matrix.setIdentityM(orbitMatrix, 0);
+        Matrix.translateM(orbitMatrix, 0, 0.0f, 0.0f, -MODEL_DISTANCE);
+        Matrix.rotateM(orbitMatrix, 0, yaw, 0.0f, 1.0f, 0.0f);
+        Matrix.translateM(orbitMatrix, 0, 0.0f, 0.0f, MODEL_DISTANCE);
+        Matrix.multiplyMM(result, offset, viewMatrix, 0, orbitMatrix, 0);
+    }
 
+    /** Applies the rotation accumulated from touch events since the last frame. */
+    private void applyInput(){
+        final float rotationX = deltaX;
+        final float rotationY = deltaY;
+        if (rotationX != 0.0f || rotationY != 0.0f) {
+            deltaX = 0.0f;
+            deltaY = 0.0f;
+
+            // Set a matrix that contains the current rotation.
+            Matrix.setIdentityM(currentRotation, 0);
+            Matrix.rotateM(currentRotation, 0, rotationX, 0.0f, 1.0f, 0.0f);
+            Matrix.rotateM(currentRotation, 0, rotationY, 1.0f, 0.0f, 0.0f);
+
+            // Multiply the current rotation by the accumulated rotation, and then
+            // set the accumulated rotation to the result.
+            Matrix.multiplyMM(temporaryMatrix, 0, currentRotation, 0, accumulatedRotation, 0);
+            System.arraycopy(temporaryMatrix, 0, accumulatedRotation, 0, 16);
+
+            updateModelMatrix();
+        }
+    }
 
-        // Multiply the current rotation by the accumulated rotation, and then
-        // set the accumulated rotation to the result.
-        Matrix.multiplyMM(temporaryMatrix, 0, currentRotation, 0, accumulatedRotation, 0);
-        System.arraycopy(temporaryMatrix, 0, accumulatedRotation, 0, 16);
+    /** Places the model node into the screen, rotated by the accumulated rotation. */
+    private void updateModelMatrix(){
+        // Translate the heightmap into the screen.
+        Matrix.setIdentityM(modelMatrix, 0);
+        Matrix.translateM(modelMatrix, 0, 0.0f, 0.0f, -MODEL_DISTANCE);
 
         // Rotate the cube taking the overall rotation into account.
         Matrix.multiplyMM(temporaryMatrix, 0, modelMatrix, 0, accumulatedRotation, 0);
-        System.arraycopy(temporaryMatrix, 0, modelMatrix, 0, 16);
+        modelNode.setLocalMatrix(temporaryMatrix);
+    }
+
+    /**
+     * Draws the scene once, at the size of one view, and copies the image
+     * into every viewport with that view's orientation. Geometry and lighting
+     * are paid for once instead of once per view. {@link #viewTarget} must
+     * have been prepared.
+     */
+    private void renderComposited(){
+        final int[] viewports = layout.getViewports();
+        final float[] orientations = layout.getOrientations();
+        final int width = viewports[2];
+        final int height = viewports[3];
+
+        // Below full resolution only the bottom left of the target is drawn.
+        glState.bindFramebuffer(viewTarget.getFramebuffer());
+        glState.viewport(0, 0, scaled(width), scaled(height));
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
-        // This multiplies the view matrix by the model matrix, and stores
-        // the result in the MVP matrix
-        // (which currently contains model * view).
-        Matrix.multiplyMM(mvpMatrix, 0, viewMatrix, 0, modelMatrix, 0);
+        // Timed as the first view, since it is drawn for all of them.
+        profiler.beginGpuView(0);
+        renderScene(UPRIGHT_VIEW, scaled(height));
+        profiler.endGpuView();
+        profiler.phase(FrameProfiler.SUBMIT);
+        glState.bindFramebuffer(0);
+
+        beginComposite(viewTarget.getColorTexture(), (float) scaled(width) / width, (float) scaled(height) / height);
+        for (int view = 0; view < layout.getFaceCount(); view++) {
+            glState.viewport(viewports[view * 4], viewports[view * 4 + 1], width, height);
+            compositeProgram.getUniform(ORIENTATION_UNIFORM).set(orientations, view * 4);
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+            profiler.countDraw(2);
+        }
+        endComposite();
+    }
 
-        // Pass in the modelview matrix.
-        GLES20.glUniformMatrix4fv(mvMatrixUniform, 1, false, mvpMatrix, 0);
+    /**
+     * Sizes {@code target} for this frame. Returns false if the device cannot
+     * draw into it, which RenderTarget logs once per size.
+     */
+    private boolean prepareTarget(RenderTarget target, int width, int height){
+        if (target.resize(width, height)) {
+            glState.invalidateTextures();
+            glState.invalidateFramebuffer();
+        }
+        return target.isComplete();
+    }
 
-        // This multiplies the modelview matrix by the projection matrix,
-        // and stores the result in the MVP matrix
-        // (which now contains model * view * projection).
-        Matrix.multiplyMM(temporaryMatrix, 0, projectionMatrix, 0, mvpMatrix, 0);
-        System.arraycopy(temporaryMatrix, 0, mvpMatrix, 0, 16);
+    /** A window or face length in pixels, at the resolution of the current frame. */
+    private int scaled(int pixels){
+        return Math.round(pixels * frameScale);
+    }
 
-        // Pass in the combined matrix.
-        GLES20.glUniformMatrix4fv(mvpMatrixUniform, 1, false, mvpMatrix, 0);
+    /**
+     * Sets up the composite program to copy {@code texture}, of which the
+     * part from the bottom left to ({@code usedWidth}, {@code usedHeight}),
+     * as fractions, holds the picture. Draw the quads, then call
+     * {@link #endComposite()}.
+     */
+    private void beginComposite(int texture, float usedWidth, float usedHeight){
+        // The quads cover their viewport exactly; nothing to depth test.
+        glState.disable(GLES20.GL_DEPTH_TEST);
+        compositeProgram.use(glState);
+
+        // Only the quad's position is read; the model's other attributes are
+        // switched off until its next draw.
+        if (normalAttribute >= 0) {
+            glState.disableVertexAttribArray(normalAttribute);
+        }
+        if (mTextureCoordinateHandle >= 0) {
+            glState.disableVertexAttribArray(mTextureCoordinateHandle);
+        }
+        final int quadAttribute = compositeProgram.getAttribute(POSITION_ATTRIBUTE);
+        glState.bindBuffer(GLES20.GL_ARRAY_BUFFER, compositeQuadBuffer);
+        glState.enableVertexAttribArray(quadAttribute);
+        glState.vertexAttribPointer(quadAttribute, 2, GLES20.GL_FLOAT, false, 0, 0);
+
+        glState.activeTexture(GLES20.GL_TEXTURE0);
+        glState.bindTexture(GLES20.GL_TEXTURE_2D, texture);
+        compositeProgram.getUniform(TEXTURE_UNIFORM).set(0);
+        texScale[0] = usedWidth;
+        texScale[1] = usedHeight;
+        compositeProgram.getUniform(TEX_SCALE_UNIFORM).set(texScale, 0);
+    }
 
-        // Pass in the light position in eye space.
-        GLES20.glUniform3f(lightPosUniform, lightPosInEyeSpace[0], lightPosInEyeSpace[1], lightPosInEyeSpace[2]);
+    private void endComposite(){
+        glState.enable(GLES20.GL_DEPTH_TEST);
+    }
 
-        // activate texture 0, bind it, and pass to shader
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,
-                mAndroidDataHandle);
-        GLES20.glUniform1i(mTextureUniformHandle, 0);
+    /**
+     * Draws each node visible in any view once, instanced once per view. The
+     * vertex shader picks the view's matrices by instance and moves the
+     * result into the view's part of the window; the fragment shader drops
+     * what falls outside it, as a scissor box would.
+     */
+    private void renderMultiView(){
+        profiler.phase(FrameProfiler.VIEW_SETUP);
+        glState.viewport(0, 0, scaled(width1), scaled(height1));
+
+        multiViewFrame++;
+        int count = 0;
+        for (int view = 0; view < layout.getFaceCount(); view++) {
+            frustum.set(viewProjectionMatrices, view * 16);
+            final int visibleCount = scene.cull(frustum);
+            for (int i = 0; i < visibleCount; i++) {
+                final SceneNode node = scene.getVisible(i);
+                final int drawable = node.getDrawableIndex();
+                if (multiViewStamps[drawable] != multiViewFrame) {
+                    multiViewStamps[drawable] = multiViewFrame;
+                    multiViewNodes[count++] = node;
+                }
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            renderNodeMultiView(multiViewNodes[i]);
+            multiViewNodes[i] = null;
+        }
+    }
+
+    /** Sets up every view's matrices for the node and draws it with one instanced call. */
+    private void renderNodeMultiView(SceneNode node){
+        profiler.phase(FrameProfiler.VIEW_SETUP);
+        final Model model = node.getModel();
+        final int drawable = node.getDrawableIndex();
+
+        final int viewCount = layout.getFaceCount();
+        final int[] viewports = layout.getViewports();
+
+        // One level of detail for all views: the finest any of them needs.
+        int lod = Integer.MAX_VALUE;
+        for (int view = 0; view < viewCount; view++) {
+            lod = Math.min(lod, selectLod(model, drawable, view, scaled(viewports[view * 4 + 3])));
+            Matrix.multiplyMM(multiViewMvMatrices, view * 16, viewMatrices, view * 16, drawMatrices, drawable * 16);
+            Matrix.multiplyMM(multiViewMvpMatrices, view * 16, viewProjectionMatrices, view * 16,
+                    drawMatrices, drawable * 16);
+        }
+
+        final Quantization quantization = model.getQuantization();
+        final ShaderProgram activeProgram = quantization != null ? multiViewQuantizedProgram : multiViewProgram;
+
+        activeProgram.use(glState);
+        positionAttribute = activeProgram.getAttribute(POSITION_ATTRIBUTE);
+        normalAttribute = activeProgram.getAttribute(NORMAL_ATTRIBUTE);
+        mTextureCoordinateHandle = activeProgram.getAttribute("a_TexCoordinate");
+
+        if (quantization != null) {
+            activeProgram.getUniform(NORMAL_DEQUANT_UNIFORM).set(quantization.normalDequant, 0);
+            activeProgram.getUniform(TEX_COORD_TRANSFORM_UNIFORM).set(quantization.texCoordTransform, 0);
+        }
+        activeProgram.getUniform(MV_MATRIX_UNIFORM).set(multiViewMvMatrices, 0, viewCount);
+        activeProgram.getUniform(MVP_MATRIX_UNIFORM).set(multiViewMvpMatrices, 0, viewCount);
+        activeProgram.getUniform(LIGHT_POSITION_UNIFORM).set(multiViewLights, 0, viewCount);
+        activeProgram.getUniform(VIEW_RECT_UNIFORM).set(layout.getClipRects(), 0, viewCount);
+
+        glState.activeTexture(GLES20.GL_TEXTURE0);
+        glState.bindTexture(GLES20.GL_TEXTURE_2D, mAndroidDataHandle);
+        activeProgram.getUniform(TEXTURE_UNIFORM).set(0);
+
+        drawModel(model, lod, viewCount);
+    }
+
+    /** Uploads {@link #COMPOSITE_QUAD} and returns its buffer. */
+    private int createCompositeQuad(){
+        final FloatBuffer quad = ByteBuffer.allocateDirect(COMPOSITE_QUAD.length * BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        quad.put(COMPOSITE_QUAD).position(0);
+
+        final int[] buffer = new int[1];
+        GLES20.glGenBuffers(1, buffer, 0);
+        glState.bindBuffer(GLES20.GL_ARRAY_BUFFER, buffer[0]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, COMPOSITE_QUAD.length * BYTES_PER_FLOAT, quad,
+                GLES20.GL_STATIC_DRAW);
+        return buffer[0];
+    }
+
+    /**
+     * Work shared by all views, once per frame: the light, and for each
+     * drawable the matrix its vertices are drawn with plus what level of
+     * detail selection needs, all in world space.
+     */
+    private void prepareFrame(){
+        // Calculate position of the light. Push into the distance.
+        Matrix.setIdentityM(lightModelMatrix, 0);
+        Matrix.translateM(lightModelMatrix, 0, 0.0f,  0.0f, -1.0f);
+        Matrix.multiplyMV(lightPosInWorldSpace, 0, lightModelMatrix, 0, lightPosInModelSpace, 0);
+
+        // Every view looks through its own camera: one per face, and the
+        // upright one composited views are drawn with, which only happens
+        // while all faces share the first face's camera.
+        final int faceCount = layout.getFaceCount();
+        final float[] cameraYaws = layout.getCameraYaws();
+        for (int i = 0; i <= faceCount; i++) {
+            final int view = i < faceCount ? i : UPRIGHT_VIEW;
+            orbitView(cameraYaws[i < faceCount ? i : 0], viewMatrices, view * 16);
+            Matrix.multiplyMM(viewProjectionMatrices, view * 16, projectionMatrices, view * 16, viewMatrices, view * 16);
+            Matrix.multiplyMV(lightPosInEyeSpace, view * 4, viewMatrices, view * 16, lightPosInWorldSpace, 0);
+            if (i < faceCount) {
+                System.arraycopy(lightPosInEyeSpace, view * 4, multiViewLights, view * 3, 3);
+            }
+        }
+
+        final int drawableCount = scene.getDrawableCount();
+        if (drawMatrices.length < drawableCount * 16) {
+            drawMatrices = new float[drawableCount * 16];
+            drawCenters = new float[drawableCount * 4];
+            drawScales = new float[drawableCount];
+            multiViewStamps = new int[drawableCount];
+            multiViewNodes = new SceneNode[drawableCount];
+        }
+        for (int i = 0; i < drawableCount; i++) {
+            final SceneNode node = scene.getDrawable(i);
+            final Model model = node.getModel();
+            final float[] worldMatrix = node.getWorldMatrix();
+
+            // Quantized models also map their stored integer positions back
+            // to model space first.
+            final Quantization quantization = model.getQuantization();
+            if (quantization != null) {
+                Matrix.multiplyMM(drawMatrices, i * 16, worldMatrix, 0, quantization.positionMatrix, 0);
+            } else {
+                System.arraycopy(worldMatrix, 0, drawMatrices, i * 16, 16);
+            }
+
+            final float[] center = model.getBoundingCenter();
+            System.arraycopy(center, 0, temporaryVector, 0, 3);
+            temporaryVector[3] = 1.0f;
+            Matrix.multiplyMV(drawCenters, i * 4, worldMatrix, 0, temporaryVector, 0);
+            drawScales[i] = Matrix.length(worldMatrix[0], worldMatrix[1], worldMatrix[2]);
+        }
+    }
+
+    /** Draws the scene into the current viewport, which belongs to {@code view}. */
+    private void renderScene(int view, int viewportHeight){
+        profiler.phase(FrameProfiler.VIEW_SETUP);
+        // Only the nodes whose world bounds reach into this viewport are drawn.
+        frustum.set(viewProjectionMatrices, view * 16);
+        final int visibleCount = scene.cull(frustum);
+        for (int i = 0; i < visibleCount; i++) {
+            renderNode(scene.getVisible(i), view, viewportHeight);
+        }
+    }
 
-        drawModel();
+    /** Combines the node's frame data with the view's camera and draws it. */
+    private void renderNode(SceneNode node, int view, int viewportHeight){
+        profiler.phase(FrameProfiler.VIEW_SETUP);
+        final Model model = node.getModel();
+        final int drawable = node.getDrawableIndex();
+        final int lod = selectLod(model, drawable, view, viewportHeight);
+
+        // Quantized models need the shader that decodes their attributes.
+        final Quantization quantization = model.getQuantization();
+        final ShaderProgram activeProgram = quantization != null ? quantizedProgram : program;
+
+        // Set our per-vertex lighting program. Its handles were looked up at link time.
+        activeProgram.use(glState);
+        positionAttribute = activeProgram.getAttribute(POSITION_ATTRIBUTE);
+        normalAttribute = activeProgram.getAttribute(NORMAL_ATTRIBUTE);
+        mTextureCoordinateHandle = activeProgram.getAttribute("a_TexCoordinate");
+
+        if (quantization != null) {
+            activeProgram.getUniform(NORMAL_DEQUANT_UNIFORM).set(quantization.normalDequant, 0);
+            activeProgram.getUniform(TEX_COORD_TRANSFORM_UNIFORM).set(quantization.texCoordTransform, 0);
+        }
+
+        // Pass in the modelview matrix. Unchanged values are not sent again.
+        Matrix.multiplyMM(mvMatrix, 0, viewMatrices, view * 16, drawMatrices, drawable * 16);
+        activeProgram.getUniform(MV_MATRIX_UNIFORM).set(mvMatrix, 0);
 
+        // Pass in the combined matrix.
+        Matrix.multiplyMM(mvpMatrix, 0, viewProjectionMatrices, view * 16, drawMatrices, drawable * 16);
+        activeProgram.getUniform(MVP_MATRIX_UNIFORM).set(mvpMatrix, 0);
 
-        /*
-        GLES20.glVertexAttribPointer(positionAttribute, 3, GLES20.GL_FLOAT,
-                false, 0, model.getVertices());
-        GLES20.glVertexAttribPointer(normalAttribute, 3, GLES20.GL_FLOAT,
-                false, 0, model.getNormals());
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, 2,
-                GLES20.GL_FLOAT, false, 0, model.getTexCoords());
+        // Pass in the light position in eye space.
+        activeProgram.getUniform(LIGHT_POSITION_UNIFORM).set(lightPosInEyeSpace, view * 4);
 
-        GLES20.glEnableVertexAttribArray(positionAttribute);
-        GLES20.glEnableVertexAttribArray(normalAttribute);
-        GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
+        // activate texture 0, bind it, and pass to shader
+        glState.activeTexture(GLES20.GL_TEXTURE0);
+        glState.bindTexture(GLES20.GL_TEXTURE_2D, mAndroidDataHandle);
+        activeProgram.getUniform(TEXTURE_UNIFORM).set(0);
 
-        // draw the model
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES,
-                model.getNumObjectIndex(), GLES20.GL_UNSIGNED_SHORT,
-                model.getIndices());
+        drawModel(model, lod, 1);
+    }
 
-        // disable the enabled arrays
-        GLES20.glDisableVertexAttribArray(positionAttribute);
-        GLES20.glDisableVertexAttribArray(normalAttribute);
-        GLES20.glDisableVertexAttribArray(mTextureCoordinateHandle);
+    /**
+     * Returns the coarsest level of detail whose estimated simplification
+     * error stays under {@link #LOD_PIXEL_ERROR} pixels on screen, for a
+     * drawable prepared by {@link #prepareFrame()}, seen from {@code view}
+     * in a viewport {@code viewportHeight} pixels tall.
+     */
+    private int selectLod(Model model, int drawable, int view, int viewportHeight){
+        final float[] v = viewMatrices;
+        final int o = view * 16;
+        final float distance = -(v[o + 2] * drawCenters[drawable * 4] + v[o + 6] * drawCenters[drawable * 4 + 1]
+                + v[o + 10] * drawCenters[drawable * 4 + 2] + v[o + 14]);
+        if (distance <= 0.0f) {
+            return 0;
+        }
 
-        */
+        // Pixels covered by one model unit at the model's distance. A turned
+        // face's projection has its scale spread over [4] and [5], so the
+        // layout's unturned scale is used.
+        final float pixelsPerUnit = focalScales[view] * viewportHeight * 0.5f * drawScales[drawable] / distance;
+        return model.selectLod(pixelsPerUnit, LOD_PIXEL_ERROR);
     }
 
-    private void drawModel(){
+    /** Draws one level of detail of the model, {@code instances} times if more than once. */
+    private void drawModel(Model model, int lod, int instances){
 /*
         final int buffers[] = new int[3];
         GLES20.glGenBuffers(3, buffers, 0);
@@ -396,27 +1160,71 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
         final int mCubeNormalsBufferIdx = buffers[1];
         final int mCubeTexCoordsBufferIdx = buffers[2];*/
 
-        // Pass in the position information
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, model.mCubePositionsBufferIdx);
-        GLES20.glEnableVertexAttribArray(positionAttribute);
-        GLES20.glVertexAttribPointer(positionAttribute, 3, GLES20.GL_FLOAT, false, 0, 0);
-
-        // Pass in the normal information
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, model.mCubeNormalsBufferIdx);
-        GLES20.glEnableVertexAttribArray(normalAttribute);
-        GLES20.glVertexAttribPointer(normalAttribute, 3, GLES20.GL_FLOAT, false, 0, 0);
+        profiler.phase(FrameProfiler.SUBMIT);
+        final VertexLayout layout = model.getVertexLayout();
+
+        // Pass in the position information. Bindings and pointers that are
+        // already in place are skipped by glState.
+        glState.bindBuffer(GLES20.GL_ARRAY_BUFFER, model.mCubePositionsBufferIdx);
+        glState.enableVertexAttribArray(positionAttribute);
+        glState.vertexAttribPointer(positionAttribute, layout.getSize(VertexLayout.POSITION),
+                layout.getType(VertexLayout.POSITION), layout.isNormalized(VertexLayout.POSITION),
+                layout.getStride(), layout.getOffset(VertexLayout.POSITION));
+
+        // Pass in the normal information. Interleaved models keep every
+        // attribute in the buffer that is already bound.
+        if (!layout.isInterleaved()) {
+            glState.bindBuffer(GLES20.GL_ARRAY_BUFFER, model.mCubeNormalsBufferIdx);
+        }
+        glState.enableVertexAttribArray(normalAttribute);
+        glState.vertexAttribPointer(normalAttribute, layout.getSize(VertexLayout.NORMAL),
+                layout.getType(VertexLayout.NORMAL), layout.isNormalized(VertexLayout.NORMAL),
+                layout.getStride(), layout.getOffset(VertexLayout.NORMAL));
 
         // Pass in the texture information
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, model.mCubeTexCoordsBufferIdx);
-        GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, 2, GLES20.GL_FLOAT, false,
-                0, 0);
+        if (!layout.isInterleaved()) {
+            glState.bindBuffer(GLES20.GL_ARRAY_BUFFER, model.mCubeTexCoordsBufferIdx);
+        }
+        glState.enableVertexAttribArray(mTextureCoordinateHandle);
+        glState.vertexAttribPointer(mTextureCoordinateHandle, layout.getSize(VertexLayout.TEXCOORD),
+                layout.getType(VertexLayout.TEXCOORD), layout.isNormalized(VertexLayout.TEXCOORD),
+                layout.getStride(), layout.getOffset(VertexLayout.TEXCOORD));
+
+        profiler.countDraw(model.getLodIndexCount(lod) / 3 * instances);
+
+        // Models expanded for lack of 32-bit indices hold each level as a
+        // range of vertices.
+        if (!model.isIndexed()) {
+            if (instances > 1) {
+                drawArraysInstanced(model.getLodFirst(lod), model.getLodIndexCount(lod), instances);
+            } else {
+                GLES20.glDrawArrays(GLES20.GL_TRIANGLES, model.getLodFirst(lod), model.getLodIndexCount(lod));
+            }
+            return;
+        }
 
-        // Clear the currently bound buffer (so future OpenGL calls do not use this buffer).
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        // Draw the model through its index buffer, so shared vertices are only
+        // shaded once. The buffers stay bound: every later GL call goes
+        // through glState, which knows about them.
+        glState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, model.mCubeIndicesBufferIdx);
+        if (instances > 1) {
+            drawElementsInstanced(model.getLodIndexCount(lod), model.getIndexType(), model.getLodIndexOffset(lod),
+                    instances);
+        } else {
+            GLES20.glDrawElements(GLES20.GL_TRIANGLES, model.getLodIndexCount(lod), model.getIndexType(),
+                    model.getLodIndexOffset(lod));
+        }
 
-        // Draw the cubes.
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, model.getVertices().capacity());
+    }
+
+    /** Only reached with an ES 3.0 context, which needs API 18. */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void drawElementsInstanced(int count, int type, int offset, int instances){
+        GLES30.glDrawElementsInstanced(GLES20.GL_TRIANGLES, count, type, offset, instances);
+    }
 
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void drawArraysInstanced(int first, int count, int instances){
+        GLES30.glDrawArraysInstanced(GLES20.GL_TRIANGLES, first, count, instances);
     }
 }
\ No newline at end of file
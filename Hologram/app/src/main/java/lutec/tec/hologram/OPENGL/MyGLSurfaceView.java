@@ -3,7 +3,10 @@ package lutec.tec.hologram.OPENGL;
 import android.content.Context;
 import android.opengl.GLSurfaceView;
 import android.util.AttributeSet;
+import android.view.Display;
 import android.view.MotionEvent;
+import android.view.ViewConfiguration;
+import android.view.WindowManager;
 import android.widget.Toast;
 
 import lutec.tec.hologram.R;
@@ -15,6 +18,7 @@ import lutec.tec.hologram.R;
 public class MyGLSurfaceView extends GLSurfaceView implements ErrorHandler
 {
     private MyGLRenderer renderer;
+    private RenderScheduler scheduler;
 
     // Offsets for touch events
     private float previousX;
@@ -22,6 +26,14 @@ public class MyGLSurfaceView extends GLSurfaceView implements ErrorHandler
 
     private float density;
 
+    // Where the current touch went down, and whether it has moved too far to be a tap
+    private float downX;
+    private float downY;
+    private boolean dragging;
+
+    /** Whether a finger is down, during which the scheduler keeps drawing. */
+    private boolean touching;
+
     public MyGLSurfaceView(Context context)
     {
         super(context);
@@ -46,6 +58,11 @@ public class MyGLSurfaceView extends GLSurfaceView implements ErrorHandler
                                 .format(getContext().getResources().getString(
                                         R.string.lesson_eight_error_could_not_create_vbo), cause);
                         break;
+                    case ASSET_LOAD_ERROR:
+                        text = String
+                                .format(getContext().getResources().getString(
+                                        R.string.lesson_eight_error_could_not_load_asset), cause);
+                        break;
                     default:
                         text = String.format(
                                 getContext().getResources().getString(
@@ -63,11 +80,46 @@ public class MyGLSurfaceView extends GLSurfaceView implements ErrorHandler
     {
         if (event != null)
         {
-            float x = event.getX();
-            float y = event.getY();
+            final float x = event.getX();
+            final float y = event.getY();
+
+            final int action = event.getAction();
+            if (action == MotionEvent.ACTION_DOWN)
+            {
+                downX = x;
+                downY = y;
+                dragging = false;
+                if (scheduler != null && !touching)
+                {
+                    touching = true;
+                    scheduler.beginAnimation();
+                }
+            }
+            else if ((action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) && touching)
+            {
+                // Motion settles during the grace period after the finger lifts.
+                touching = false;
+                scheduler.endAnimation();
+                scheduler.onInput();
+            }
 
-            if (event.getAction() == MotionEvent.ACTION_MOVE)
+            if (action == MotionEvent.ACTION_UP && !dragging && renderer != null)
+            {
+                // The renderer owns the scene, so pick on its thread.
+                queueEvent(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        renderer.pick(x, y);
+                    }
+                });
+            }
+            else if (action == MotionEvent.ACTION_MOVE)
             {
+                final float slop = ViewConfiguration.get(getContext()).getScaledTouchSlop();
+                dragging |= Math.abs(x - downX) > slop || Math.abs(y - downY) > slop;
+
                 if (renderer != null)
                 {
                     float deltaX = (x - previousX) / density / 2f;
@@ -75,6 +127,7 @@ public class MyGLSurfaceView extends GLSurfaceView implements ErrorHandler
 
                     renderer.deltaX += deltaX;
                     renderer.deltaY += deltaY;
+                    scheduler.onInput();
                 }
             }
 
@@ -94,6 +147,18 @@ public class MyGLSurfaceView extends GLSurfaceView implements ErrorHandler
     {
         this.renderer = renderer;
         this.density = density;
+
+        // Only draw when something changed; the renderer and touch input ask for frames.
+        final Display display = ((WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE))
+                .getDefaultDisplay();
+        scheduler = new RenderScheduler(this, display.getRefreshRate(), RenderScheduler.DEFAULT_GRACE_MILLIS);
+        renderer.setScheduler(scheduler);
         super.setRenderer(renderer);
+        scheduler.start();
+    }
+
+    public RenderScheduler getScheduler()
+    {
+        return scheduler;
     }
 }
\ No newline at end of file
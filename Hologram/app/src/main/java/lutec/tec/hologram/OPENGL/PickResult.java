@@ -0,0 +1,30 @@
+package lutec.tec.hologram.OPENGL;
+
+import lutec.tec.hologram.obj.Model;
+import lutec.tec.hologram.obj.RayHit;
+
+/**
+ * What a ray cast into a {@link Scene} hit: the node and its model, plus the
+ * triangle and barycentric coordinates inherited from {@link RayHit}. The
+ * distance is measured along the world-space ray.
+ */
+public class PickResult extends RayHit
+{
+    public SceneNode node;
+    public Model model;
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        node = null;
+        model = null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return isHit() ? "triangle " + triangle + " at (" + (1.0f - u - v) + ", " + u + ", " + v + "), distance "
+                + distance : "nothing";
+    }
+}
@@ -0,0 +1,115 @@
+package lutec.tec.hologram.OPENGL;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.util.Log;
+import android.util.TypedValue;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Shows the renderer's frame timings over the surface view while it is
+ * attached, and enables the profiler for as long, along with how many display
+ * refreshes the scheduler skipped. A long press writes the recorded frames to
+ * a CSV file in the app's files directory.
+ */
+public class ProfilerOverlay extends TextView
+{
+    private static final String TAG = "ProfilerOverlay";
+
+    /** How often the text is refreshed. */
+    private static final long REFRESH_MILLIS = 500;
+
+    private final FrameProfiler profiler;
+    private final RenderScheduler scheduler;
+
+    private final Runnable refresh = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            setText((profiler.hasGpuTiming() ? profiler.getSummary()
+                    : profiler.getSummary() + "\nno GPU timer queries") + "\n" + scheduler);
+            postDelayed(this, REFRESH_MILLIS);
+        }
+    };
+
+    public ProfilerOverlay(Context context, FrameProfiler profiler, RenderScheduler scheduler)
+    {
+        super(context);
+        this.profiler = profiler;
+        this.scheduler = scheduler;
+        setTextColor(Color.WHITE);
+        setBackgroundColor(0x80000000);
+        setTextSize(TypedValue.COMPLEX_UNIT_SP, 10.0f);
+        setTypeface(Typeface.MONOSPACE);
+        setOnLongClickListener(new OnLongClickListener()
+        {
+            @Override
+            public boolean onLongClick(View view)
+            {
+                dump();
+                return true;
+            }
+        });
+    }
+
+    @Override
+    protected void onAttachedToWindow()
+    {
+        super.onAttachedToWindow();
+        profiler.setEnabled(true);
+        post(refresh);
+    }
+
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        removeCallbacks(refresh);
+        profiler.setEnabled(false);
+        super.onDetachedFromWindow();
+    }
+
+    /** Writes the recorded frames off the UI thread and tells where they went. */
+    private void dump()
+    {
+        File directory = getContext().getExternalFilesDir(null);
+        if (directory == null)
+        {
+            directory = getContext().getFilesDir();
+        }
+        final File file = new File(directory, "frame-profile-" + System.currentTimeMillis() + ".csv");
+        new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                String message;
+                try
+                {
+                    profiler.dump(file);
+                    message = "Frame profile written to " + file;
+                }
+                catch (IOException e)
+                {
+                    Log.w(TAG, "Could not write the frame profile", e);
+                    message = "Could not write " + file;
+                }
+                final String text = message;
+                post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        Toast.makeText(getContext(), text, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, TAG).start();
+    }
+}
@@ -0,0 +1,132 @@
+package lutec.tec.hologram.OPENGL;
+
+import android.opengl.GLSurfaceView;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when the surface view draws, so that a still hologram costs no
+ * frames at all.
+ *
+ * The view renders only when dirty. Frames are requested when something
+ * changes: touch input, a loaded asset, a new layout. After input, frames
+ * keep coming for a grace period so that motion can settle. While any
+ * animation runs, every frame asks for the next one. All methods except
+ * {@link #onFrameDrawn()} may be called from any thread.
+ */
+public class RenderScheduler
+{
+    /** How long to keep drawing after the last input. */
+    public static final long DEFAULT_GRACE_MILLIS = 500;
+
+    private final GLSurfaceView view;
+    private final long graceNanos;
+    private final float refreshRate;
+
+    /** System.nanoTime() until which every frame requests the next. */
+    private volatile long continuousUntil;
+    private final AtomicInteger animations = new AtomicInteger();
+
+    /** Statistics since start() or resetStatistics(). */
+    private volatile long statisticsStart;
+    private volatile long framesDrawn;
+    private final AtomicLong framesRequested = new AtomicLong();
+
+    /**
+     * @param refreshRate of the display, in frames per second, to count the
+     *        frames that were not drawn.
+     */
+    public RenderScheduler(GLSurfaceView view, float refreshRate, long graceMillis)
+    {
+        this.view = view;
+        this.refreshRate = refreshRate > 0.0f ? refreshRate : 60.0f;
+        this.graceNanos = graceMillis * 1000000L;
+    }
+
+    /** Switches the view to drawing on request and asks for a first frame. Call after setRenderer. */
+    public void start()
+    {
+        view.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        resetStatistics();
+        requestRender();
+    }
+
+    /** Asks for one more frame; requests made before it is drawn are merged. */
+    public void requestRender()
+    {
+        framesRequested.incrementAndGet();
+        view.requestRender();
+    }
+
+    /** Input changed the scene: draw now and keep drawing for the grace period. */
+    public void onInput()
+    {
+        continuousUntil = System.nanoTime() + graceNanos;
+        requestRender();
+    }
+
+    /** Keeps frames coming until a matching {@link #endAnimation()}. Calls nest. */
+    public void beginAnimation()
+    {
+        animations.incrementAndGet();
+        requestRender();
+    }
+
+    public void endAnimation()
+    {
+        animations.decrementAndGet();
+    }
+
+    /**
+     * Call on the GL thread at the end of every frame. Returns whether it
+     * asked for the next frame, which then follows at the next refresh;
+     * otherwise the view idles until something changes.
+     */
+    public boolean onFrameDrawn()
+    {
+        framesDrawn++;
+        if (animations.get() > 0 || System.nanoTime() - continuousUntil < 0)
+        {
+            view.requestRender();
+            return true;
+        }
+        return false;
+    }
+
+    public float getRefreshRate()
+    {
+        return refreshRate;
+    }
+
+    public void resetStatistics()
+    {
+        statisticsStart = System.nanoTime();
+        framesDrawn = 0;
+        framesRequested.set(0);
+    }
+
+    public long getFramesDrawn()
+    {
+        return framesDrawn;
+    }
+
+    /** Explicit requests, not counting those the scheduler makes itself to keep drawing. */
+    public long getFramesRequested()
+    {
+        return framesRequested.get();
+    }
+
+    /** Display refreshes that passed without a frame being drawn: the frames saved over continuous rendering. */
+    public long getFramesSkipped()
+    {
+        final double seconds = (System.nanoTime() - statisticsStart) / 1.0e9;
+        return Math.max(0L, (long) (seconds * refreshRate) - framesDrawn);
+    }
+
+    @Override
+    public String toString()
+    {
+        return framesDrawn + " frames drawn, " + getFramesSkipped() + " skipped, " + framesRequested.get() + " requested";
+    }
+}
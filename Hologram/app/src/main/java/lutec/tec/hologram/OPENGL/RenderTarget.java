@@ -0,0 +1,134 @@
+package lutec.tec.hologram.OPENGL;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * An offscreen framebuffer with a color texture and a depth renderbuffer,
+ * for drawing a view once and sampling it afterwards.
+ *
+ * Creating or resizing binds objects directly, so the caller must invalidate
+ * the texture and framebuffer state of its {@link GLState} afterwards. Like
+ * every GL object it is lost with the context. Devices that cannot draw into
+ * it leave it incomplete, so the caller can draw another way.
+ */
+public class RenderTarget
+{
+    private static final String TAG = "RenderTarget";
+
+    private int framebuffer;
+    private int colorTexture;
+    private int depthRenderbuffer;
+    private int width;
+    private int height;
+
+    /** Whether the framebuffer came out incomplete at this size, which is then not tried again. */
+    private boolean failed;
+
+    /**
+     * Creates the framebuffer, or recreates it if the size changed. Returns
+     * whether GL objects were bound, leaving the framebuffer binding at 0.
+     * Check {@link #isComplete()} before drawing into it.
+     */
+    public boolean resize(int width, int height)
+    {
+        if ((framebuffer != 0 || failed) && this.width == width && this.height == height)
+        {
+            return false;
+        }
+        delete();
+        this.width = width;
+        this.height = height;
+        failed = false;
+
+        final int[] handle = new int[1];
+
+        GLES20.glGenTextures(1, handle, 0);
+        colorTexture = handle[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, colorTexture);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+
+        // Quadrants are rarely a power of two in size, which ES 2.0 only
+        // samples with clamped coordinates and without mipmaps.
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0, GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, null);
+
+        GLES20.glGenRenderbuffers(1, handle, 0);
+        depthRenderbuffer = handle[0];
+        GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, depthRenderbuffer);
+        GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16, width, height);
+
+        GLES20.glGenFramebuffers(1, handle, 0);
+        framebuffer = handle[0];
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D,
+                colorTexture, 0);
+        GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT, GLES20.GL_RENDERBUFFER,
+                depthRenderbuffer);
+
+        final int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, 0);
+
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE)
+        {
+            delete();
+            failed = true;
+            Log.w(TAG, "Framebuffer of " + width + "x" + height + " incomplete, status 0x"
+                    + Integer.toHexString(status) + "; not drawing offscreen at this size.");
+        }
+        return true;
+    }
+
+    /** Whether the last {@link #resize} left a framebuffer to draw into. */
+    public boolean isComplete()
+    {
+        return framebuffer != 0;
+    }
+
+    public int getFramebuffer()
+    {
+        return framebuffer;
+    }
+
+    public int getColorTexture()
+    {
+        return colorTexture;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /** Frees the GL objects. Safe to call when there are none. */
+    public void delete()
+    {
+        if (framebuffer != 0)
+        {
+            GLES20.glDeleteFramebuffers(1, new int[] { framebuffer }, 0);
+            GLES20.glDeleteRenderbuffers(1, new int[] { depthRenderbuffer }, 0);
+            GLES20.glDeleteTextures(1, new int[] { colorTexture }, 0);
+        }
+        framebuffer = 0;
+        depthRenderbuffer = 0;
+        colorTexture = 0;
+    }
+
+    /** Forgets the objects without deleting them, after the context that owned them is gone. */
+    public void forget()
+    {
+        failed = false;
+        framebuffer = 0;
+        depthRenderbuffer = 0;
+        colorTexture = 0;
+    }
+}
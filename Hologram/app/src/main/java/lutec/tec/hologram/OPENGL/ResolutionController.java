@@ -0,0 +1,196 @@
+package lutec.tec.hologram.OPENGL;
+
+import java.util.Arrays;
+
+/**
+ * Picks the fraction of full resolution the views are drawn at, from
+ * recent frame times.
+ *
+ * Frames are timed from one onDrawFrame to the next, so with vsync a frame
+ * that made it takes one refresh interval and one that missed takes two.
+ * Only frames drawn back to back may be recorded: the gap after a frame
+ * drawn on demand includes however long nothing changed.
+ * Once a window of frames has been recorded, a slow 90th percentile lowers
+ * the scale at once, by the square root of the overshoot, as the cost
+ * follows the pixel count. Headroom cannot be measured under vsync, so
+ * the scale is only raised one step after a window on budget. Stepping up
+ * to a scale that was too slow before waits several windows.
+ * Where the GPU time of frames is known, it counts as well: a GPU over
+ * budget lowers the scale even while vsync hides it, and the scale is not
+ * raised past what the GPU time predicts will fit.
+ * The scale in use follows the chosen one a little each frame. Monitoring
+ * may read everything from any thread.
+ */
+public class ResolutionController
+{
+    /** Frames per window, after which the scale may change. Two seconds at 60 Hz, so p99 is not just the maximum. */
+    private static final int WINDOW = 120;
+
+    /** Above this multiple of the budget the window is too slow... */
+    private static final float OVER_BUDGET = 1.2f;
+
+    /** ...and below this one it is on budget. In between nothing changes. */
+    private static final float ON_BUDGET = 1.05f;
+
+    /** Gaps longer than this multiple of the budget are pauses, such as the activity's. */
+    private static final float IDLE = 4.0f;
+
+    /** Step up, largest step down, and largest change of the scale in use per frame. */
+    private static final float STEP_UP = 0.05f;
+    private static final float MAX_STEP_DOWN = 0.15f;
+    private static final float SLEW = 0.01f;
+
+    /** Windows on budget before stepping up, normally and towards a scale that was too slow. */
+    private static final int WINDOWS_BEFORE_STEP = 1;
+    private static final int WINDOWS_BEFORE_RETRY = 5;
+
+    private final float minScale;
+    private final float maxScale;
+    private float budgetMillis;
+
+    /** The last WINDOW frame times, and a copy to sort for percentiles. */
+    private final float[] frameMillis = new float[WINDOW];
+    private final float[] sorted = new float[WINDOW];
+    private int frameCount;
+    private int next;
+
+    /** The last WINDOW GPU times reported, fewer or none where they cannot be measured. */
+    private final float[] gpuMillis = new float[WINDOW];
+    private int gpuCount;
+    private int gpuNext;
+
+    private int framesSinceChange;
+    private int windowsOnBudget;
+    private float tooSlowScale = Float.MAX_VALUE;
+
+    private float targetScale;
+    private volatile float scale;
+
+    public ResolutionController(float minScale, float maxScale, float budgetMillis)
+    {
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        this.budgetMillis = budgetMillis;
+        this.targetScale = maxScale;
+        this.scale = maxScale;
+    }
+
+    /** The time a frame may take, usually one display refresh. */
+    public synchronized void setBudgetMillis(float budgetMillis)
+    {
+        this.budgetMillis = budgetMillis;
+    }
+
+    /** Records the time since the previous frame, which asked for this one, and updates the scale. */
+    public synchronized void addFrame(float millis)
+    {
+        if (millis > budgetMillis * IDLE)
+        {
+            return;
+        }
+        frameMillis[next] = millis;
+        next = (next + 1) % WINDOW;
+        frameCount = Math.min(frameCount + 1, WINDOW);
+
+        if (++framesSinceChange >= WINDOW && frameCount == WINDOW)
+        {
+            adjust(getFrameMillisPercentile(0.9f), getGpuMillisPercentile(0.9f));
+        }
+
+        // Move towards the target gradually, so the picture does not jump.
+        // Frames drawn on the way there say nothing about the target.
+        if (scale != targetScale)
+        {
+            final float change = targetScale - scale;
+            scale = Math.abs(change) <= SLEW ? targetScale : scale + Math.signum(change) * SLEW;
+            framesSinceChange = 0;
+        }
+    }
+
+    /**
+     * Records the GPU time of a recent frame, all views together, as
+     * {@link FrameProfiler#takeGpuFrameNanos()} reports it.
+     */
+    public synchronized void addGpuFrame(float millis)
+    {
+        gpuMillis[gpuNext] = millis;
+        gpuNext = (gpuNext + 1) % WINDOW;
+        gpuCount = Math.min(gpuCount + 1, WINDOW);
+    }
+
+    /** @param gpuMillis the GPU time percentile, or 0 if none was reported. */
+    private void adjust(float frameMillis, float gpuMillis)
+    {
+        final float slowMillis = Math.max(frameMillis, gpuMillis);
+        final float up = Math.min(maxScale, targetScale + STEP_UP);
+        final float growth = up / targetScale;
+        if (slowMillis > budgetMillis * OVER_BUDGET)
+        {
+            final float wanted = targetScale * (float) Math.sqrt(budgetMillis / slowMillis);
+            tooSlowScale = targetScale;
+            targetScale = Math.max(minScale, Math.max(targetScale - MAX_STEP_DOWN, wanted));
+            framesSinceChange = 0;
+            windowsOnBudget = 0;
+        }
+        else if (slowMillis < budgetMillis * ON_BUDGET && targetScale < maxScale
+                && gpuMillis * growth * growth < budgetMillis * ON_BUDGET)
+        {
+            final int wait = up >= tooSlowScale ? WINDOWS_BEFORE_RETRY : WINDOWS_BEFORE_STEP;
+            framesSinceChange = 0;
+            if (++windowsOnBudget >= wait)
+            {
+                targetScale = up;
+                windowsOnBudget = 0;
+            }
+        }
+        else
+        {
+            framesSinceChange = 0;
+            windowsOnBudget = 0;
+        }
+    }
+
+    /** Fraction of full resolution, per axis, to draw at now. */
+    public float getScale()
+    {
+        return scale;
+    }
+
+    /** The scale being moved towards. */
+    public synchronized float getTargetScale()
+    {
+        return targetScale;
+    }
+
+    /** Frame time at {@code fraction} (0.5 for the median) of the last window, in milliseconds. */
+    public synchronized float getFrameMillisPercentile(float fraction)
+    {
+        if (frameCount == 0)
+        {
+            return 0.0f;
+        }
+        System.arraycopy(frameMillis, 0, sorted, 0, frameCount);
+        Arrays.sort(sorted, 0, frameCount);
+        return sorted[Math.min(frameCount - 1, (int) (fraction * frameCount))];
+    }
+
+    /** GPU time at {@code fraction} of the last window, in milliseconds, or 0 if none was reported. */
+    public synchronized float getGpuMillisPercentile(float fraction)
+    {
+        if (gpuCount == 0)
+        {
+            return 0.0f;
+        }
+        System.arraycopy(gpuMillis, 0, sorted, 0, gpuCount);
+        Arrays.sort(sorted, 0, gpuCount);
+        return sorted[Math.min(gpuCount - 1, (int) (fraction * gpuCount))];
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("scale %.2f (target %.2f), frame time p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, "
+                + "GPU p90 %.1f ms", scale, targetScale, getFrameMillisPercentile(0.5f),
+                getFrameMillisPercentile(0.9f), getFrameMillisPercentile(0.99f), getGpuMillisPercentile(0.9f));
+    }
+}
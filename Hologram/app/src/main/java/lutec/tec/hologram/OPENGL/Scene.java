@@ -0,0 +1,131 @@
+package lutec.tec.hologram.OPENGL;
+
+import java.util.ArrayList;
+
+/**
+ * A hierarchy of {@link SceneNode}s with a bounding volume hierarchy over the
+ * ones that draw a model, for culling each view.
+ *
+ * Call {@link #update()} once per frame after moving nodes, then
+ * {@link #cull(Frustum)} once per view. Neither allocates unless nodes were
+ * added, removed or given their first model since the last frame.
+ */
+public class Scene
+{
+    private final SceneNode root = new SceneNode();
+    private final SceneBvh bvh = new SceneBvh();
+
+    /** Nodes with a model, in the order the hierarchy was last built from. */
+    private final ArrayList<SceneNode> drawables = new ArrayList<SceneNode>();
+
+    /** Result of the last cull. */
+    private SceneNode[] visible = new SceneNode[0];
+    private int visibleCount;
+
+    private boolean structureChanged = true;
+
+    public Scene()
+    {
+        root.attach(this);
+    }
+
+    public SceneNode getRoot()
+    {
+        return root;
+    }
+
+    /** Brings world matrices, world bounds and the hierarchy up to date. */
+    public void update()
+    {
+        root.update(false);
+
+        if (structureChanged)
+        {
+            structureChanged = false;
+            drawables.clear();
+            collectDrawables(root);
+            if (visible.length < drawables.size())
+            {
+                visible = new SceneNode[drawables.size()];
+            }
+            bvh.build(drawables);
+        }
+        else
+        {
+            bvh.finishRefit();
+        }
+    }
+
+    /**
+     * Finds the drawables whose world bounds intersect {@code frustum}, which
+     * must have been set from a projection * view matrix. Returns how many;
+     * they are then available through {@link #getVisible(int)}.
+     */
+    public int cull(Frustum frustum)
+    {
+        visibleCount = bvh.cull(frustum, visible);
+        return visibleCount;
+    }
+
+    /**
+     * Finds the nearest triangle hit by the world-space ray origin + t *
+     * direction, nearer than {@code result.distance}. Call {@link
+     * PickResult#reset()} first to accept any distance.
+     */
+    public boolean raycast(float[] origin, float[] direction, PickResult result)
+    {
+        return bvh.raycast(origin, direction, result);
+    }
+
+    public SceneNode getVisible(int index)
+    {
+        if (index >= visibleCount)
+        {
+            throw new IndexOutOfBoundsException("Visible node " + index + " of " + visibleCount);
+        }
+        return visible[index];
+    }
+
+    public int getDrawableCount()
+    {
+        return drawables.size();
+    }
+
+    /** Drawables are numbered from 0 in no particular order; numbers change only when nodes are added or removed. */
+    public SceneNode getDrawable(int index)
+    {
+        return drawables.get(index);
+    }
+
+    void structureChanged()
+    {
+        structureChanged = true;
+    }
+
+    /** Called by update for each drawable whose world bounds were recomputed. */
+    void boundsChanged(SceneNode node)
+    {
+        // A pending rebuild reads every node's bounds anyway.
+        if (!structureChanged && node.drawableIndex >= 0)
+        {
+            bvh.refit(node.drawableIndex, node.getWorldBounds());
+        }
+    }
+
+    private void collectDrawables(SceneNode node)
+    {
+        if (node.getModel() != null)
+        {
+            node.drawableIndex = drawables.size();
+            drawables.add(node);
+        }
+        else
+        {
+            node.drawableIndex = -1;
+        }
+        for (int i = 0; i < node.getChildCount(); i++)
+        {
+            collectDrawables(node.getChild(i));
+        }
+    }
+}
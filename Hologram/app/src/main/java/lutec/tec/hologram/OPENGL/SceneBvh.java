@@ -0,0 +1,366 @@
+package lutec.tec.hologram.OPENGL;
+
+import android.opengl.Matrix;
+
+import java.util.List;
+
+import lutec.tec.hologram.obj.MeshBvh;
+
+/**
+ * Bounding volume hierarchy over the drawables of a {@link Scene}, one per
+ * leaf, stored in flat arrays.
+ *
+ * Nodes are laid out depth first, so a node's first child always directly
+ * follows it. Moving drawables refits the boxes on their way to the root;
+ * once refitting has made the boxes much looser than a fresh build would,
+ * the hierarchy is rebuilt.
+ */
+final class SceneBvh
+{
+    /** Rebuild once refitted boxes have this much more surface than when built. */
+    private static final float REBUILD_RATIO = 2.0f;
+
+    /** Box per node: min x, y, z then max x, y, z. */
+    private float[] bounds = new float[0];
+
+    /** Second child of each inner node; the first is the next node. */
+    private int[] second = new int[0];
+
+    /** Drawable of each leaf, or -1 for inner nodes. */
+    private int[] item = new int[0];
+
+    private int[] parent = new int[0];
+
+    /** Leaf node of each drawable. */
+    private int[] leafOf = new int[0];
+
+    /** Traversal stack. Culling shifts node indices left and sets the low bit below fully inside boxes. */
+    private int[] stack = new int[0];
+
+    private SceneNode[] drawables = new SceneNode[0];
+    private int drawableCount;
+    private int nodeCount;
+
+    private float builtArea;
+    private boolean refitted;
+
+    /** The ray in the space of the model being tested, and the inverse world matrix taking it there. */
+    private final float[] inverseWorld = new float[16];
+    private final float[] worldVector = new float[4];
+    private final float[] modelOrigin = new float[4];
+    private final float[] modelDirection = new float[4];
+
+    /** Build scratch: drawable order and centroids. */
+    private int[] order = new int[0];
+    private float[] centroids = new float[0];
+
+    void build(List<SceneNode> nodes)
+    {
+        drawableCount = nodes.size();
+        nodeCount = 0;
+        refitted = false;
+        if (drawableCount == 0)
+        {
+            return;
+        }
+
+        final int capacity = 2 * drawableCount - 1;
+        if (item.length < capacity)
+        {
+            bounds = new float[capacity * 6];
+            second = new int[capacity];
+            item = new int[capacity];
+            parent = new int[capacity];
+            stack = new int[capacity + 1];
+            leafOf = new int[drawableCount];
+            drawables = new SceneNode[drawableCount];
+            order = new int[drawableCount];
+            centroids = new float[drawableCount * 3];
+        }
+
+        for (int i = 0; i < drawableCount; i++)
+        {
+            final SceneNode node = nodes.get(i);
+            final float[] box = node.getWorldBounds();
+            drawables[i] = node;
+            order[i] = i;
+            for (int axis = 0; axis < 3; axis++)
+            {
+                centroids[i * 3 + axis] = (box[axis] + box[axis + 3]) * 0.5f;
+            }
+        }
+
+        buildRange(0, drawableCount, -1);
+        builtArea = innerArea();
+    }
+
+    /** Builds the subtree over order[from, to) by splitting at the median centroid of its longest axis. */
+    private int buildRange(int from, int to, int parentNode)
+    {
+        final int node = nodeCount++;
+        parent[node] = parentNode;
+
+        if (to - from == 1)
+        {
+            item[node] = order[from];
+            leafOf[order[from]] = node;
+            System.arraycopy(drawables[order[from]].getWorldBounds(), 0, bounds, node * 6, 6);
+            return node;
+        }
+        item[node] = -1;
+
+        int axis = 0;
+        float longest = -1.0f;
+        for (int a = 0; a < 3; a++)
+        {
+            float min = Float.MAX_VALUE;
+            float max = -Float.MAX_VALUE;
+            for (int i = from; i < to; i++)
+            {
+                final float c = centroids[order[i] * 3 + a];
+                min = Math.min(min, c);
+                max = Math.max(max, c);
+            }
+            if (max - min > longest)
+            {
+                longest = max - min;
+                axis = a;
+            }
+        }
+
+        final int middle = (from + to) >>> 1;
+        select(from, to, middle, axis);
+
+        buildRange(from, middle, node);
+        second[node] = buildRange(middle, to, node);
+        union(node);
+        return node;
+    }
+
+    /** Partially sorts order[from, to) so that order[nth] holds the drawable that belongs there along {@code axis}. */
+    private void select(int from, int to, int nth, int axis)
+    {
+        int low = from;
+        int high = to - 1;
+        while (low < high)
+        {
+            final float pivot = centroids[order[(low + high) >>> 1] * 3 + axis];
+            int i = low;
+            int j = high;
+            while (i <= j)
+            {
+                while (centroids[order[i] * 3 + axis] < pivot)
+                {
+                    i++;
+                }
+                while (centroids[order[j] * 3 + axis] > pivot)
+                {
+                    j--;
+                }
+                if (i <= j)
+                {
+                    final int swap = order[i];
+                    order[i++] = order[j];
+                    order[j--] = swap;
+                }
+            }
+            if (nth <= j)
+            {
+                high = j;
+            }
+            else if (nth >= i)
+            {
+                low = i;
+            }
+            else
+            {
+                return;
+            }
+        }
+    }
+
+    /** Sets an inner node's box to enclose its children. Returns whether it changed. */
+    private boolean union(int node)
+    {
+        final int a = (node + 1) * 6;
+        final int b = second[node] * 6;
+        boolean changed = false;
+        for (int i = 0; i < 6; i++)
+        {
+            final float value = i < 3 ? Math.min(bounds[a + i], bounds[b + i]) : Math.max(bounds[a + i], bounds[b + i]);
+            if (bounds[node * 6 + i] != value)
+            {
+                bounds[node * 6 + i] = value;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** Moves a drawable's leaf box and grows or shrinks its ancestors to match. */
+    void refit(int drawable, float[] box)
+    {
+        int node = leafOf[drawable];
+        System.arraycopy(box, 0, bounds, node * 6, 6);
+        for (node = parent[node]; node >= 0 && union(node); node = parent[node])
+        {
+            // An ancestor whose box did not change leaves the rest unchanged too.
+        }
+        refitted = true;
+    }
+
+    /** Rebuilds if this frame's refits left the hierarchy too loose to cull well. */
+    void finishRefit()
+    {
+        if (!refitted)
+        {
+            return;
+        }
+        refitted = false;
+        if (innerArea() > builtArea * REBUILD_RATIO)
+        {
+            for (int i = 0; i < drawableCount; i++)
+            {
+                final float[] box = drawables[i].getWorldBounds();
+                order[i] = i;
+                for (int axis = 0; axis < 3; axis++)
+                {
+                    centroids[i * 3 + axis] = (box[axis] + box[axis + 3]) * 0.5f;
+                }
+            }
+            nodeCount = 0;
+            buildRange(0, drawableCount, -1);
+            builtArea = innerArea();
+        }
+    }
+
+    /** Summed surface area of the inner boxes: the expected cost of a traversal, give or take. */
+    private float innerArea()
+    {
+        float area = 0.0f;
+        for (int node = 0; node < nodeCount; node++)
+        {
+            if (item[node] < 0)
+            {
+                final int o = node * 6;
+                final float x = bounds[o + 3] - bounds[o];
+                final float y = bounds[o + 4] - bounds[o + 1];
+                final float z = bounds[o + 5] - bounds[o + 2];
+                area += x * y + y * z + z * x;
+            }
+        }
+        return area;
+    }
+
+    /** Writes the drawables intersecting {@code frustum} to {@code out}, returning how many. */
+    int cull(Frustum frustum, SceneNode[] out)
+    {
+        if (nodeCount == 0)
+        {
+            return 0;
+        }
+
+        int count = 0;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0)
+        {
+            final int entry = stack[--top];
+            final int node = entry >>> 1;
+            int inside = entry & 1;
+            if (inside == 0)
+            {
+                final int result = frustum.classifyBox(bounds, node * 6);
+                if (result == Frustum.OUTSIDE)
+                {
+                    continue;
+                }
+                inside = result == Frustum.INSIDE ? 1 : 0;
+            }
+
+            if (item[node] >= 0)
+            {
+                out[count++] = drawables[item[node]];
+            }
+            else
+            {
+                stack[top++] = second[node] << 1 | inside;
+                stack[top++] = node + 1 << 1 | inside;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Casts the world-space ray origin + t * direction against the triangles
+     * of every drawable whose box it passes through, keeping the nearest hit
+     * in {@code result}. Drawables whose model has no {@link MeshBvh} are
+     * skipped.
+     */
+    boolean raycast(float[] origin, float[] direction, PickResult result)
+    {
+        if (nodeCount == 0)
+        {
+            return false;
+        }
+
+        boolean found = false;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0)
+        {
+            final int node = stack[--top];
+            if (!rayEnters(node, origin, direction, result.distance))
+            {
+                continue;
+            }
+            if (item[node] < 0)
+            {
+                stack[top++] = second[node];
+                stack[top++] = node + 1;
+                continue;
+            }
+
+            final SceneNode drawable = drawables[item[node]];
+            final MeshBvh mesh = drawable.getModel().getBvh();
+            if (mesh == null || !Matrix.invertM(inverseWorld, 0, drawable.getWorldMatrix(), 0))
+            {
+                continue;
+            }
+
+            // Moving the ray into model space leaves t unchanged, so hits in
+            // different models compare directly.
+            System.arraycopy(origin, 0, worldVector, 0, 3);
+            worldVector[3] = 1.0f;
+            Matrix.multiplyMV(modelOrigin, 0, inverseWorld, 0, worldVector, 0);
+            System.arraycopy(direction, 0, worldVector, 0, 3);
+            worldVector[3] = 0.0f;
+            Matrix.multiplyMV(modelDirection, 0, inverseWorld, 0, worldVector, 0);
+
+            if (mesh.raycast(modelOrigin[0], modelOrigin[1], modelOrigin[2],
+                    modelDirection[0], modelDirection[1], modelDirection[2], result))
+            {
+                result.node = drawable;
+                result.model = drawable.getModel();
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /** Slab test of the ray against a node's box, for t in [0, limit). */
+    private boolean rayEnters(int node, float[] origin, float[] direction, float limit)
+    {
+        float near = 0.0f;
+        float far = limit;
+        for (int axis = 0; axis < 3; axis++)
+        {
+            final float inverse = 1.0f / direction[axis];
+            final float a = (bounds[node * 6 + axis] - origin[axis]) * inverse;
+            final float b = (bounds[node * 6 + 3 + axis] - origin[axis]) * inverse;
+            near = Math.max(near, Math.min(a, b));
+            far = Math.min(far, Math.max(a, b));
+        }
+        return near <= far;
+    }
+}
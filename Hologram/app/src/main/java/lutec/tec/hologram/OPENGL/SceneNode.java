@@ -0,0 +1,214 @@
+package lutec.tec.hologram.OPENGL;
+
+import android.opengl.Matrix;
+
+import java.util.ArrayList;
+
+import lutec.tec.hologram.obj.Model;
+
+/**
+ * A node of a {@link Scene}: a transform relative to its parent and,
+ * optionally, a model drawn with it.
+ *
+ * Changing the transform only marks the node dirty. Its world matrix and
+ * world bounds, and those of its descendants, are brought up to date by the
+ * next {@link Scene#update()}; untouched subtrees are not visited.
+ */
+public class SceneNode
+{
+    private final float[] localMatrix = new float[16];
+    private final float[] worldMatrix = new float[16];
+
+    /** World-space box around the model: min x, y, z then max x, y, z. */
+    private final float[] worldBounds = new float[6];
+
+    private final ArrayList<SceneNode> children = new ArrayList<SceneNode>();
+    private SceneNode parent;
+    private Scene scene;
+    private Model model;
+
+    /** Set when the local matrix changed, or when one below this node did. */
+    private boolean dirty = true;
+    private boolean descendantDirty;
+
+    /** Index of this node among the scene's drawables, or -1. */
+    int drawableIndex = -1;
+
+    public SceneNode()
+    {
+        this(null);
+    }
+
+    public SceneNode(Model model)
+    {
+        this.model = model;
+        Matrix.setIdentityM(localMatrix, 0);
+        Matrix.setIdentityM(worldMatrix, 0);
+    }
+
+    public void addChild(SceneNode child)
+    {
+        if (child.parent != null)
+        {
+            child.parent.removeChild(child);
+        }
+        children.add(child);
+        child.parent = this;
+        child.attach(scene);
+        child.markDirty();
+    }
+
+    public void removeChild(SceneNode child)
+    {
+        if (children.remove(child))
+        {
+            child.parent = null;
+            child.attach(null);
+        }
+    }
+
+    public SceneNode getParent()
+    {
+        return parent;
+    }
+
+    public int getChildCount()
+    {
+        return children.size();
+    }
+
+    public SceneNode getChild(int index)
+    {
+        return children.get(index);
+    }
+
+    public Model getModel()
+    {
+        return model;
+    }
+
+    /** Swapping one model for another keeps the node's place in the hierarchy. */
+    public void setModel(Model model)
+    {
+        if ((this.model == null) != (model == null) && scene != null)
+        {
+            scene.structureChanged();
+        }
+        this.model = model;
+        markDirty();
+    }
+
+    /** Copies {@code matrix} in as the transform relative to the parent. */
+    public void setLocalMatrix(float[] matrix)
+    {
+        System.arraycopy(matrix, 0, localMatrix, 0, 16);
+        markDirty();
+    }
+
+    /** The transform relative to the parent. Use setLocalMatrix to change it. */
+    public float[] getLocalMatrix()
+    {
+        return localMatrix;
+    }
+
+    /** Parent transforms times the local one, as of the last Scene.update(). */
+    public float[] getWorldMatrix()
+    {
+        return worldMatrix;
+    }
+
+    /** Index of this node in {@link Scene#getDrawable(int)}, or -1 if it draws nothing. */
+    public int getDrawableIndex()
+    {
+        return drawableIndex;
+    }
+
+    /** The model's box in world space, as of the last Scene.update(). */
+    public float[] getWorldBounds()
+    {
+        return worldBounds;
+    }
+
+    private void markDirty()
+    {
+        dirty = true;
+        for (SceneNode node = parent; node != null && !node.descendantDirty; node = node.parent)
+        {
+            node.descendantDirty = true;
+        }
+    }
+
+    /** Moves this subtree into {@code scene}, or out of any scene if null. */
+    void attach(Scene scene)
+    {
+        if (this.scene != null)
+        {
+            this.scene.structureChanged();
+        }
+        this.scene = scene;
+        if (scene != null)
+        {
+            scene.structureChanged();
+        }
+        drawableIndex = -1;
+        for (int i = 0; i < children.size(); i++)
+        {
+            children.get(i).attach(scene);
+        }
+    }
+
+    /**
+     * Recomputes the world state of this subtree where it is stale, telling
+     * the scene about every drawable whose bounds moved.
+     */
+    void update(boolean parentChanged)
+    {
+        final boolean changed = dirty || parentChanged;
+        if (changed)
+        {
+            if (parent == null)
+            {
+                System.arraycopy(localMatrix, 0, worldMatrix, 0, 16);
+            }
+            else
+            {
+                Matrix.multiplyMM(worldMatrix, 0, parent.worldMatrix, 0, localMatrix, 0);
+            }
+            if (model != null)
+            {
+                computeWorldBounds();
+                scene.boundsChanged(this);
+            }
+            dirty = false;
+        }
+
+        if (changed || descendantDirty)
+        {
+            descendantDirty = false;
+            for (int i = 0; i < children.size(); i++)
+            {
+                children.get(i).update(changed);
+            }
+        }
+    }
+
+    /** Transforms the model's box as centre and extents (Arvo), so it stays tight under rotation. */
+    private void computeWorldBounds()
+    {
+        final float[] min = model.getBoundsMin();
+        final float[] max = model.getBoundsMax();
+        for (int row = 0; row < 3; row++)
+        {
+            float center = worldMatrix[12 + row];
+            float extent = 0.0f;
+            for (int column = 0; column < 3; column++)
+            {
+                final float m = worldMatrix[column * 4 + row];
+                center += m * (min[column] + max[column]) * 0.5f;
+                extent += Math.abs(m) * (max[column] - min[column]) * 0.5f;
+            }
+            worldBounds[row] = center - extent;
+            worldBounds[row + 3] = center + extent;
+        }
+    }
+}
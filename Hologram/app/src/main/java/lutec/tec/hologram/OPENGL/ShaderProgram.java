@@ -0,0 +1,264 @@
+package lutec.tec.hologram.OPENGL;
+
+import android.opengl.GLES20;
+
+import java.util.HashMap;
+
+/**
+ * A linked program together with its active uniforms and attributes, which
+ * are looked up once at link time instead of by name on every draw.
+ *
+ * Each {@link Uniform} keeps a copy of the value last sent to the driver and
+ * only calls glUniform* when a new value differs. Uniform values belong to
+ * the program object, so the copies stay valid across glUseProgram switches;
+ * they are lost with the GL context, together with the program itself.
+ */
+public class ShaderProgram
+{
+    /** Returned for names the linker removed or that never existed; setting it does nothing. */
+    private static final Uniform INACTIVE_UNIFORM = new Uniform(-1, GLES20.GL_FLOAT, 1);
+
+    private final int handle;
+    private final HashMap<String, Uniform> uniforms = new HashMap<String, Uniform>();
+    private final HashMap<String, Integer> attributes = new HashMap<String, Integer>();
+
+    /**
+     * Links the shaders through {@link ShaderHelper#createAndLinkProgram} and
+     * reads back the active uniforms and attributes.
+     */
+    public ShaderProgram(final int vertexShaderHandle, final int fragmentShaderHandle, final String[] attributes)
+    {
+        handle = ShaderHelper.createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle, attributes);
+        reflect();
+    }
+
+    private void reflect()
+    {
+        final int[] values = new int[4];
+        GLES20.glGetProgramiv(handle, GLES20.GL_ACTIVE_UNIFORMS, values, 0);
+        final int uniformCount = values[0];
+        GLES20.glGetProgramiv(handle, GLES20.GL_ACTIVE_ATTRIBUTES, values, 0);
+        final int attributeCount = values[0];
+        GLES20.glGetProgramiv(handle, GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH, values, 0);
+        int maxLength = values[0];
+        GLES20.glGetProgramiv(handle, GLES20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH, values, 0);
+        maxLength = Math.max(maxLength, values[0]);
+
+        final byte[] nameBytes = new byte[Math.max(1, maxLength)];
+        for (int i = 0; i < uniformCount; i++)
+        {
+            // values: name length, array size, type.
+            GLES20.glGetActiveUniform(handle, i, nameBytes.length, values, 0, values, 1, values, 2, nameBytes, 0);
+            final String name = baseName(nameBytes, values[0]);
+            final int location = GLES20.glGetUniformLocation(handle, name);
+            uniforms.put(name, new Uniform(location, values[2], values[1]));
+        }
+        for (int i = 0; i < attributeCount; i++)
+        {
+            GLES20.glGetActiveAttrib(handle, i, nameBytes.length, values, 0, values, 1, values, 2, nameBytes, 0);
+            final String name = baseName(nameBytes, values[0]);
+            attributes.put(name, GLES20.glGetAttribLocation(handle, name));
+        }
+    }
+
+    /** Arrays are reported as "name[0]"; they are looked up by the bare name. */
+    private static String baseName(byte[] bytes, int length)
+    {
+        final String name = new String(bytes, 0, length);
+        return name.endsWith("[0]") ? name.substring(0, name.length() - 3) : name;
+    }
+
+    public int getHandle()
+    {
+        return handle;
+    }
+
+    /** Makes this the current program, unless {@code state} says it already is. */
+    public void use(GLState state)
+    {
+        state.useProgram(handle);
+    }
+
+    /**
+     * The uniform with this name. Uniforms the shader does not use come back
+     * as a handle that ignores every value, so optional uniforms need no checks.
+     */
+    public Uniform getUniform(String name)
+    {
+        final Uniform uniform = uniforms.get(name);
+        return uniform != null ? uniform : INACTIVE_UNIFORM;
+    }
+
+    public boolean hasUniform(String name)
+    {
+        return uniforms.containsKey(name);
+    }
+
+    /** Location of an active attribute, or -1. */
+    public int getAttribute(String name)
+    {
+        final Integer location = attributes.get(name);
+        return location != null ? location : -1;
+    }
+
+    public void delete()
+    {
+        GLES20.glDeleteProgram(handle);
+    }
+
+    /**
+     * An active uniform of a program, with the value it was last given.
+     * Setters must be called while the program is in use, and only the one
+     * matching the declared type applies. The scalar setters set the first
+     * element of arrays.
+     */
+    public static class Uniform
+    {
+        private final int location;
+        private final int type;
+        private final int arraySize;
+
+        /** Last value sent, all elements of arrays, and whether anything has been sent yet. */
+        private final float[] floats;
+        private int integer;
+        private boolean set;
+
+        Uniform(int location, int type, int arraySize)
+        {
+            this.location = location;
+            this.type = type;
+            this.arraySize = arraySize;
+            this.floats = new float[componentCount(type) * Math.max(1, arraySize)];
+        }
+
+        public int getLocation()
+        {
+            return location;
+        }
+
+        /** The GLSL type, as a GL enum such as GL_FLOAT_MAT4. */
+        public int getType()
+        {
+            return type;
+        }
+
+        public int getArraySize()
+        {
+            return arraySize;
+        }
+
+        /** For int, bool and sampler uniforms. */
+        public void set(int value)
+        {
+            if (location < 0 || (set && integer == value))
+            {
+                return;
+            }
+            integer = value;
+            set = true;
+            GLES20.glUniform1i(location, value);
+        }
+
+        public void set(float x)
+        {
+            if (location < 0 || (set && floats[0] == x))
+            {
+                return;
+            }
+            floats[0] = x;
+            set = true;
+            GLES20.glUniform1f(location, x);
+        }
+
+        public void set(float x, float y, float z)
+        {
+            if (location < 0 || (set && floats[0] == x && floats[1] == y && floats[2] == z))
+            {
+                return;
+            }
+            floats[0] = x;
+            floats[1] = y;
+            floats[2] = z;
+            set = true;
+            GLES20.glUniform3f(location, x, y, z);
+        }
+
+        /** For vec2, vec3, vec4 and matrix uniforms: as many floats as the type has, from {@code offset}. */
+        public void set(float[] values, int offset)
+        {
+            set(values, offset, 1);
+        }
+
+        /** Sets the first {@code count} elements of an array, packed one after the other from {@code offset}. */
+        public void set(float[] values, int offset, int count)
+        {
+            final int length = count * componentCount(type);
+            if (location < 0 || !changed(values, offset, length))
+            {
+                return;
+            }
+            System.arraycopy(values, offset, floats, 0, length);
+            set = true;
+            switch (type)
+            {
+                case GLES20.GL_FLOAT_VEC2:
+                    GLES20.glUniform2fv(location, count, values, offset);
+                    break;
+                case GLES20.GL_FLOAT_VEC3:
+                    GLES20.glUniform3fv(location, count, values, offset);
+                    break;
+                case GLES20.GL_FLOAT_VEC4:
+                    GLES20.glUniform4fv(location, count, values, offset);
+                    break;
+                case GLES20.GL_FLOAT_MAT2:
+                    GLES20.glUniformMatrix2fv(location, count, false, values, offset);
+                    break;
+                case GLES20.GL_FLOAT_MAT3:
+                    GLES20.glUniformMatrix3fv(location, count, false, values, offset);
+                    break;
+                case GLES20.GL_FLOAT_MAT4:
+                    GLES20.glUniformMatrix4fv(location, count, false, values, offset);
+                    break;
+                default:
+                    GLES20.glUniform1fv(location, count, values, offset);
+                    break;
+            }
+        }
+
+        private boolean changed(float[] values, int offset, int length)
+        {
+            if (!set)
+            {
+                return true;
+            }
+            for (int i = 0; i < length; i++)
+            {
+                if (floats[i] != values[offset + i])
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int componentCount(int type)
+        {
+            switch (type)
+            {
+                case GLES20.GL_FLOAT_VEC2:
+                    return 2;
+                case GLES20.GL_FLOAT_VEC3:
+                    return 3;
+                case GLES20.GL_FLOAT_VEC4:
+                case GLES20.GL_FLOAT_MAT2:
+                    return 4;
+                case GLES20.GL_FLOAT_MAT3:
+                    return 9;
+                case GLES20.GL_FLOAT_MAT4:
+                    return 16;
+                default:
+                    return 1;
+            }
+        }
+    }
+}
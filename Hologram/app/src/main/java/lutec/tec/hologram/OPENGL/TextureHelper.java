@@ -13,6 +13,21 @@ import android.opengl.GLUtils;
 public class TextureHelper
 {
     public static int loadTexture(final Context context, final int resourceId)
+    {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;	// No pre-scaling
+
+        // Read in the resource
+        final Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+
+        return loadTexture(bitmap);
+    }
+
+    /**
+     * Uploads an already decoded bitmap, builds its mipmap chain and recycles
+     * the bitmap. Must be called on the GL thread.
+     */
+    public static int loadTexture(final Bitmap bitmap)
     {
         final int[] textureHandle = new int[1];
 
@@ -20,21 +35,16 @@ public class TextureHelper
 
         if (textureHandle[0] != 0)
         {
-            final BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inScaled = false;	// No pre-scaling
-
-            // Read in the resource
-            final Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId, options);
-
             // Bind to the texture in OpenGL
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
 
             // Set filtering
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR_MIPMAP_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
 
             // Load the bitmap into the bound texture.
             GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+            GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
 
             // Recycle the bitmap, since its data has been loaded into OpenGL.
             bitmap.recycle();
@@ -47,4 +57,60 @@ public class TextureHelper
 
         return textureHandle[0];
     }
-}
\ No newline at end of file
+
+    /**
+     * Uploads a compressed texture as it is stored, every mip level included.
+     * A chain that stops before 1x1 is incomplete, so then only the first
+     * level is used, as for sizes ES 2.0 cannot mipmap. Must be called on the GL thread.
+     *
+     * @param support from {@link CompressedTexture#querySupport(boolean)}.
+     */
+    public static int loadTexture(final CompressedTexture texture, final int support)
+    {
+        final int[] textureHandle = new int[1];
+
+        GLES20.glGenTextures(1, textureHandle, 0);
+
+        if (textureHandle[0] == 0)
+        {
+            throw new RuntimeException("Error loading texture.");
+        }
+
+        // ES 2.0 samples sizes other than powers of two only without mipmaps
+        // and with clamped coordinates; ES 3.0, the only one with ETC2, does not care.
+        final int width = texture.getWidth();
+        final int height = texture.getHeight();
+        final boolean powerOfTwo = (width & (width - 1)) == 0 && (height & (height - 1)) == 0;
+        final boolean es3 = (support & CompressedTexture.ETC2) != 0;
+        final boolean mipmapped = texture.hasCompleteMipChain() && (powerOfTwo || es3);
+        final int levels = mipmapped ? texture.getLevelCount() : 1;
+        final int format = texture.getUploadFormat(support);
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                mipmapped ? GLES20.GL_LINEAR_MIPMAP_LINEAR : GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+
+        if (!powerOfTwo && !es3)
+        {
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        }
+
+        for (int level = 0; level < levels; level++)
+        {
+            GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, level, format, texture.getLevelWidth(level),
+                    texture.getLevelHeight(level), 0, texture.getLevelSize(level), texture.getLevel(level));
+        }
+
+        return textureHandle[0];
+    }
+
+    /** Creates a 1x1 texture of the given ARGB color, to sample from until the real one is ready. */
+    public static int createSolidTexture(final int color)
+    {
+        final Bitmap bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        return loadTexture(bitmap);
+    }
+}
@@ -0,0 +1,228 @@
+package lutec.tec.hologram.obj;
+
+import java.util.Arrays;
+
+/**
+ * Collects the attributes and faces of one mesh while it is being parsed.
+ *
+ * Everything is kept in growable primitive arrays owned by the builder, so no
+ * value is boxed and no vector object is created per vertex. A builder holds
+ * no shared state: create one per load and several loads can run at once.
+ */
+public class MeshBuilder {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    /** Marks a corner without a texture or normal reference. */
+    static final int MISSING = -1;
+
+    /** Attributes as declared by the v, vt and vn records. */
+    float[] positions;
+    float[] textures;
+    float[] normals;
+    int positionCount;
+    int textureCount;
+    int normalCount;
+
+    /**
+     * Triangle corners as resolved 0-based (position, texture, normal)
+     * triples, {@link ObjTokenizer#CORNER_SIZE} ints each.
+     */
+    int[] corners;
+    int cornerCount;
+
+    public MeshBuilder() {
+        this(INITIAL_CAPACITY, INITIAL_CAPACITY, INITIAL_CAPACITY, INITIAL_CAPACITY);
+    }
+
+    /** Creates a builder whose arrays already hold the given number of elements. */
+    MeshBuilder(int positionCapacity, int textureCapacity, int normalCapacity, int cornerCapacity) {
+        positions = new float[positionCapacity * 3];
+        textures = new float[textureCapacity * 2];
+        normals = new float[normalCapacity * 3];
+        corners = new int[cornerCapacity * ObjTokenizer.CORNER_SIZE];
+    }
+
+    public void addPosition(float x, float y, float z) {
+        positions = ensureCapacity(positions, (positionCount + 1) * 3);
+        int offset = positionCount++ * 3;
+        positions[offset] = x;
+        positions[offset + 1] = y;
+        positions[offset + 2] = z;
+    }
+
+    public void addTexture(float u, float v) {
+        textures = ensureCapacity(textures, (textureCount + 1) * 2);
+        int offset = textureCount++ * 2;
+        textures[offset] = u;
+        textures[offset + 1] = v;
+    }
+
+    public void addNormal(float x, float y, float z) {
+        normals = ensureCapacity(normals, (normalCount + 1) * 3);
+        int offset = normalCount++ * 3;
+        normals[offset] = x;
+        normals[offset + 1] = y;
+        normals[offset + 2] = z;
+    }
+
+    /**
+     * Adds a polygon given as {@link ObjTokenizer#CORNER_SIZE} raw OBJ indices
+     * per corner. Polygons with more than three corners are fan-triangulated.
+     */
+    public void addFace(int[] faceCorners, int faceCornerCount) {
+        int triangulated = triangulatedCornerCount(faceCornerCount);
+        corners = ensureCapacity(corners, (cornerCount + triangulated) * ObjTokenizer.CORNER_SIZE);
+        writeFace(corners, cornerCount, faceCorners, faceCornerCount,
+                positionCount, textureCount, normalCount);
+        cornerCount += triangulated;
+    }
+
+    /**
+     * Resolves and fan-triangulates one face into {@code out}, starting at
+     * corner {@code outCorner}. The counts are the number of attributes
+     * declared before the face, which relative indices are measured from.
+     */
+    static void writeFace(int[] out, int outCorner, int[] faceCorners, int faceCornerCount,
+                          int positionCount, int textureCount, int normalCount) {
+        int offset = outCorner * ObjTokenizer.CORNER_SIZE;
+        for (int i = 2; i < faceCornerCount; i++) {
+            offset = writeCorner(out, offset, faceCorners, 0,
+                    positionCount, textureCount, normalCount);
+            offset = writeCorner(out, offset, faceCorners, (i - 1) * ObjTokenizer.CORNER_SIZE,
+                    positionCount, textureCount, normalCount);
+            offset = writeCorner(out, offset, faceCorners, i * ObjTokenizer.CORNER_SIZE,
+                    positionCount, textureCount, normalCount);
+        }
+    }
+
+    private static int writeCorner(int[] out, int offset, int[] faceCorners, int corner,
+                                   int positionCount, int textureCount, int normalCount) {
+        out[offset] = resolveIndex(faceCorners[corner], positionCount);
+        out[offset + 1] = faceCorners[corner + 1] == 0
+                ? MISSING : resolveIndex(faceCorners[corner + 1], textureCount);
+        out[offset + 2] = faceCorners[corner + 2] == 0
+                ? MISSING : resolveIndex(faceCorners[corner + 2], normalCount);
+        return offset + ObjTokenizer.CORNER_SIZE;
+    }
+
+    static int triangulatedCornerCount(int faceCornerCount) {
+        return faceCornerCount < 3 ? 0 : (faceCornerCount - 2) * 3;
+    }
+
+    /**
+     * Turns the collected triangles into an indexed mesh and stores it in
+     * {@code model}. Every distinct (position, texture, normal) triple becomes
+     * one vertex, shared by all corners that reference it. Missing texture
+     * coordinates and normals are left as zeros.
+     */
+    public Model build(Model model) {
+        // Open-addressing table from corner triple to vertex index, kept at
+        // most half full.
+        int tableSize = Integer.highestOneBit(Math.max(cornerCount, 8) * 2 - 1) << 1;
+        int[] table = new int[tableSize];
+        Arrays.fill(table, MISSING);
+        int mask = tableSize - 1;
+
+        int[] vertexCorners = new int[cornerCount];
+        int[] outIndices = new int[cornerCount];
+        int vertexCount = 0;
+
+        for (int i = 0; i < cornerCount; i++) {
+            int corner = i * ObjTokenizer.CORNER_SIZE;
+            int slot = hash(corners[corner], corners[corner + 1], corners[corner + 2]) & mask;
+
+            while (true) {
+                int vertex = table[slot];
+                if (vertex == MISSING) {
+                    table[slot] = vertexCount;
+                    vertexCorners[vertexCount] = corner;
+                    outIndices[i] = vertexCount++;
+                    break;
+                }
+                int existing = vertexCorners[vertex];
+                if (corners[existing] == corners[corner]
+                        && corners[existing + 1] == corners[corner + 1]
+                        && corners[existing + 2] == corners[corner + 2]) {
+                    outIndices[i] = vertex;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        float[] outVertices = new float[vertexCount * 3];
+        float[] outNormals = new float[vertexCount * 3];
+        float[] outTextures = new float[vertexCount * 2];
+
+        for (int i = 0; i < vertexCount; i++) {
+            int corner = vertexCorners[i];
+
+            int position = corners[corner] * 3;
+            outVertices[i * 3] = positions[position];
+            outVertices[i * 3 + 1] = positions[position + 1];
+            outVertices[i * 3 + 2] = positions[position + 2];
+
+            if (corners[corner + 2] != MISSING) {
+                int normal = corners[corner + 2] * 3;
+                outNormals[i * 3] = normals[normal];
+                outNormals[i * 3 + 1] = normals[normal + 1];
+                outNormals[i * 3 + 2] = normals[normal + 2];
+            }
+
+            if (corners[corner + 1] != MISSING) {
+                int texture = corners[corner + 1] * 2;
+                outTextures[i * 2] = textures[texture];
+                outTextures[i * 2 + 1] = textures[texture + 1];
+            }
+        }
+
+        model.vertices = outVertices;
+        model.normals = outNormals;
+        model.texCoords = outTextures;
+        model.indices = outIndices;
+        return model;
+    }
+
+    private static int hash(int position, int texture, int normal) {
+        int h = position * 0x9E3779B1 + texture * 0x85EBCA77 + normal * 0xC2B2AE3D;
+        return h ^ (h >>> 15);
+    }
+
+    public int getPositionCount() {
+        return positionCount;
+    }
+
+    public int getCornerCount() {
+        return cornerCount;
+    }
+
+    /** Turns a 1-based (or negative, relative) OBJ index into a 0-based one. */
+    static int resolveIndex(int index, int count) {
+        if (index > 0 && index <= count) {
+            return index - 1;
+        }
+        if (index < 0 && -index <= count) {
+            return count + index;
+        }
+        throw new IndexOutOfBoundsException("OBJ index " + index + " with " + count + " elements");
+    }
+
+    static float[] ensureCapacity(float[] array, int size) {
+        if (size <= array.length) {
+            return array;
+        }
+        float[] grown = new float[Math.max(size, array.length + (array.length >> 1))];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    static int[] ensureCapacity(int[] array, int size) {
+        if (size <= array.length) {
+            return array;
+        }
+        int[] grown = new int[Math.max(size, array.length + (array.length >> 1))];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,419 @@
+package lutec.tec.hologram.obj;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Bounding volume hierarchy over the triangles of a model's full level of
+ * detail, for ray casts such as touch picking.
+ *
+ * The tree is built top down with the surface area heuristic, evaluated over
+ * up to {@link #BIN_COUNT} bins per axis. Nodes are stored depth first in flat
+ * arrays, each node's first child right after it, and the triangles are
+ * copied into leaf order together with their corner positions, so a leaf is
+ * tested from one contiguous run of memory. Casts share a traversal stack, so
+ * one thread at a time may cast into a hierarchy.
+ */
+public final class MeshBvh {
+
+    private static final int BIN_COUNT = 16;
+
+    /** Leaves this small are kept whenever splitting them does not pay off. */
+    private static final int MAX_LEAF_SIZE = 4;
+
+    /** Deeper nodes become leaves, which bounds the traversal stack. */
+    private static final int MAX_DEPTH = 48;
+
+    /** Cost of visiting a node, relative to testing one triangle. */
+    private static final float TRAVERSAL_COST = 1.0f;
+
+    /** Box per node: min x, y, z then max x, y, z. */
+    private final float[] bounds;
+
+    /** First triangle of a leaf, or the second child of an inner node. */
+    private final int[] start;
+
+    /** Triangles in a leaf; 0 for inner nodes. */
+    private final int[] count;
+
+    /** Corner positions of each triangle in leaf order, 9 floats apiece. */
+    private final float[] corners;
+
+    /** Triangle of the model at each leaf-order slot. */
+    private final int[] triangles;
+
+    /**
+     * Nodes still to visit during a cast, nearest on top, with the distance
+     * at which the ray enters them: a nearer hit found meanwhile discards them.
+     */
+    private final int[] stack = new int[MAX_DEPTH + 2];
+    private final float[] entries = new float[MAX_DEPTH + 2];
+
+    private int nodeCount;
+
+    private MeshBvh(int triangleCount) {
+        final int capacity = Math.max(1, 2 * triangleCount - 1);
+        bounds = new float[capacity * 6];
+        start = new int[capacity];
+        count = new int[capacity];
+        corners = new float[triangleCount * 9];
+        triangles = new int[triangleCount];
+    }
+
+    /**
+     * Builds the hierarchy over level 0 of a loaded model and keeps it on the
+     * model, see {@link Model#getBvh()}. Works from the model's buffers, so
+     * cache-mapped models are covered too.
+     */
+    public static MeshBvh build(Model model) {
+        final FloatBuffer positions = (FloatBuffer) model.getVertices();
+        final int triangleCount = model.getLodIndexCount(0) / 3;
+
+        final float[] triangleCorners = new float[triangleCount * 9];
+        final float[] triangleBounds = new float[triangleCount * 6];
+        final float[] centroids = new float[triangleCount * 3];
+        for (int t = 0; t < triangleCount; t++) {
+            for (int axis = 0; axis < 3; axis++) {
+                triangleBounds[t * 6 + axis] = Float.MAX_VALUE;
+                triangleBounds[t * 6 + 3 + axis] = -Float.MAX_VALUE;
+            }
+            for (int corner = 0; corner < 3; corner++) {
+                final int vertex = model.getIndex(t * 3 + corner);
+                for (int axis = 0; axis < 3; axis++) {
+                    final float value = positions.get(vertex * 3 + axis);
+                    triangleCorners[t * 9 + corner * 3 + axis] = value;
+                    triangleBounds[t * 6 + axis] = Math.min(triangleBounds[t * 6 + axis], value);
+                    triangleBounds[t * 6 + 3 + axis] = Math.max(triangleBounds[t * 6 + 3 + axis], value);
+                }
+            }
+            for (int axis = 0; axis < 3; axis++) {
+                centroids[t * 3 + axis] = (triangleBounds[t * 6 + axis] + triangleBounds[t * 6 + 3 + axis]) * 0.5f;
+            }
+        }
+
+        final MeshBvh bvh = new MeshBvh(triangleCount);
+        for (int t = 0; t < triangleCount; t++) {
+            bvh.triangles[t] = t;
+        }
+        if (triangleCount > 0) {
+            new Builder(bvh, triangleBounds, centroids).build(0, triangleCount, 0);
+        }
+        for (int slot = 0; slot < triangleCount; slot++) {
+            System.arraycopy(triangleCorners, bvh.triangles[slot] * 9, bvh.corners, slot * 9, 9);
+        }
+
+        model.setBvh(bvh);
+        return bvh;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Intersects the ray origin + t * direction, for t from 0 up to
+     * {@code hit.distance}, with the triangles from both sides. Records the
+     * nearest intersection in {@code hit} and returns whether there was one.
+     * The direction does not have to be normalized; t is measured in its
+     * lengths.
+     */
+    public boolean raycast(float originX, float originY, float originZ,
+                           float directionX, float directionY, float directionZ, RayHit hit) {
+        if (nodeCount == 0) {
+            return false;
+        }
+
+        final float inverseX = 1.0f / directionX;
+        final float inverseY = 1.0f / directionY;
+        final float inverseZ = 1.0f / directionZ;
+
+        final int[] stack = this.stack;
+        final float[] entries = this.entries;
+        int top = 0;
+
+        final float rootEntry = enter(0, originX, originY, originZ, inverseX, inverseY, inverseZ, hit.distance);
+        if (rootEntry == Float.POSITIVE_INFINITY) {
+            return false;
+        }
+        stack[top] = 0;
+        entries[top++] = rootEntry;
+
+        boolean found = false;
+        while (top > 0) {
+            final int node = stack[--top];
+            if (entries[top] >= hit.distance) {
+                continue;
+            }
+
+            if (count[node] > 0) {
+                for (int slot = start[node]; slot < start[node] + count[node]; slot++) {
+                    found |= intersect(slot, originX, originY, originZ, directionX, directionY, directionZ, hit);
+                }
+                continue;
+            }
+
+            final int first = node + 1;
+            final int second = start[node];
+            final float firstEntry = enter(first, originX, originY, originZ, inverseX, inverseY, inverseZ,
+                    hit.distance);
+            final float secondEntry = enter(second, originX, originY, originZ, inverseX, inverseY, inverseZ,
+                    hit.distance);
+            final boolean firstNearer = firstEntry <= secondEntry;
+            final int near = firstNearer ? first : second;
+            final int far = firstNearer ? second : first;
+            final float nearEntry = firstNearer ? firstEntry : secondEntry;
+            final float farEntry = firstNearer ? secondEntry : firstEntry;
+
+            if (farEntry != Float.POSITIVE_INFINITY) {
+                stack[top] = far;
+                entries[top++] = farEntry;
+            }
+            if (nearEntry != Float.POSITIVE_INFINITY) {
+                stack[top] = near;
+                entries[top++] = nearEntry;
+            }
+        }
+        return found;
+    }
+
+    /** Distance at which the ray enters a node's box, or infinity if it misses it before {@code limit}. */
+    private float enter(int node, float originX, float originY, float originZ,
+                        float inverseX, float inverseY, float inverseZ, float limit) {
+        final int o = node * 6;
+        float near = 0.0f;
+        float far = limit;
+
+        float a = (bounds[o] - originX) * inverseX;
+        float b = (bounds[o + 3] - originX) * inverseX;
+        near = Math.max(near, Math.min(a, b));
+        far = Math.min(far, Math.max(a, b));
+
+        a = (bounds[o + 1] - originY) * inverseY;
+        b = (bounds[o + 4] - originY) * inverseY;
+        near = Math.max(near, Math.min(a, b));
+        far = Math.min(far, Math.max(a, b));
+
+        a = (bounds[o + 2] - originZ) * inverseZ;
+        b = (bounds[o + 5] - originZ) * inverseZ;
+        near = Math.max(near, Math.min(a, b));
+        far = Math.min(far, Math.max(a, b));
+
+        // NaN from a zero direction component on a box face fails the test,
+        // which only loses grazing hits.
+        return near <= far ? near : Float.POSITIVE_INFINITY;
+    }
+
+    /** Moller-Trumbore test against the triangle in leaf-order slot {@code slot}. */
+    private boolean intersect(int slot, float originX, float originY, float originZ,
+                              float directionX, float directionY, float directionZ, RayHit hit) {
+        final int o = slot * 9;
+        final float edge1X = corners[o + 3] - corners[o];
+        final float edge1Y = corners[o + 4] - corners[o + 1];
+        final float edge1Z = corners[o + 5] - corners[o + 2];
+        final float edge2X = corners[o + 6] - corners[o];
+        final float edge2Y = corners[o + 7] - corners[o + 1];
+        final float edge2Z = corners[o + 8] - corners[o + 2];
+
+        final float pX = directionY * edge2Z - directionZ * edge2Y;
+        final float pY = directionZ * edge2X - directionX * edge2Z;
+        final float pZ = directionX * edge2Y - directionY * edge2X;
+        final float determinant = edge1X * pX + edge1Y * pY + edge1Z * pZ;
+        if (determinant == 0.0f) {
+            return false;
+        }
+        final float inverse = 1.0f / determinant;
+
+        final float sX = originX - corners[o];
+        final float sY = originY - corners[o + 1];
+        final float sZ = originZ - corners[o + 2];
+        final float u = (sX * pX + sY * pY + sZ * pZ) * inverse;
+        if (u < 0.0f || u > 1.0f) {
+            return false;
+        }
+
+        final float qX = sY * edge1Z - sZ * edge1Y;
+        final float qY = sZ * edge1X - sX * edge1Z;
+        final float qZ = sX * edge1Y - sY * edge1X;
+        final float v = (directionX * qX + directionY * qY + directionZ * qZ) * inverse;
+        if (v < 0.0f || u + v > 1.0f) {
+            return false;
+        }
+
+        final float t = (edge2X * qX + edge2Y * qY + edge2Z * qZ) * inverse;
+        if (t < 0.0f || t >= hit.distance) {
+            return false;
+        }
+        hit.distance = t;
+        hit.triangle = triangles[slot];
+        hit.u = u;
+        hit.v = v;
+        return true;
+    }
+
+    /** Build state that is only needed until the tree is complete. */
+    private static final class Builder {
+
+        private final MeshBvh bvh;
+        private final float[] triangleBounds;
+        private final float[] centroids;
+
+        /** Per bin: triangle count and box. */
+        private final int[] binCounts = new int[BIN_COUNT];
+        private final float[] binBounds = new float[BIN_COUNT * 6];
+
+        /** Surface areas of the boxes around bins [0, i) and [i, bins). */
+        private final float[] leftAreas = new float[BIN_COUNT];
+        private final float[] rightAreas = new float[BIN_COUNT];
+        private final float[] box = new float[6];
+
+        Builder(MeshBvh bvh, float[] triangleBounds, float[] centroids) {
+            this.bvh = bvh;
+            this.triangleBounds = triangleBounds;
+            this.centroids = centroids;
+        }
+
+        /** Builds the subtree over slots [from, to) of bvh.triangles and returns its node. */
+        int build(int from, int to, int depth) {
+            final int node = bvh.nodeCount++;
+            final int[] triangles = bvh.triangles;
+            final int size = to - from;
+
+            // Node box, and the box of the centroids that the bins divide.
+            final int o = node * 6;
+            float centroidMinX = Float.MAX_VALUE, centroidMinY = Float.MAX_VALUE, centroidMinZ = Float.MAX_VALUE;
+            float centroidMaxX = -Float.MAX_VALUE, centroidMaxY = -Float.MAX_VALUE, centroidMaxZ = -Float.MAX_VALUE;
+            for (int axis = 0; axis < 3; axis++) {
+                bvh.bounds[o + axis] = Float.MAX_VALUE;
+                bvh.bounds[o + 3 + axis] = -Float.MAX_VALUE;
+            }
+            for (int i = from; i < to; i++) {
+                final int t = triangles[i];
+                for (int axis = 0; axis < 3; axis++) {
+                    bvh.bounds[o + axis] = Math.min(bvh.bounds[o + axis], triangleBounds[t * 6 + axis]);
+                    bvh.bounds[o + 3 + axis] = Math.max(bvh.bounds[o + 3 + axis], triangleBounds[t * 6 + 3 + axis]);
+                }
+                centroidMinX = Math.min(centroidMinX, centroids[t * 3]);
+                centroidMinY = Math.min(centroidMinY, centroids[t * 3 + 1]);
+                centroidMinZ = Math.min(centroidMinZ, centroids[t * 3 + 2]);
+                centroidMaxX = Math.max(centroidMaxX, centroids[t * 3]);
+                centroidMaxY = Math.max(centroidMaxY, centroids[t * 3 + 1]);
+                centroidMaxZ = Math.max(centroidMaxZ, centroids[t * 3 + 2]);
+            }
+
+            int bestAxis = -1;
+            int bestBin = 0;
+            float bestCost = Float.MAX_VALUE;
+            // Small nodes have few places worth splitting at, so they get
+            // fewer bins; most nodes are small.
+            final int bins = Math.min(BIN_COUNT, size);
+            if (size > 1 && depth < MAX_DEPTH) {
+                final float[] centroidMin = { centroidMinX, centroidMinY, centroidMinZ };
+                final float[] centroidMax = { centroidMaxX, centroidMaxY, centroidMaxZ };
+                for (int axis = 0; axis < 3; axis++) {
+                    final float extent = centroidMax[axis] - centroidMin[axis];
+                    if (extent <= 0.0f) {
+                        continue;
+                    }
+                    fillBins(from, to, axis, centroidMin[axis], bins / extent, bins);
+
+                    // Split between bins i - 1 and i, for every i.
+                    int leftCount = 0;
+                    for (int bin = 1; bin < bins; bin++) {
+                        leftCount += binCounts[bin - 1];
+                        final float cost = leftAreas[bin] * leftCount + rightAreas[bin] * (size - leftCount);
+                        if (leftCount > 0 && leftCount < size && cost < bestCost) {
+                            bestCost = cost;
+                            bestAxis = axis;
+                            bestBin = bin;
+                        }
+                    }
+                }
+            }
+
+            // Splitting costs a visit plus the expected triangle tests of the
+            // two children; keeping a leaf costs testing all of its triangles.
+            final float splitCost = TRAVERSAL_COST + bestCost / area(bvh.bounds, o);
+            if (bestAxis < 0 || (size <= MAX_LEAF_SIZE && splitCost >= size)) {
+                bvh.start[node] = from;
+                bvh.count[node] = size;
+                return node;
+            }
+
+            final float min = bestAxis == 0 ? centroidMinX : bestAxis == 1 ? centroidMinY : centroidMinZ;
+            final float max = bestAxis == 0 ? centroidMaxX : bestAxis == 1 ? centroidMaxY : centroidMaxZ;
+            final float scale = bins / (max - min);
+            int middle = from;
+            for (int i = from; i < to; i++) {
+                if (bin(centroids[triangles[i] * 3 + bestAxis], min, scale, bins) < bestBin) {
+                    final int swap = triangles[i];
+                    triangles[i] = triangles[middle];
+                    triangles[middle++] = swap;
+                }
+            }
+
+            bvh.count[node] = 0;
+            build(from, middle, depth + 1);
+            bvh.start[node] = build(middle, to, depth + 1);
+            return node;
+        }
+
+        /** Counts the triangles per bin along {@code axis} and the areas left and right of each boundary. */
+        private void fillBins(int from, int to, int axis, float min, float scale, int bins) {
+            for (int bin = 0; bin < bins; bin++) {
+                binCounts[bin] = 0;
+                for (int i = 0; i < 3; i++) {
+                    binBounds[bin * 6 + i] = Float.MAX_VALUE;
+                    binBounds[bin * 6 + 3 + i] = -Float.MAX_VALUE;
+                }
+            }
+            for (int i = from; i < to; i++) {
+                final int t = bvh.triangles[i];
+                final int bin = bin(centroids[t * 3 + axis], min, scale, bins);
+                binCounts[bin]++;
+                for (int j = 0; j < 3; j++) {
+                    binBounds[bin * 6 + j] = Math.min(binBounds[bin * 6 + j], triangleBounds[t * 6 + j]);
+                    binBounds[bin * 6 + 3 + j] = Math.max(binBounds[bin * 6 + 3 + j], triangleBounds[t * 6 + 3 + j]);
+                }
+            }
+
+            clear(box);
+            for (int bin = 1; bin < bins; bin++) {
+                grow(box, binBounds, (bin - 1) * 6);
+                leftAreas[bin] = area(box, 0);
+            }
+            clear(box);
+            for (int bin = bins - 1; bin > 0; bin--) {
+                grow(box, binBounds, bin * 6);
+                rightAreas[bin] = area(box, 0);
+            }
+        }
+
+        private static int bin(float value, float min, float scale, int bins) {
+            return Math.min(bins - 1, (int) ((value - min) * scale));
+        }
+
+        private static void clear(float[] box) {
+            for (int i = 0; i < 3; i++) {
+                box[i] = Float.MAX_VALUE;
+                box[i + 3] = -Float.MAX_VALUE;
+            }
+        }
+
+        private static void grow(float[] box, float[] other, int offset) {
+            for (int i = 0; i < 3; i++) {
+                box[i] = Math.min(box[i], other[offset + i]);
+                box[i + 3] = Math.max(box[i + 3], other[offset + 3 + i]);
+            }
+        }
+    }
+
+    /** Half the surface area of a box, or 0 for an empty one. */
+    private static float area(float[] box, int offset) {
+        final float x = box[offset + 3] - box[offset];
+        final float y = box[offset + 4] - box[offset + 1];
+        final float z = box[offset + 5] - box[offset + 2];
+        if (x < 0.0f || y < 0.0f || z < 0.0f) {
+            return 0.0f;
+        }
+        return x * y + y * z + z * x;
+    }
+}
@@ -0,0 +1,306 @@
+package lutec.tec.hologram.obj;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary cache of parsed meshes, so OBJ text is only parsed once per asset
+ * version.
+ *
+ * Versions are told apart by a key the caller derives cheaply, without
+ * reading the asset, see {@link #key(long, long)}. A cache file is named
+ * after the asset and the key and is laid out as follows (all little-endian):
+ *
+ * <pre>
+ *   int   magic ("HMSH")
+ *   int   format version
+ *   long  key of the source asset version
+ *   int   vertex count
+ *   int   index count, all levels of detail together
+ *   int   index type (GL_UNSIGNED_SHORT or GL_UNSIGNED_INT)
+ *   int   block count
+ *   block count x { int semantic, int components, int GL type, int byte offset, int byte length }
+ *   raw blocks, each starting on a 4-byte boundary
+ * </pre>
+ *
+ * The index block holds the full mesh followed by its coarser levels of
+ * detail. The LOD block describes them with one { int first index, int index
+ * count, float error } entry per level.
+ *
+ * Reading maps the file and hands slices of the mapping to the Model, so the
+ * data goes to glBufferData without being copied float by float.
+ */
+public class MeshCache {
+
+    private static final int MAGIC = 0x48534D48;
+
+    /** Bump whenever the mesh pipeline changes what it produces for the same OBJ. */
+    static final int VERSION = 6;
+
+    static final int SEMANTIC_POSITION = 0;
+    static final int SEMANTIC_NORMAL = 1;
+    static final int SEMANTIC_TEXCOORD = 2;
+    static final int SEMANTIC_INDEX = 3;
+    static final int SEMANTIC_LOD = 4;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int BLOCK_ENTRY_SIZE = 20;
+    private static final int BLOCK_COUNT = 5;
+
+    private static final String TAG = "MeshCache";
+
+    private static final String EXTENSION = ".mesh";
+
+    private final File directory;
+
+    public MeshCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the mesh for an OBJ asset, from the cache when it holds a copy
+     * of this version, otherwise by parsing {@code is} and caching the
+     * result. The stream is only read on a miss, and closed either way.
+     */
+    public Model load(String name, long key, InputStream is, boolean parallel) throws IOException {
+        Model model = read(name, key);
+        if (model != null) {
+            is.close();
+            return model;
+        }
+
+        byte[] data = ParallelObjParser.readFully(is);
+        model = OBJ_Loader.loadModel(new ByteArrayInputStream(data), parallel);
+        try {
+            write(name, key, model);
+        } catch (IOException e) {
+            // Not fatal: we just parse again next time.
+            Log.w(TAG, "Cannot cache " + name, e);
+        }
+        return model;
+    }
+
+    /** Returns the cached mesh, or null when there is no valid entry for this version. */
+    public Model read(String name, long key) {
+        File file = fileFor(name, key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            MappedByteBuffer map;
+            try {
+                FileChannel channel = input.getChannel();
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                // The mapping stays valid after the file is closed.
+                input.close();
+            }
+            map.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION || map.getLong(8) != key) {
+                return null;
+            }
+
+            int indexType = map.getInt(24);
+            int blockCount = map.getInt(28);
+
+            ByteBuffer[] blocks = new ByteBuffer[BLOCK_COUNT];
+            for (int i = 0; i < blockCount; i++) {
+                int entry = HEADER_SIZE + i * BLOCK_ENTRY_SIZE;
+                int semantic = map.getInt(entry);
+                int offset = map.getInt(entry + 12);
+                int length = map.getInt(entry + 16);
+                if (semantic >= 0 && semantic < BLOCK_COUNT) {
+                    blocks[semantic] = slice(map, offset, length);
+                }
+            }
+
+            for (ByteBuffer block : blocks) {
+                if (block == null) {
+                    return null;
+                }
+            }
+
+            ByteBuffer lods = blocks[SEMANTIC_LOD];
+            int levels = lods.capacity() / 12;
+            int[] lodOffsets = new int[levels];
+            int[] lodCounts = new int[levels];
+            float[] lodErrors = new float[levels];
+            for (int level = 0; level < levels; level++) {
+                lodOffsets[level] = lods.getInt(level * 12);
+                lodCounts[level] = lods.getInt(level * 12 + 4);
+                lodErrors[level] = lods.getFloat(level * 12 + 8);
+            }
+
+            Model model = new Model();
+            model.setBuffers(blocks[SEMANTIC_POSITION].asFloatBuffer(),
+                    blocks[SEMANTIC_NORMAL].asFloatBuffer(),
+                    blocks[SEMANTIC_TEXCOORD].asFloatBuffer(),
+                    blocks[SEMANTIC_INDEX], indexType, lodOffsets, lodCounts, lodErrors);
+            return model;
+        } catch (Exception e) {
+            // Truncated or otherwise unreadable; treat it as a miss.
+            Log.w(TAG, "Cannot read " + file, e);
+            return null;
+        }
+    }
+
+    /** Stores {@code model} under this name and version key, replacing older versions. */
+    public void write(String name, long key, Model model) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        // The same index type Model.load() picks. Whether the context can
+        // draw it is decided after reading, see Model.expandIndices().
+        int vertexCount = model.vertices.length / 3;
+        int indexType = Model.indexTypeFor(vertexCount);
+        boolean shortIndices = indexType == GLES20.GL_UNSIGNED_SHORT;
+        int indexSize = shortIndices ? 2 : 4;
+        int[] indices = model.concatenateLods();
+        int levels = model.getLodCount();
+
+        int[] semantics = { SEMANTIC_POSITION, SEMANTIC_NORMAL, SEMANTIC_TEXCOORD, SEMANTIC_INDEX, SEMANTIC_LOD };
+        int[] components = { 3, 3, 2, 1, 3 };
+        int[] types = { GLES20.GL_FLOAT, GLES20.GL_FLOAT, GLES20.GL_FLOAT, indexType, GLES20.GL_INT };
+        int[] lengths = { model.vertices.length * 4, model.normals.length * 4,
+                model.texCoords.length * 4, indices.length * indexSize, levels * 12 };
+
+        int[] offsets = new int[BLOCK_COUNT];
+        int offset = HEADER_SIZE + BLOCK_COUNT * BLOCK_ENTRY_SIZE;
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            offsets[i] = offset;
+            offset = align4(offset + lengths[i]);
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(offset).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putLong(key);
+        out.putInt(vertexCount);
+        out.putInt(indices.length);
+        out.putInt(types[SEMANTIC_INDEX]);
+        out.putInt(BLOCK_COUNT);
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            out.putInt(semantics[i]);
+            out.putInt(components[i]);
+            out.putInt(types[i]);
+            out.putInt(offsets[i]);
+            out.putInt(lengths[i]);
+        }
+
+        out.position(offsets[SEMANTIC_POSITION]);
+        out.asFloatBuffer().put(model.vertices);
+        out.position(offsets[SEMANTIC_NORMAL]);
+        out.asFloatBuffer().put(model.normals);
+        out.position(offsets[SEMANTIC_TEXCOORD]);
+        out.asFloatBuffer().put(model.texCoords);
+        out.position(offsets[SEMANTIC_INDEX]);
+        if (shortIndices) {
+            for (int index : indices) {
+                out.putShort((short) index);
+            }
+        } else {
+            out.asIntBuffer().put(indices);
+        }
+        out.position(offsets[SEMANTIC_LOD]);
+        for (int level = 0; level < levels; level++) {
+            // getLodIndexOffset is in bytes; the table stores indices.
+            out.putInt(model.getLodIndexOffset(level) / indexSize);
+            out.putInt(model.getLodIndexCount(level));
+            out.putFloat(model.getLodError(level));
+        }
+
+        deleteEntries(name);
+
+        // Write next to the final file and rename, so a crash never leaves a
+        // half-written entry behind under the real name.
+        File file = fileFor(name, key);
+        File temporary = new File(directory, file.getName() + ".tmp");
+        FileOutputStream output = new FileOutputStream(temporary);
+        try {
+            output.write(out.array());
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Cannot rename " + temporary + " to " + file);
+        }
+    }
+
+    /** Removes every cached version of this asset. */
+    public void deleteEntries(String name) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        String prefix = fileNameFor(name) + "-";
+        for (File file : files) {
+            if (isEntry(file.getName(), prefix)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Key of an asset version from its length and the modification time of
+     * the package it ships in. Installing an update changes the time, so the
+     * key changes whenever the asset may have, and finding it reads nothing.
+     */
+    public static long key(long length, long packageModified) {
+        return packageModified * 31L + length;
+    }
+
+    private File fileFor(String name, long key) {
+        return new File(directory, fileNameFor(name) + "-" + Long.toHexString(key) + EXTENSION);
+    }
+
+    /**
+     * Whether {@code fileName} is exactly {@code prefix}, a hexadecimal key
+     * and the extension, and not the entry of another asset whose name
+     * starts the same way, such as "a.obj-old.obj" for "a.obj".
+     */
+    private static boolean isEntry(String fileName, String prefix) {
+        int end = fileName.length() - EXTENSION.length();
+        if (end <= prefix.length() || !fileName.startsWith(prefix) || !fileName.endsWith(EXTENSION)) {
+            return false;
+        }
+        for (int i = prefix.length(); i < end; i++) {
+            char c = fileName.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String fileNameFor(String name) {
+        return name.replace('/', '_').replace('\\', '_');
+    }
+
+    private static ByteBuffer slice(ByteBuffer map, int offset, int length) {
+        ByteBuffer view = map.duplicate();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int align4(int value) {
+        return (value + 3) & ~3;
+    }
+}
@@ -4,6 +4,7 @@ import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 
 /**
  * Created by josea on 9/26/2017.
@@ -90,6 +91,20 @@ public abstract class MeshObject {
     }
 
 
+    protected Buffer fillBuffer(int[] array)
+    {
+        // Each int takes 4 bytes
+        IntBuffer buffer;
+
+        buffer = ByteBuffer.allocateDirect(array.length * 4)
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+        buffer.put(array).position(0);
+
+        return buffer;
+
+    }
+
+
     public abstract Buffer getBuffer(BUFFER_TYPE bufferType);
 
 
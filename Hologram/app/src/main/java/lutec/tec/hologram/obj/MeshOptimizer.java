@@ -0,0 +1,458 @@
+package lutec.tec.hologram.obj;
+
+import java.util.Arrays;
+
+/**
+ * Reorders the triangles of an indexed mesh for the GPU.
+ *
+ * The first pass is Tom Forsyth's linear-speed vertex cache optimization:
+ * it greedily emits the triangle whose vertices score best against a
+ * simulated LRU cache, favouring vertices that are already cached and those
+ * with few triangles left. The second pass cuts that order into clusters
+ * that keep almost the same cache efficiency, then sorts the clusters so
+ * that outward-facing ones, which tend to occlude the rest, come first
+ * (Sander, Nehab and Barczak, "Fast Triangle Reordering for Vertex Locality
+ * and Reduced Overdraw").
+ *
+ * Only the index order changes; vertices stay where they are.
+ */
+public final class MeshOptimizer {
+
+    /** Size of the LRU cache the Forsyth scores are tuned for. */
+    private static final int SCORE_CACHE_SIZE = 32;
+
+    /** FIFO cache used to measure ACMR and to find cluster boundaries. */
+    public static final int FIFO_CACHE_SIZE = 16;
+
+    /** How much worse than its source run a cluster's ACMR may get. */
+    private static final float OVERDRAW_THRESHOLD = 1.05f;
+
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+    private static final int MAX_SCORED_VALENCE = 32;
+
+    private static final float[] CACHE_SCORES = new float[SCORE_CACHE_SIZE];
+    private static final float[] VALENCE_SCORES = new float[MAX_SCORED_VALENCE + 1];
+
+    static {
+        for (int i = 0; i < SCORE_CACHE_SIZE; i++) {
+            if (i < 3) {
+                // The triangle just emitted; using it again gains little
+                // whichever order the GPU keeps its vertices in.
+                CACHE_SCORES[i] = LAST_TRIANGLE_SCORE;
+            } else {
+                float scaler = 1.0f / (SCORE_CACHE_SIZE - 3);
+                CACHE_SCORES[i] = (float) Math.pow(1.0f - (i - 3) * scaler, CACHE_DECAY_POWER);
+            }
+        }
+        for (int i = 1; i <= MAX_SCORED_VALENCE; i++) {
+            VALENCE_SCORES[i] = VALENCE_BOOST_SCALE * (float) Math.pow(i, -VALENCE_BOOST_POWER);
+        }
+    }
+
+    /** ACMR of the full-detail level before and after optimizing one mesh. */
+    public static final class Stats {
+        public final float acmrBefore;
+        public final float acmrAfter;
+        public final int clusters;
+        public final long millis;
+
+        Stats(float acmrBefore, float acmrAfter, int clusters, long millis) {
+            this.acmrBefore = acmrBefore;
+            this.acmrAfter = acmrAfter;
+            this.clusters = clusters;
+            this.millis = millis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("ACMR %.3f -> %.3f, %d clusters, %d ms", acmrBefore, acmrAfter, clusters, millis);
+        }
+    }
+
+    private MeshOptimizer() {}
+
+    /**
+     * Reorders the model's index arrays, including its levels of detail.
+     * Models without arrays (for example ones read from the {@link MeshCache})
+     * are left alone.
+     *
+     * @return The ACMR before and after, or null if nothing was done.
+     */
+    public static Stats optimize(Model model) {
+        if (model.indices == null || model.vertices == null) {
+            return null;
+        }
+
+        final long start = System.nanoTime();
+        final int vertexCount = model.vertices.length / 3;
+        final float before = acmr(model.indices, vertexCount, FIFO_CACHE_SIZE);
+
+        final int[] clusterCount = new int[1];
+        model.indices = reorder(model.indices, vertexCount, model.vertices, clusterCount);
+
+        if (model.lodIndices != null) {
+            for (int level = 0; level < model.lodIndices.length; level++) {
+                model.lodIndices[level] = reorder(model.lodIndices[level], vertexCount, model.vertices, null);
+            }
+        }
+
+        final float after = acmr(model.indices, vertexCount, FIFO_CACHE_SIZE);
+        final Stats stats = new Stats(before, after, clusterCount[0],
+                (System.nanoTime() - start) / 1000000);
+        model.setOptimizationStats(stats);
+        return stats;
+    }
+
+    /**
+     * Both passes over one index array. The result never has a higher ACMR
+     * than the input: a mesh already ordered better than Forsyth's greedy
+     * order, like a regular grid of patches, is clustered in its own order,
+     * and the cluster sort is dropped when it costs more than it started
+     * from.
+     *
+     * @param clusterCount Receives the number of clusters sorted, 0 if the
+     *                     sort was dropped; may be null.
+     */
+    private static int[] reorder(int[] indices, int vertexCount, float[] positions, int[] clusterCount) {
+        final float input = acmr(indices, vertexCount, FIFO_CACHE_SIZE);
+        final int[] cacheOrder = optimizeVertexCache(indices, vertexCount);
+        final int[] source = acmr(cacheOrder, vertexCount, FIFO_CACHE_SIZE) <= input ? cacheOrder : indices;
+
+        final int[] clusters = findClusters(source, vertexCount, OVERDRAW_THRESHOLD);
+        final int[] sorted = sortClusters(source, clusters, positions);
+        final boolean keepSort = acmr(sorted, vertexCount, FIFO_CACHE_SIZE) <= input;
+        if (clusterCount != null) {
+            clusterCount[0] = keepSort ? clusters.length : 0;
+        }
+        return keepSort ? sorted : source;
+    }
+
+    /**
+     * Average number of vertex shader invocations per triangle for a FIFO
+     * post-transform cache of the given size: 3 is the worst case, and about
+     * 0.5 the best a regular grid can reach.
+     */
+    public static float acmr(int[] indices, int vertexCount, int cacheSize) {
+        if (indices.length < 3) {
+            return 0.0f;
+        }
+
+        final int[] timestamps = new int[vertexCount];
+        final int[] time = { cacheSize + 1 };
+        int misses = 0;
+        for (int i = 0; i + 2 < indices.length; i += 3) {
+            misses += updateFifo(indices, i, timestamps, time, cacheSize);
+        }
+        return (float) misses / (indices.length / 3);
+    }
+
+    /**
+     * Simulates one triangle going through a FIFO cache, where a vertex is
+     * cached if fewer than {@code cacheSize} misses happened since its own.
+     */
+    private static int updateFifo(int[] indices, int triangle, int[] timestamps, int[] time, int cacheSize) {
+        int misses = 0;
+        for (int k = 0; k < 3; k++) {
+            final int vertex = indices[triangle + k];
+            if (time[0] - timestamps[vertex] > cacheSize) {
+                timestamps[vertex] = time[0]++;
+                misses++;
+            }
+        }
+        return misses;
+    }
+
+    /** Forsyth's greedy triangle order for a {@value #SCORE_CACHE_SIZE}-entry LRU cache. */
+    static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+        final int triangleCount = indices.length / 3;
+        final int[] result = new int[triangleCount * 3];
+
+        // Triangles using each vertex, as [adjacencyStart[v], +remaining[v]).
+        final int[] remaining = new int[vertexCount];
+        for (int index : indices) {
+            remaining[index]++;
+        }
+        final int[] adjacencyStart = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; v++) {
+            adjacencyStart[v + 1] = adjacencyStart[v] + remaining[v];
+        }
+        final int[] adjacency = new int[indices.length];
+        final int[] fill = new int[vertexCount];
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                final int v = indices[t * 3 + k];
+                adjacency[adjacencyStart[v] + fill[v]++] = t;
+            }
+        }
+
+        final int[] cachePosition = new int[vertexCount];
+        Arrays.fill(cachePosition, -1);
+        final float[] vertexScore = new float[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            vertexScore[v] = vertexScore(-1, remaining[v]);
+        }
+
+        final float[] triangleScore = new float[triangleCount];
+        final boolean[] emitted = new boolean[triangleCount];
+        for (int t = 0; t < triangleCount; t++) {
+            triangleScore[t] = vertexScore[indices[t * 3]] + vertexScore[indices[t * 3 + 1]]
+                    + vertexScore[indices[t * 3 + 2]];
+        }
+
+        int[] cache = new int[SCORE_CACHE_SIZE + 3];
+        int[] newCache = new int[SCORE_CACHE_SIZE + 3];
+        int cacheCount = 0;
+
+        int best = -1;
+        int cursor = 0;
+        for (int out = 0; out < triangleCount; out++) {
+            if (best < 0) {
+                // Nothing cached touches an unemitted triangle: continue with
+                // the next one in input order.
+                while (emitted[cursor]) {
+                    cursor++;
+                }
+                best = cursor;
+            }
+
+            emitted[best] = true;
+            System.arraycopy(indices, best * 3, result, out * 3, 3);
+
+            // The emitted triangle's vertices go to the front of the cache,
+            // followed by the previous contents in order.
+            int newCount = 0;
+            for (int k = 0; k < 3; k++) {
+                final int v = indices[best * 3 + k];
+                removeTriangle(adjacency, adjacencyStart[v], remaining[v]--, best);
+
+                // Degenerate triangles list a vertex more than once.
+                boolean duplicate = false;
+                for (int j = 0; j < newCount; j++) {
+                    duplicate |= newCache[j] == v;
+                }
+                if (!duplicate) {
+                    newCache[newCount++] = v;
+                }
+            }
+            for (int j = 0; j < cacheCount; j++) {
+                final int v = cache[j];
+                if (v != indices[best * 3] && v != indices[best * 3 + 1] && v != indices[best * 3 + 2]) {
+                    newCache[newCount++] = v;
+                }
+            }
+
+            // Rescore every vertex whose cache position or valence changed,
+            // including the ones that just dropped out.
+            for (int j = 0; j < newCount; j++) {
+                final int v = newCache[j];
+                cachePosition[v] = j < SCORE_CACHE_SIZE ? j : -1;
+                rescore(v, cachePosition[v], remaining, vertexScore, adjacency, adjacencyStart, triangleScore);
+            }
+
+            int[] swap = cache;
+            cache = newCache;
+            newCache = swap;
+            cacheCount = Math.min(newCount, SCORE_CACHE_SIZE);
+
+            // The next triangle is the best one among those touching the cache.
+            best = -1;
+            float bestScore = 0.0f;
+            for (int j = 0; j < cacheCount; j++) {
+                final int v = cache[j];
+                for (int a = adjacencyStart[v], end = a + remaining[v]; a < end; a++) {
+                    final int t = adjacency[a];
+                    if (triangleScore[t] > bestScore) {
+                        bestScore = triangleScore[t];
+                        best = t;
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static float vertexScore(int cachePosition, int remaining) {
+        if (remaining == 0) {
+            return -1.0f;
+        }
+        final float score = cachePosition < 0 ? 0.0f : CACHE_SCORES[cachePosition];
+        return score + VALENCE_SCORES[Math.min(remaining, MAX_SCORED_VALENCE)];
+    }
+
+    private static void rescore(int v, int cachePosition, int[] remaining, float[] vertexScore,
+                                int[] adjacency, int[] adjacencyStart, float[] triangleScore) {
+        final float score = vertexScore(cachePosition, remaining[v]);
+        final float delta = score - vertexScore[v];
+        vertexScore[v] = score;
+        for (int a = adjacencyStart[v], end = a + remaining[v]; a < end; a++) {
+            triangleScore[adjacency[a]] += delta;
+        }
+    }
+
+    /** Drops a triangle from a vertex's adjacency list by swapping in the last one. */
+    private static void removeTriangle(int[] adjacency, int start, int count, int triangle) {
+        for (int a = start, last = start + count - 1; a <= last; a++) {
+            if (adjacency[a] == triangle) {
+                adjacency[a] = adjacency[last];
+                adjacency[last] = triangle;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Splits a cache-optimized order into clusters, returned as the index of
+     * each cluster's first triangle. A triangle missing the cache with all
+     * three vertices always starts a cluster; within such a run, a cluster
+     * ends as soon as its own ACMR (with a cold cache) is within
+     * {@code threshold} of the whole run's.
+     */
+    static int[] findClusters(int[] indices, int vertexCount, float threshold) {
+        final int triangleCount = indices.length / 3;
+        final int[] timestamps = new int[vertexCount];
+        final int[] time = { FIFO_CACHE_SIZE + 1 };
+
+        int[] hard = new int[16];
+        int hardCount = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            if (updateFifo(indices, t * 3, timestamps, time, FIFO_CACHE_SIZE) == 3 || t == 0) {
+                if (hardCount == hard.length) {
+                    hard = Arrays.copyOf(hard, hardCount * 2);
+                }
+                hard[hardCount++] = t;
+            }
+        }
+
+        int[] clusters = new int[hardCount + 16];
+        int clusterCount = 0;
+        for (int h = 0; h < hardCount; h++) {
+            final int start = hard[h];
+            final int end = h + 1 < hardCount ? hard[h + 1] : triangleCount;
+
+            // ACMR of the whole run with a cold cache.
+            time[0] += FIFO_CACHE_SIZE + 1;
+            int runMisses = 0;
+            for (int t = start; t < end; t++) {
+                runMisses += updateFifo(indices, t * 3, timestamps, time, FIFO_CACHE_SIZE);
+            }
+            final float target = threshold * runMisses / (end - start);
+
+            if (clusterCount + 1 >= clusters.length) {
+                clusters = Arrays.copyOf(clusters, clusters.length * 2);
+            }
+            clusters[clusterCount++] = start;
+
+            time[0] += FIFO_CACHE_SIZE + 1;
+            int misses = 0;
+            int triangles = 0;
+            for (int t = start; t < end; t++) {
+                misses += updateFifo(indices, t * 3, timestamps, time, FIFO_CACHE_SIZE);
+                triangles++;
+                if (misses <= target * triangles) {
+                    if (clusterCount == clusters.length) {
+                        clusters = Arrays.copyOf(clusters, clusters.length * 2);
+                    }
+                    clusters[clusterCount++] = t + 1;
+                    time[0] += FIFO_CACHE_SIZE + 1;
+                    misses = 0;
+                    triangles = 0;
+                }
+            }
+
+            // The remainder of a run is usually a poor cluster on its own, so
+            // it is merged into the previous one. This also drops the
+            // boundary at 'end' when the run split evenly.
+            if (clusters[clusterCount - 1] != start) {
+                clusterCount--;
+            }
+        }
+
+        return Arrays.copyOf(clusters, clusterCount);
+    }
+
+    /**
+     * Orders clusters by how far they face away from the mesh centroid, so
+     * that likely occluders are drawn first.
+     */
+    static int[] sortClusters(int[] indices, int[] clusters, float[] positions) {
+        final int triangleCount = indices.length / 3;
+
+        double meshX = 0, meshY = 0, meshZ = 0;
+        for (int index : indices) {
+            meshX += positions[index * 3];
+            meshY += positions[index * 3 + 1];
+            meshZ += positions[index * 3 + 2];
+        }
+        if (indices.length > 0) {
+            meshX /= indices.length;
+            meshY /= indices.length;
+            meshZ /= indices.length;
+        }
+
+        // Sort keys hold the order-preserving bits of the score in the high
+        // half and the cluster number in the low half.
+        final long[] keys = new long[clusters.length];
+        for (int c = 0; c < clusters.length; c++) {
+            final int start = clusters[c];
+            final int end = c + 1 < clusters.length ? clusters[c + 1] : triangleCount;
+
+            double centerX = 0, centerY = 0, centerZ = 0, area = 0;
+            double normalX = 0, normalY = 0, normalZ = 0;
+            for (int t = start; t < end; t++) {
+                final int a = indices[t * 3] * 3;
+                final int b = indices[t * 3 + 1] * 3;
+                final int d = indices[t * 3 + 2] * 3;
+
+                final double ux = positions[b] - positions[a];
+                final double uy = positions[b + 1] - positions[a + 1];
+                final double uz = positions[b + 2] - positions[a + 2];
+                final double vx = positions[d] - positions[a];
+                final double vy = positions[d + 1] - positions[a + 1];
+                final double vz = positions[d + 2] - positions[a + 2];
+
+                // Cross product: its length is twice the triangle area.
+                final double nx = uy * vz - uz * vy;
+                final double ny = uz * vx - ux * vz;
+                final double nz = ux * vy - uy * vx;
+                final double weight = Math.sqrt(nx * nx + ny * ny + nz * nz);
+
+                centerX += (positions[a] + positions[b] + positions[d]) / 3 * weight;
+                centerY += (positions[a + 1] + positions[b + 1] + positions[d + 1]) / 3 * weight;
+                centerZ += (positions[a + 2] + positions[b + 2] + positions[d + 2]) / 3 * weight;
+                area += weight;
+
+                normalX += nx;
+                normalY += ny;
+                normalZ += nz;
+            }
+
+            float score = 0.0f;
+            final double normalLength = Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+            if (area > 0 && normalLength > 0) {
+                score = (float) (((centerX / area - meshX) * normalX
+                        + (centerY / area - meshY) * normalY
+                        + (centerZ / area - meshZ) * normalZ) / normalLength);
+            }
+
+            int bits = Float.floatToIntBits(score);
+            bits ^= (bits >> 31) & 0x7fffffff;
+            keys[c] = ((long) bits << 32) | c;
+        }
+        Arrays.sort(keys);
+
+        final int[] result = new int[indices.length];
+        int out = 0;
+        for (int k = keys.length - 1; k >= 0; k--) {
+            final int c = (int) keys[k];
+            final int start = clusters[c] * 3;
+            final int end = c + 1 < clusters.length ? clusters[c + 1] * 3 : indices.length;
+            System.arraycopy(indices, start, result, out, end - start);
+            out += end - start;
+        }
+        return result;
+    }
+}
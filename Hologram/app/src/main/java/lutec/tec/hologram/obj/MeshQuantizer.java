@@ -0,0 +1,266 @@
+package lutec.tec.hologram.obj;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Packs a Model's vertices into compact integer attributes.
+ *
+ * <ul>
+ *   <li>Positions become 16-bit integers on a grid spanning the mesh's
+ *   bounding box. The grid scale and offset go into
+ *   {@link Quantization#positionMatrix}, which the renderer folds into the
+ *   model matrix.</li>
+ *   <li>Normals are octahedral-encoded into two bytes, or two shorts when
+ *   bytes exceed the angular budget, and decoded in the vertex shader.</li>
+ *   <li>Texture coordinates become unsigned shorts over their own range.</li>
+ * </ul>
+ *
+ * Every encoding is checked against the error budget by decoding it again.
+ * An attribute that misses its budget stays in floats. A 32-byte vertex
+ * typically shrinks to 16 bytes.
+ */
+public class MeshQuantizer {
+
+    /** Largest position error allowed, relative to the longest bounding box side. */
+    public float positionTolerance = 1.0f / 10000;
+
+    /** Largest angle between a normal and its decoded value, in degrees. */
+    public float normalToleranceDegrees = 1.0f;
+
+    /** Largest texture coordinate error allowed, in UV units. */
+    public float texCoordTolerance = 1.0f / 8192;
+
+    private static final int SHORT_RANGE = 32767;
+    private static final int UNSIGNED_SHORT_RANGE = 65535;
+    private static final int BYTE_RANGE = 127;
+
+    /**
+     * Replaces the model's layout with a quantized interleaved one.
+     *
+     * @return The dequantization parameters, also stored in the model, or null
+     * if the normals could not meet their budget and the model was left as it
+     * was.
+     */
+    public Quantization quantize(Model model) {
+        if (model.getVertices() == null) {
+            model.load();
+        }
+
+        final FloatBuffer positions = (FloatBuffer) model.getVertices();
+        final FloatBuffer normals = (FloatBuffer) model.getNormals();
+        final FloatBuffer texCoords = (FloatBuffer) model.getTexCoords();
+        final int vertexCount = model.getNumObjectVertex();
+
+        final Quantization quantization = new Quantization();
+
+        // Normals: the cheapest octahedral encoding that meets the budget.
+        int normalRange = BYTE_RANGE;
+        float normalError = octahedralError(normals, vertexCount, normalRange);
+        if (normalError > normalToleranceDegrees) {
+            normalRange = SHORT_RANGE;
+            normalError = octahedralError(normals, vertexCount, normalRange);
+            if (normalError > normalToleranceDegrees) {
+                return null;
+            }
+        }
+        quantization.normalErrorDegrees = normalError;
+        quantization.normalDequant[3] = 1.0f / normalRange;
+
+        // Positions: a 16-bit grid over the bounding box.
+        final float[] min = new float[3];
+        final float[] max = new float[3];
+        bounds(positions, vertexCount, 3, min, max);
+
+        final float[] positionStep = new float[3];
+        float longestSide = 0.0f;
+        for (int axis = 0; axis < 3; axis++) {
+            longestSide = Math.max(longestSide, max[axis] - min[axis]);
+        }
+        float positionError = 0.0f;
+        for (int axis = 0; axis < 3; axis++) {
+            final float half = (max[axis] - min[axis]) * 0.5f;
+            positionStep[axis] = half > 0.0f ? half / SHORT_RANGE : 1.0f;
+            positionError = Math.max(positionError, gridError(positions, vertexCount, 3, axis,
+                    (min[axis] + max[axis]) * 0.5f, positionStep[axis], -SHORT_RANGE, SHORT_RANGE));
+        }
+        final boolean packPositions = positionError <= positionTolerance * longestSide;
+
+        // Texture coordinates: a 16-bit grid over their range.
+        final float[] uvMin = new float[2];
+        final float[] uvMax = new float[2];
+        bounds(texCoords, vertexCount, 2, uvMin, uvMax);
+
+        final float[] uvStep = new float[2];
+        float texCoordError = 0.0f;
+        for (int axis = 0; axis < 2; axis++) {
+            final float range = uvMax[axis] - uvMin[axis];
+            uvStep[axis] = range > 0.0f ? range / UNSIGNED_SHORT_RANGE : 1.0f;
+            texCoordError = Math.max(texCoordError, gridError(texCoords, vertexCount, 2, axis,
+                    uvMin[axis], uvStep[axis], 0, UNSIGNED_SHORT_RANGE));
+        }
+        final boolean packTexCoords = texCoordError <= texCoordTolerance;
+
+        // Dequantization parameters; identity for attributes left in floats.
+        final float[] matrix = quantization.positionMatrix;
+        matrix[15] = 1.0f;
+        for (int axis = 0; axis < 3; axis++) {
+            matrix[axis * 5] = packPositions ? positionStep[axis] : 1.0f;
+            matrix[12 + axis] = packPositions ? (min[axis] + max[axis]) * 0.5f : 0.0f;
+            quantization.normalDequant[axis] = 1.0f / matrix[axis * 5];
+        }
+        quantization.positionError = packPositions ? positionError : 0.0f;
+
+        quantization.texCoordTransform[0] = packTexCoords ? uvStep[0] : 1.0f;
+        quantization.texCoordTransform[1] = packTexCoords ? uvStep[1] : 1.0f;
+        quantization.texCoordTransform[2] = packTexCoords ? uvMin[0] : 0.0f;
+        quantization.texCoordTransform[3] = packTexCoords ? uvMin[1] : 0.0f;
+        quantization.texCoordError = packTexCoords ? texCoordError : 0.0f;
+
+        final VertexLayout layout = new VertexLayout(
+                new int[] { 3, 2, 2 },
+                new int[] {
+                        packPositions ? GLES20.GL_SHORT : GLES20.GL_FLOAT,
+                        normalRange == BYTE_RANGE ? GLES20.GL_BYTE : GLES20.GL_SHORT,
+                        packTexCoords ? GLES20.GL_UNSIGNED_SHORT : GLES20.GL_FLOAT },
+                new boolean[] { false, false, false },
+                new int[] { packPositions ? 8 : 12, 4, packTexCoords ? 4 : 8 });
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(vertexCount * layout.getStride())
+                .order(ByteOrder.nativeOrder());
+        final float[] octahedral = new float[2];
+
+        for (int i = 0; i < vertexCount; i++) {
+            final int vertex = i * layout.getStride();
+
+            buffer.position(vertex + layout.getOffset(VertexLayout.POSITION));
+            for (int axis = 0; axis < 3; axis++) {
+                final float value = positions.get(i * 3 + axis);
+                if (packPositions) {
+                    buffer.putShort((short) Math.round((value - matrix[12 + axis]) / matrix[axis * 5]));
+                } else {
+                    buffer.putFloat(value);
+                }
+            }
+
+            buffer.position(vertex + layout.getOffset(VertexLayout.NORMAL));
+            encodeOctahedral(normals.get(i * 3), normals.get(i * 3 + 1), normals.get(i * 3 + 2), octahedral);
+            for (int axis = 0; axis < 2; axis++) {
+                final int value = Math.round(octahedral[axis] * normalRange);
+                if (normalRange == BYTE_RANGE) {
+                    buffer.put((byte) value);
+                } else {
+                    buffer.putShort((short) value);
+                }
+            }
+
+            buffer.position(vertex + layout.getOffset(VertexLayout.TEXCOORD));
+            for (int axis = 0; axis < 2; axis++) {
+                final float value = texCoords.get(i * 2 + axis);
+                if (packTexCoords) {
+                    buffer.putShort((short) Math.round((value - uvMin[axis]) / uvStep[axis]));
+                } else {
+                    buffer.putFloat(value);
+                }
+            }
+        }
+        buffer.position(0);
+
+        model.setQuantizedBuffer(buffer, layout, quantization);
+        return quantization;
+    }
+
+    private static void bounds(FloatBuffer data, int count, int components, float[] min, float[] max) {
+        for (int axis = 0; axis < components; axis++) {
+            min[axis] = count > 0 ? Float.MAX_VALUE : 0.0f;
+            max[axis] = count > 0 ? -Float.MAX_VALUE : 0.0f;
+        }
+        for (int i = 0; i < count; i++) {
+            for (int axis = 0; axis < components; axis++) {
+                final float value = data.get(i * components + axis);
+                min[axis] = Math.min(min[axis], value);
+                max[axis] = Math.max(max[axis], value);
+            }
+        }
+    }
+
+    /** Largest error of snapping one component to {@code origin + k * step}, k in [low, high]. */
+    private static float gridError(FloatBuffer data, int count, int components, int axis,
+                                   float origin, float step, int low, int high) {
+        float error = 0.0f;
+        for (int i = 0; i < count; i++) {
+            final float value = data.get(i * components + axis);
+            final long k = Math.max(low, Math.min(high, Math.round((value - origin) / step)));
+            error = Math.max(error, Math.abs(origin + k * step - value));
+        }
+        return error;
+    }
+
+    /** Largest angle, in degrees, between a normal and its decoded octahedral encoding. */
+    private static float octahedralError(FloatBuffer normals, int count, int range) {
+        final float[] encoded = new float[2];
+        final float[] decoded = new float[3];
+        double worstCos = 1.0;
+
+        for (int i = 0; i < count; i++) {
+            final float x = normals.get(i * 3);
+            final float y = normals.get(i * 3 + 1);
+            final float z = normals.get(i * 3 + 2);
+            final double length = Math.sqrt(x * x + y * y + z * z);
+            if (length == 0.0) {
+                continue;
+            }
+
+            encodeOctahedral(x, y, z, encoded);
+            decodeOctahedral(Math.round(encoded[0] * range) / (float) range,
+                    Math.round(encoded[1] * range) / (float) range, decoded);
+            final double cos = (x * decoded[0] + y * decoded[1] + z * decoded[2]) / length;
+            worstCos = Math.min(worstCos, cos);
+        }
+
+        return (float) Math.toDegrees(Math.acos(Math.max(-1.0, Math.min(1.0, worstCos))));
+    }
+
+    /** Maps a direction onto the octahedron, then unfolds it into [-1, 1]^2. */
+    static void encodeOctahedral(float x, float y, float z, float[] out) {
+        final float sum = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        if (sum == 0.0f) {
+            out[0] = 0.0f;
+            out[1] = 0.0f;
+            return;
+        }
+
+        float u = x / sum;
+        float v = y / sum;
+        if (z < 0.0f) {
+            final float foldedU = (1.0f - Math.abs(v)) * signNotZero(u);
+            final float foldedV = (1.0f - Math.abs(u)) * signNotZero(v);
+            u = foldedU;
+            v = foldedV;
+        }
+        out[0] = u;
+        out[1] = v;
+    }
+
+    /** Same as the decode in quantized_vertex_shader.glsl; the result is normalized. */
+    static void decodeOctahedral(float u, float v, float[] out) {
+        float x = u;
+        float y = v;
+        final float z = 1.0f - Math.abs(u) - Math.abs(v);
+        if (z < 0.0f) {
+            x = (1.0f - Math.abs(v)) * signNotZero(u);
+            y = (1.0f - Math.abs(u)) * signNotZero(v);
+        }
+        final float length = (float) Math.sqrt(x * x + y * y + z * z);
+        out[0] = x / length;
+        out[1] = y / length;
+        out[2] = z / length;
+    }
+
+    private static float signNotZero(float value) {
+        return value >= 0.0f ? 1.0f : -1.0f;
+    }
+}
@@ -0,0 +1,529 @@
+package lutec.tec.hologram.obj;
+
+import java.util.Arrays;
+
+/**
+ * Builds coarser levels of detail for an indexed mesh by quadric error edge
+ * collapse (Garland and Heckbert, "Surface Simplification Using Quadric Error
+ * Metrics").
+ *
+ * Collapses are half-edge collapses: a vertex is merged into one of its
+ * neighbours, which keeps its own position and attributes. Every level
+ * therefore indexes the same vertex buffer as the full mesh, and only the
+ * index buffer grows. A vertex on a UV or normal seam (a position shared
+ * by several vertices) only collapses along the seam, together with its
+ * copies on the other sides, and planes standing on the seam edges keep
+ * the seam in place. Vertices on an open border are never removed, so
+ * silhouettes of open meshes stay intact.
+ *
+ * The error of a level is a heuristic, not a bound: the root of the
+ * largest mean squared distance to the original planes that any collapse
+ * so far has cost.
+ */
+public final class MeshSimplifier {
+
+    /** Coarser levels built at most, each with about half the triangles of the previous one. */
+    public static final int MAX_LEVELS = 4;
+
+    /** No level gets fewer triangles than this. */
+    private static final int MIN_TRIANGLES = 32;
+
+    /** A level that cannot get below this fraction of the previous one ends the chain. */
+    private static final float MIN_REDUCTION = 0.8f;
+
+    /** Quadric coefficients per vertex: the 10 terms of the symmetric 4x4 matrix, then the area weight. */
+    private static final int QUADRIC_SIZE = 11;
+
+    private MeshSimplifier() {}
+
+    /**
+     * Fills {@code model.lodIndices} and {@code model.lodErrors} from the
+     * model's full-detail indices and positions.
+     */
+    public static void buildLods(Model model) {
+        if (model.indices == null || model.vertices == null) {
+            return;
+        }
+
+        final int[][] levels = new int[MAX_LEVELS][];
+        final float[] errors = new float[MAX_LEVELS];
+        final int levelCount = simplify(model.indices, model.vertices, levels, errors);
+
+        model.lodIndices = Arrays.copyOf(levels, levelCount);
+        model.lodErrors = Arrays.copyOf(errors, levelCount);
+    }
+
+    /**
+     * Collapses edges in order of increasing error, taking a snapshot each
+     * time the triangle count has halved since the previous one. The
+     * quadrics keep accumulating from one level to the next, so every
+     * level's error is measured against the original surface.
+     *
+     * @param levels Receives the index arrays of the coarser levels.
+     * @param errors Receives an estimate of each level's error in model
+     *               units: the root of the largest collapse cost so far,
+     *               which is an area-weighted mean squared distance to the
+     *               original planes. It is not a bound on how far any point
+     *               moved.
+     * @return The number of levels written.
+     */
+    static int simplify(int[] indices, float[] positions, int[][] levels, float[] errors) {
+        final int vertexCount = positions.length / 3;
+        final int[] canonical = canonicalVertices(positions, vertexCount);
+        final int[] nextCopy = linkCopies(canonical, vertexCount);
+        final boolean[] locked = findBorderVertices(indices, canonical, vertexCount);
+        final double[] quadrics = computeQuadrics(indices, positions, vertexCount);
+        addSeamQuadrics(indices, positions, vertexCount, quadrics);
+
+        final int[] remap = new int[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            remap[v] = v;
+        }
+
+        int[] result = indices.clone();
+        int count = result.length;
+        double maxCost = 0.0;
+
+        int levelCount = 0;
+        int previousCount = count;
+        int targetIndexCount = previousCount / 6 * 3;
+
+        final int[] target = new int[vertexCount];
+        final double[] cost = new double[vertexCount];
+        final boolean[] touched = new boolean[vertexCount];
+        final long[] order = new long[vertexCount];
+
+        while (levelCount < levels.length && targetIndexCount / 3 >= MIN_TRIANGLES) {
+            if (count <= targetIndexCount) {
+                levels[levelCount] = Arrays.copyOf(result, count);
+                errors[levelCount] = (float) Math.sqrt(maxCost);
+                levelCount++;
+                previousCount = count;
+                targetIndexCount = previousCount / 6 * 3;
+                continue;
+            }
+
+            final int[] adjacencyStart = new int[vertexCount + 1];
+            final int[] adjacency = buildAdjacency(result, count, vertexCount, adjacencyStart);
+
+            // The cheapest neighbour to collapse each free vertex into.
+            Arrays.fill(target, -1);
+            Arrays.fill(cost, Double.MAX_VALUE);
+            for (int i = 0; i < count; i += 3) {
+                for (int k = 0; k < 3; k++) {
+                    final int v = result[i + k];
+                    if (locked[v]) {
+                        continue;
+                    }
+                    for (int n = 1; n < 3; n++) {
+                        final int u = result[i + (k + n) % 3];
+                        if (u == v) {
+                            continue;
+                        }
+                        final double c = collapseCost(quadrics, nextCopy, v, u, positions);
+                        if (c < cost[v] && followsSeam(result, adjacency, adjacencyStart, canonical, nextCopy, v, u)) {
+                            cost[v] = c;
+                            target[v] = u;
+                        }
+                    }
+                }
+            }
+
+            int candidates = 0;
+            for (int v = 0; v < vertexCount; v++) {
+                if (target[v] >= 0) {
+                    // Costs are non-negative, so their float bits sort like the values.
+                    order[candidates++] = ((long) Float.floatToIntBits((float) cost[v]) << 32) | v;
+                }
+            }
+            Arrays.sort(order, 0, candidates);
+
+            // Each collapse removes about two triangles; stop the pass once
+            // the target is reached, and let the next pass look again at the
+            // neighbourhoods that changed.
+            final int goal = Math.max(1, (count - targetIndexCount) / 6);
+            Arrays.fill(touched, false);
+            int collapses = 0;
+            for (int c = 0; c < candidates && collapses < goal; c++) {
+                final int v = (int) order[c];
+                final int u = target[v];
+                if (!canCollapse(result, adjacency, adjacencyStart, canonical, nextCopy, touched, v, u, positions)) {
+                    continue;
+                }
+
+                // Every copy of v moves onto the copy of u on its own side of
+                // the seam, so the seam stays closed and each side keeps its
+                // attributes.
+                int w = v;
+                do {
+                    final int x = w == v ? u : findPartner(result, adjacency, adjacencyStart, canonical, w, u);
+                    if (x >= 0) {
+                        remap[w] = x;
+                        for (int q = 0; q < QUADRIC_SIZE; q++) {
+                            quadrics[x * QUADRIC_SIZE + q] += quadrics[w * QUADRIC_SIZE + q];
+                        }
+
+                        // Everything around w changes shape; leave it for the next pass.
+                        for (int a = adjacencyStart[w]; a < adjacencyStart[w + 1]; a++) {
+                            final int t = adjacency[a] * 3;
+                            touched[result[t]] = true;
+                            touched[result[t + 1]] = true;
+                            touched[result[t + 2]] = true;
+                        }
+                    }
+                    w = nextCopy[w];
+                } while (w != v);
+                maxCost = Math.max(maxCost, cost[v]);
+                collapses++;
+            }
+
+            if (collapses == 0) {
+                // Only locked vertices and flipping collapses are left. Keep
+                // what was reached if it is still worth a level of its own.
+                if (count <= previousCount * MIN_REDUCTION) {
+                    levels[levelCount] = Arrays.copyOf(result, count);
+                    errors[levelCount] = (float) Math.sqrt(maxCost);
+                    levelCount++;
+                }
+                break;
+            }
+
+            // Point collapsed vertices at their target and drop triangles
+            // that became degenerate.
+            int out = 0;
+            for (int i = 0; i < count; i += 3) {
+                final int a = remap[result[i]];
+                final int b = remap[result[i + 1]];
+                final int d = remap[result[i + 2]];
+                if (a != b && b != d && d != a) {
+                    result[out++] = a;
+                    result[out++] = b;
+                    result[out++] = d;
+                }
+            }
+            count = out;
+        }
+
+        return levelCount;
+    }
+
+    /**
+     * Whether collapsing v into u keeps v's seams closed: every copy of v
+     * that is still in use must share a triangle with a copy of u, so that
+     * all of them can move along the seam together. Vertices off any seam
+     * have no other copies and always pass.
+     */
+    private static boolean followsSeam(int[] indices, int[] adjacency, int[] adjacencyStart, int[] canonical,
+                                       int[] nextCopy, int v, int u) {
+        for (int w = nextCopy[v]; w != v; w = nextCopy[w]) {
+            if (adjacencyStart[w] != adjacencyStart[w + 1]
+                    && findPartner(indices, adjacency, adjacencyStart, canonical, w, u) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether no copy of v or of its partner was changed earlier in this
+     * pass, and no copy's collapse flips a triangle.
+     */
+    private static boolean canCollapse(int[] indices, int[] adjacency, int[] adjacencyStart, int[] canonical,
+                                       int[] nextCopy, boolean[] touched, int v, int u, float[] positions) {
+        int w = v;
+        do {
+            final int x = w == v ? u : findPartner(indices, adjacency, adjacencyStart, canonical, w, u);
+            if (x >= 0 && (touched[w] || touched[x]
+                    || flips(indices, adjacency, adjacencyStart[w], adjacencyStart[w + 1], w, x, positions))) {
+                return false;
+            }
+            w = nextCopy[w];
+        } while (w != v);
+        return true;
+    }
+
+    /** A vertex at u's position that shares a triangle with w, or -1. */
+    private static int findPartner(int[] indices, int[] adjacency, int[] adjacencyStart, int[] canonical,
+                                   int w, int u) {
+        for (int a = adjacencyStart[w]; a < adjacencyStart[w + 1]; a++) {
+            final int t = adjacency[a] * 3;
+            for (int k = 0; k < 3; k++) {
+                if (canonical[indices[t + k]] == canonical[u]) {
+                    return indices[t + k];
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Border vertices sit on an edge that only one triangle uses, comparing
+     * edges by position so that seams do not count as borders. Every vertex
+     * at a border position is locked, so silhouettes of open meshes stay
+     * intact.
+     */
+    private static boolean[] findBorderVertices(int[] indices, int[] canonical, int vertexCount) {
+        final boolean[] locked = new boolean[vertexCount];
+
+        final int[] canonicalIndices = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            canonicalIndices[i] = canonical[indices[i]];
+        }
+        final int[] adjacencyStart = new int[vertexCount + 1];
+        final int[] adjacency = buildAdjacency(canonicalIndices, canonicalIndices.length, vertexCount, adjacencyStart);
+
+        for (int i = 0; i < canonicalIndices.length; i += 3) {
+            for (int k = 0; k < 3; k++) {
+                final int a = canonicalIndices[i + k];
+                final int b = canonicalIndices[i + (k + 1) % 3];
+                if (!hasEdge(canonicalIndices, adjacency, adjacencyStart[b], adjacencyStart[b + 1], b, a)) {
+                    // Lock every vertex at these positions, not just the canonical one.
+                    locked[a] = true;
+                    locked[b] = true;
+                }
+            }
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            locked[v] |= locked[canonical[v]];
+        }
+
+        return locked;
+    }
+
+    /** Links the vertices at each position into a ring, as nextCopy[v]; a vertex alone points at itself. */
+    private static int[] linkCopies(int[] canonical, int vertexCount) {
+        final int[] nextCopy = new int[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            nextCopy[v] = v;
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            final int c = canonical[v];
+            if (c != v) {
+                nextCopy[v] = nextCopy[c];
+                nextCopy[c] = v;
+            }
+        }
+        return nextCopy;
+    }
+
+    /** Maps every vertex to the first vertex with the exact same position. */
+    private static int[] canonicalVertices(float[] positions, int vertexCount) {
+        final int tableSize = Integer.highestOneBit(Math.max(vertexCount, 8) * 2 - 1) << 1;
+        final int mask = tableSize - 1;
+        final int[] table = new int[tableSize];
+        Arrays.fill(table, -1);
+
+        final int[] canonical = new int[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            final int x = Float.floatToIntBits(positions[v * 3]);
+            final int y = Float.floatToIntBits(positions[v * 3 + 1]);
+            final int z = Float.floatToIntBits(positions[v * 3 + 2]);
+            int slot = ((x * 73856093) ^ (y * 19349663) ^ (z * 83492791)) & mask;
+
+            while (true) {
+                final int other = table[slot];
+                if (other < 0) {
+                    table[slot] = v;
+                    canonical[v] = v;
+                    break;
+                }
+                if (Float.floatToIntBits(positions[other * 3]) == x
+                        && Float.floatToIntBits(positions[other * 3 + 1]) == y
+                        && Float.floatToIntBits(positions[other * 3 + 2]) == z) {
+                    canonical[v] = other;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+        return canonical;
+    }
+
+    /** Whether a triangle in adjacency[start .. end) has the directed edge from {@code from} to {@code to}. */
+    private static boolean hasEdge(int[] indices, int[] adjacency, int start, int end, int from, int to) {
+        for (int a = start; a < end; a++) {
+            final int t = adjacency[a] * 3;
+            for (int k = 0; k < 3; k++) {
+                if (indices[t + k] == from && indices[t + (k + 1) % 3] == to) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Triangles using each vertex, as adjacency[start[v] .. start[v + 1]). */
+    private static int[] buildAdjacency(int[] indices, int count, int vertexCount, int[] start) {
+        for (int i = 0; i < count; i++) {
+            start[indices[i] + 1]++;
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            start[v + 1] += start[v];
+        }
+
+        final int[] fill = new int[vertexCount];
+        final int[] adjacency = new int[count];
+        for (int i = 0; i < count; i++) {
+            final int v = indices[i];
+            adjacency[start[v] + fill[v]++] = i / 3;
+        }
+        return adjacency;
+    }
+
+    /** Sums the area-weighted plane quadric of every triangle into its three vertices. */
+    private static double[] computeQuadrics(int[] indices, float[] positions, int vertexCount) {
+        final double[] quadrics = new double[vertexCount * QUADRIC_SIZE];
+
+        for (int i = 0; i + 2 < indices.length; i += 3) {
+            final int a = indices[i] * 3;
+            final int b = indices[i + 1] * 3;
+            final int c = indices[i + 2] * 3;
+
+            final double ux = positions[b] - positions[a];
+            final double uy = positions[b + 1] - positions[a + 1];
+            final double uz = positions[b + 2] - positions[a + 2];
+            final double vx = positions[c] - positions[a];
+            final double vy = positions[c + 1] - positions[a + 1];
+            final double vz = positions[c + 2] - positions[a + 2];
+
+            double nx = uy * vz - uz * vy;
+            double ny = uz * vx - ux * vz;
+            double nz = ux * vy - uy * vx;
+            final double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (length == 0.0) {
+                continue;
+            }
+            nx /= length;
+            ny /= length;
+            nz /= length;
+            final double d = -(nx * positions[a] + ny * positions[a + 1] + nz * positions[a + 2]);
+            final double area = length * 0.5;
+
+            for (int k = 0; k < 3; k++) {
+                addPlane(quadrics, indices[i + k] * QUADRIC_SIZE, nx, ny, nz, d, area);
+            }
+        }
+        return quadrics;
+    }
+
+    /**
+     * Adds, for every edge whose triangle has no neighbour across it by
+     * vertex (a seam, or an open border), the plane through the edge at
+     * right angles to the triangle. Collapses along a seam then keep it
+     * where it was instead of letting it slide across the surface.
+     */
+    private static void addSeamQuadrics(int[] indices, float[] positions, int vertexCount, double[] quadrics) {
+        final int[] adjacencyStart = new int[vertexCount + 1];
+        final int[] adjacency = buildAdjacency(indices, indices.length, vertexCount, adjacencyStart);
+
+        for (int i = 0; i + 2 < indices.length; i += 3) {
+            final double[] face = normal(positions, indices[i], indices[i + 1], indices[i + 2]);
+            for (int k = 0; k < 3; k++) {
+                final int a = indices[i + k];
+                final int b = indices[i + (k + 1) % 3];
+                if (hasEdge(indices, adjacency, adjacencyStart[b], adjacencyStart[b + 1], b, a)) {
+                    continue;
+                }
+
+                final double ex = positions[b * 3] - positions[a * 3];
+                final double ey = positions[b * 3 + 1] - positions[a * 3 + 1];
+                final double ez = positions[b * 3 + 2] - positions[a * 3 + 2];
+                double nx = ey * face[2] - ez * face[1];
+                double ny = ez * face[0] - ex * face[2];
+                double nz = ex * face[1] - ey * face[0];
+                final double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if (length == 0.0) {
+                    continue;
+                }
+                nx /= length;
+                ny /= length;
+                nz /= length;
+                final double d = -(nx * positions[a * 3] + ny * positions[a * 3 + 1] + nz * positions[a * 3 + 2]);
+                // Weighted like a triangle standing on the edge.
+                final double weight = ex * ex + ey * ey + ez * ez;
+
+                for (int vertex = a; ; vertex = b) {
+                    addPlane(quadrics, vertex * QUADRIC_SIZE, nx, ny, nz, d, weight);
+                    if (vertex == b) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addPlane(double[] quadrics, int q, double nx, double ny, double nz, double d, double weight) {
+        quadrics[q] += weight * nx * nx;
+        quadrics[q + 1] += weight * nx * ny;
+        quadrics[q + 2] += weight * nx * nz;
+        quadrics[q + 3] += weight * nx * d;
+        quadrics[q + 4] += weight * ny * ny;
+        quadrics[q + 5] += weight * ny * nz;
+        quadrics[q + 6] += weight * ny * d;
+        quadrics[q + 7] += weight * nz * nz;
+        quadrics[q + 8] += weight * nz * d;
+        quadrics[q + 9] += weight * d * d;
+        quadrics[q + 10] += weight;
+    }
+
+    /**
+     * Mean squared distance from u's position to the planes around every
+     * vertex at v's and u's positions, weighted by area.
+     */
+    private static double collapseCost(double[] quadrics, int[] nextCopy, int v, int u, float[] positions) {
+        final double x = positions[u * 3];
+        final double y = positions[u * 3 + 1];
+        final double z = positions[u * 3 + 2];
+
+        double sum = 0.0;
+        double weight = 0.0;
+        for (int group = v; ; group = u) {
+            int vertex = group;
+            do {
+                final int q = vertex * QUADRIC_SIZE;
+                sum += quadrics[q] * x * x + 2 * quadrics[q + 1] * x * y + 2 * quadrics[q + 2] * x * z
+                        + 2 * quadrics[q + 3] * x + quadrics[q + 4] * y * y + 2 * quadrics[q + 5] * y * z
+                        + 2 * quadrics[q + 6] * y + quadrics[q + 7] * z * z + 2 * quadrics[q + 8] * z
+                        + quadrics[q + 9];
+                weight += quadrics[q + 10];
+                vertex = nextCopy[vertex];
+            } while (vertex != group);
+            if (group == u) {
+                break;
+            }
+        }
+        return weight > 0.0 ? Math.max(0.0, sum / weight) : 0.0;
+    }
+
+    /** Whether moving v onto u turns any surviving triangle around v over. */
+    private static boolean flips(int[] indices, int[] adjacency, int start, int end, int v, int u, float[] positions) {
+        for (int a = start; a < end; a++) {
+            final int t = adjacency[a] * 3;
+            final int i0 = indices[t], i1 = indices[t + 1], i2 = indices[t + 2];
+            if (i0 == u || i1 == u || i2 == u) {
+                continue;   // Collapses away.
+            }
+
+            final double[] before = normal(positions, i0, i1, i2);
+            final double[] after = normal(positions, i0 == v ? u : i0, i1 == v ? u : i1, i2 == v ? u : i2);
+            final double dot = before[0] * after[0] + before[1] * after[1] + before[2] * after[2];
+            final double lengths = Math.sqrt((before[0] * before[0] + before[1] * before[1] + before[2] * before[2])
+                    * (after[0] * after[0] + after[1] * after[1] + after[2] * after[2]));
+            // Also reject triangles that would turn by more than ~75 degrees.
+            if (dot <= lengths * 0.25) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double[] normal(float[] positions, int a, int b, int c) {
+        final double ux = positions[b * 3] - positions[a * 3];
+        final double uy = positions[b * 3 + 1] - positions[a * 3 + 1];
+        final double uz = positions[b * 3 + 2] - positions[a * 3 + 2];
+        final double vx = positions[c * 3] - positions[a * 3];
+        final double vy = positions[c * 3 + 1] - positions[a * 3 + 1];
+        final double vz = positions[c * 3 + 2] - positions[a * 3 + 2];
+        return new double[] { uy * vz - uz * vy, uz * vx - ux * vz, ux * vy - uy * vx };
+    }
+}
@@ -3,7 +3,11 @@ package lutec.tec.hologram.obj;
 import android.opengl.GLES20;
 
 import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 /**
  * Created by josea on 9/26/2017.
@@ -11,70 +15,469 @@ import java.nio.FloatBuffer;
 
 public class Model extends MeshObject{
 
+    /**
+     * Largest vertex count unsigned short indices can address. Beyond it
+     * indices are 32-bit, which OpenGL ES 2.0 only draws with the
+     * OES_element_index_uint extension; see {@link #expandIndices()}.
+     */
+    public static final int MAX_SHORT_INDEXED_VERTICES = 65536;
+
+    /** Index type of models that were expanded, and are drawn with glDrawArrays. */
+    public static final int NOT_INDEXED = 0;
+
     public float[] vertices;
     public float[] texCoords;
     public float[] normals;
-    public short[] indices;
+    public int[] indices;
+
+    /** Coarser levels of detail over the same vertices, see {@link MeshSimplifier}. */
+    public int[][] lodIndices;
+    /** Estimated simplification error of each coarser level, in model units; see {@link MeshSimplifier}. */
+    public float[] lodErrors;
 
     private FloatBuffer mVertBuff;
     private FloatBuffer mTexCoordBuff;
     private FloatBuffer mNormBuff;
     private Buffer mIndBuff;
+    private ByteBuffer mInterleavedBuff;
+
+    private VertexLayout vertexLayout = VertexLayout.SEPARATE;
+    private Quantization quantization;
+    private MeshOptimizer.Stats optimizationStats;
+    private MeshBvh bvh;
 
     private int indicesNumber = 0;
     private int verticesNumber = 0;
     private int normalNumber = 0;
     private int textCoordsNumer = 0;
+    private int indexType = GLES20.GL_UNSIGNED_SHORT;
+
+    /** Where each level of detail sits in the index buffer, level 0 first. */
+    private int[] lodOffsets = { 0 };
+    private int[] lodCounts = { 0 };
+    private float[] lodErrorTable = { 0.0f };
+    private int indexBufferLength = 0;
+
+    /** Axis-aligned box and bounding sphere of the vertices, in model units. */
+    private final float[] boundsMin = new float[3];
+    private final float[] boundsMax = new float[3];
+    private final float[] boundingCenter = new float[3];
+    private float boundingRadius;
+    private boolean hasBounds;
 
     public int mCubePositionsBufferIdx;
     public int mCubeNormalsBufferIdx;
     public int mCubeTexCoordsBufferIdx;
+    public int mCubeIndicesBufferIdx;
 
     public Model(){}
 
+    /**
+     * Fills the direct buffers from the attribute arrays. Models that were
+     * created from ready-made buffers (see {@link MeshCache}) have no arrays
+     * and keep the buffers they were given.
+     */
     public void load(){
-        mVertBuff = fillBuffer(vertices);
-        verticesNumber = vertices.length / 3;
+        if (vertices != null) {
+            mVertBuff = fillBuffer(vertices);
+            verticesNumber = vertices.length / 3;
+
+            mTexCoordBuff = fillBuffer(texCoords);
+            textCoordsNumer = texCoords.length/2;
+
+            mNormBuff = fillBuffer(normals);
+            normalNumber = normals.length/3;
+
+            mIndBuff = fillIndexBuffer();
+        }
+
+        if (vertexLayout.isInterleaved() && mInterleavedBuff == null) {
+            mInterleavedBuff = interleave();
+        }
+
+        if (!hasBounds && mVertBuff != null) {
+            computeBounds();
+        }
+    }
+
+    /**
+     * The sphere is centred on the box; its radius is the distance to the
+     * furthest vertex, which is usually well below half the box diagonal.
+     */
+    private void computeBounds(){
+        for (int axis = 0; axis < 3; axis++) {
+            boundsMin[axis] = verticesNumber > 0 ? Float.MAX_VALUE : 0.0f;
+            boundsMax[axis] = verticesNumber > 0 ? -Float.MAX_VALUE : 0.0f;
+        }
+        for (int i = 0; i < verticesNumber * 3; i++) {
+            final float value = mVertBuff.get(i);
+            boundsMin[i % 3] = Math.min(boundsMin[i % 3], value);
+            boundsMax[i % 3] = Math.max(boundsMax[i % 3], value);
+        }
+
+        for (int axis = 0; axis < 3; axis++) {
+            boundingCenter[axis] = (boundsMin[axis] + boundsMax[axis]) * 0.5f;
+        }
+        float radiusSquared = 0.0f;
+        for (int i = 0; i < verticesNumber; i++) {
+            final float x = mVertBuff.get(i * 3) - boundingCenter[0];
+            final float y = mVertBuff.get(i * 3 + 1) - boundingCenter[1];
+            final float z = mVertBuff.get(i * 3 + 2) - boundingCenter[2];
+            radiusSquared = Math.max(radiusSquared, x * x + y * y + z * z);
+        }
+        boundingRadius = (float) Math.sqrt(radiusSquared);
+        hasBounds = true;
+    }
 
-        mTexCoordBuff = fillBuffer(texCoords);
-        textCoordsNumer = texCoords.length/2;
+    /** Smallest corner of the bounding box. Computed by load(); do not modify. */
+    public float[] getBoundsMin(){
+        return boundsMin;
+    }
 
-        mNormBuff = fillBuffer(normals);
-        normalNumber = normals.length/3;
+    /** Largest corner of the bounding box. Computed by load(); do not modify. */
+    public float[] getBoundsMax(){
+        return boundsMax;
+    }
 
-        mIndBuff = fillBuffer(indices);
-        indicesNumber = indices.length;
+    /** Centre of the bounding sphere. Computed by load(); do not modify. */
+    public float[] getBoundingCenter(){
+        return boundingCenter;
+    }
+
+    public float getBoundingRadius(){
+        return boundingRadius;
+    }
+
+    /**
+     * Uses already filled direct buffers instead of attribute arrays. The
+     * indices must be in the format given by {@code indexType}.
+     */
+    void setBuffers(FloatBuffer vertexBuffer, FloatBuffer normalBuffer, FloatBuffer texCoordBuffer,
+                    Buffer indexBuffer, int indexType, int[] lodOffsets, int[] lodCounts, float[] lodErrors){
+        vertices = null;
+        normals = null;
+        texCoords = null;
+        indices = null;
+        lodIndices = null;
+        this.lodErrors = null;
+
+        mVertBuff = vertexBuffer;
+        mNormBuff = normalBuffer;
+        mTexCoordBuff = texCoordBuffer;
+        mIndBuff = indexBuffer;
+        this.indexType = indexType;
+
+        verticesNumber = vertexBuffer.capacity() / 3;
+        normalNumber = normalBuffer.capacity() / 3;
+        textCoordsNumer = texCoordBuffer.capacity() / 2;
+
+        this.lodOffsets = lodOffsets;
+        this.lodCounts = lodCounts;
+        this.lodErrorTable = lodErrors;
+        indicesNumber = lodCounts[0];
+        indexBufferLength = lodOffsets[lodOffsets.length - 1] + lodCounts[lodCounts.length - 1];
+    }
+
+    /** Selects how loadVBO lays out the vertex data. Must be called before load/loadVBO. */
+    public void setVertexLayout(VertexLayout vertexLayout){
+        this.vertexLayout = vertexLayout;
+        mInterleavedBuff = null;
+        quantization = null;
+    }
+
+    public VertexLayout getVertexLayout(){
+        return vertexLayout;
+    }
+
+    /** Installs a packed vertex buffer produced by {@link MeshQuantizer}. */
+    void setQuantizedBuffer(ByteBuffer buffer, VertexLayout layout, Quantization quantization){
+        this.vertexLayout = layout;
+        this.mInterleavedBuff = buffer;
+        this.quantization = quantization;
+    }
+
+    /** The vertices as one buffer for interleaved layouts, null for separate ones. */
+    public ByteBuffer getInterleavedBuffer(){
+        return mInterleavedBuff;
+    }
+
+    /** Dequantization parameters, or null when the vertices are stored as floats. */
+    public Quantization getQuantization(){
+        return quantization;
+    }
+
+    void setOptimizationStats(MeshOptimizer.Stats stats){
+        optimizationStats = stats;
+    }
+
+    /** How {@link MeshOptimizer} improved the triangle order, or null if it did not run on this instance. */
+    public MeshOptimizer.Stats getOptimizationStats(){
+        return optimizationStats;
+    }
+
+    void setBvh(MeshBvh bvh){
+        this.bvh = bvh;
+    }
+
+    /** Triangle hierarchy for ray casts, or null if {@link MeshBvh#build} was not run on this instance. */
+    public MeshBvh getBvh(){
+        return bvh;
     }
 
     public void loadVBO(){
-        mVertBuff = fillBuffer(vertices);
-        verticesNumber = vertices.length / 3;
+        if (mVertBuff == null || (vertexLayout.isInterleaved() && mInterleavedBuff == null)) {
+            load();
+        }
+
+        if (vertexLayout.isInterleaved()) {
+            final int buffers[] = new int[2];
+            GLES20.glGenBuffers(2, buffers, 0);
+
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mInterleavedBuff.capacity(), mInterleavedBuff,
+                    GLES20.GL_STATIC_DRAW);
 
-        mTexCoordBuff = fillBuffer(texCoords);
-        textCoordsNumer = texCoords.length/2;
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
-        mNormBuff = fillBuffer(normals);
-        normalNumber = normals.length/3;
+            mCubePositionsBufferIdx = buffers[0];
+            mCubeNormalsBufferIdx = buffers[0];
+            mCubeTexCoordsBufferIdx = buffers[0];
+            mCubeIndicesBufferIdx = buffers[1];
+        } else {
+            final int buffers[] = new int[4];
+            GLES20.glGenBuffers(4, buffers, 0);
 
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, this.getVertices().capacity() * 4, this.getVertices(), GLES20.GL_STATIC_DRAW);
 
-        final int buffers[] = new int[3];
-        GLES20.glGenBuffers(3, buffers, 0);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[1]);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, this.getNormals().capacity() * 4, this.getNormals(), GLES20.GL_STATIC_DRAW);
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, this.getVertices().capacity() * 4, this.getVertices(), GLES20.GL_STATIC_DRAW);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[2]);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, this.getTexCoords().capacity() * 4, this.getTexCoords(),
+                    GLES20.GL_STATIC_DRAW);
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[1]);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, this.getNormals().capacity() * 4, this.getNormals(), GLES20.GL_STATIC_DRAW);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[2]);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, this.getTexCoords().capacity() * 4, this.getTexCoords(),
-                GLES20.GL_STATIC_DRAW);
+            mCubePositionsBufferIdx = buffers[0];
+            mCubeNormalsBufferIdx = buffers[1];
+            mCubeTexCoordsBufferIdx = buffers[2];
+            mCubeIndicesBufferIdx = buffers[3];
+        }
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        if (isIndexed()) {
+            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mCubeIndicesBufferIdx);
+            GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferLength * getIndexSize(), this.getIndices(),
+                    GLES20.GL_STATIC_DRAW);
 
-        mCubePositionsBufferIdx = buffers[0];
-        mCubeNormalsBufferIdx = buffers[1];
-        mCubeTexCoordsBufferIdx = buffers[2];
+            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        }
+    }
+
+    /**
+     * Packs position, normal and texture coordinate of every vertex next to
+     * each other, as described by {@link VertexLayout#INTERLEAVED}.
+     */
+    private ByteBuffer interleave(){
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(verticesNumber * vertexLayout.getVertexSize())
+                .order(ByteOrder.nativeOrder());
+        final FloatBuffer out = buffer.asFloatBuffer();
+
+        for (int i = 0; i < verticesNumber; i++) {
+            out.put(mVertBuff.get(i * 3)).put(mVertBuff.get(i * 3 + 1)).put(mVertBuff.get(i * 3 + 2));
+            out.put(mNormBuff.get(i * 3)).put(mNormBuff.get(i * 3 + 1)).put(mNormBuff.get(i * 3 + 2));
+            out.put(mTexCoordBuff.get(i * 2)).put(mTexCoordBuff.get(i * 2 + 1));
+        }
+
+        return buffer;
+    }
+
+    /** Releases the GL buffers of this model. The direct buffers are kept for a later loadVBO. */
+    public void deleteVBO(){
+        // Interleaved models use one name for all three attributes; deleting
+        // it again is a no-op.
+        final int buffers[] = { mCubePositionsBufferIdx, mCubeNormalsBufferIdx,
+                mCubeTexCoordsBufferIdx, mCubeIndicesBufferIdx };
+        GLES20.glDeleteBuffers(4, buffers, 0);
+
+        mCubePositionsBufferIdx = 0;
+        mCubeNormalsBufferIdx = 0;
+        mCubeTexCoordsBufferIdx = 0;
+        mCubeIndicesBufferIdx = 0;
+    }
+
+    /** Indices are uploaded as shorts whenever the vertex count allows it, see {@link #indexTypeFor}. */
+    private Buffer fillIndexBuffer(){
+        final int[] allIndices = concatenateLods();
+
+        indexType = indexTypeFor(vertices.length / 3);
+        if (indexType == GLES20.GL_UNSIGNED_SHORT) {
+            final short[] shortIndices = new short[allIndices.length];
+            for (int i = 0; i < allIndices.length; i++) {
+                shortIndices[i] = (short) allIndices[i];
+            }
+            return fillBuffer(shortIndices);
+        }
+        return fillBuffer(allIndices);
+    }
+
+    /** GL_UNSIGNED_SHORT up to {@link #MAX_SHORT_INDEXED_VERTICES} vertices, GL_UNSIGNED_INT above. */
+    static int indexTypeFor(int vertexCount){
+        return vertexCount <= MAX_SHORT_INDEXED_VERTICES ? GLES20.GL_UNSIGNED_SHORT : GLES20.GL_UNSIGNED_INT;
+    }
+
+    /** Whether the index buffer needs GL_UNSIGNED_INT, before or after load(). */
+    public boolean needsIntIndices(){
+        final int vertexCount = vertices != null ? vertices.length / 3 : verticesNumber;
+        return indexTypeFor(vertexCount) == GLES20.GL_UNSIGNED_INT;
+    }
+
+    /**
+     * Replaces the index buffer by a copy of every vertex it points at, for
+     * contexts that cannot draw 32-bit indices. Each level of detail then
+     * covers a range of the new vertices and is drawn with glDrawArrays.
+     * Shared vertices are shaded once per corner, so this is only a fallback.
+     * Call before quantizing or choosing an interleaved layout.
+     */
+    public void expandIndices(){
+        if (!isIndexed()) {
+            return;
+        }
+        if (mVertBuff == null) {
+            load();
+        }
+
+        final float[] expandedVertices = new float[indexBufferLength * 3];
+        final float[] expandedNormals = new float[indexBufferLength * 3];
+        final float[] expandedTexCoords = new float[indexBufferLength * 2];
+        for (int i = 0; i < indexBufferLength; i++) {
+            final int vertex = getIndex(i);
+            for (int axis = 0; axis < 3; axis++) {
+                expandedVertices[i * 3 + axis] = mVertBuff.get(vertex * 3 + axis);
+                expandedNormals[i * 3 + axis] = mNormBuff.get(vertex * 3 + axis);
+            }
+            expandedTexCoords[i * 2] = mTexCoordBuff.get(vertex * 2);
+            expandedTexCoords[i * 2 + 1] = mTexCoordBuff.get(vertex * 2 + 1);
+        }
+
+        // Without arrays load() keeps these buffers, as for cached models.
+        vertices = null;
+        normals = null;
+        texCoords = null;
+        indices = null;
+        lodIndices = null;
+        lodErrors = null;
+
+        mVertBuff = fillBuffer(expandedVertices);
+        mNormBuff = fillBuffer(expandedNormals);
+        mTexCoordBuff = fillBuffer(expandedTexCoords);
+        mIndBuff = null;
+        mInterleavedBuff = null;
+        quantization = null;
+        indexType = NOT_INDEXED;
+        verticesNumber = indexBufferLength;
+        normalNumber = indexBufferLength;
+        textCoordsNumer = indexBufferLength;
+    }
+
+    /** Whether the model has an index buffer, or was expanded and is drawn with glDrawArrays. */
+    public boolean isIndexed(){
+        return indexType != NOT_INDEXED;
+    }
+
+    /**
+     * Joins {@link #indices} and every array in {@link #lodIndices} into the
+     * layout of the index buffer, and records where each level starts.
+     */
+    int[] concatenateLods(){
+        final int levels = 1 + (lodIndices != null ? lodIndices.length : 0);
+        lodOffsets = new int[levels];
+        lodCounts = new int[levels];
+        lodErrorTable = new float[levels];
+
+        int total = 0;
+        for (int level = 0; level < levels; level++) {
+            final int[] levelIndices = level == 0 ? indices : lodIndices[level - 1];
+            lodOffsets[level] = total;
+            lodCounts[level] = levelIndices.length;
+            lodErrorTable[level] = level == 0 ? 0.0f : lodErrors[level - 1];
+            total += levelIndices.length;
+        }
+
+        final int[] allIndices = new int[total];
+        for (int level = 0; level < levels; level++) {
+            System.arraycopy(level == 0 ? indices : lodIndices[level - 1], 0, allIndices, lodOffsets[level],
+                    lodCounts[level]);
+        }
+
+        indicesNumber = lodCounts[0];
+        indexBufferLength = total;
+        return allIndices;
+    }
+
+    /** Number of levels of detail, including the full mesh at level 0. */
+    public int getLodCount(){
+        return lodCounts.length;
+    }
+
+    public int getLodIndexCount(int level){
+        return lodCounts[level];
+    }
+
+    /** First entry of a level in the index buffer; its first vertex once the model is expanded. */
+    public int getLodFirst(int level){
+        return lodOffsets[level];
+    }
+
+    /** Byte offset of a level in the index buffer, as glDrawElements expects it. */
+    public int getLodIndexOffset(int level){
+        return lodOffsets[level] * getIndexSize();
+    }
+
+    /** Estimated distance between a level and the full mesh, in model units; a heuristic, not a bound. */
+    public float getLodError(int level){
+        return lodErrorTable[level];
+    }
+
+    /**
+     * The coarsest level of detail whose estimated error stays under
+     * {@code maxPixelError} pixels when one model unit covers
+     * {@code pixelsPerUnit} pixels on screen.
+     */
+    public int selectLod(float pixelsPerUnit, float maxPixelError){
+        int lod = 0;
+        while (lod + 1 < lodCounts.length && lodErrorTable[lod + 1] * pixelsPerUnit < maxPixelError) {
+            lod++;
+        }
+        return lod;
+    }
+
+    /** The type to pass to glDrawElements for this model's index buffer, or {@link #NOT_INDEXED}. */
+    public int getIndexType(){
+        return indexType;
+    }
+
+    int getIndexSize(){
+        return indexType == GLES20.GL_UNSIGNED_INT ? 4 : 2;
+    }
+
+    /**
+     * Reads entry {@code position} of the index buffer, whichever form load()
+     * or the cache left it in. Expanded models use each vertex once, in order.
+     */
+    int getIndex(int position){
+        if (!isIndexed()) {
+            return position;
+        }
+        if (mIndBuff instanceof ByteBuffer) {
+            final ByteBuffer bytes = (ByteBuffer) mIndBuff;
+            return indexType == GLES20.GL_UNSIGNED_INT ? bytes.getInt(position * 4)
+                    : bytes.getShort(position * 2) & 0xFFFF;
+        }
+        if (mIndBuff instanceof IntBuffer) {
+            return ((IntBuffer) mIndBuff).get(position);
+        }
+        return ((ShortBuffer) mIndBuff).get(position) & 0xFFFF;
     }
 
     public int getNumObjectIndex()
@@ -0,0 +1,222 @@
+package lutec.tec.hologram.obj;
+
+/**
+ * Generates smooth normals for triangle corners that have no vn reference.
+ *
+ * A corner's normal is the sum of the normals of the faces around its
+ * position, each weighted by the face's angle at that position. Only faces
+ * within the crease angle of the corner's own face are counted, so hard
+ * edges stay hard. Both passes, face normals by triangle and corner normals
+ * by position, run on all cores through {@link Workers}.
+ */
+final class NormalGenerator {
+
+    /** Faces meeting at a sharper angle than this are shaded separately. */
+    static final float DEFAULT_CREASE_ANGLE = 60.0f;
+
+    /** Fewest triangles or positions worth giving their own worker. */
+    private static final int MIN_RANGE_SIZE = 8 * 1024;
+
+    private NormalGenerator() {}
+
+    /**
+     * Adds generated normals to {@code builder} and points every corner
+     * without a normal at one of them. Corners sharing a position that end up
+     * with the exact same normal share it, so they can still become a single
+     * vertex.
+     */
+    static void generate(final MeshBuilder builder, float creaseAngleDegrees) throws Exception {
+        final int[] corners = builder.corners;
+        final int cornerCount = builder.cornerCount;
+
+        boolean missing = false;
+        for (int c = 0; c < cornerCount && !missing; c++) {
+            missing = corners[c * ObjTokenizer.CORNER_SIZE + 2] == MeshBuilder.MISSING;
+        }
+        if (!missing) {
+            return;
+        }
+
+        final int triangleCount = cornerCount / 3;
+        final float[] faceNormals = new float[triangleCount * 3];
+        final float[] cornerAngles = new float[cornerCount];
+        final int faceRanges = Workers.rangeCount(triangleCount, MIN_RANGE_SIZE);
+
+        Workers.run(faceRanges, new Workers.Task() {
+            @Override
+            public void run(int index) {
+                computeFaces(builder.positions, corners,
+                        Workers.rangeStart(index, faceRanges, triangleCount),
+                        Workers.rangeStart(index + 1, faceRanges, triangleCount),
+                        faceNormals, cornerAngles);
+            }
+        });
+
+        // Corners grouped by position: cornersAt[start[p] .. start[p + 1]).
+        final int positionCount = builder.positionCount;
+        final int[] start = new int[positionCount + 1];
+        for (int c = 0; c < cornerCount; c++) {
+            start[corners[c * ObjTokenizer.CORNER_SIZE] + 1]++;
+        }
+        for (int p = 0; p < positionCount; p++) {
+            start[p + 1] += start[p];
+        }
+        final int[] cornersAt = new int[cornerCount];
+        final int[] fill = new int[positionCount];
+        for (int c = 0; c < cornerCount; c++) {
+            final int p = corners[c * ObjTokenizer.CORNER_SIZE];
+            cornersAt[start[p] + fill[p]++] = c;
+        }
+
+        // Each corner gets a normal slot; corners that can share one point at
+        // the first corner of their position with the same value.
+        final float cosCrease = (float) Math.cos(Math.toRadians(creaseAngleDegrees));
+        final float[] generated = new float[cornerCount * 3];
+        final int[] slot = new int[cornerCount];
+        final int positionRanges = Workers.rangeCount(positionCount, MIN_RANGE_SIZE);
+
+        Workers.run(positionRanges, new Workers.Task() {
+            @Override
+            public void run(int index) {
+                computeCorners(corners, cornersAt, start,
+                        Workers.rangeStart(index, positionRanges, positionCount),
+                        Workers.rangeStart(index + 1, positionRanges, positionCount),
+                        faceNormals, cornerAngles, cosCrease, generated, slot);
+            }
+        });
+
+        // Append the distinct normals in corner order, so the result does not
+        // depend on how the work was split.
+        final int normalBase = builder.normalCount;
+        int distinct = 0;
+        for (int c = 0; c < cornerCount; c++) {
+            if (slot[c] == c) {
+                distinct++;
+            }
+        }
+        builder.normals = MeshBuilder.ensureCapacity(builder.normals, (normalBase + distinct) * 3);
+
+        final int[] normalIndex = new int[cornerCount];
+        int next = normalBase;
+        for (int c = 0; c < cornerCount; c++) {
+            if (slot[c] < 0) {
+                continue;
+            }
+            if (slot[c] == c) {
+                System.arraycopy(generated, c * 3, builder.normals, next * 3, 3);
+                normalIndex[c] = next++;
+            }
+            corners[c * ObjTokenizer.CORNER_SIZE + 2] = normalIndex[slot[c]];
+        }
+        builder.normalCount = next;
+    }
+
+    /** Unit face normals and the angle at each corner, for triangles [from, to). */
+    private static void computeFaces(float[] positions, int[] corners, int from, int to,
+                                     float[] faceNormals, float[] cornerAngles) {
+        for (int t = from; t < to; t++) {
+            final int a = corners[t * 3 * ObjTokenizer.CORNER_SIZE] * 3;
+            final int b = corners[(t * 3 + 1) * ObjTokenizer.CORNER_SIZE] * 3;
+            final int c = corners[(t * 3 + 2) * ObjTokenizer.CORNER_SIZE] * 3;
+
+            final float abx = positions[b] - positions[a];
+            final float aby = positions[b + 1] - positions[a + 1];
+            final float abz = positions[b + 2] - positions[a + 2];
+            final float acx = positions[c] - positions[a];
+            final float acy = positions[c + 1] - positions[a + 1];
+            final float acz = positions[c + 2] - positions[a + 2];
+            final float bcx = positions[c] - positions[b];
+            final float bcy = positions[c + 1] - positions[b + 1];
+            final float bcz = positions[c + 2] - positions[b + 2];
+
+            float nx = aby * acz - abz * acy;
+            float ny = abz * acx - abx * acz;
+            float nz = abx * acy - aby * acx;
+            final float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (length > 0.0f) {
+                nx /= length;
+                ny /= length;
+                nz /= length;
+            }
+            faceNormals[t * 3] = nx;
+            faceNormals[t * 3 + 1] = ny;
+            faceNormals[t * 3 + 2] = nz;
+
+            cornerAngles[t * 3] = angle(abx, aby, abz, acx, acy, acz);
+            cornerAngles[t * 3 + 1] = angle(-abx, -aby, -abz, bcx, bcy, bcz);
+            cornerAngles[t * 3 + 2] = angle(-acx, -acy, -acz, -bcx, -bcy, -bcz);
+        }
+    }
+
+    /**
+     * Angle between two vectors. Math.acos dominates the whole pass, so this
+     * uses the Abramowitz and Stegun approximation (4.4.45) instead, which is
+     * within 7e-5 radians: plenty for a weight.
+     */
+    private static float angle(float ux, float uy, float uz, float vx, float vy, float vz) {
+        final float lengths = (float) Math.sqrt((ux * ux + uy * uy + uz * uz) * (vx * vx + vy * vy + vz * vz));
+        if (lengths == 0.0f) {
+            return 0.0f;
+        }
+        final float cos = Math.max(-1.0f, Math.min(1.0f, (ux * vx + uy * vy + uz * vz) / lengths));
+        final float x = Math.abs(cos);
+        final float acos = (float) Math.sqrt(1.0f - x)
+                * (1.5707288f + x * (-0.2121144f + x * (0.0742610f - 0.0187293f * x)));
+        return cos >= 0.0f ? acos : (float) Math.PI - acos;
+    }
+
+    /**
+     * Normals for the corners without one at positions [from, to). Sets
+     * {@code slot[c]} to the corner whose normal c uses, or -1 if c already
+     * had a normal.
+     */
+    private static void computeCorners(int[] corners, int[] cornersAt, int[] start, int from, int to,
+                                       float[] faceNormals, float[] cornerAngles, float cosCrease,
+                                       float[] generated, int[] slot) {
+        for (int p = from; p < to; p++) {
+            for (int i = start[p]; i < start[p + 1]; i++) {
+                final int c = cornersAt[i];
+                if (corners[c * ObjTokenizer.CORNER_SIZE + 2] != MeshBuilder.MISSING) {
+                    slot[c] = -1;
+                    continue;
+                }
+
+                final int face = c / 3 * 3;
+                float x = 0.0f, y = 0.0f, z = 0.0f;
+                for (int j = start[p]; j < start[p + 1]; j++) {
+                    final int d = cornersAt[j];
+                    final int other = d / 3 * 3;
+                    final float dot = faceNormals[face] * faceNormals[other]
+                            + faceNormals[face + 1] * faceNormals[other + 1]
+                            + faceNormals[face + 2] * faceNormals[other + 2];
+                    if (d == c || dot >= cosCrease) {
+                        x += faceNormals[other] * cornerAngles[d];
+                        y += faceNormals[other + 1] * cornerAngles[d];
+                        z += faceNormals[other + 2] * cornerAngles[d];
+                    }
+                }
+
+                final float length = (float) Math.sqrt(x * x + y * y + z * z);
+                if (length > 0.0f) {
+                    x /= length;
+                    y /= length;
+                    z /= length;
+                }
+                generated[c * 3] = x;
+                generated[c * 3 + 1] = y;
+                generated[c * 3 + 2] = z;
+
+                // Reuse the normal of an earlier corner here with the same value.
+                slot[c] = c;
+                for (int j = start[p]; j < i; j++) {
+                    final int e = cornersAt[j];
+                    if (slot[e] == e && generated[e * 3] == x && generated[e * 3 + 1] == y
+                            && generated[e * 3 + 2] == z) {
+                        slot[c] = e;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,16 +1,7 @@
 package lutec.tec.hologram.obj;
 
-import android.util.Log;
-
-import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-
-import javax.vecmath.Vector2f;
-import javax.vecmath.Vector3f;
 
 /**
  * Created by josea on 9/26/2017.
@@ -18,112 +9,87 @@ import javax.vecmath.Vector3f;
 
 public class OBJ_Loader {
 
-    private static List<Vector3f> in_vertices = new ArrayList<Vector3f>();
-    private static List<Vector2f> in_textures = new ArrayList<Vector2f>();
-    private static List<Vector3f> in_normals = new ArrayList<Vector3f>();
-
-    private static List<Float> out_vertices = new ArrayList<Float>();
-    private static List<Float> out_textures = new ArrayList<Float>();
-    private static List<Float> out_normals = new ArrayList<Float>();
-
-    private static List<Short> indices = new ArrayList<Short>();
-
-    public static Model loadModel(InputStream is){
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-        Model m = new Model();
-        String line;
-
-        float[] verticesArray = null;
-        float[] normalsArray = null;
-        float[] textureArray = null;
-        short[] indicesArray = null;
-
-        try{
-            while (true) {
-                line = reader.readLine();
-                //Log.d("Line", line);
-                if(line == null){
-                    break;
-                }
-                String[] currentLine = line.split("[ ]+");
-                if (line.startsWith("v ")) {
-                    Vector3f vertex = new Vector3f(Float.parseFloat(currentLine[1]),
-                            Float.parseFloat(currentLine[2]), Float.parseFloat(currentLine[3]));
-                    in_vertices.add(vertex);
-                } else if (line.startsWith("vt ")) {
-                    Vector2f texture = new Vector2f(Float.parseFloat(currentLine[1]),
-                            Float.parseFloat(currentLine[2]));
-                    in_textures.add(texture);
-                } else if (line.startsWith("vn ")) {
-                    Vector3f normal = new Vector3f(Float.parseFloat(currentLine[1]),
-                            Float.parseFloat(currentLine[2]), Float.parseFloat(currentLine[3]));
-                    in_normals.add(normal);
-                } else if (line.startsWith("f ")) {
-                    String[] faceLine = line.split("[ ]+");
-
-                    String[] vertex1 = faceLine[1].split("/");
-                    String[] vertex2 = faceLine[2].split("/");
-                    String[] vertex3 = faceLine[3].split("/");
-
-                    processVertex(vertex1);
-                    processVertex(vertex2);
-                    processVertex(vertex3);
-                    //line = reader.readLine();
-                }
-            }
-            reader.close();
-
+    /**
+     * Parses an OBJ stream into a new Model. Missing normals are generated by
+     * {@link NormalGenerator}, levels of detail come from {@link MeshSimplifier}
+     * and triangles are reordered by {@link MeshOptimizer}. All intermediate data lives in a per-call
+     * MeshBuilder, so this is safe to call from several threads.
+     *
+     * @throws IOException if the stream cannot be read or does not hold a
+     *         mesh, e.g. because a face points at a vertex that is not there.
+     */
+    public static Model loadModel(InputStream is) throws IOException{
+        return loadModel(is, false);
+    }
 
-        }catch (Exception e){
-            e.printStackTrace();
+    /**
+     * Same as {@link #loadModel(InputStream)}, optionally reading the whole
+     * file into memory and parsing it on all cores. Both modes produce the
+     * exact same Model.
+     */
+    public static Model loadModel(InputStream is, boolean parallel) throws IOException{
+        if (!parallel) {
+            MeshBuilder builder = new MeshBuilder();
+            parse(new ObjTokenizer(is), builder);
+            return finish(builder);
         }
 
-        verticesArray = new float[out_vertices.size()];
-        normalsArray = new float[out_normals.size()];
-        textureArray = new float[out_textures.size()];
-        indicesArray = new short[indices.size()];
-
-        int vertexPointer = 0;
-        for(float vertex_val: out_vertices){
-            verticesArray[vertexPointer++] = vertex_val;
+        byte[] data = ParallelObjParser.readFully(is);
+        MeshBuilder builder;
+        if (ParallelObjParser.worthSplitting(data.length)) {
+            try{
+                builder = ParallelObjParser.parse(data, data.length);
+            }catch (IOException e){
+                throw e;
+            }catch (RuntimeException e){
+                throw e;
+            }catch (Exception e){
+                throw new IOException("Cannot parse in parallel", e);
+            }
+        } else {
+            builder = new MeshBuilder();
+            parse(new ObjTokenizer(data, 0, data.length), builder);
         }
+        return finish(builder);
+    }
 
-        int normalPointer = 0;
-        for(float normal_val: out_normals){
-            normalsArray[normalPointer++] = normal_val;
-        }
+    private static Model finish(MeshBuilder builder) throws IOException{
+        generateNormals(builder, NormalGenerator.DEFAULT_CREASE_ANGLE);
 
-        int texturePointer = 0;
-        for(float texture_val: out_textures){
-            textureArray[texturePointer++] = texture_val;
-        }
+        Model model = builder.build(new Model());
+        MeshSimplifier.buildLods(model);
+        MeshOptimizer.optimize(model);
+        return model;
+    }
 
-        for(int i=0;i<indices.size();i++){
-            indicesArray[i] = indices.get(i);
+    /** Runs {@link NormalGenerator}, passing on what its workers threw as an IOException unless unchecked. */
+    static void generateNormals(MeshBuilder builder, float creaseAngleDegrees) throws IOException{
+        try{
+            NormalGenerator.generate(builder, creaseAngleDegrees);
+        }catch (RuntimeException e){
+            throw e;
+        }catch (Exception e){
+            throw new IOException("Cannot generate normals", e);
         }
-
-        m.vertices = verticesArray;
-        m.texCoords = textureArray;
-        m.normals = normalsArray;
-        m.indices = indicesArray;
-        return m;
-
     }
-    private  static void processVertex(String[] vertexData){
-
-        Vector3f currentVert = in_vertices.get(Integer.parseInt(vertexData[0])-1);
-        out_vertices.add(currentVert.x);
-        out_vertices.add(currentVert.y);
-        out_vertices.add(currentVert.z);
-
-        Vector3f currentNorm = in_normals.get(Integer.parseInt(vertexData[2])-1);
-        out_normals.add(currentNorm.x);
-        out_normals.add(currentNorm.y);
-        out_normals.add(currentNorm.z);
-
-        Vector2f currentTex = in_textures.get(Integer.parseInt(vertexData[1])-1);
-        out_textures.add(currentTex.x);
-        out_textures.add(currentTex.y);
 
+    static void parse(ObjTokenizer tokenizer, MeshBuilder builder) throws IOException{
+        try{
+            int record;
+            while ((record = tokenizer.next()) != ObjTokenizer.RECORD_END) {
+                float[] values = tokenizer.values;
+                if (record == ObjTokenizer.RECORD_VERTEX) {
+                    builder.addPosition(values[0], values[1], values[2]);
+                } else if (record == ObjTokenizer.RECORD_TEXTURE) {
+                    builder.addTexture(values[0], values[1]);
+                } else if (record == ObjTokenizer.RECORD_NORMAL) {
+                    builder.addNormal(values[0], values[1], values[2]);
+                } else if (record == ObjTokenizer.RECORD_FACE) {
+                    builder.addFace(tokenizer.corners, tokenizer.cornerCount);
+                }
+            }
+        }finally{
+            tokenizer.close();
+        }
     }
-}
\ No newline at end of file
+}
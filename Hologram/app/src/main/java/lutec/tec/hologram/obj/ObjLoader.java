@@ -3,6 +3,7 @@ package lutec.tec.hologram.obj;
 import android.util.Log;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
@@ -17,22 +18,29 @@ import javax.vecmath.Vector3f;
  */
 
 public class ObjLoader {
-    public static Model loadModel(InputStream is){
+    /**
+     * Reads an OBJ stream into a Model indexed by position.
+     *
+     * @throws IOException if the stream cannot be read or a face points at
+     *         a vertex, texture coordinate or normal that is not there.
+     */
+    public static Model loadModel(InputStream is) throws IOException{
         BufferedReader reader = new BufferedReader(new InputStreamReader(is));
         Model m = new Model();
         String line;
         List<Vector3f> vertices = new ArrayList<Vector3f>();
         List<Vector2f> textures = new ArrayList<Vector2f>();
         List<Vector3f> normals = new ArrayList<Vector3f>();
-        List<Short> indices = new ArrayList<Short>();
+        int[] indices = new int[0];
+        int indexCount = 0;
         float[] verticesArray = null;
         float[] normalsArray = null;
         float[] textureArray = null;
-        short[] indicesArray = null;
+        int[] indicesArray = null;
+        boolean[] hasNormal = null;
 
         try{
-            while (true){
-                line = reader.readLine();
+            while ((line = reader.readLine()) != null){
                 String[] currentLine = line.split("[ ]+");
                 if(line.startsWith("v ")){
                     Vector3f vertex = new Vector3f(Float.parseFloat(currentLine[1]),
@@ -49,6 +57,7 @@ public class ObjLoader {
                 }else if(line.startsWith("f ")){
                     textureArray = new float[vertices.size()*2];
                     normalsArray = new float[vertices.size()*3];
+                    hasNormal = new boolean[vertices.size()];
                     break;
                 }
             }
@@ -63,20 +72,26 @@ public class ObjLoader {
                 String[] vertex2 = currentLine[2].split("/");
                 String[] vertex3 = currentLine[3].split("/");
 
-                processVertex(vertex1,indices,textures,normals,textureArray,normalsArray);
-                processVertex(vertex2,indices,textures,normals,textureArray,normalsArray);
-                processVertex(vertex3,indices,textures,normals,textureArray,normalsArray);
+                indices = MeshBuilder.ensureCapacity(indices, indexCount + 3);
+                indices[indexCount++] = processVertex(vertex1,textures,normals,textureArray,normalsArray,hasNormal);
+                indices[indexCount++] = processVertex(vertex2,textures,normals,textureArray,normalsArray,hasNormal);
+                indices[indexCount++] = processVertex(vertex3,textures,normals,textureArray,normalsArray,hasNormal);
                 line = reader.readLine();
             }
+        }catch (RuntimeException e){
+            // Bad numbers and references into the lists end up here.
+            throw new IOException("Malformed OBJ: " + e, e);
+        }finally{
             reader.close();
-
-
-        }catch (Exception e){
-            e.printStackTrace();
         }
 
         verticesArray = new float[vertices.size()*3];
-        indicesArray = new short[indices.size()];
+        indicesArray = Arrays.copyOf(indices, indexCount);
+        if (textureArray == null) {
+            // No faces at all.
+            textureArray = new float[vertices.size()*2];
+            normalsArray = new float[vertices.size()*3];
+        }
 
         int vertexPointer = 0;
         for(Vector3f vertex: vertices){
@@ -85,8 +100,8 @@ public class ObjLoader {
             verticesArray[vertexPointer++] = vertex.z;
         }
 
-        for(int i=0;i<indices.size();i++){
-            indicesArray[i] = indices.get(i);
+        if (hasNormal != null) {
+            generateMissingNormals(verticesArray, indicesArray, normalsArray, hasNormal);
         }
         Log.d("Model", Arrays.toString(indicesArray));
         Log.d("Model",Arrays.toString(verticesArray));
@@ -101,20 +116,58 @@ public class ObjLoader {
         return m;
 
     }
-    private  static void processVertex(String[] vertexData, List<Short> indices,
-                                       List<Vector2f> textures, List<Vector3f> normals,
-                                       float[] textureArray, float[] normalsArray){
-        //short currentVertexPointer = (short)(Short.parseShort(vertexData[0]) - 1);
+    /**
+     * Handles the v, v/vt, v//vn and v/vt/vn corner forms. Vertices that never
+     * get a vn are given smooth normals once all faces are read.
+     */
+    private  static int processVertex(String[] vertexData,
+                                      List<Vector2f> textures, List<Vector3f> normals,
+                                      float[] textureArray, float[] normalsArray, boolean[] hasNormal)
+            throws IOException{
         int currentVertexPointer = Integer.parseInt(vertexData[0])-1;
-        indices.add((short)(currentVertexPointer));
-        Vector2f currentTex = textures.get(Integer.parseInt(vertexData[1])-1);
-        Log.d("Model",String.valueOf(currentTex.x) +"  " +String.valueOf(currentTex.y));
-        textureArray[currentVertexPointer*2] = currentTex.x;
-        textureArray[currentVertexPointer*2+1] = 1-currentTex.y;
-        Vector3f currentNorm = normals.get(Integer.parseInt(vertexData[2])-1);
-        normalsArray[currentVertexPointer*3] = currentNorm.x;
-        normalsArray[currentVertexPointer*3+1] = currentNorm.y;
-        normalsArray[currentVertexPointer*3+2] = currentNorm.z;
+        if (currentVertexPointer < 0 || currentVertexPointer >= hasNormal.length) {
+            throw new IOException("Face refers to vertex " + vertexData[0] + " of " + hasNormal.length);
+        }
+        if (vertexData.length > 1 && !vertexData[1].isEmpty()) {
+            Vector2f currentTex = textures.get(Integer.parseInt(vertexData[1])-1);
+            Log.d("Model",String.valueOf(currentTex.x) +"  " +String.valueOf(currentTex.y));
+            textureArray[currentVertexPointer*2] = currentTex.x;
+            textureArray[currentVertexPointer*2+1] = 1-currentTex.y;
+        }
+        if (vertexData.length > 2 && !vertexData[2].isEmpty()) {
+            Vector3f currentNorm = normals.get(Integer.parseInt(vertexData[2])-1);
+            normalsArray[currentVertexPointer*3] = currentNorm.x;
+            normalsArray[currentVertexPointer*3+1] = currentNorm.y;
+            normalsArray[currentVertexPointer*3+2] = currentNorm.z;
+            hasNormal[currentVertexPointer] = true;
+        }
+        return currentVertexPointer;
+    }
+
+    /**
+     * Fills in smooth normals for vertices without one. Vertices are shared by
+     * every face around them here, so there is no crease angle to apply.
+     */
+    private static void generateMissingNormals(float[] positions, int[] indices, float[] normalsArray,
+                                               boolean[] hasNormal) throws IOException{
+        MeshBuilder builder = new MeshBuilder(0, 0, 0, indices.length);
+        builder.positions = positions;
+        builder.positionCount = positions.length / 3;
+        for (int i = 0; i < indices.length; i++) {
+            builder.corners[i * ObjTokenizer.CORNER_SIZE] = indices[i];
+            builder.corners[i * ObjTokenizer.CORNER_SIZE + 1] = MeshBuilder.MISSING;
+            builder.corners[i * ObjTokenizer.CORNER_SIZE + 2] = MeshBuilder.MISSING;
+        }
+        builder.cornerCount = indices.length;
 
+        OBJ_Loader.generateNormals(builder, 180.0f);
+
+        for (int i = 0; i < indices.length; i++) {
+            int vertex = indices[i];
+            if (!hasNormal[vertex]) {
+                int normal = builder.corners[i * ObjTokenizer.CORNER_SIZE + 2] * 3;
+                System.arraycopy(builder.normals, normal, normalsArray, vertex * 3, 3);
+            }
+        }
     }
 }
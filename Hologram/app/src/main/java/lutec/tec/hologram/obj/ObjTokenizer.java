@@ -0,0 +1,401 @@
+package lutec.tec.hologram.obj;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming tokenizer for Wavefront OBJ data.
+ *
+ * The input is read into a reusable byte buffer and every v, vt, vn and f
+ * record is parsed in place, so walking a file does not create a String (or
+ * any other object) per line. After {@link #next()} returns a record type the
+ * parsed numbers are available in {@link #values} or {@link #corners} until
+ * the next call.
+ */
+public class ObjTokenizer {
+
+    public static final int RECORD_END = 0;
+    public static final int RECORD_VERTEX = 1;
+    public static final int RECORD_TEXTURE = 2;
+    public static final int RECORD_NORMAL = 3;
+    public static final int RECORD_FACE = 4;
+
+    /** Number of ints stored per face corner: position, texture and normal index. */
+    public static final int CORNER_SIZE = 3;
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /** Powers of ten that are exactly representable as doubles. */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Longest digit run that still fits in a long without overflow. */
+    private static final int MAX_MANTISSA_DIGITS = 18;
+
+    private final InputStream is;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    /** Index just past the last number parsed by {@link #parseInt}. */
+    private int tokenEnd;
+
+    /** Coordinates of the last v, vt or vn record. */
+    public final float[] values = new float[4];
+    public int valueCount;
+
+    /**
+     * Corners of the last face record, {@link #CORNER_SIZE} ints each, holding
+     * the indices exactly as written in the file (1-based, or negative for
+     * relative references). A missing texture or normal index is stored as 0.
+     */
+    public int[] corners = new int[CORNER_SIZE * 8];
+    public int cornerCount;
+
+    /** Creates a tokenizer that streams its input from {@code is}. */
+    public ObjTokenizer(InputStream is) {
+        this.is = is;
+        this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+    }
+
+    /**
+     * Creates a tokenizer over {@code data[start, end)}, which must already be
+     * in memory. The array is read in place, never copied.
+     */
+    public ObjTokenizer(byte[] data, int start, int end) {
+        this.is = null;
+        this.buffer = data;
+        this.position = start;
+        this.limit = end;
+        this.eof = true;
+    }
+
+    /**
+     * Advances to the next supported record, skipping comments, groups,
+     * materials and anything else the loaders do not use.
+     *
+     * @return One of the RECORD_* constants; {@link #RECORD_END} once the input
+     * is exhausted.
+     */
+    public int next() throws IOException {
+        return advance(true);
+    }
+
+    /**
+     * Like {@link #next()}, but only classifies the record. Numbers are not
+     * parsed; for faces only {@link #cornerCount} is filled in. Used to size
+     * output arrays before the real parse.
+     */
+    public int scan() throws IOException {
+        return advance(false);
+    }
+
+    private int advance(boolean parse) throws IOException {
+        while (true) {
+            int lineEnd = findLineEnd();
+            if (lineEnd < 0) {
+                return RECORD_END;
+            }
+
+            int record = parseLine(position, lineEnd, parse);
+            position = lineEnd < limit ? lineEnd + 1 : lineEnd;
+            if (record != RECORD_END) {
+                return record;
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        if (is != null) {
+            is.close();
+        }
+    }
+
+    /**
+     * Returns the index of the '\n' terminating the current line (or the end of
+     * the input for an unterminated last line), refilling the buffer as needed.
+     * Returns -1 when there is nothing left to read.
+     */
+    private int findLineEnd() throws IOException {
+        int scan = position;
+        while (true) {
+            while (scan < limit) {
+                if (buffer[scan] == '\n') {
+                    return scan;
+                }
+                scan++;
+            }
+
+            if (eof) {
+                return position < limit ? limit : -1;
+            }
+
+            scan -= position;
+            fill();
+        }
+    }
+
+    /** Moves the unread tail to the front of the buffer and reads more input behind it. */
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        } else if (remaining == buffer.length) {
+            // A single line longer than the whole buffer.
+            byte[] grown = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, remaining);
+            buffer = grown;
+        }
+        position = 0;
+        limit = remaining;
+
+        int read = is.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    private int parseLine(int start, int end, boolean parse) {
+        int i = skipSpaces(start, end);
+        if (i >= end) {
+            return RECORD_END;
+        }
+
+        byte first = buffer[i];
+        byte second = i + 1 < end ? buffer[i + 1] : (byte) '\n';
+
+        if (first == 'v') {
+            if (isSpace(second)) {
+                if (parse) {
+                    parseValues(i + 1, end);
+                }
+                return RECORD_VERTEX;
+            }
+            byte third = i + 2 < end ? buffer[i + 2] : (byte) '\n';
+            if (second == 't' && isSpace(third)) {
+                if (parse) {
+                    parseValues(i + 2, end);
+                }
+                return RECORD_TEXTURE;
+            }
+            if (second == 'n' && isSpace(third)) {
+                if (parse) {
+                    parseValues(i + 2, end);
+                }
+                return RECORD_NORMAL;
+            }
+        } else if (first == 'f' && isSpace(second)) {
+            if (parse) {
+                parseFace(i + 1, end);
+            } else {
+                countCorners(i + 1, end);
+            }
+            return RECORD_FACE;
+        }
+
+        return RECORD_END;
+    }
+
+    private void parseValues(int i, int end) {
+        valueCount = 0;
+        i = skipSpaces(i, end);
+        while (i < end && valueCount < values.length) {
+            i = parseFloat(i, end, valueCount);
+            valueCount++;
+            i = skipSpaces(i, end);
+        }
+        for (int j = valueCount; j < values.length; j++) {
+            values[j] = 0.0f;
+        }
+    }
+
+    private void countCorners(int i, int end) {
+        cornerCount = 0;
+        i = skipSpaces(i, end);
+        while (i < end) {
+            cornerCount++;
+            i = skipToSpace(i, end);
+            i = skipSpaces(i, end);
+        }
+    }
+
+    private void parseFace(int i, int end) {
+        cornerCount = 0;
+        i = skipSpaces(i, end);
+        while (i < end) {
+            if (cornerCount * CORNER_SIZE == corners.length) {
+                int[] grown = new int[corners.length * 2];
+                System.arraycopy(corners, 0, grown, 0, corners.length);
+                corners = grown;
+            }
+
+            int base = cornerCount * CORNER_SIZE;
+            corners[base] = parseInt(i, end);
+            corners[base + 1] = 0;
+            corners[base + 2] = 0;
+            i = tokenEnd;
+
+            if (i < end && buffer[i] == '/') {
+                i++;
+                if (i < end && buffer[i] != '/') {
+                    corners[base + 1] = parseInt(i, end);
+                    i = tokenEnd;
+                }
+                if (i < end && buffer[i] == '/') {
+                    corners[base + 2] = parseInt(i + 1, end);
+                    i = tokenEnd;
+                }
+            }
+
+            cornerCount++;
+            i = skipToSpace(i, end);
+            i = skipSpaces(i, end);
+        }
+    }
+
+    private int parseInt(int i, int end) {
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+
+        int value = 0;
+        while (i < end) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value * 10 + digit;
+            i++;
+        }
+
+        tokenEnd = i;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a decimal number into {@code values[slot]} and returns the index
+     * just past it. Plain decimals, which is all the exporters we see write,
+     * are converted without allocating; anything exotic (very long mantissas,
+     * huge exponents, nan/inf) falls back to {@link Float#parseFloat}.
+     */
+    private int parseFloat(int i, int end, int slot) {
+        final int start = i;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean exact = true;
+
+        while (i < end) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            if (digits < MAX_MANTISSA_DIGITS) {
+                mantissa = mantissa * 10 + digit;
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                exact = false;
+            }
+            i++;
+        }
+
+        if (i < end && buffer[i] == '.') {
+            i++;
+            while (i < end) {
+                int digit = buffer[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                if (digits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + digit;
+                    exponent--;
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                } else {
+                    exact = false;
+                }
+                i++;
+            }
+        }
+
+        if (i < end && (buffer[i] == 'e' || buffer[i] == 'E')) {
+            exponent += parseInt(i + 1, end);
+            i = tokenEnd;
+        }
+
+        if (i < end && !isSpace(buffer[i])) {
+            // Not a plain decimal; let the JDK deal with it.
+            int tokenStop = skipToSpace(i, end);
+            values[slot] = slowParseFloat(start, tokenStop);
+            return tokenStop;
+        }
+
+        if (!exact || mantissa >= (1L << 53) || exponent < -22 || exponent > 22) {
+            values[slot] = slowParseFloat(start, i);
+            return i;
+        }
+
+        double value = exponent < 0
+                ? mantissa / POWERS_OF_TEN[-exponent]
+                : mantissa * POWERS_OF_TEN[exponent];
+        if (isFloatTie(value)) {
+            // Rounding to double may have landed exactly between two floats,
+            // where rounding again to float could go the wrong way.
+            values[slot] = slowParseFloat(start, i);
+            return i;
+        }
+        values[slot] = (float) (negative ? -value : value);
+        return i;
+    }
+
+    /**
+     * Whether {@code value} lies exactly halfway between two adjacent floats:
+     * the 29 significand bits a double has beyond a float's are 1 followed by
+     * zeros. Values reaching here are always in the normal float range.
+     */
+    private static boolean isFloatTie(double value) {
+        return (Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) == 0x10000000L;
+    }
+
+    private float slowParseFloat(int start, int end) {
+        try {
+            return Float.parseFloat(new String(buffer, start, end - start, "US-ASCII"));
+        } catch (Exception e) {
+            return 0.0f;
+        }
+    }
+
+    private int skipSpaces(int i, int end) {
+        while (i < end && isSpace(buffer[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private int skipToSpace(int i, int end) {
+        while (i < end && !isSpace(buffer[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
@@ -0,0 +1,180 @@
+package lutec.tec.hologram.obj;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Parses an in-memory OBJ file on the shared worker pool.
+ *
+ * The file is split into line-aligned byte ranges. A first parallel pass only
+ * classifies the records of every range, which gives each range its global
+ * attribute and corner offsets. A second parallel pass then parses every range
+ * straight into its slice of one MeshBuilder, resolving 1-based and negative
+ * indices against the same running counts the sequential loader would see.
+ * The result is therefore identical to parsing the file sequentially.
+ */
+final class ParallelObjParser {
+
+    /** Ranges smaller than this are not worth a task of their own. */
+    private static final int MIN_RANGE_SIZE = 128 * 1024;
+
+    private ParallelObjParser() {}
+
+    /** Record counts of one byte range, filled in by the counting pass. */
+    private static final class Range {
+        int start;
+        int end;
+
+        int positions;
+        int textures;
+        int normals;
+        int corners;
+
+        int positionBase;
+        int textureBase;
+        int normalBase;
+        int cornerBase;
+    }
+
+    /** Whether a file of {@code length} bytes would be split into more than one range. */
+    static boolean worthSplitting(int length) {
+        return Workers.rangeCount(length, MIN_RANGE_SIZE) > 1;
+    }
+
+    static MeshBuilder parse(byte[] data, int length) throws Exception {
+        return parse(data, length, Workers.rangeCount(length, MIN_RANGE_SIZE));
+    }
+
+    /** Parses {@code data} split into {@code rangeCount} ranges, whatever their size. */
+    static MeshBuilder parse(final byte[] data, int length, int rangeCount) throws Exception {
+        final Range[] ranges = split(data, length, rangeCount);
+
+        Workers.run(ranges.length, new Workers.Task() {
+            @Override
+            public void run(int index) throws Exception {
+                count(data, ranges[index]);
+            }
+        });
+
+        int positions = 0, textures = 0, normals = 0, corners = 0;
+        for (Range range : ranges) {
+            range.positionBase = positions;
+            range.textureBase = textures;
+            range.normalBase = normals;
+            range.cornerBase = corners;
+            positions += range.positions;
+            textures += range.textures;
+            normals += range.normals;
+            corners += range.corners;
+        }
+
+        final MeshBuilder builder = new MeshBuilder(positions, textures, normals, corners);
+        builder.positionCount = positions;
+        builder.textureCount = textures;
+        builder.normalCount = normals;
+        builder.cornerCount = corners;
+
+        Workers.run(ranges.length, new Workers.Task() {
+            @Override
+            public void run(int index) throws Exception {
+                fill(data, ranges[index], builder);
+            }
+        });
+
+        return builder;
+    }
+
+    private static Range[] split(byte[] data, int length, int count) {
+        Range[] ranges = new Range[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = i == count - 1 ? length : Workers.rangeStart(i + 1, count, length);
+            // Move the cut just past the next line break.
+            while (end < length && end > start && data[end - 1] != '\n') {
+                end++;
+            }
+            end = Math.max(end, start);
+
+            Range range = new Range();
+            range.start = start;
+            range.end = end;
+            ranges[i] = range;
+            start = end;
+        }
+        return ranges;
+    }
+
+    private static void count(byte[] data, Range range) throws IOException {
+        ObjTokenizer tokenizer = new ObjTokenizer(data, range.start, range.end);
+        int record;
+        while ((record = tokenizer.scan()) != ObjTokenizer.RECORD_END) {
+            if (record == ObjTokenizer.RECORD_VERTEX) {
+                range.positions++;
+            } else if (record == ObjTokenizer.RECORD_TEXTURE) {
+                range.textures++;
+            } else if (record == ObjTokenizer.RECORD_NORMAL) {
+                range.normals++;
+            } else if (record == ObjTokenizer.RECORD_FACE) {
+                range.corners += MeshBuilder.triangulatedCornerCount(tokenizer.cornerCount);
+            }
+        }
+    }
+
+    private static void fill(byte[] data, Range range, MeshBuilder builder) throws IOException {
+        ObjTokenizer tokenizer = new ObjTokenizer(data, range.start, range.end);
+        float[] positions = builder.positions;
+        float[] textures = builder.textures;
+        float[] normals = builder.normals;
+
+        int position = range.positionBase;
+        int texture = range.textureBase;
+        int normal = range.normalBase;
+        int corner = range.cornerBase;
+
+        int record;
+        while ((record = tokenizer.next()) != ObjTokenizer.RECORD_END) {
+            float[] values = tokenizer.values;
+            if (record == ObjTokenizer.RECORD_VERTEX) {
+                positions[position * 3] = values[0];
+                positions[position * 3 + 1] = values[1];
+                positions[position * 3 + 2] = values[2];
+                position++;
+            } else if (record == ObjTokenizer.RECORD_TEXTURE) {
+                textures[texture * 2] = values[0];
+                textures[texture * 2 + 1] = values[1];
+                texture++;
+            } else if (record == ObjTokenizer.RECORD_NORMAL) {
+                normals[normal * 3] = values[0];
+                normals[normal * 3 + 1] = values[1];
+                normals[normal * 3 + 2] = values[2];
+                normal++;
+            } else if (record == ObjTokenizer.RECORD_FACE) {
+                MeshBuilder.writeFace(builder.corners, corner, tokenizer.corners, tokenizer.cornerCount,
+                        position, texture, normal);
+                corner += MeshBuilder.triangulatedCornerCount(tokenizer.cornerCount);
+            }
+        }
+    }
+
+    static byte[] readFully(InputStream is) throws IOException {
+        byte[] data = new byte[Math.max(is.available(), 64 * 1024)];
+        int length = 0;
+        int read;
+        while ((read = is.read(data, length, data.length - length)) >= 0) {
+            length += read;
+            if (length == data.length) {
+                byte[] grown = new byte[data.length * 2];
+                System.arraycopy(data, 0, grown, 0, length);
+                data = grown;
+            }
+        }
+        is.close();
+
+        if (length == data.length) {
+            return data;
+        }
+        byte[] trimmed = new byte[length];
+        System.arraycopy(data, 0, trimmed, 0, length);
+        return trimmed;
+    }
+}
@@ -0,0 +1,30 @@
+package lutec.tec.hologram.obj;
+
+/**
+ * How to turn a quantized Model's integer attributes back into model space.
+ * Produced by {@link MeshQuantizer}; the renderer passes it to the quantized
+ * vertex shader.
+ */
+public class Quantization {
+
+    /**
+     * Column-major matrix that maps stored position integers to model space.
+     * Multiply it into the model matrix.
+     */
+    public final float[] positionMatrix = new float[16];
+
+    /**
+     * xyz: reciprocal of the position scale, applied to decoded normals so
+     * that the position scale inside the model-view matrix cancels out.
+     * w: factor from stored octahedral integers to [-1, 1].
+     */
+    public final float[] normalDequant = new float[4];
+
+    /** xy: scale, zw: offset, from stored texture coordinate integers to UVs. */
+    public final float[] texCoordTransform = new float[4];
+
+    /** Largest error measured while encoding, in model units, degrees and UV units. */
+    public float positionError;
+    public float normalErrorDegrees;
+    public float texCoordError;
+}
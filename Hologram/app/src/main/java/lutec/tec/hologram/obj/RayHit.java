@@ -0,0 +1,35 @@
+package lutec.tec.hologram.obj;
+
+/**
+ * The nearest intersection found so far by ray casts, see
+ * {@link MeshBvh#raycast}. Casting several meshes into the same instance
+ * keeps the nearest hit among them.
+ */
+public class RayHit {
+
+    /** Hit at origin + distance * direction. Only nearer hits are recorded. */
+    public float distance;
+
+    /** Triangle of the full level of detail: its corners are indices 3 * triangle to 3 * triangle + 2. */
+    public int triangle;
+
+    /** Barycentric weights of the triangle's second and third corners; the first gets 1 - u - v. */
+    public float u;
+    public float v;
+
+    public RayHit() {
+        reset();
+    }
+
+    /** Forgets the hit, so that any intersection along the ray is nearer. */
+    public void reset() {
+        distance = Float.POSITIVE_INFINITY;
+        triangle = -1;
+        u = 0.0f;
+        v = 0.0f;
+    }
+
+    public boolean isHit() {
+        return triangle >= 0;
+    }
+}
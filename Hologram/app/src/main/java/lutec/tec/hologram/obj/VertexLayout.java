@@ -0,0 +1,102 @@
+package lutec.tec.hologram.obj;
+
+import android.opengl.GLES20;
+
+/**
+ * Describes how a Model's vertex attributes are stored in its GL buffers:
+ * either one tightly packed buffer per attribute, or all attributes of a
+ * vertex next to each other in a single buffer.
+ *
+ * Everything glVertexAttribPointer needs (size, type, normalization, stride
+ * and byte offset) comes from here, so the renderer does not have to know
+ * which layout a model uses.
+ */
+public class VertexLayout {
+
+    public static final int POSITION = 0;
+    public static final int NORMAL = 1;
+    public static final int TEXCOORD = 2;
+    public static final int ATTRIBUTE_COUNT = 3;
+
+    private static final int[] FLOAT_SIZES = { 3, 3, 2 };
+    private static final int[] FLOAT_TYPES = { GLES20.GL_FLOAT, GLES20.GL_FLOAT, GLES20.GL_FLOAT };
+    private static final boolean[] NOT_NORMALIZED = { false, false, false };
+    private static final int[] FLOAT_BYTES = { 12, 12, 8 };
+
+    /** One float buffer per attribute. */
+    public static final VertexLayout SEPARATE =
+            new VertexLayout(false, FLOAT_SIZES, FLOAT_TYPES, NOT_NORMALIZED, FLOAT_BYTES);
+
+    /** Position, normal and texture coordinate floats interleaved in one buffer. */
+    public static final VertexLayout INTERLEAVED =
+            new VertexLayout(true, FLOAT_SIZES, FLOAT_TYPES, NOT_NORMALIZED, FLOAT_BYTES);
+
+    private final boolean interleaved;
+    private final int[] sizes;
+    private final int[] types;
+    private final boolean[] normalized;
+    private final int[] offsets = new int[ATTRIBUTE_COUNT];
+    private final int stride;
+
+    /**
+     * Creates an interleaved layout with arbitrary attribute formats.
+     * {@code bytes} is the space each attribute takes in a vertex, including
+     * any padding that keeps the next attribute 4-byte aligned.
+     */
+    public VertexLayout(int[] sizes, int[] types, boolean[] normalized, int[] bytes) {
+        this(true, sizes, types, normalized, bytes);
+    }
+
+    private VertexLayout(boolean interleaved, int[] sizes, int[] types, boolean[] normalized, int[] bytes) {
+        this.interleaved = interleaved;
+        this.sizes = sizes.clone();
+        this.types = types.clone();
+        this.normalized = normalized.clone();
+
+        int offset = 0;
+        for (int i = 0; i < ATTRIBUTE_COUNT; i++) {
+            offsets[i] = interleaved ? offset : 0;
+            offset += bytes[i];
+        }
+        stride = interleaved ? offset : 0;
+    }
+
+    public boolean isInterleaved() {
+        return interleaved;
+    }
+
+    /** Number of components of an attribute. */
+    public int getSize(int attribute) {
+        return sizes[attribute];
+    }
+
+    public int getType(int attribute) {
+        return types[attribute];
+    }
+
+    public boolean isNormalized(int attribute) {
+        return normalized[attribute];
+    }
+
+    /** Byte stride between vertices; 0 for tightly packed separate buffers. */
+    public int getStride() {
+        return stride;
+    }
+
+    /** Byte offset of an attribute within its buffer. */
+    public int getOffset(int attribute) {
+        return offsets[attribute];
+    }
+
+    /** Bytes per vertex across all attributes. */
+    public int getVertexSize() {
+        if (interleaved) {
+            return stride;
+        }
+        int size = 0;
+        for (int i = 0; i < ATTRIBUTE_COUNT; i++) {
+            size += FLOAT_BYTES[i];
+        }
+        return size;
+    }
+}
@@ -0,0 +1,101 @@
+package lutec.tec.hologram.obj;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Shared worker pool for the data-parallel parts of the mesh pipeline.
+ *
+ * The pool is sized to the number of cores and its threads are daemons, so it
+ * never keeps the process alive. Tasks submitted here must not submit and wait
+ * on further work themselves.
+ */
+final class Workers {
+
+    static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static ExecutorService executor;
+
+    /** One slice of a parallel loop; {@code index} runs from 0 to count - 1. */
+    interface Task {
+        void run(int index) throws Exception;
+    }
+
+    private Workers() {}
+
+    private static synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                private int created;
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mesh-worker-" + created++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Runs {@code task} for every index in [0, count) and waits for all of them.
+     * The calling thread runs index 0 itself. The first failure is rethrown
+     * once every slice has finished.
+     */
+    static void run(final int count, final Task task) throws Exception {
+        if (count <= 1) {
+            if (count == 1) {
+                task.run(0);
+            }
+            return;
+        }
+
+        Future<?>[] futures = new Future<?>[count];
+        for (int i = 1; i < count; i++) {
+            final int index = i;
+            futures[i] = executor().submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    task.run(index);
+                    return null;
+                }
+            });
+        }
+
+        Exception failure = null;
+        try {
+            task.run(0);
+        } catch (Exception e) {
+            failure = e;
+        }
+
+        for (int i = 1; i < count; i++) {
+            try {
+                futures[i].get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Splits [0, total) into at most one range per thread, each at least {@code minRange} long. */
+    static int rangeCount(int total, int minRange) {
+        return Math.max(1, Math.min(THREADS, total / Math.max(1, minRange)));
+    }
+
+    static int rangeStart(int index, int rangeCount, int total) {
+        return (int) ((long) total * index / rangeCount);
+    }
+}
@@ -0,0 +1,16 @@
+precision mediump float;		// Set the default precision to medium.
+
+uniform sampler2D u_Texture;	// The view rendered once offscreen.
+uniform vec2 u_TexScale;		// Part of the texture the view covers, when drawn below full resolution.
+
+varying vec2 v_TexCoordinate;	// Interpolated texture coordinate per fragment.
+
+// Copies the offscreen view; it is already lit.
+void main()
+{
+	// Turned faces reach past the image's edges; leave the cleared background there.
+	if (any(lessThan(v_TexCoordinate, vec2(0.0))) || any(greaterThan(v_TexCoordinate, vec2(1.0)))) {
+		discard;
+	}
+	gl_FragColor = texture2D(u_Texture, v_TexCoordinate * u_TexScale);
+}
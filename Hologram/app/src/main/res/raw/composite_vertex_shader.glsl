@@ -0,0 +1,12 @@
+uniform mat2 u_Orientation;		// Rotation and mirroring of the view, applied around the texture's center.
+
+attribute vec2 a_Position;		// Corner of the full-viewport quad, in clip space.
+
+varying vec2 v_TexCoordinate;	// Where this corner samples the offscreen view.
+
+// Draws the offscreen view over the whole viewport.
+void main()
+{
+	v_TexCoordinate = u_Orientation * a_Position * 0.5 + 0.5;
+	gl_Position = vec4(a_Position, 0.0, 1.0);
+}
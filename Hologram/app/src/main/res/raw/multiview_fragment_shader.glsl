@@ -0,0 +1,46 @@
+#version 300 es
+
+precision mediump float;       	// Set the default precision to medium.
+
+uniform sampler2D u_Texture;    // The input texture.
+
+in vec3 v_Position;				// Interpolated position for this fragment.
+in vec3 v_Normal;         		// Interpolated normal for this fragment.
+in vec2 v_TexCoordinate;   		// Interpolated texture coordinate per fragment.
+in vec3 v_ViewClip;				// Clip-space x, y and w within this fragment's view.
+flat in vec3 v_LightPos;		// The light in this view's eye space.
+
+out vec4 fragColor;
+
+// Same lighting as fragment_shader, once the fragment is known to lie in its view.
+void main()
+{
+	// Stands in for the scissor box: ES 3.0 has no user clip planes, and
+	// without this, triangles leaving one view would draw into the next.
+	if (any(greaterThan(abs(v_ViewClip.xy), vec2(v_ViewClip.z)))) {
+		discard;
+	}
+
+	// Will be used for attenuation.
+	float distance = length(v_LightPos - v_Position);
+
+	// Get a lighting direction vector from the light to the vertex.
+	vec3 lightVector = normalize(v_LightPos - v_Position);
+
+	// Light both faces, as the front faces are not known.
+	float diffuse;
+	if (gl_FrontFacing) {
+		diffuse = max(dot(v_Normal, lightVector), 0.0);
+	} else {
+		diffuse = max(dot(-v_Normal, lightVector), 0.0);
+	}
+
+	// Add attenuation.
+	diffuse = diffuse * (1.0 / (1.0 + (0.10 * distance)));
+
+	// Add ambient lighting
+	diffuse = diffuse + 0.3;
+
+	// Multiply the color by the diffuse illumination level and texture value to get final output color.
+	fragColor = diffuse * texture(u_Texture, v_TexCoordinate);
+}
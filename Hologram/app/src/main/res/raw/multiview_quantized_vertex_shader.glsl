@@ -0,0 +1,54 @@
+#version 300 es
+
+// Same as multiview_vertex_shader, for models packed by MeshQuantizer.
+
+// HologramLayout.MAX_FACES; only as many views as the layout has faces are set.
+const int VIEW_COUNT = 6;
+
+uniform mat4 u_MVPMatrix[VIEW_COUNT];	// Combined model/view/projection matrix of each view.
+uniform mat4 u_MVMatrix[VIEW_COUNT];	// Combined model/view matrix of each view.
+uniform vec3 u_LightPos[VIEW_COUNT];	// The position of the light in each view's eye space.
+uniform vec4 u_ViewRect[VIEW_COUNT];	// xy: scale, zw: offset taking a view's clip space to the window's.
+uniform vec4 u_NormalDequant;	// xyz: inverse position scale, w: octahedral integer scale.
+uniform vec4 u_TexCoordTransform; // xy: scale, zw: offset of the stored texture coordinates.
+
+in vec4 a_Position;				// Per-vertex position on the model's quantization grid.
+in vec2 a_Normal;				// Per-vertex octahedral-encoded normal.
+in vec2 a_TexCoordinate;		// Per-vertex quantized texture coordinate.
+
+out vec3 v_Position;			// This will be passed into the fragment shader.
+out vec3 v_Normal;				// This will be passed into the fragment shader.
+out vec2 v_TexCoordinate;		// This will be passed into the fragment shader.
+out vec3 v_ViewClip;			// Clip-space x, y and w within the view, to discard what spills out of it.
+flat out vec3 v_LightPos;		// The light in this view's eye space.
+
+// Unfolds an octahedral encoding back into a unit direction.
+vec3 decodeNormal(vec2 e)
+{
+	vec3 n = vec3(e, 1.0 - abs(e.x) - abs(e.y));
+	if (n.z < 0.0) {
+		vec2 s = vec2(e.x >= 0.0 ? 1.0 : -1.0, e.y >= 0.0 ? 1.0 : -1.0);
+		n.xy = (1.0 - abs(e.yx)) * s;
+	}
+	return normalize(n);
+}
+
+// The entry point for our vertex shader.
+void main()
+{
+	int view = gl_InstanceID;
+
+	// The model/view matrices already contain the position dequantization.
+	v_Position = vec3(u_MVMatrix[view] * a_Position);
+	v_TexCoordinate = a_TexCoordinate * u_TexCoordTransform.xy + u_TexCoordTransform.zw;
+
+	// Undo the position scale first, so that the one inside the model/view
+	// matrix cancels out and the normal keeps its direction.
+	vec3 normal = decodeNormal(a_Normal * u_NormalDequant.w) * u_NormalDequant.xyz;
+	v_Normal = vec3(u_MVMatrix[view] * vec4(normal, 0.0));
+	v_LightPos = u_LightPos[view];
+
+	vec4 clip = u_MVPMatrix[view] * a_Position;
+	v_ViewClip = clip.xyw;
+	gl_Position = vec4(clip.xy * u_ViewRect[view].xy + u_ViewRect[view].zw * clip.w, clip.zw);
+}
@@ -0,0 +1,38 @@
+#version 300 es
+
+// Draws every view in one instanced call: instance i is the model as seen
+// from view i, squeezed into that view's part of the window.
+
+// HologramLayout.MAX_FACES; only as many views as the layout has faces are set.
+const int VIEW_COUNT = 6;
+
+uniform mat4 u_MVPMatrix[VIEW_COUNT];	// Combined model/view/projection matrix of each view.
+uniform mat4 u_MVMatrix[VIEW_COUNT];	// Combined model/view matrix of each view.
+uniform vec3 u_LightPos[VIEW_COUNT];	// The position of the light in each view's eye space.
+uniform vec4 u_ViewRect[VIEW_COUNT];	// xy: scale, zw: offset taking a view's clip space to the window's.
+
+in vec4 a_Position;				// Per-vertex position information we will pass in.
+in vec3 a_Normal;				// Per-vertex normal information we will pass in.
+in vec2 a_TexCoordinate;		// Per-vertex texture coordinate information we will pass in.
+
+out vec3 v_Position;			// This will be passed into the fragment shader.
+out vec3 v_Normal;				// This will be passed into the fragment shader.
+out vec2 v_TexCoordinate;		// This will be passed into the fragment shader.
+out vec3 v_ViewClip;			// Clip-space x, y and w within the view, to discard what spills out of it.
+flat out vec3 v_LightPos;		// The light in this view's eye space.
+
+// The entry point for our vertex shader.
+void main()
+{
+	int view = gl_InstanceID;
+
+	// Transform the vertex and its normal into this view's eye space.
+	v_Position = vec3(u_MVMatrix[view] * a_Position);
+	v_Normal = vec3(u_MVMatrix[view] * vec4(a_Normal, 0.0));
+	v_TexCoordinate = a_TexCoordinate;
+	v_LightPos = u_LightPos[view];
+
+	vec4 clip = u_MVPMatrix[view] * a_Position;
+	v_ViewClip = clip.xyw;
+	gl_Position = vec4(clip.xy * u_ViewRect[view].xy + u_ViewRect[view].zw * clip.w, clip.zw);
+}
@@ -0,0 +1,39 @@
+uniform mat4 u_MVPMatrix;		// A constant representing the combined model/view/projection matrix.
+uniform mat4 u_MVMatrix;		// A constant representing the combined model/view matrix.
+uniform vec4 u_NormalDequant;	// xyz: inverse position scale, w: octahedral integer scale.
+uniform vec4 u_TexCoordTransform; // xy: scale, zw: offset of the stored texture coordinates.
+
+attribute vec4 a_Position;		// Per-vertex position on the model's quantization grid.
+attribute vec2 a_Normal;		// Per-vertex octahedral-encoded normal.
+attribute vec2 a_TexCoordinate; // Per-vertex quantized texture coordinate.
+
+varying vec3 v_Position;		// This will be passed into the fragment shader.
+varying vec3 v_Normal;			// This will be passed into the fragment shader.
+varying vec2 v_TexCoordinate;   // This will be passed into the fragment shader.
+
+// Unfolds an octahedral encoding back into a unit direction.
+vec3 decodeNormal(vec2 e)
+{
+	vec3 n = vec3(e, 1.0 - abs(e.x) - abs(e.y));
+	if (n.z < 0.0) {
+		vec2 s = vec2(e.x >= 0.0 ? 1.0 : -1.0, e.y >= 0.0 ? 1.0 : -1.0);
+		n.xy = (1.0 - abs(e.yx)) * s;
+	}
+	return normalize(n);
+}
+
+// The entry point for our vertex shader.
+void main()
+{
+	// The model/view matrix already contains the position dequantization.
+	v_Position = vec3(u_MVMatrix * a_Position);
+
+	v_TexCoordinate = a_TexCoordinate * u_TexCoordTransform.xy + u_TexCoordTransform.zw;
+
+	// Undo the position scale first, so that the one inside the model/view
+	// matrix cancels out and the normal keeps its direction.
+	vec3 normal = decodeNormal(a_Normal * u_NormalDequant.w) * u_NormalDequant.xyz;
+    v_Normal = vec3(u_MVMatrix * vec4(normal, 0.0));
+
+	gl_Position = u_MVPMatrix * a_Position;
+}
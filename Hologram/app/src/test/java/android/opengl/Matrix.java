@@ -0,0 +1,231 @@
+package android.opengl;
+
+/**
+ * JVM stand-in for android.opengl.Matrix, with the methods the tested and
+ * benchmarked classes use. Matrices are column-major float[16] at an offset,
+ * as on Android, and the results match it.
+ *
+ * On a device multiplyMM and multiplyMV are native, so timings of code that
+ * leans on them are only comparable between runs of these benchmarks.
+ */
+public class Matrix
+{
+    /** Scratch space for the operations that may write over an input. */
+    private static final ThreadLocal<float[]> TEMP = new ThreadLocal<float[]>()
+    {
+        @Override
+        protected float[] initialValue()
+        {
+            return new float[32];
+        }
+    };
+
+    public static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset, float[] rhs,
+            int rhsOffset)
+    {
+        final float[] temp = TEMP.get();
+        for (int column = 0; column < 4; column++)
+        {
+            final float x = rhs[rhsOffset + column * 4];
+            final float y = rhs[rhsOffset + column * 4 + 1];
+            final float z = rhs[rhsOffset + column * 4 + 2];
+            final float w = rhs[rhsOffset + column * 4 + 3];
+            for (int row = 0; row < 4; row++)
+            {
+                temp[column * 4 + row] = lhs[lhsOffset + row] * x + lhs[lhsOffset + 4 + row] * y
+                        + lhs[lhsOffset + 8 + row] * z + lhs[lhsOffset + 12 + row] * w;
+            }
+        }
+        System.arraycopy(temp, 0, result, resultOffset, 16);
+    }
+
+    public static void multiplyMV(float[] resultVec, int resultVecOffset, float[] lhsMat, int lhsMatOffset,
+            float[] rhsVec, int rhsVecOffset)
+    {
+        final float x = rhsVec[rhsVecOffset];
+        final float y = rhsVec[rhsVecOffset + 1];
+        final float z = rhsVec[rhsVecOffset + 2];
+        final float w = rhsVec[rhsVecOffset + 3];
+        for (int row = 0; row < 4; row++)
+        {
+            resultVec[resultVecOffset + row] = lhsMat[lhsMatOffset + row] * x + lhsMat[lhsMatOffset + 4 + row] * y
+                    + lhsMat[lhsMatOffset + 8 + row] * z + lhsMat[lhsMatOffset + 12 + row] * w;
+        }
+    }
+
+    public static void setIdentityM(float[] sm, int smOffset)
+    {
+        for (int i = 0; i < 16; i++)
+        {
+            sm[smOffset + i] = i % 5 == 0 ? 1.0f : 0.0f;
+        }
+    }
+
+    /** Inverts by cofactors. Returns false, leaving mInv alone, if m is singular. */
+    public static boolean invertM(float[] mInv, int mInvOffset, float[] m, int mOffset)
+    {
+        final float[] inv = TEMP.get();
+        final int o = mOffset;
+        inv[0] = m[o + 5] * m[o + 10] * m[o + 15] - m[o + 5] * m[o + 11] * m[o + 14] - m[o + 9] * m[o + 6] * m[o + 15]
+                + m[o + 9] * m[o + 7] * m[o + 14] + m[o + 13] * m[o + 6] * m[o + 11] - m[o + 13] * m[o + 7] * m[o + 10];
+        inv[4] = -m[o + 4] * m[o + 10] * m[o + 15] + m[o + 4] * m[o + 11] * m[o + 14] + m[o + 8] * m[o + 6] * m[o + 15]
+                - m[o + 8] * m[o + 7] * m[o + 14] - m[o + 12] * m[o + 6] * m[o + 11] + m[o + 12] * m[o + 7] * m[o + 10];
+        inv[8] = m[o + 4] * m[o + 9] * m[o + 15] - m[o + 4] * m[o + 11] * m[o + 13] - m[o + 8] * m[o + 5] * m[o + 15]
+                + m[o + 8] * m[o + 7] * m[o + 13] + m[o + 12] * m[o + 5] * m[o + 11] - m[o + 12] * m[o + 7] * m[o + 9];
+        inv[12] = -m[o + 4] * m[o + 9] * m[o + 14] + m[o + 4] * m[o + 10] * m[o + 13] + m[o + 8] * m[o + 5] * m[o + 14]
+                - m[o + 8] * m[o + 6] * m[o + 13] - m[o + 12] * m[o + 5] * m[o + 10] + m[o + 12] * m[o + 6] * m[o + 9];
+        inv[1] = -m[o + 1] * m[o + 10] * m[o + 15] + m[o + 1] * m[o + 11] * m[o + 14] + m[o + 9] * m[o + 2] * m[o + 15]
+                - m[o + 9] * m[o + 3] * m[o + 14] - m[o + 13] * m[o + 2] * m[o + 11] + m[o + 13] * m[o + 3] * m[o + 10];
+        inv[5] = m[o] * m[o + 10] * m[o + 15] - m[o] * m[o + 11] * m[o + 14] - m[o + 8] * m[o + 2] * m[o + 15]
+                + m[o + 8] * m[o + 3] * m[o + 14] + m[o + 12] * m[o + 2] * m[o + 11] - m[o + 12] * m[o + 3] * m[o + 10];
+        inv[9] = -m[o] * m[o + 9] * m[o + 15] + m[o] * m[o + 11] * m[o + 13] + m[o + 8] * m[o + 1] * m[o + 15]
+                - m[o + 8] * m[o + 3] * m[o + 13] - m[o + 12] * m[o + 1] * m[o + 11] + m[o + 12] * m[o + 3] * m[o + 9];
+        inv[13] = m[o] * m[o + 9] * m[o + 14] - m[o] * m[o + 10] * m[o + 13] - m[o + 8] * m[o + 1] * m[o + 14]
+                + m[o + 8] * m[o + 2] * m[o + 13] + m[o + 12] * m[o + 1] * m[o + 10] - m[o + 12] * m[o + 2] * m[o + 9];
+        inv[2] = m[o + 1] * m[o + 6] * m[o + 15] - m[o + 1] * m[o + 7] * m[o + 14] - m[o + 5] * m[o + 2] * m[o + 15]
+                + m[o + 5] * m[o + 3] * m[o + 14] + m[o + 13] * m[o + 2] * m[o + 7] - m[o + 13] * m[o + 3] * m[o + 6];
+        inv[6] = -m[o] * m[o + 6] * m[o + 15] + m[o] * m[o + 7] * m[o + 14] + m[o + 4] * m[o + 2] * m[o + 15]
+                - m[o + 4] * m[o + 3] * m[o + 14] - m[o + 12] * m[o + 2] * m[o + 7] + m[o + 12] * m[o + 3] * m[o + 6];
+        inv[10] = m[o] * m[o + 5] * m[o + 15] - m[o] * m[o + 7] * m[o + 13] - m[o + 4] * m[o + 1] * m[o + 15]
+                + m[o + 4] * m[o + 3] * m[o + 13] + m[o + 12] * m[o + 1] * m[o + 7] - m[o + 12] * m[o + 3] * m[o + 5];
+        inv[14] = -m[o] * m[o + 5] * m[o + 14] + m[o] * m[o + 6] * m[o + 13] + m[o + 4] * m[o + 1] * m[o + 14]
+                - m[o + 4] * m[o + 2] * m[o + 13] - m[o + 12] * m[o + 1] * m[o + 6] + m[o + 12] * m[o + 2] * m[o + 5];
+        inv[3] = -m[o + 1] * m[o + 6] * m[o + 11] + m[o + 1] * m[o + 7] * m[o + 10] + m[o + 5] * m[o + 2] * m[o + 11]
+                - m[o + 5] * m[o + 3] * m[o + 10] - m[o + 9] * m[o + 2] * m[o + 7] + m[o + 9] * m[o + 3] * m[o + 6];
+        inv[7] = m[o] * m[o + 6] * m[o + 11] - m[o] * m[o + 7] * m[o + 10] - m[o + 4] * m[o + 2] * m[o + 11]
+                + m[o + 4] * m[o + 3] * m[o + 10] + m[o + 8] * m[o + 2] * m[o + 7] - m[o + 8] * m[o + 3] * m[o + 6];
+        inv[11] = -m[o] * m[o + 5] * m[o + 11] + m[o] * m[o + 7] * m[o + 9] + m[o + 4] * m[o + 1] * m[o + 11]
+                - m[o + 4] * m[o + 3] * m[o + 9] - m[o + 8] * m[o + 1] * m[o + 7] + m[o + 8] * m[o + 3] * m[o + 5];
+        inv[15] = m[o] * m[o + 5] * m[o + 10] - m[o] * m[o + 6] * m[o + 9] - m[o + 4] * m[o + 1] * m[o + 10]
+                + m[o + 4] * m[o + 2] * m[o + 9] + m[o + 8] * m[o + 1] * m[o + 6] - m[o + 8] * m[o + 2] * m[o + 5];
+
+        final float determinant = m[o] * inv[0] + m[o + 1] * inv[4] + m[o + 2] * inv[8] + m[o + 3] * inv[12];
+        if (determinant == 0.0f)
+        {
+            return false;
+        }
+        final float scale = 1.0f / determinant;
+        for (int i = 0; i < 16; i++)
+        {
+            mInv[mInvOffset + i] = inv[i] * scale;
+        }
+        return true;
+    }
+
+    public static void frustumM(float[] m, int offset, float left, float right, float bottom, float top, float near,
+            float far)
+    {
+        final float width = 1.0f / (right - left);
+        final float height = 1.0f / (top - bottom);
+        final float depth = 1.0f / (near - far);
+        for (int i = 0; i < 16; i++)
+        {
+            m[offset + i] = 0.0f;
+        }
+        m[offset] = 2.0f * near * width;
+        m[offset + 5] = 2.0f * near * height;
+        m[offset + 8] = (right + left) * width;
+        m[offset + 9] = (top + bottom) * height;
+        m[offset + 10] = (far + near) * depth;
+        m[offset + 11] = -1.0f;
+        m[offset + 14] = 2.0f * far * near * depth;
+    }
+
+    public static void setLookAtM(float[] rm, int rmOffset, float eyeX, float eyeY, float eyeZ, float centerX,
+            float centerY, float centerZ, float upX, float upY, float upZ)
+    {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        final float rlf = 1.0f / length(fx, fy, fz);
+        fx *= rlf;
+        fy *= rlf;
+        fz *= rlf;
+
+        // Side is forward x up, then up is recomputed as side x forward.
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        final float rls = 1.0f / length(sx, sy, sz);
+        sx *= rls;
+        sy *= rls;
+        sz *= rls;
+        final float ux = sy * fz - sz * fy;
+        final float uy = sz * fx - sx * fz;
+        final float uz = sx * fy - sy * fx;
+
+        rm[rmOffset] = sx;
+        rm[rmOffset + 1] = ux;
+        rm[rmOffset + 2] = -fx;
+        rm[rmOffset + 3] = 0.0f;
+        rm[rmOffset + 4] = sy;
+        rm[rmOffset + 5] = uy;
+        rm[rmOffset + 6] = -fy;
+        rm[rmOffset + 7] = 0.0f;
+        rm[rmOffset + 8] = sz;
+        rm[rmOffset + 9] = uz;
+        rm[rmOffset + 10] = -fz;
+        rm[rmOffset + 11] = 0.0f;
+        rm[rmOffset + 12] = 0.0f;
+        rm[rmOffset + 13] = 0.0f;
+        rm[rmOffset + 14] = 0.0f;
+        rm[rmOffset + 15] = 1.0f;
+        translateM(rm, rmOffset, -eyeX, -eyeY, -eyeZ);
+    }
+
+    public static void setRotateM(float[] rm, int rmOffset, float a, float x, float y, float z)
+    {
+        setIdentityM(rm, rmOffset);
+        final double radians = Math.toRadians(a);
+        final float s = (float) Math.sin(radians);
+        final float c = (float) Math.cos(radians);
+        final float length = length(x, y, z);
+        if (length != 1.0f)
+        {
+            x /= length;
+            y /= length;
+            z /= length;
+        }
+        final float nc = 1.0f - c;
+        rm[rmOffset] = x * x * nc + c;
+        rm[rmOffset + 1] = x * y * nc + z * s;
+        rm[rmOffset + 2] = x * z * nc - y * s;
+        rm[rmOffset + 4] = x * y * nc - z * s;
+        rm[rmOffset + 5] = y * y * nc + c;
+        rm[rmOffset + 6] = y * z * nc + x * s;
+        rm[rmOffset + 8] = x * z * nc + y * s;
+        rm[rmOffset + 9] = y * z * nc - x * s;
+        rm[rmOffset + 10] = z * z * nc + c;
+    }
+
+    public static void rotateM(float[] m, int mOffset, float a, float x, float y, float z)
+    {
+        final float[] temp = TEMP.get();
+        setRotateM(temp, 16, a, x, y, z);
+        multiplyMM(temp, 0, m, mOffset, temp, 16);
+        System.arraycopy(temp, 0, m, mOffset, 16);
+    }
+
+    public static void scaleM(float[] m, int mOffset, float x, float y, float z)
+    {
+        for (int i = 0; i < 4; i++)
+        {
+            m[mOffset + i] *= x;
+            m[mOffset + 4 + i] *= y;
+            m[mOffset + 8 + i] *= z;
+        }
+    }
+
+    public static void translateM(float[] m, int mOffset, float x, float y, float z)
+    {
+        for (int i = 0; i < 4; i++)
+        {
+            m[mOffset + 12 + i] += m[mOffset + i] * x + m[mOffset + 4 + i] * y + m[mOffset + 8 + i] * z;
+        }
+    }
+
+    public static float length(float x, float y, float z)
+    {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+}
@@ -0,0 +1,38 @@
+package android.util;
+
+/**
+ * JVM stand-in for the Android logger, so that loaders which log can be
+ * tested and benchmarked. Messages are dropped, as the cost of logcat is not
+ * what the benchmarks measure.
+ */
+public final class Log
+{
+    private Log()
+    {
+    }
+
+    public static int d(String tag, String msg)
+    {
+        return 0;
+    }
+
+    public static int w(String tag, String msg)
+    {
+        return 0;
+    }
+
+    public static int w(String tag, String msg, Throwable tr)
+    {
+        return 0;
+    }
+
+    public static int e(String tag, String msg)
+    {
+        return 0;
+    }
+
+    public static int e(String tag, String msg, Throwable tr)
+    {
+        return 0;
+    }
+}
@@ -0,0 +1,159 @@
+package lutec.tec.hologram.OPENGL;
+
+import android.opengl.Matrix;
+
+import org.junit.Test;
+
+import lutec.tec.hologram.obj.Model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the layouts against what ends up on screen: how large a model is
+ * drawn in each face, measured through the face's own projection, and where
+ * the faces lie in the window.
+ */
+public class HologramLayoutTest
+{
+    private static final float LOD_PIXEL_ERROR = 1.0f;
+
+    private static final float[] DISTANCES = { 0.5f, 1.0f, 2.0f, 4.0f, 8.0f, 16.0f, 64.0f, 256.0f };
+
+    private static final int[][] WINDOWS = { { 1080, 1920 }, { 1920, 1080 }, { 1440, 1440 }, { 720, 1280 } };
+
+    @Test
+    public void turnedFacesPickTheSameLevelOfDetailAsAnUprightOne()
+    {
+        final HologramLayout layout = new HologramLayout(true);
+        layout.addFace(0.0f, 0.0f, 0.25f, 0.25f, 0.0f, false);
+        layout.addFace(0.5f, 0.0f, 0.25f, 0.25f, 90.0f, false);
+        layout.addFace(0.0f, 0.5f, 0.25f, 0.25f, 45.0f, true);
+        layout.addFace(0.5f, 0.5f, 0.25f, 0.25f, 180.0f, false);
+        layout.addFace(0.75f, 0.75f, 0.25f, 0.25f, 300.0f, true);
+        layout.layout(1200, 1200);
+        final Model model = modelWithLevels(0.01f, 0.04f, 0.16f, 0.64f);
+
+        boolean coarsened = false;
+        for (float distance : DISTANCES)
+        {
+            final int upright = model.selectLod(measuredPixelsPerUnit(layout, 0, distance), LOD_PIXEL_ERROR);
+            coarsened |= upright > 0;
+            for (int face = 0; face < layout.getFaceCount(); face++)
+            {
+                final float measured = measuredPixelsPerUnit(layout, face, distance);
+                assertEquals("face " + face + " at " + distance, upright,
+                        model.selectLod(measured, LOD_PIXEL_ERROR));
+                // What the renderer estimates from the layout is what the projection draws.
+                final float estimated = layout.getFocalScales()[face] * layout.getViewports()[face * 4 + 3] * 0.5f
+                        / distance;
+                assertEquals("face " + face + " at " + distance, measured, estimated, measured * 1.0e-3f);
+            }
+        }
+        assertTrue("the model never leaves its full mesh", coarsened);
+    }
+
+    @Test
+    public void facesOfEveryPresetLieApartInsideTheWindow()
+    {
+        final HologramLayout[] presets = { HologramLayout.quadrants(), HologramLayout.threeSidedPyramid(),
+                HologramLayout.fourSidedPyramid() };
+        for (int preset = 0; preset < presets.length; preset++)
+        {
+            final HologramLayout layout = presets[preset];
+            for (int[] window : WINDOWS)
+            {
+                layout.layout(window[0], window[1]);
+                final int[] viewports = layout.getViewports();
+                final String where = "preset " + preset + " in " + window[0] + "x" + window[1];
+                assertTrue(where, layout.isSameSize());
+
+                for (int face = 0; face < layout.getFaceCount(); face++)
+                {
+                    final int o = face * 4;
+                    assertTrue(where + ", face " + face, viewports[o + 2] > 0 && viewports[o + 3] > 0);
+                    assertTrue(where + ", face " + face, viewports[o] >= 0 && viewports[o + 1] >= 0
+                            && viewports[o] + viewports[o + 2] <= window[0]
+                            && viewports[o + 1] + viewports[o + 3] <= window[1]);
+                    for (int other = face + 1; other < layout.getFaceCount(); other++)
+                    {
+                        assertFalse(where + ", faces " + face + " and " + other,
+                                overlap(viewports, face, other));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pyramidFacesShowTheModelFromEverySide()
+    {
+        final HologramLayout[] pyramids = { HologramLayout.threeSidedPyramid(), HologramLayout.fourSidedPyramid() };
+        for (HologramLayout layout : pyramids)
+        {
+            layout.layout(1080, 1920);
+            final int faces = layout.getFaceCount();
+            assertFalse(layout.isSameCamera());
+            for (int face = 0; face < faces; face++)
+            {
+                assertEquals(360.0f * face / faces, layout.getCameraYaws()[face], 1.0e-3f);
+            }
+        }
+
+        final HologramLayout quadrants = HologramLayout.quadrants();
+        quadrants.layout(1080, 1920);
+        assertTrue(quadrants.isSameCamera());
+    }
+
+    /**
+     * Pixels one unit covers {@code distance} in front of the camera in
+     * {@code face}, measured by projecting a unit segment and taking its
+     * length in the face's viewport.
+     */
+    private static float measuredPixelsPerUnit(HologramLayout layout, int face, float distance)
+    {
+        final float[] projection = layout.getProjections();
+        final float[] bottom = project(projection, face, 0.0f, -0.5f, -distance);
+        final float[] top = project(projection, face, 0.0f, 0.5f, -distance);
+        final int[] viewports = layout.getViewports();
+        final float x = (top[0] - bottom[0]) * viewports[face * 4 + 2] * 0.5f;
+        final float y = (top[1] - bottom[1]) * viewports[face * 4 + 3] * 0.5f;
+        return (float) Math.sqrt(x * x + y * y);
+    }
+
+    /** Normalized device coordinates of an eye-space point. */
+    private static float[] project(float[] projections, int face, float x, float y, float z)
+    {
+        final float[] clip = new float[4];
+        Matrix.multiplyMV(clip, 0, projections, face * 16, new float[] { x, y, z, 1.0f }, 0);
+        return new float[] { clip[0] / clip[3], clip[1] / clip[3] };
+    }
+
+    private static boolean overlap(int[] viewports, int a, int b)
+    {
+        final int ao = a * 4;
+        final int bo = b * 4;
+        return viewports[ao] < viewports[bo] + viewports[bo + 2] && viewports[bo] < viewports[ao] + viewports[ao + 2]
+                && viewports[ao + 1] < viewports[bo + 1] + viewports[bo + 3]
+                && viewports[bo + 1] < viewports[ao + 1] + viewports[ao + 3];
+    }
+
+    /** A triangle with coarser levels of these errors, all drawing it again. */
+    private static Model modelWithLevels(float... errors)
+    {
+        final Model model = new Model();
+        model.vertices = new float[] { 0.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f };
+        model.normals = new float[9];
+        model.texCoords = new float[6];
+        model.indices = new int[] { 0, 1, 2 };
+        model.lodIndices = new int[errors.length][];
+        for (int level = 0; level < errors.length; level++)
+        {
+            model.lodIndices[level] = model.indices.clone();
+        }
+        model.lodErrors = errors;
+        model.load();
+        return model;
+    }
+}
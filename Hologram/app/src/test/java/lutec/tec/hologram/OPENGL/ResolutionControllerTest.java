@@ -0,0 +1,60 @@
+package lutec.tec.hologram.OPENGL;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Under vsync every frame that made it looks on budget, so the GPU time is
+ * what tells the controller how close it is.
+ */
+public class ResolutionControllerTest
+{
+    private static final float BUDGET = 1000.0f / 60.0f;
+    private static final int WINDOW = 120;
+
+    @Test
+    public void gpuOverBudgetLowersTheScaleWhileFramesKeepUp()
+    {
+        final ResolutionController controller = new ResolutionController(0.5f, 1.0f, BUDGET);
+        for (int i = 0; i < WINDOW; i++)
+        {
+            controller.addGpuFrame(BUDGET * 1.5f);
+            controller.addFrame(BUDGET);
+        }
+        assertTrue(controller.getTargetScale() < 1.0f);
+    }
+
+    @Test
+    public void gpuTimeKeepsTheScaleFromRisingPastTheBudget()
+    {
+        final ResolutionController controller = new ResolutionController(0.5f, 1.0f, BUDGET);
+        for (int i = 0; i < WINDOW; i++)
+        {
+            controller.addFrame(BUDGET * 2.0f);
+        }
+        final float lowered = controller.getTargetScale();
+        assertTrue(lowered < 1.0f);
+
+        // On budget, but one step up would cost more than the budget.
+        for (int i = 0; i < WINDOW * 10; i++)
+        {
+            controller.addGpuFrame(BUDGET * 0.98f);
+            controller.addFrame(BUDGET);
+        }
+        assertEquals(lowered, controller.getTargetScale(), 0.0f);
+    }
+
+    @Test
+    public void p99IsNotTheSlowestFrame()
+    {
+        final ResolutionController controller = new ResolutionController(0.5f, 1.0f, BUDGET);
+        for (int i = 0; i < WINDOW - 1; i++)
+        {
+            controller.addFrame(BUDGET);
+        }
+        controller.addFrame(BUDGET * 3.0f);
+        assertEquals(BUDGET, controller.getFrameMillisPercentile(0.99f), 0.0f);
+    }
+}
@@ -0,0 +1,27 @@
+package lutec.tec.hologram.obj;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the app's bundled models, which the build puts on the classpath of
+ * the unit tests and of the benchmarks, fully into memory.
+ */
+public final class Assets {
+
+    private Assets() {}
+
+    public static byte[] read(String name) throws IOException {
+        InputStream is = Assets.class.getResourceAsStream("/" + name);
+        if (is == null) {
+            throw new IOException("Asset " + name + " is not on the classpath.");
+        }
+        return ParallelObjParser.readFully(is);
+    }
+
+    /** Loads a model through the full pipeline, as the app does. */
+    public static Model loadModel(String name) throws IOException {
+        return OBJ_Loader.loadModel(new ByteArrayInputStream(read(name)));
+    }
+}
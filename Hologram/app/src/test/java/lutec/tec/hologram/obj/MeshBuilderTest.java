@@ -0,0 +1,66 @@
+package lutec.tec.hologram.obj;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Indexing must draw exactly the triangles of the expanded, one-vertex-per-corner mesh. */
+public class MeshBuilderTest {
+
+    @Test
+    public void indexedMeshDrawsTheExpandedTriangles() throws Exception {
+        for (String name : new String[] { "banana.obj", "teapot.obj", "cube3.obj", "test.obj" }) {
+            final MeshBuilder builder = new MeshBuilder();
+            OBJ_Loader.parse(new ObjTokenizer(new ByteArrayInputStream(Assets.read(name))), builder);
+            final Model model = builder.build(new Model());
+
+            assertEquals(name, builder.cornerCount, model.indices.length);
+            final Set<String> corners = new HashSet<String>();
+            for (int i = 0; i < builder.cornerCount; i++) {
+                final int corner = i * ObjTokenizer.CORNER_SIZE;
+                final int vertex = model.indices[i];
+                final int position = builder.corners[corner];
+                final int texture = builder.corners[corner + 1];
+                final int normal = builder.corners[corner + 2];
+                corners.add(position + "/" + texture + "/" + normal);
+
+                for (int axis = 0; axis < 3; axis++) {
+                    assertEquals(name, builder.positions[position * 3 + axis], model.vertices[vertex * 3 + axis], 0.0f);
+                    assertEquals(name, normal == MeshBuilder.MISSING ? 0.0f : builder.normals[normal * 3 + axis],
+                            model.normals[vertex * 3 + axis], 0.0f);
+                }
+                for (int axis = 0; axis < 2; axis++) {
+                    assertEquals(name, texture == MeshBuilder.MISSING ? 0.0f : builder.textures[texture * 2 + axis],
+                            model.texCoords[vertex * 2 + axis], 0.0f);
+                }
+            }
+            // One vertex per distinct corner, no more.
+            assertEquals(name, corners.size(), model.vertices.length / 3);
+        }
+    }
+
+    @Test
+    public void sharedCornersBecomeOneVertex() {
+        final MeshBuilder builder = new MeshBuilder();
+        builder.addPosition(0, 0, 0);
+        builder.addPosition(1, 0, 0);
+        builder.addPosition(1, 1, 0);
+        builder.addPosition(0, 1, 0);
+        builder.addFace(new int[] { 1, 0, 0, 2, 0, 0, 3, 0, 0, 4, 0, 0 }, 4);
+        builder.addFace(new int[] { -4, 0, 0, -2, 0, 0, -1, 0, 0 }, 3);
+        final Model model = builder.build(new Model());
+
+        assertEquals(4, model.vertices.length / 3);
+        assertEquals(9, model.indices.length);
+        final int[] expected = { 0, 1, 2, 0, 2, 3, 0, 2, 3 };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], model.indices[i]);
+        }
+        assertTrue(model.vertices[3] == 1.0f && model.vertices[7] == 1.0f);
+    }
+}
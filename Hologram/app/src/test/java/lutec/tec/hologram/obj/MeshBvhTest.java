@@ -0,0 +1,135 @@
+package lutec.tec.hologram.obj;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Casting through the BVH must find the same nearest hit as testing every triangle. */
+public class MeshBvhTest {
+
+    @Test
+    public void matchesBruteForceOnBundledModels() throws Exception {
+        for (String name : new String[] { "banana.obj", "teapot.obj", "cube3.obj", "test.obj" }) {
+            final Model model = Assets.loadModel(name);
+            model.load();
+            final MeshBvh bvh = MeshBvh.build(model);
+            assertTrue(name, bvh.getNodeCount() > 0);
+            assertTrue(name, model.getBvh() == bvh);
+
+            final float[] min = model.getBoundsMin();
+            final float[] max = model.getBoundsMax();
+            final float radius = model.getBoundingRadius() * 2.0f;
+            final Random random = new Random(6);
+            final RayHit hit = new RayHit();
+            final RayHit expected = new RayHit();
+            int hits = 0;
+
+            for (int ray = 0; ray < 2000; ray++) {
+                // From outside the model towards a point in its box, sometimes along an axis.
+                final float[] target = new float[3];
+                final float[] origin = new float[3];
+                final int axis = ray % 4 == 0 ? random.nextInt(3) : -1;
+                for (int i = 0; i < 3; i++) {
+                    target[i] = min[i] + random.nextFloat() * (max[i] - min[i]);
+                    origin[i] = axis < 0 ? model.getBoundingCenter()[i] + (random.nextFloat() * 2.0f - 1.0f) * radius
+                            : i == axis ? model.getBoundingCenter()[i] + radius : target[i];
+                }
+                final float directionX = target[0] - origin[0];
+                final float directionY = target[1] - origin[1];
+                final float directionZ = target[2] - origin[2];
+
+                hit.reset();
+                expected.reset();
+                final boolean found = bvh.raycast(origin[0], origin[1], origin[2],
+                        directionX, directionY, directionZ, hit);
+                bruteForce(model, origin, directionX, directionY, directionZ, expected);
+
+                final String message = name + " ray " + ray;
+                assertEquals(message, expected.isHit(), found);
+                assertEquals(message, expected.isHit(), hit.isHit());
+                if (found) {
+                    hits++;
+                    assertEquals(message, expected.distance, hit.distance, 0.0f);
+                    if (expected.triangle != hit.triangle) {
+                        // Another triangle at the very same distance: a shared edge or corner.
+                        assertEquals(message, expected.distance,
+                                distance(model, hit.triangle, origin, directionX, directionY, directionZ), 0.0f);
+                    }
+                }
+            }
+            assertTrue(name + ": " + hits + " hits", hits > 100);
+        }
+    }
+
+    @Test
+    public void limitsTheSearchToTheGivenDistance() throws Exception {
+        final Model model = Assets.loadModel("teapot.obj");
+        model.load();
+        final MeshBvh bvh = MeshBvh.build(model);
+        final float[] center = model.getBoundingCenter();
+        final float far = model.getBoundingRadius() * 3.0f;
+
+        final RayHit hit = new RayHit();
+        assertTrue(bvh.raycast(center[0], center[1], center[2] + far, 0.0f, 0.0f, -1.0f, hit));
+        final float distance = hit.distance;
+
+        hit.reset();
+        hit.distance = distance * 0.99f;
+        assertTrue(!bvh.raycast(center[0], center[1], center[2] + far, 0.0f, 0.0f, -1.0f, hit));
+        assertTrue(!hit.isHit());
+
+        hit.reset();
+        assertTrue(!bvh.raycast(center[0], center[1], center[2] + far, 0.0f, 0.0f, 1.0f, hit));
+    }
+
+    /** Every triangle of level 0, with the same Moller-Trumbore test MeshBvh uses. */
+    private static void bruteForce(Model model, float[] origin, float directionX, float directionY,
+                                   float directionZ, RayHit hit) {
+        for (int t = 0; t < model.getLodIndexCount(0) / 3; t++) {
+            final float distance = distance(model, t, origin, directionX, directionY, directionZ);
+            if (distance < hit.distance) {
+                hit.distance = distance;
+                hit.triangle = t;
+            }
+        }
+    }
+
+    /** Where the ray meets triangle {@code t}, or infinity. */
+    private static float distance(Model model, int t, float[] origin, float directionX, float directionY,
+                                  float directionZ) {
+        final float[] c = new float[9];
+        for (int corner = 0; corner < 3; corner++) {
+            final int vertex = model.getIndex(t * 3 + corner);
+            for (int axis = 0; axis < 3; axis++) {
+                c[corner * 3 + axis] = model.vertices[vertex * 3 + axis];
+            }
+        }
+        final float edge1X = c[3] - c[0], edge1Y = c[4] - c[1], edge1Z = c[5] - c[2];
+        final float edge2X = c[6] - c[0], edge2Y = c[7] - c[1], edge2Z = c[8] - c[2];
+        final float pX = directionY * edge2Z - directionZ * edge2Y;
+        final float pY = directionZ * edge2X - directionX * edge2Z;
+        final float pZ = directionX * edge2Y - directionY * edge2X;
+        final float determinant = edge1X * pX + edge1Y * pY + edge1Z * pZ;
+        if (determinant == 0.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        final float inverse = 1.0f / determinant;
+        final float sX = origin[0] - c[0], sY = origin[1] - c[1], sZ = origin[2] - c[2];
+        final float u = (sX * pX + sY * pY + sZ * pZ) * inverse;
+        if (u < 0.0f || u > 1.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        final float qX = sY * edge1Z - sZ * edge1Y;
+        final float qY = sZ * edge1X - sX * edge1Z;
+        final float qZ = sX * edge1Y - sY * edge1X;
+        final float v = (directionX * qX + directionY * qY + directionZ * qZ) * inverse;
+        if (v < 0.0f || u + v > 1.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        final float distance = (edge2X * qX + edge2Y * qY + edge2Z * qZ) * inverse;
+        return distance < 0.0f ? Float.POSITIVE_INFINITY : distance;
+    }
+}
@@ -0,0 +1,152 @@
+package lutec.tec.hologram.obj;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/** A cached mesh must read back as written, and only for the asset version and format it was written for. */
+public class MeshCacheTest {
+
+    /** When the package holding the assets was installed. */
+    private static final long PACKAGE_TIME = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripKeepsTheMesh() throws Exception {
+        final byte[] data = Assets.read("teapot.obj");
+        final long key = MeshCache.key(data.length, PACKAGE_TIME);
+        final Model model = OBJ_Loader.loadModel(new ByteArrayInputStream(data));
+        final MeshCache cache = new MeshCache(folder.getRoot());
+        cache.write("models/teapot.obj", key, model);
+
+        final Model cached = cache.read("models/teapot.obj", key);
+        assertNotNull(cached);
+        assertFloats(model.vertices, (FloatBuffer) cached.getVertices());
+        assertFloats(model.normals, (FloatBuffer) cached.getNormals());
+        assertFloats(model.texCoords, (FloatBuffer) cached.getTexCoords());
+
+        model.load();
+        assertEquals(model.getIndexType(), cached.getIndexType());
+        assertEquals(model.getLodCount(), cached.getLodCount());
+        for (int level = 0; level < model.getLodCount(); level++) {
+            assertEquals(model.getLodIndexOffset(level), cached.getLodIndexOffset(level));
+            assertEquals(model.getLodIndexCount(level), cached.getLodIndexCount(level));
+            assertEquals(model.getLodError(level), cached.getLodError(level), 0.0f);
+        }
+        final int[] indices = model.concatenateLods();
+        for (int i = 0; i < indices.length; i++) {
+            assertEquals(indices[i], cached.getIndex(i));
+        }
+    }
+
+    @Test
+    public void loadParsesOnceThenReadsOnlyTheCache() throws Exception {
+        final byte[] data = Assets.read("cube3.obj");
+        final long key = MeshCache.key(data.length, PACKAGE_TIME);
+        final MeshCache cache = new MeshCache(new File(folder.getRoot(), "meshes"));
+        final Model parsed = cache.load("cube3.obj", key, new ByteArrayInputStream(data), false);
+        assertNotNull(parsed.vertices);
+
+        final InputStream unreadable = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("A cache hit must not read the asset.");
+            }
+        };
+        final Model cached = cache.load("cube3.obj", key, unreadable, false);
+        assertNull(cached.vertices);
+        assertFloats(parsed.vertices, (FloatBuffer) cached.getVertices());
+    }
+
+    @Test
+    public void otherVersionMisses() throws Exception {
+        final byte[] data = Assets.read("cube3.obj");
+        final long key = MeshCache.key(data.length, PACKAGE_TIME);
+        final MeshCache cache = new MeshCache(folder.getRoot());
+        cache.write("cube3.obj", key, OBJ_Loader.loadModel(new ByteArrayInputStream(data)));
+
+        assertNull(cache.read("cube3.obj", MeshCache.key(data.length + 1, PACKAGE_TIME)));
+        assertNull(cache.read("cube3.obj", MeshCache.key(data.length, PACKAGE_TIME + 1)));
+        assertNull(cache.read("cube.obj", key));
+
+        // A new version of the asset replaces the old entry.
+        final long updated = MeshCache.key(data.length, PACKAGE_TIME + 1);
+        cache.write("cube3.obj", updated, OBJ_Loader.loadModel(new ByteArrayInputStream(data)));
+        assertNull(cache.read("cube3.obj", key));
+        assertEquals(1, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void replacingAnEntryKeepsAssetsNamedAfterIt() throws Exception {
+        final byte[] data = Assets.read("cube3.obj");
+        final long key = MeshCache.key(data.length, PACKAGE_TIME);
+        final MeshCache cache = new MeshCache(folder.getRoot());
+        cache.write("cube3.obj-old.obj", key, OBJ_Loader.loadModel(new ByteArrayInputStream(data)));
+        cache.write("cube3.obj-1.obj", key, OBJ_Loader.loadModel(new ByteArrayInputStream(data)));
+        cache.write("cube3.obj", key, OBJ_Loader.loadModel(new ByteArrayInputStream(data)));
+
+        cache.write("cube3.obj", key + 1, OBJ_Loader.loadModel(new ByteArrayInputStream(data)));
+        assertNotNull(cache.read("cube3.obj-old.obj", key));
+        assertNotNull(cache.read("cube3.obj-1.obj", key));
+        assertNull(cache.read("cube3.obj", key));
+        assertEquals(3, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void otherFormatVersionMisses() throws Exception {
+        final File file = writeCube();
+        final RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.seek(4);
+            output.write(new byte[] { (byte) (MeshCache.VERSION - 1), 0, 0, 0 });
+        } finally {
+            output.close();
+        }
+        assertNull(new MeshCache(folder.getRoot()).read("cube3.obj", cubeKey()));
+    }
+
+    @Test
+    public void truncatedEntryMisses() throws Exception {
+        final File file = writeCube();
+        final RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.setLength(output.length() / 2);
+        } finally {
+            output.close();
+        }
+        assertNull(new MeshCache(folder.getRoot()).read("cube3.obj", cubeKey()));
+    }
+
+    private static long cubeKey() throws IOException {
+        return MeshCache.key(Assets.read("cube3.obj").length, PACKAGE_TIME);
+    }
+
+    private File writeCube() throws Exception {
+        final byte[] data = Assets.read("cube3.obj");
+        final MeshCache cache = new MeshCache(folder.getRoot());
+        cache.write("cube3.obj", cubeKey(), OBJ_Loader.loadModel(new ByteArrayInputStream(data)));
+        final File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private static void assertFloats(float[] expected, FloatBuffer actual) {
+        assertEquals(expected.length, actual.capacity());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(Float.floatToIntBits(expected[i]), Float.floatToIntBits(actual.get(i)));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package lutec.tec.hologram.obj;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/** Reordering must keep every triangle, facing the same way, and must not make the vertex cache worse. */
+public class MeshOptimizerTest {
+
+    @Test
+    public void keepsTheTrianglesAndLowersAcmr() throws Exception {
+        for (String name : new String[] { "banana.obj", "teapot.obj", "cube3.obj", "test.obj" }) {
+            final MeshBuilder builder = new MeshBuilder();
+            OBJ_Loader.parse(new ObjTokenizer(new ByteArrayInputStream(Assets.read(name))), builder);
+            final Model model = builder.build(new Model());
+            MeshSimplifier.buildLods(model);
+            final int vertexCount = model.vertices.length / 3;
+
+            final int[] original = model.indices.clone();
+            final int[][] originalLods = new int[model.lodIndices.length][];
+            for (int level = 0; level < originalLods.length; level++) {
+                originalLods[level] = model.lodIndices[level].clone();
+            }
+
+            final MeshOptimizer.Stats stats = MeshOptimizer.optimize(model);
+            assertNotNull(name, stats);
+            assertSame(name, original, model.indices);
+            for (int level = 0; level < originalLods.length; level++) {
+                assertSame(name + " level " + (level + 1), originalLods[level], model.lodIndices[level]);
+            }
+
+            final float before = MeshOptimizer.acmr(original, vertexCount, MeshOptimizer.FIFO_CACHE_SIZE);
+            final float after = MeshOptimizer.acmr(model.indices, vertexCount, MeshOptimizer.FIFO_CACHE_SIZE);
+            assertEquals(name, before, stats.acmrBefore, 0.0f);
+            assertEquals(name, after, stats.acmrAfter, 0.0f);
+            assertTrue(name + ": ACMR " + before + " -> " + after, after <= before);
+        }
+    }
+
+    @Test
+    public void acmrOfKnownOrders() {
+        // Two triangles sharing an edge: 4 vertices for 2 triangles.
+        assertEquals(2.0f, MeshOptimizer.acmr(new int[] { 0, 1, 2, 2, 1, 3 }, 4, 16), 0.0f);
+        // The same triangle again costs nothing.
+        assertEquals(1.5f, MeshOptimizer.acmr(new int[] { 0, 1, 2, 0, 1, 2 }, 3, 16), 0.0f);
+        // Nothing cached: every corner is transformed.
+        assertEquals(3.0f, MeshOptimizer.acmr(new int[] { 0, 1, 2, 3, 4, 5, 0, 1, 2 }, 6, 3), 0.0f);
+    }
+
+    /** Both arrays hold the same triangles, each with the same winding, in any order. */
+    private static void assertSame(String message, int[] expected, int[] actual) {
+        assertEquals(message, expected.length, actual.length);
+        assertArrayEquals(message, canonicalTriangles(expected), canonicalTriangles(actual));
+    }
+
+    /** Triangles rotated to start at their smallest index, then sorted, as one long per triangle. */
+    private static long[] canonicalTriangles(int[] indices) {
+        final long[] triangles = new long[indices.length / 3];
+        for (int t = 0; t < triangles.length; t++) {
+            int a = indices[t * 3];
+            int b = indices[t * 3 + 1];
+            int c = indices[t * 3 + 2];
+            while (a > b || a > c) {
+                final int first = a;
+                a = b;
+                b = c;
+                c = first;
+            }
+            triangles[t] = ((long) a << 42) | ((long) b << 21) | c;
+        }
+        Arrays.sort(triangles);
+        return triangles;
+    }
+}
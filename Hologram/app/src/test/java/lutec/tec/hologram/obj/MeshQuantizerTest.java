@@ -0,0 +1,88 @@
+package lutec.tec.hologram.obj;
+
+import android.opengl.GLES20;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/** Packed vertices must decode to the model's attributes within the quantizer's budgets. */
+public class MeshQuantizerTest {
+
+    private static final String[] MODELS = { "banana.obj", "teapot.obj", "cube3.obj" };
+
+    /** Decodes every packed vertex as the quantized vertex shader does. */
+    @Test
+    public void quantizedVerticesStayWithinTheErrorBudget() throws Exception {
+        for (String name : MODELS) {
+            final Model model = Assets.loadModel(name);
+            final MeshQuantizer quantizer = new MeshQuantizer();
+            final Quantization quantization = quantizer.quantize(model);
+            assertNotNull(name, quantization);
+
+            final VertexLayout layout = model.getVertexLayout();
+            final ByteBuffer buffer = model.getInterleavedBuffer();
+            assertTrue(name, layout.isInterleaved());
+            assertEquals(name, 16, layout.getStride());
+
+            float longestSide = 0.0f;
+            for (int axis = 0; axis < 3; axis++) {
+                longestSide = Math.max(longestSide, model.getBoundsMax()[axis] - model.getBoundsMin()[axis]);
+            }
+            final float[] matrix = quantization.positionMatrix;
+            final float[] transform = quantization.texCoordTransform;
+            final float[] decoded = new float[3];
+            double worstNormal = 0.0;
+
+            for (int i = 0; i < model.getNumObjectVertex(); i++) {
+                final int vertex = i * layout.getStride();
+                for (int axis = 0; axis < 3; axis++) {
+                    final float stored = read(buffer, vertex + layout.getOffset(VertexLayout.POSITION), axis,
+                            layout.getType(VertexLayout.POSITION));
+                    final float position = stored * matrix[axis * 5] + matrix[12 + axis];
+                    assertEquals(name, model.vertices[i * 3 + axis], position,
+                            quantizer.positionTolerance * longestSide + 1e-6f);
+                }
+                for (int axis = 0; axis < 2; axis++) {
+                    final float stored = read(buffer, vertex + layout.getOffset(VertexLayout.TEXCOORD), axis,
+                            layout.getType(VertexLayout.TEXCOORD));
+                    final float texCoord = stored * transform[axis] + transform[2 + axis];
+                    assertEquals(name, model.texCoords[i * 2 + axis], texCoord, quantizer.texCoordTolerance + 1e-6f);
+                }
+
+                final int normal = vertex + layout.getOffset(VertexLayout.NORMAL);
+                final int type = layout.getType(VertexLayout.NORMAL);
+                MeshQuantizer.decodeOctahedral(read(buffer, normal, 0, type) * quantization.normalDequant[3],
+                        read(buffer, normal, 1, type) * quantization.normalDequant[3], decoded);
+                final float x = model.normals[i * 3];
+                final float y = model.normals[i * 3 + 1];
+                final float z = model.normals[i * 3 + 2];
+                final double length = Math.sqrt(x * x + y * y + z * z);
+                if (length > 0.0) {
+                    final double cos = (x * decoded[0] + y * decoded[1] + z * decoded[2]) / length;
+                    worstNormal = Math.max(worstNormal, Math.toDegrees(Math.acos(Math.min(1.0, cos))));
+                }
+            }
+            assertTrue(name + ": " + worstNormal + " degrees", worstNormal <= quantizer.normalToleranceDegrees);
+            assertEquals(name, quantization.normalErrorDegrees, worstNormal, 1e-3);
+        }
+    }
+
+    /** Component {@code index} of an attribute at {@code offset}, in its stored type. */
+    private static float read(ByteBuffer buffer, int offset, int index, int type) {
+        switch (type) {
+            case GLES20.GL_BYTE:
+                return buffer.get(offset + index);
+            case GLES20.GL_SHORT:
+                return buffer.getShort(offset + index * 2);
+            case GLES20.GL_UNSIGNED_SHORT:
+                return buffer.getShort(offset + index * 2) & 0xFFFF;
+            default:
+                return buffer.getFloat(offset + index * 4);
+        }
+    }
+}
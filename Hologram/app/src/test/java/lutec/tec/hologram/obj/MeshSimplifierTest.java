@@ -0,0 +1,104 @@
+package lutec.tec.hologram.obj;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Every level of detail must be a valid, smaller mesh over the same vertices. */
+public class MeshSimplifierTest {
+
+    @Test
+    public void levelsIndexValidVerticesAndShrink() throws Exception {
+        for (String name : new String[] { "banana.obj", "teapot.obj", "cube3.obj", "test.obj" }) {
+            final MeshBuilder builder = new MeshBuilder();
+            OBJ_Loader.parse(new ObjTokenizer(new ByteArrayInputStream(Assets.read(name))), builder);
+            final Model model = builder.build(new Model());
+            MeshSimplifier.buildLods(model);
+
+            final int vertexCount = model.vertices.length / 3;
+            assertTrue(name, model.lodIndices.length <= MeshSimplifier.MAX_LEVELS);
+            assertEquals(name, model.lodIndices.length, model.lodErrors.length);
+
+            int previousLength = model.indices.length;
+            float previousError = 0.0f;
+            for (int level = 0; level < model.lodIndices.length; level++) {
+                final String message = name + " level " + (level + 1);
+                final int[] indices = model.lodIndices[level];
+                assertEquals(message, 0, indices.length % 3);
+                assertTrue(message + ": " + indices.length + " indices after " + previousLength,
+                        indices.length > 0 && indices.length < previousLength);
+                for (int t = 0; t < indices.length; t += 3) {
+                    for (int k = 0; k < 3; k++) {
+                        assertTrue(message, indices[t + k] >= 0 && indices[t + k] < vertexCount);
+                    }
+                    assertNotEquals(message, indices[t], indices[t + 1]);
+                    assertNotEquals(message, indices[t + 1], indices[t + 2]);
+                    assertNotEquals(message, indices[t], indices[t + 2]);
+                }
+
+                final float error = model.lodErrors[level];
+                assertTrue(message + ": error " + error, error >= previousError && !Float.isNaN(error));
+                previousLength = indices.length;
+                previousError = error;
+            }
+        }
+    }
+
+    @Test
+    public void largeMeshesGetLevels() throws Exception {
+        assertTrue(Assets.loadModel("banana.obj").lodIndices.length > 0);
+        assertTrue(Assets.loadModel("teapot.obj").lodIndices.length > 0);
+    }
+
+    @Test
+    public void seamsDoNotStopTheBanana() throws Exception {
+        // Most of the banana's vertices lie on a UV seam.
+        final Model model = Assets.loadModel("banana.obj");
+        assertEquals(MeshSimplifier.MAX_LEVELS, model.lodIndices.length);
+        final int last = model.lodIndices[model.lodIndices.length - 1].length;
+        assertTrue(last + " indices", last <= model.indices.length >> MeshSimplifier.MAX_LEVELS);
+    }
+
+    @Test
+    public void levelsKeepSeamsClosed() throws Exception {
+        for (String name : new String[] { "banana.obj", "teapot.obj" }) {
+            final Model model = Assets.loadModel(name);
+            final int open = openEdges(model.indices, model.vertices);
+            for (int level = 0; level < model.lodIndices.length; level++) {
+                assertTrue(name + " level " + (level + 1),
+                        openEdges(model.lodIndices[level], model.vertices) <= open);
+            }
+        }
+    }
+
+    /** Edges, compared by position, that no other triangle uses the other way round. */
+    private static int openEdges(int[] indices, float[] positions) {
+        final Map<String, Integer> edges = new HashMap<>();
+        for (int t = 0; t < indices.length; t += 3) {
+            for (int k = 0; k < 3; k++) {
+                final String edge = position(positions, indices[t + k]) + position(positions, indices[t + (k + 1) % 3]);
+                final Integer uses = edges.get(edge);
+                edges.put(edge, uses == null ? 1 : uses + 1);
+            }
+        }
+        int open = 0;
+        for (int t = 0; t < indices.length; t += 3) {
+            for (int k = 0; k < 3; k++) {
+                if (!edges.containsKey(position(positions, indices[t + (k + 1) % 3]) + position(positions, indices[t + k]))) {
+                    open++;
+                }
+            }
+        }
+        return open;
+    }
+
+    private static String position(float[] positions, int vertex) {
+        return "(" + positions[vertex * 3] + "," + positions[vertex * 3 + 1] + "," + positions[vertex * 3 + 2] + ")";
+    }
+}
@@ -0,0 +1,127 @@
+package lutec.tec.hologram.obj;
+
+import android.opengl.GLES20;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/** Meshes too large for short indices must still draw the same triangles once expanded. */
+public class ModelTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void indexTypeFollowsTheVertexCount() {
+        assertEquals(GLES20.GL_UNSIGNED_SHORT, Model.indexTypeFor(Model.MAX_SHORT_INDEXED_VERTICES));
+        assertEquals(GLES20.GL_UNSIGNED_INT, Model.indexTypeFor(Model.MAX_SHORT_INDEXED_VERTICES + 1));
+
+        final Model small = strip(Model.MAX_SHORT_INDEXED_VERTICES);
+        assertFalse(small.needsIntIndices());
+        small.load();
+        assertEquals(GLES20.GL_UNSIGNED_SHORT, small.getIndexType());
+
+        final Model large = strip(Model.MAX_SHORT_INDEXED_VERTICES + 2);
+        assertTrue(large.needsIntIndices());
+        large.load();
+        assertTrue(large.needsIntIndices());
+        assertEquals(GLES20.GL_UNSIGNED_INT, large.getIndexType());
+    }
+
+    @Test
+    public void expandedModelDrawsTheSameCorners() throws Exception {
+        final Model large = strip(Model.MAX_SHORT_INDEXED_VERTICES + 2);
+        large.lodIndices = new int[][] { { 0, 1, 2, 2, 1, 3 } };
+        large.lodErrors = new float[] { 0.5f };
+        assertExpandsToSameCorners(large);
+
+        assertExpandsToSameCorners(Assets.loadModel("teapot.obj"));
+
+        // Cached models have buffers and no arrays; they expand just the same.
+        final Model model = strip(Model.MAX_SHORT_INDEXED_VERTICES + 2);
+        final MeshCache cache = new MeshCache(folder.getRoot());
+        cache.write("strip.obj", 1L, model);
+        final Model cached = cache.read("strip.obj", 1L);
+        assertNotNull(cached);
+        assertEquals(GLES20.GL_UNSIGNED_INT, cached.getIndexType());
+        assertExpandsToSameCorners(cached);
+    }
+
+    /** Expands {@code model} and checks each level covers the vertices its indices pointed at. */
+    private static void assertExpandsToSameCorners(Model model) {
+        model.load();
+        final FloatBuffer positions = (FloatBuffer) model.getVertices();
+        final FloatBuffer texCoords = (FloatBuffer) model.getTexCoords();
+        final int levels = model.getLodCount();
+        final int[] firsts = new int[levels];
+        final int[] counts = new int[levels];
+        int total = 0;
+        for (int level = 0; level < levels; level++) {
+            firsts[level] = model.getLodFirst(level);
+            counts[level] = model.getLodIndexCount(level);
+            total += counts[level];
+        }
+        final float[] expected = new float[total * 5];
+        for (int i = 0; i < total; i++) {
+            final int vertex = model.getIndex(i);
+            for (int axis = 0; axis < 3; axis++) {
+                expected[i * 5 + axis] = positions.get(vertex * 3 + axis);
+            }
+            expected[i * 5 + 3] = texCoords.get(vertex * 2);
+            expected[i * 5 + 4] = texCoords.get(vertex * 2 + 1);
+        }
+        final float radius = model.getBoundingRadius();
+
+        model.expandIndices();
+        model.load();
+        assertFalse(model.isIndexed());
+        assertEquals(Model.NOT_INDEXED, model.getIndexType());
+        assertEquals(total, model.getNumObjectVertex());
+        assertEquals(levels, model.getLodCount());
+        assertEquals(radius, model.getBoundingRadius(), 0.0f);
+
+        final FloatBuffer expandedPositions = (FloatBuffer) model.getVertices();
+        final FloatBuffer expandedTexCoords = (FloatBuffer) model.getTexCoords();
+        for (int level = 0; level < levels; level++) {
+            assertEquals(firsts[level], model.getLodFirst(level));
+            assertEquals(counts[level], model.getLodIndexCount(level));
+        }
+        for (int i = 0; i < total; i++) {
+            assertEquals(i, model.getIndex(i));
+            for (int axis = 0; axis < 3; axis++) {
+                assertEquals(expected[i * 5 + axis], expandedPositions.get(i * 3 + axis), 0.0f);
+            }
+            assertEquals(expected[i * 5 + 3], expandedTexCoords.get(i * 2), 0.0f);
+            assertEquals(expected[i * 5 + 4], expandedTexCoords.get(i * 2 + 1), 0.0f);
+        }
+    }
+
+    /** A strip of {@code vertexCount} vertices along x, two triangles per step, each vertex distinct. */
+    private static Model strip(int vertexCount) {
+        final Model model = new Model();
+        model.vertices = new float[vertexCount * 3];
+        model.normals = new float[vertexCount * 3];
+        model.texCoords = new float[vertexCount * 2];
+        for (int i = 0; i < vertexCount; i++) {
+            model.vertices[i * 3] = i / 2;
+            model.vertices[i * 3 + 1] = i % 2;
+            model.normals[i * 3 + 2] = 1.0f;
+            model.texCoords[i * 2] = (float) i / vertexCount;
+        }
+        model.indices = new int[(vertexCount - 2) * 3];
+        for (int i = 0; i + 2 < vertexCount; i++) {
+            model.indices[i * 3] = i;
+            model.indices[i * 3 + 1] = i + 1;
+            model.indices[i * 3 + 2] = i + 2;
+        }
+        return model;
+    }
+}
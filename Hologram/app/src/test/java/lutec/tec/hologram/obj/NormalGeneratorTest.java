@@ -0,0 +1,90 @@
+package lutec.tec.hologram.obj;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Normals generated for the banana, with its own vn records dropped, must
+ * match the ones its exporter wrote. Those are smooth everywhere, so they
+ * only differ from ours where the crease angle keeps an edge hard.
+ */
+public class NormalGeneratorTest {
+
+    @Test
+    public void smoothNormalsMatchTheAuthoredOnes() throws Exception {
+        final double[] angles = generatedAngles(180.0f);
+        assertTrue("worst " + angles[angles.length - 1] + " degrees", angles[angles.length - 1] < 3.0);
+        assertTrue("mean " + mean(angles) + " degrees", mean(angles) < 0.2);
+    }
+
+    @Test
+    public void creasesOnlyChangeAFewCorners() throws Exception {
+        final double[] angles = generatedAngles(NormalGenerator.DEFAULT_CREASE_ANGLE);
+        assertTrue("95th percentile " + angles[angles.length * 95 / 100] + " degrees",
+                angles[angles.length * 95 / 100] < 1.0);
+        assertTrue("mean " + mean(angles) + " degrees", mean(angles) < 1.5);
+    }
+
+    @Test
+    public void cornersWithNormalsAreLeftAlone() throws Exception {
+        final MeshBuilder builder = parseBanana();
+        final int[] corners = Arrays.copyOf(builder.corners, builder.cornerCount * ObjTokenizer.CORNER_SIZE);
+        final int normalCount = builder.normalCount;
+        NormalGenerator.generate(builder, NormalGenerator.DEFAULT_CREASE_ANGLE);
+        assertEquals(normalCount, builder.normalCount);
+        assertTrue(Arrays.equals(corners, Arrays.copyOf(builder.corners, corners.length)));
+    }
+
+    /** Angle between every corner's authored and generated normal, sorted, in degrees. */
+    private static double[] generatedAngles(float creaseAngle) throws Exception {
+        final MeshBuilder builder = parseBanana();
+        final int cornerCount = builder.cornerCount;
+        final float[] authored = new float[cornerCount * 3];
+        for (int c = 0; c < cornerCount; c++) {
+            final int normal = builder.corners[c * ObjTokenizer.CORNER_SIZE + 2];
+            System.arraycopy(builder.normals, normal * 3, authored, c * 3, 3);
+            builder.corners[c * ObjTokenizer.CORNER_SIZE + 2] = MeshBuilder.MISSING;
+        }
+
+        NormalGenerator.generate(builder, creaseAngle);
+
+        final double[] angles = new double[cornerCount];
+        for (int c = 0; c < cornerCount; c++) {
+            final int normal = builder.corners[c * ObjTokenizer.CORNER_SIZE + 2];
+            assertTrue(normal != MeshBuilder.MISSING);
+            double dot = 0.0, authoredLength = 0.0, generatedLength = 0.0;
+            for (int axis = 0; axis < 3; axis++) {
+                final float a = authored[c * 3 + axis];
+                final float g = builder.normals[normal * 3 + axis];
+                dot += a * g;
+                authoredLength += a * a;
+                generatedLength += g * g;
+            }
+            assertEquals(1.0, generatedLength, 1e-4);
+            final double cos = dot / Math.sqrt(authoredLength * generatedLength);
+            angles[c] = Math.toDegrees(Math.acos(Math.max(-1.0, Math.min(1.0, cos))));
+        }
+        Arrays.sort(angles);
+        return angles;
+    }
+
+    private static MeshBuilder parseBanana() throws Exception {
+        final MeshBuilder builder = new MeshBuilder();
+        OBJ_Loader.parse(new ObjTokenizer(new ByteArrayInputStream(Assets.read("banana.obj"))), builder);
+        assertTrue(builder.normalCount > 0);
+        return builder;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0.0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+}
@@ -0,0 +1,58 @@
+package lutec.tec.hologram.obj;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/** Both loaders must index large meshes correctly and report broken ones instead of returning part of them. */
+public class ObjLoaderTest {
+
+    @Test
+    public void indicesPastTheShortRangeStayValid() throws Exception {
+        // A strip of 40000 vertices without normals, so they are generated;
+        // every other triangle is flipped to keep them all facing the same way.
+        final int vertexCount = 40000;
+        final StringBuilder obj = new StringBuilder();
+        for (int i = 0; i < vertexCount; i++) {
+            obj.append("v ").append(i / 2).append(' ').append(i % 2).append(" 0\n");
+        }
+        for (int i = 1; i + 2 <= vertexCount; i++) {
+            obj.append("f ").append(i % 2 == 1 ? i : i + 1).append(' ').append(i % 2 == 1 ? i + 1 : i)
+                    .append(' ').append(i + 2).append('\n');
+        }
+
+        final Model model = ObjLoader.loadModel(new ByteArrayInputStream(obj.toString().getBytes("US-ASCII")));
+        assertEquals((vertexCount - 2) * 3, model.indices.length);
+        for (int i = 0; i < model.indices.length; i++) {
+            final int triangle = i / 3;
+            final int corner = i % 3;
+            final int expected = corner == 2 ? triangle + 2 : triangle + (corner == triangle % 2 ? 0 : 1);
+            assertEquals(expected, model.indices[i]);
+        }
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            assertEquals("normal of " + vertex, 1.0f, Math.abs(model.normals[vertex * 3 + 2]), 1e-6f);
+        }
+    }
+
+    @Test
+    public void brokenReferencesAreReported() throws Exception {
+        final String obj = "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\nf 1 2 4\n";
+        try {
+            ObjLoader.loadModel(new ByteArrayInputStream(obj.getBytes("US-ASCII")));
+            fail("ObjLoader accepted a face with a missing vertex");
+        } catch (IOException expected) {
+        }
+        for (boolean parallel : new boolean[] { false, true }) {
+            try {
+                OBJ_Loader.loadModel(new ByteArrayInputStream(obj.getBytes("US-ASCII")), parallel);
+                fail("OBJ_Loader accepted a face with a missing vertex");
+            } catch (IOException expected) {
+            } catch (RuntimeException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package lutec.tec.hologram.obj;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The tokenizer must read every number exactly as {@link Float#parseFloat}
+ * does, whichever of its paths the number takes.
+ */
+public class ObjTokenizerTest {
+
+    private static final String[] EDGE_CASES = {
+            "0", "-0", "0.0", "-0.0", "+1", "1", "-1", "0.1", "0.5", "1.5", "-2.75", "100", "1e0", "1E3",
+            "1e-22", "1e22", "9e22", "1e-23", "1e23", "3.4028235e38", "3.4028236e38", "1.4e-45", "1e-46",
+            "1.17549435e-38", "16777216", "16777217", "16777218", "16777219", "33554435", "0.000001",
+            "123456789012345678", "1234567890123456789", "0.1234567890123456789", "9007199254740993",
+            "1.00000005960464477539062", "1.000000059604644775390625", "1.0000000596046448",
+            "7.038531e-26", "2.2250738585072014e-308", "1e39", "-1e39", "NaN", "Infinity", "-Infinity",
+            "0x1p3", "1.5f", "1.", ".5", "-.5", "00000001.2500000000", "4.35", "0.3",
+    };
+
+    @Test
+    public void edgeCasesMatchFloatParseFloat() throws Exception {
+        for (String number : EDGE_CASES) {
+            assertParses(number);
+        }
+    }
+
+    @Test
+    public void randomDecimalsMatchFloatParseFloat() throws Exception {
+        final Random random = new Random(1);
+        for (int i = 0; i < 50000; i++) {
+            final StringBuilder number = new StringBuilder();
+            if (random.nextBoolean()) {
+                number.append('-');
+            }
+            final int digits = 1 + random.nextInt(19);
+            final int point = random.nextInt(digits + 1);
+            for (int d = 0; d < digits; d++) {
+                if (d == point) {
+                    number.append('.');
+                }
+                number.append((char) ('0' + random.nextInt(10)));
+            }
+            if (random.nextInt(4) == 0) {
+                number.append('e').append(random.nextInt(51) - 25);
+            }
+            assertParses(number.toString());
+        }
+    }
+
+    @Test
+    public void randomFloatsRoundTrip() throws Exception {
+        final Random random = new Random(2);
+        for (int i = 0; i < 50000; i++) {
+            final float value = Float.intBitsToFloat(random.nextInt());
+            if (!Float.isNaN(value) && !Float.isInfinite(value)) {
+                assertParses(Float.toString(value));
+                assertParses(new BigDecimal(value).round(new MathContext(9)).toPlainString());
+            }
+        }
+    }
+
+    /**
+     * Decimals of up to 17 digits just around the midpoint of two floats,
+     * where converting through a double can round twice the wrong way.
+     */
+    @Test
+    public void decimalsNearFloatMidpointsMatchFloatParseFloat() throws Exception {
+        final Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            final float value = Float.intBitsToFloat(random.nextInt(0x7F000000));
+            if (value == 0.0f || (Float.floatToRawIntBits(value) & 0x7F800000) == 0) {
+                continue;
+            }
+            final BigDecimal midpoint = new BigDecimal(value).add(new BigDecimal(Math.nextUp(value)))
+                    .divide(BigDecimal.valueOf(2));
+            for (int precision = 9; precision <= 17; precision++) {
+                final BigDecimal rounded = midpoint.round(new MathContext(precision));
+                final BigDecimal step = BigDecimal.ONE.movePointLeft(rounded.scale());
+                for (int offset = -2; offset <= 2; offset++) {
+                    assertParses(rounded.add(step.multiply(BigDecimal.valueOf(offset))).toString());
+                }
+            }
+        }
+    }
+
+    /** Records of several kinds, split across refills of the streaming buffer. */
+    @Test
+    public void readsRecordsAcrossBufferRefills() throws Exception {
+        final StringBuilder file = new StringBuilder("# comment\n");
+        final List<String> numbers = new ArrayList<String>();
+        final Random random = new Random(4);
+        for (int i = 0; i < 20000; i++) {
+            final String number = Float.toString((random.nextFloat() - 0.5f) * 100.0f);
+            numbers.add(number);
+            file.append(i % 3 == 0 ? "v " : i % 3 == 1 ? "vn " : "vt ").append(number).append(' ')
+                    .append(number).append("\r\n");
+        }
+        file.append("f 1/2/3 -1//2 4/5\n");
+
+        final ObjTokenizer tokenizer = new ObjTokenizer(new ByteArrayInputStream(file.toString().getBytes("US-ASCII")));
+        for (int i = 0; i < numbers.size(); i++) {
+            final int record = tokenizer.next();
+            assertEquals(i % 3 == 0 ? ObjTokenizer.RECORD_VERTEX : i % 3 == 1 ? ObjTokenizer.RECORD_NORMAL
+                    : ObjTokenizer.RECORD_TEXTURE, record);
+            assertEquals(Float.parseFloat(numbers.get(i)), tokenizer.values[1], 0.0f);
+        }
+        assertEquals(ObjTokenizer.RECORD_FACE, tokenizer.next());
+        assertEquals(3, tokenizer.cornerCount);
+        final int[] expected = { 1, 2, 3, -1, 0, 2, 4, 5, 0 };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], tokenizer.corners[i]);
+        }
+        assertEquals(ObjTokenizer.RECORD_END, tokenizer.next());
+    }
+
+    private static void assertParses(String number) throws Exception {
+        final float expected = Float.parseFloat(number);
+        final ObjTokenizer tokenizer = new ObjTokenizer(new ByteArrayInputStream(
+                ("v " + number + " " + number + "\n").getBytes("US-ASCII")));
+        assertEquals(ObjTokenizer.RECORD_VERTEX, tokenizer.next());
+        assertEquals(number, 2, tokenizer.valueCount);
+        assertEquals(number, Float.floatToIntBits(expected), Float.floatToIntBits(tokenizer.values[0]));
+        assertEquals(number, Float.floatToIntBits(expected), Float.floatToIntBits(tokenizer.values[1]));
+    }
+}
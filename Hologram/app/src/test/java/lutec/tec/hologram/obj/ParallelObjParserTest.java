@@ -0,0 +1,88 @@
+package lutec.tec.hologram.obj;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Parsing in parallel must give exactly what parsing sequentially gives. */
+public class ParallelObjParserTest {
+
+    private static final int[] RANGE_COUNTS = { 1, 2, 3, 7, 16, 61 };
+
+    @Test
+    public void bundledModelsParseIdenticallyInAnySplit() throws Exception {
+        for (String name : new String[] { "banana.obj", "teapot.obj", "cube3.obj", "test.obj" }) {
+            assertSplitsMatch(name, Assets.read(name));
+        }
+    }
+
+    /** Relative indices, quads and records of every kind interleaved, so ranges cut between them. */
+    @Test
+    public void relativeIndicesResolveAcrossRanges() throws Exception {
+        final Random random = new Random(5);
+        final StringBuilder file = new StringBuilder("# generated\no mesh\n");
+        int positions = 0;
+        for (int i = 0; i < 3000; i++) {
+            file.append("v ").append(random.nextFloat()).append(' ').append(random.nextFloat()).append(' ')
+                    .append(random.nextFloat()).append('\n');
+            file.append("vt ").append(random.nextFloat()).append(' ').append(random.nextFloat()).append('\n');
+            file.append("vn 0 0 1\n");
+            positions++;
+            if (positions >= 4 && random.nextBoolean()) {
+                file.append(random.nextBoolean() ? "f -1/-1/-1 -2/-2/-2 -3/-3/-3 -4/-4/-4\n"
+                        : "f " + positions + "/" + positions + " " + (positions - 1) + "/" + (positions - 1)
+                        + " " + (positions - 3) + "//" + positions + "\n");
+            }
+        }
+        assertSplitsMatch("generated", file.toString().getBytes("US-ASCII"));
+    }
+
+    @Test
+    public void parallelLoadGivesTheSameModel() throws Exception {
+        final byte[] data = Assets.read("banana.obj");
+        final Model sequential = OBJ_Loader.loadModel(new ByteArrayInputStream(data), false);
+        final Model parallel = OBJ_Loader.loadModel(new ByteArrayInputStream(data), true);
+        assertModelsEqual(sequential, parallel);
+    }
+
+    private static void assertSplitsMatch(String name, byte[] data) throws Exception {
+        final MeshBuilder sequential = new MeshBuilder();
+        OBJ_Loader.parse(new ObjTokenizer(new ByteArrayInputStream(data)), sequential);
+        assertTrue(name, sequential.getCornerCount() > 0);
+
+        for (int rangeCount : RANGE_COUNTS) {
+            final MeshBuilder parallel = ParallelObjParser.parse(data, data.length, rangeCount);
+            final String message = name + " in " + rangeCount + " ranges";
+            assertEquals(message, sequential.positionCount, parallel.positionCount);
+            assertEquals(message, sequential.textureCount, parallel.textureCount);
+            assertEquals(message, sequential.normalCount, parallel.normalCount);
+            assertEquals(message, sequential.cornerCount, parallel.cornerCount);
+            assertArrayEquals(message, Arrays.copyOf(sequential.positions, sequential.positionCount * 3),
+                    Arrays.copyOf(parallel.positions, parallel.positionCount * 3), 0.0f);
+            assertArrayEquals(message, Arrays.copyOf(sequential.textures, sequential.textureCount * 2),
+                    Arrays.copyOf(parallel.textures, parallel.textureCount * 2), 0.0f);
+            assertArrayEquals(message, Arrays.copyOf(sequential.normals, sequential.normalCount * 3),
+                    Arrays.copyOf(parallel.normals, parallel.normalCount * 3), 0.0f);
+            assertArrayEquals(message, Arrays.copyOf(sequential.corners, sequential.cornerCount * 3),
+                    Arrays.copyOf(parallel.corners, parallel.cornerCount * 3));
+        }
+    }
+
+    static void assertModelsEqual(Model expected, Model actual) {
+        assertTrue(Arrays.equals(expected.vertices, actual.vertices));
+        assertTrue(Arrays.equals(expected.normals, actual.normals));
+        assertTrue(Arrays.equals(expected.texCoords, actual.texCoords));
+        assertArrayEquals(expected.indices, actual.indices);
+        assertEquals(expected.lodIndices.length, actual.lodIndices.length);
+        for (int level = 0; level < expected.lodIndices.length; level++) {
+            assertArrayEquals(expected.lodIndices[level], actual.lodIndices[level]);
+        }
+        assertTrue(Arrays.equals(expected.lodErrors, actual.lodErrors));
+    }
+}
@@ -0,0 +1,40 @@
+package lutec.tec.hologram.obj;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+/** The interleaved vertex buffer must hold the model's own attributes. */
+public class VertexLayoutTest {
+
+    private static final String[] MODELS = { "banana.obj", "teapot.obj", "cube3.obj" };
+
+    @Test
+    public void interleavedBufferHoldsTheAttributeArrays() throws Exception {
+        for (String name : MODELS) {
+            final Model model = Assets.loadModel(name);
+            model.setVertexLayout(VertexLayout.INTERLEAVED);
+            model.load();
+
+            final VertexLayout layout = model.getVertexLayout();
+            final ByteBuffer buffer = model.getInterleavedBuffer();
+            assertEquals(32, layout.getStride());
+            assertEquals(model.getNumObjectVertex() * 32, buffer.capacity());
+            for (int i = 0; i < model.getNumObjectVertex(); i++) {
+                final int vertex = i * layout.getStride();
+                for (int axis = 0; axis < 3; axis++) {
+                    assertEquals(name, model.vertices[i * 3 + axis],
+                            buffer.getFloat(vertex + layout.getOffset(VertexLayout.POSITION) + axis * 4), 0.0f);
+                    assertEquals(name, model.normals[i * 3 + axis],
+                            buffer.getFloat(vertex + layout.getOffset(VertexLayout.NORMAL) + axis * 4), 0.0f);
+                }
+                for (int axis = 0; axis < 2; axis++) {
+                    assertEquals(name, model.texCoords[i * 2 + axis],
+                            buffer.getFloat(vertex + layout.getOffset(VertexLayout.TEXCOORD) + axis * 4), 0.0f);
+                }
+            }
+        }
+    }
+}
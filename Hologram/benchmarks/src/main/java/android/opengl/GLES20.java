@@ -0,0 +1,46 @@
+package android.opengl;
+
+import java.nio.Buffer;
+
+/**
+ * JVM stand-in for the GL bindings, with only what the benchmarked classes
+ * refer to. There is no context here: the constants are GL's own, and the
+ * calls fail if a benchmark ever reaches an upload.
+ */
+public class GLES20
+{
+    public static final int GL_BYTE = 0x1400;
+    public static final int GL_SHORT = 0x1402;
+    public static final int GL_UNSIGNED_SHORT = 0x1403;
+    public static final int GL_INT = 0x1404;
+    public static final int GL_UNSIGNED_INT = 0x1405;
+    public static final int GL_FLOAT = 0x1406;
+    public static final int GL_ARRAY_BUFFER = 0x8892;
+    public static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+    public static final int GL_STATIC_DRAW = 0x88E4;
+
+    public static void glGenBuffers(int n, int[] buffers, int offset)
+    {
+        throw noContext();
+    }
+
+    public static void glDeleteBuffers(int n, int[] buffers, int offset)
+    {
+        throw noContext();
+    }
+
+    public static void glBindBuffer(int target, int buffer)
+    {
+        throw noContext();
+    }
+
+    public static void glBufferData(int target, int size, Buffer data, int usage)
+    {
+        throw noContext();
+    }
+
+    private static UnsupportedOperationException noContext()
+    {
+        return new UnsupportedOperationException("No GL context in benchmarks.");
+    }
+}
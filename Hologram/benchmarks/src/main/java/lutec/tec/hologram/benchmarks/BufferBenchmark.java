@@ -0,0 +1,110 @@
+package lutec.tec.hologram.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.Buffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import lutec.tec.hologram.obj.MeshObject;
+
+/**
+ * Copying attribute arrays of {@code length} elements into the direct
+ * buffers that are uploaded to GL.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class BufferBenchmark
+{
+    @Param({ "1024", "65536", "1048576" })
+    public int length;
+
+    private float[] floats;
+    private double[] doubles;
+    private short[] shorts;
+    private final Buffers buffers = new Buffers();
+
+    @Setup
+    public void fillArrays()
+    {
+        final Random random = new Random(42);
+        floats = new float[length];
+        doubles = new double[length];
+        shorts = new short[length];
+        for (int i = 0; i < length; i++)
+        {
+            floats[i] = random.nextFloat();
+            doubles[i] = random.nextDouble();
+            shorts[i] = (short) random.nextInt();
+        }
+    }
+
+    @Benchmark
+    public Buffer fillFloatBuffer()
+    {
+        return buffers.fill(floats);
+    }
+
+    @Benchmark
+    public Buffer fillDoubleBuffer()
+    {
+        return buffers.fill(doubles);
+    }
+
+    @Benchmark
+    public Buffer fillShortBuffer()
+    {
+        return buffers.fill(shorts);
+    }
+
+    /** Opens up the buffer helpers every mesh inherits. */
+    private static final class Buffers extends MeshObject
+    {
+        Buffer fill(float[] array)
+        {
+            return fillBuffer(array);
+        }
+
+        Buffer fill(double[] array)
+        {
+            return fillBuffer(array);
+        }
+
+        Buffer fill(short[] array)
+        {
+            return fillBuffer(array);
+        }
+
+        @Override
+        public Buffer getBuffer(BUFFER_TYPE bufferType)
+        {
+            return null;
+        }
+
+        @Override
+        public int getNumObjectVertex()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getNumObjectIndex()
+        {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package lutec.tec.hologram.benchmarks;
+
+import android.opengl.Matrix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import lutec.tec.hologram.OPENGL.Frustum;
+import lutec.tec.hologram.OPENGL.HologramLayout;
+import lutec.tec.hologram.OPENGL.Scene;
+import lutec.tec.hologram.OPENGL.SceneNode;
+import lutec.tec.hologram.obj.Assets;
+import lutec.tec.hologram.obj.Model;
+import lutec.tec.hologram.obj.OBJ_Loader;
+import lutec.tec.hologram.obj.Quantization;
+
+/**
+ * The CPU side of one frame of MyGLRenderer, without GL: moving every node,
+ * updating the scene, the per-frame matrices of prepareFrame, and for each
+ * view of the default layout the culling, level of detail selection and
+ * per-node matrices of renderScene. The steps follow the renderer; keep
+ * them in step when it changes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FramePipelineBenchmark
+{
+    /** Teapots in the scene, on a grid in front of the camera. */
+    @Param({ "1", "64", "1024" })
+    public int nodes;
+
+    private static final float LOD_PIXEL_ERROR = 1.0f;
+
+    private final Scene scene = new Scene();
+    private SceneNode[] movingNodes;
+    private final HologramLayout layout = HologramLayout.quadrants();
+    private final Frustum frustum = new Frustum();
+
+    private final float[] viewMatrix = new float[16];
+    private final float[] orbitMatrix = new float[16];
+    private final float[] viewMatrices = new float[HologramLayout.MAX_FACES * 16];
+    private final float[] rotation = new float[16];
+    private final float[] localMatrix = new float[16];
+    private final float[] viewProjectionMatrices = new float[HologramLayout.MAX_FACES * 16];
+    private final float[] lightPosInEyeSpace = new float[HologramLayout.MAX_FACES * 4];
+    private final float[] lightPosInWorldSpace = { 0.0f, 0.0f, -1.0f, 1.0f };
+    private final float[] mvMatrix = new float[16];
+    private final float[] mvpMatrix = new float[16];
+    private final float[] temporaryVector = new float[4];
+    private float[] drawMatrices;
+    private float[] drawCenters;
+    private float[] drawScales;
+
+    @Setup
+    public void buildScene() throws IOException
+    {
+        final Model teapot = OBJ_Loader.loadModel(new ByteArrayInputStream(Assets.read("teapot.obj")));
+        teapot.load();
+        final int side = (int) Math.ceil(Math.sqrt(nodes));
+        movingNodes = new SceneNode[nodes];
+        for (int i = 0; i < nodes; i++)
+        {
+            final SceneNode node = new SceneNode(teapot);
+            Matrix.setIdentityM(localMatrix, 0);
+            Matrix.translateM(localMatrix, 0, (i % side - side * 0.5f) * 0.5f, (i / side - side * 0.5f) * 0.5f,
+                    -3.5f - side * 0.25f);
+            Matrix.scaleM(localMatrix, 0, 0.1f, 0.1f, 0.1f);
+            node.setLocalMatrix(localMatrix);
+            scene.getRoot().addChild(node);
+            movingNodes[i] = node;
+        }
+        scene.update();
+
+        layout.layout(1080, 1920);
+        Matrix.setLookAtM(viewMatrix, 0, 0.0f, 0.0f, -0.5f, 0.0f, 0.0f, -5.0f, 0.0f, 1.0f, 0.0f);
+        drawMatrices = new float[nodes * 16];
+        drawCenters = new float[nodes * 4];
+        drawScales = new float[nodes];
+    }
+
+    /** Returns a sum over the matrices drawn, so none of the work can be dropped. */
+    @Benchmark
+    public float frame()
+    {
+        // Input: every node turns a little, as when dragging the model.
+        Matrix.setRotateM(rotation, 0, 1.0f, 0.0f, 1.0f, 0.0f);
+        for (SceneNode node : movingNodes)
+        {
+            Matrix.multiplyMM(localMatrix, 0, node.getLocalMatrix(), 0, rotation, 0);
+            node.setLocalMatrix(localMatrix);
+        }
+        scene.update();
+
+        // prepareFrame: per view, then per drawable.
+        final int viewCount = layout.getFaceCount();
+        final float[] projections = layout.getProjections();
+        final float[] cameraYaws = layout.getCameraYaws();
+        for (int view = 0; view < viewCount; view++)
+        {
+            orbitView(cameraYaws[view], view * 16);
+            Matrix.multiplyMM(viewProjectionMatrices, view * 16, projections, view * 16, viewMatrices, view * 16);
+            Matrix.multiplyMV(lightPosInEyeSpace, view * 4, viewMatrices, view * 16, lightPosInWorldSpace, 0);
+        }
+        final int drawableCount = scene.getDrawableCount();
+        for (int i = 0; i < drawableCount; i++)
+        {
+            final SceneNode node = scene.getDrawable(i);
+            final Model model = node.getModel();
+            final float[] worldMatrix = node.getWorldMatrix();
+            final Quantization quantization = model.getQuantization();
+            if (quantization != null)
+            {
+                Matrix.multiplyMM(drawMatrices, i * 16, worldMatrix, 0, quantization.positionMatrix, 0);
+            }
+            else
+            {
+                System.arraycopy(worldMatrix, 0, drawMatrices, i * 16, 16);
+            }
+            System.arraycopy(model.getBoundingCenter(), 0, temporaryVector, 0, 3);
+            temporaryVector[3] = 1.0f;
+            Matrix.multiplyMV(drawCenters, i * 4, worldMatrix, 0, temporaryVector, 0);
+            drawScales[i] = Matrix.length(worldMatrix[0], worldMatrix[1], worldMatrix[2]);
+        }
+
+        // renderScene, once per view.
+        final int[] viewports = layout.getViewports();
+        final float[] focalScales = layout.getFocalScales();
+        float sum = 0.0f;
+        for (int view = 0; view < viewCount; view++)
+        {
+            frustum.set(viewProjectionMatrices, view * 16);
+            final int visibleCount = scene.cull(frustum);
+            for (int i = 0; i < visibleCount; i++)
+            {
+                final SceneNode node = scene.getVisible(i);
+                final int drawable = node.getDrawableIndex();
+                final int lod = selectLod(node.getModel(), drawable, view, focalScales[view],
+                        viewports[view * 4 + 3]);
+                Matrix.multiplyMM(mvMatrix, 0, viewMatrices, view * 16, drawMatrices, drawable * 16);
+                Matrix.multiplyMM(mvpMatrix, 0, viewProjectionMatrices, view * 16, drawMatrices, drawable * 16);
+                sum += mvMatrix[14] + mvpMatrix[14] + lod;
+            }
+        }
+        return sum;
+    }
+
+    /** As MyGLRenderer.orbitView, into the view's slot of viewMatrices. */
+    private void orbitView(float yaw, int offset)
+    {
+        if (yaw == 0.0f)
+        {
+            System.arraycopy(viewMatrix, 0, viewMatrices, offset, 16);
+            return;
+        }
+        Matrix.setIdentityM(orbitMatrix, 0);
+        Matrix.translateM(orbitMatrix, 0, 0.0f, 0.0f, -3.5f);
+        Matrix.rotateM(orbitMatrix, 0, yaw, 0.0f, 1.0f, 0.0f);
+        Matrix.translateM(orbitMatrix, 0, 0.0f, 0.0f, 3.5f);
+        Matrix.multiplyMM(viewMatrices, offset, viewMatrix, 0, orbitMatrix, 0);
+    }
+
+    /** As MyGLRenderer.selectLod, seen through {@code view}'s camera. */
+    private int selectLod(Model model, int drawable, int view, float focalScale, int viewportHeight)
+    {
+        final float[] v = viewMatrices;
+        final int o = view * 16;
+        final float distance = -(v[o + 2] * drawCenters[drawable * 4] + v[o + 6] * drawCenters[drawable * 4 + 1]
+                + v[o + 10] * drawCenters[drawable * 4 + 2] + v[o + 14]);
+        if (distance <= 0.0f)
+        {
+            return 0;
+        }
+        final float pixelsPerUnit = focalScale * viewportHeight * 0.5f * drawScales[drawable] / distance;
+        return model.selectLod(pixelsPerUnit, LOD_PIXEL_ERROR);
+    }
+}
@@ -0,0 +1,64 @@
+package lutec.tec.hologram.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import lutec.tec.hologram.obj.Assets;
+import lutec.tec.hologram.obj.Model;
+import lutec.tec.hologram.obj.OBJ_Loader;
+import lutec.tec.hologram.obj.ObjLoader;
+
+/**
+ * Parsing the bundled OBJ files into models, with the loader the app uses,
+ * in both its modes, and with the older ObjLoader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LoaderBenchmark
+{
+    @Param({ "cube3", "teapot", "banana" })
+    public String asset;
+
+    private byte[] data;
+
+    @Setup
+    public void readAsset() throws IOException
+    {
+        data = Assets.read(asset + ".obj");
+    }
+
+    @Benchmark
+    public Model objLoader() throws IOException
+    {
+        return OBJ_Loader.loadModel(new ByteArrayInputStream(data));
+    }
+
+    @Benchmark
+    public Model objLoaderParallel() throws IOException
+    {
+        return OBJ_Loader.loadModel(new ByteArrayInputStream(data), true);
+    }
+
+    @Benchmark
+    public Model legacyObjLoader() throws IOException
+    {
+        return ObjLoader.loadModel(new ByteArrayInputStream(data));
+    }
+}
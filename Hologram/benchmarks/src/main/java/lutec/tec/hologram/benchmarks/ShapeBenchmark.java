@@ -0,0 +1,37 @@
+package lutec.tec.hologram.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import lutec.tec.hologram.OPENGL.ShapeBuilder;
+
+/** Building the cube data the placeholder model is made from. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ShapeBenchmark
+{
+    private static final float[] P1 = { -0.5f, 0.5f, 0.5f };
+    private static final float[] P2 = { 0.5f, 0.5f, 0.5f };
+    private static final float[] P3 = { -0.5f, -0.5f, 0.5f };
+    private static final float[] P4 = { 0.5f, -0.5f, 0.5f };
+    private static final float[] P5 = { -0.5f, 0.5f, -0.5f };
+    private static final float[] P6 = { 0.5f, 0.5f, -0.5f };
+    private static final float[] P7 = { -0.5f, -0.5f, -0.5f };
+    private static final float[] P8 = { 0.5f, -0.5f, -0.5f };
+
+    @Benchmark
+    public float[] generateCubeData()
+    {
+        return ShapeBuilder.generateCubeData(P1, P2, P3, P4, P5, P6, P7, P8, 3);
+    }
+}
@@ -0,0 +1,154 @@
+package lutec.tec.hologram.benchmarks;
+
+import android.opengl.GLES20;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import lutec.tec.hologram.obj.Assets;
+import lutec.tec.hologram.obj.MeshQuantizer;
+import lutec.tec.hologram.obj.Model;
+import lutec.tec.hologram.obj.OBJ_Loader;
+import lutec.tec.hologram.obj.VertexLayout;
+
+/**
+ * The vertex layouts a Model can be uploaded in: one float buffer per
+ * attribute, the floats interleaved in one buffer, and the quantized
+ * interleaved vertex AssetLoader uses by default.
+ *
+ * {@link #build()} is the CPU work of preparing the buffers after a parse.
+ * {@link #fetch()} reads every attribute of the vertices in index order, the
+ * way vertex fetch walks them, which is where the layouts differ in memory
+ * traffic. The GPU side can only be measured on a device: start the app with
+ * the vertexFormat extra (see MainActivity) and compare the profiler's GPU
+ * times.
+ *
+ * The separate and interleaved cases need nothing but Model and VertexLayout,
+ * so the interleaving can be measured by itself, without quantization:
+ * <pre>
+ *   ./gradlew :benchmarks:jmh "-Pbenchmarks=VertexLayout -p layout=separate,interleaved"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class VertexLayoutBenchmark
+{
+    @Param({ "teapot.obj", "banana.obj" })
+    public String model;
+
+    @Param({ "separate", "interleaved", "quantized" })
+    public String layout;
+
+    private Model parsed;
+    private Model built;
+    private final MeshQuantizer quantizer = new MeshQuantizer();
+
+    @Setup
+    public void parse() throws IOException
+    {
+        parsed = OBJ_Loader.loadModel(new ByteArrayInputStream(Assets.read(model)));
+        built = build();
+        if (built.getQuantization() != null && built.getVertexLayout().getStride() != 16)
+        {
+            // fetch() reads the fully packed 16-byte vertex.
+            throw new IllegalStateException(model + " keeps some attributes in floats when quantized.");
+        }
+    }
+
+    /** A new Model over the parsed arrays, with its buffers filled in {@link #layout}. */
+    @Benchmark
+    public Model build()
+    {
+        final Model model = new Model();
+        model.vertices = parsed.vertices;
+        model.normals = parsed.normals;
+        model.texCoords = parsed.texCoords;
+        model.indices = parsed.indices;
+        model.lodIndices = parsed.lodIndices;
+        model.lodErrors = parsed.lodErrors;
+        if (layout.equals("separate"))
+        {
+            model.load();
+        }
+        else if (layout.equals("interleaved"))
+        {
+            model.setVertexLayout(VertexLayout.INTERLEAVED);
+            model.load();
+        }
+        else if (quantizer.quantize(model) == null)
+        {
+            throw new IllegalStateException(this.model + " cannot be quantized.");
+        }
+        return model;
+    }
+
+    /** Returns a sum over every attribute read, so none of the reads can be dropped. */
+    @Benchmark
+    public float fetch()
+    {
+        final int[] indices = parsed.indices;
+        final VertexLayout vertexLayout = built.getVertexLayout();
+        float sum = 0.0f;
+        if (!vertexLayout.isInterleaved())
+        {
+            final FloatBuffer positions = (FloatBuffer) built.getVertices();
+            final FloatBuffer normals = (FloatBuffer) built.getNormals();
+            final FloatBuffer texCoords = (FloatBuffer) built.getTexCoords();
+            for (int index : indices)
+            {
+                sum += positions.get(index * 3) + positions.get(index * 3 + 1) + positions.get(index * 3 + 2)
+                        + normals.get(index * 3) + normals.get(index * 3 + 1) + normals.get(index * 3 + 2)
+                        + texCoords.get(index * 2) + texCoords.get(index * 2 + 1);
+            }
+            return sum;
+        }
+
+        final ByteBuffer vertices = built.getInterleavedBuffer();
+        final int stride = vertexLayout.getStride();
+        if (built.getQuantization() == null)
+        {
+            for (int index : indices)
+            {
+                final int vertex = index * stride;
+                for (int i = 0; i < 8; i++)
+                {
+                    sum += vertices.getFloat(vertex + i * 4);
+                }
+            }
+            return sum;
+        }
+
+        // Quantized vertices read as the attribute types the layout chose.
+        final int normal = vertexLayout.getOffset(VertexLayout.NORMAL);
+        final int texCoord = vertexLayout.getOffset(VertexLayout.TEXCOORD);
+        final boolean byteNormals = vertexLayout.getType(VertexLayout.NORMAL) == GLES20.GL_BYTE;
+        for (int index : indices)
+        {
+            final int vertex = index * stride;
+            sum += vertices.getShort(vertex) + vertices.getShort(vertex + 2) + vertices.getShort(vertex + 4);
+            sum += byteNormals ? vertices.get(vertex + normal) + vertices.get(vertex + normal + 1)
+                    : vertices.getShort(vertex + normal) + vertices.getShort(vertex + normal + 2);
+            sum += (vertices.getShort(vertex + texCoord) & 0xFFFF) + (vertices.getShort(vertex + texCoord + 2) & 0xFFFF);
+        }
+        return sum;
+    }
+}
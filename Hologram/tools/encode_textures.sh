@@ -0,0 +1,19 @@
+#!/bin/sh
+# Encodes drawables into the compressed variants the app loads instead of
+# decoding the PNG: ETC1 for any ES 2.0 GPU, ETC2 for ES 3.0 and ASTC where
+# the GPU has it. Each is a KTX file with its full mip chain, written to
+# app/src/main/assets/textures. Needs PVRTexToolCLI (PowerVR SDK) on the PATH.
+#
+#   tools/encode_textures.sh lutec wood
+set -e
+
+cd "$(dirname "$0")/.."
+SOURCE=app/src/main/res/drawable
+TARGET=app/src/main/assets/textures
+mkdir -p "$TARGET"
+
+for name in "$@"; do
+    PVRTexToolCLI -i "$SOURCE/$name.png" -o "$TARGET/$name.etc1.ktx" -m -f ETC1,UBN,lRGB -q etcslow
+    PVRTexToolCLI -i "$SOURCE/$name.png" -o "$TARGET/$name.etc2.ktx" -m -f ETC2_RGB,UBN,lRGB -q etcslow
+    PVRTexToolCLI -i "$SOURCE/$name.png" -o "$TARGET/$name.astc.ktx" -m -f ASTC_6x6,UBN,lRGB -q astcthorough
+done